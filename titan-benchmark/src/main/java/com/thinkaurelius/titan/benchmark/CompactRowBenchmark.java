@@ -0,0 +1,148 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.core.TitanEdge;
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanLabel;
+import com.thinkaurelius.titan.core.TitanTransaction;
+import com.thinkaurelius.titan.core.TitanVertex;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.graphdb.database.EdgeSerializer;
+import com.thinkaurelius.titan.graphdb.database.StandardTitanGraph;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.internal.InternalRelation;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import com.tinkerpop.blueprints.Direction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the standard edge store format, which stores each relation in its own column, with the compact format
+ * of {@link CompactRowKeyColumnValueStore}, which groups the relations of a row into blocks. The row of a vertex
+ * with {@link #ROW_SIZE} edges is written in both formats to in-memory stores. The number of stored bytes per edge
+ * of both formats is printed on setup. The benchmarks measure reading the entire row, a single relation and
+ * overwriting a single relation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompactRowBenchmark {
+
+    public static final int ROW_SIZE = 10000;
+
+    @Param({"16", "64", "256"})
+    public int blockSize;
+
+    private StoreTransaction txh;
+    private KeyColumnValueStore standard;
+    private KeyColumnValueStore compact;
+
+    private StaticBuffer key;
+    private KeySliceQuery rowQuery;
+    private KeySliceQuery columnQuery;
+    private List<Entry> update;
+
+    @Setup(Level.Trial)
+    public void setup() throws StorageException {
+        StandardTitanGraph graph = InMemoryGraphs.open();
+        EdgeSerializer serializer = graph.getEdgeSerializer();
+        TitanKey name = graph.makeKey("name").dataType(String.class).single().make();
+        TitanKey time = graph.makeKey("time").dataType(Long.class).single().make();
+        TitanLabel knows = graph.makeLabel("knows").sortKey(time).signature(name).make();
+        graph.commit();
+
+        TitanTransaction init = graph.newTransaction();
+        TitanVertex v = init.addVertex();
+        for (int i = 0; i < ROW_SIZE; i++) {
+            TitanEdge edge = v.addEdge(knows, init.addVertex());
+            edge.setProperty(time, 1383829200000l + i);
+            edge.setProperty(name, "edge" + i);
+        }
+        init.commit();
+
+        StandardTitanTx tx = (StandardTitanTx) graph.buildTransaction().readOnly().start();
+        List<Entry> row = new ArrayList<Entry>(ROW_SIZE);
+        for (TitanEdge edge : tx.getVertex(v.getID()).getTitanEdges(Direction.OUT, knows)) {
+            Entry entry = serializer.writeRelation((InternalRelation) edge, 0, tx);
+            row.add(StaticBufferEntry.of(entry.getColumn(), entry.getValue()));
+        }
+        tx.rollback();
+        graph.shutdown();
+
+        InMemoryStoreManager manager = new InMemoryStoreManager();
+        txh = manager.beginTransaction(new StoreTxConfig());
+        StaticBuffer[] bounds = IDHandler.getBounds(RelationType.RELATION);
+        standard = manager.openDatabase("standard");
+        KeyColumnValueStore blocks = manager.openDatabase("compact");
+        compact = new CompactRowKeyColumnValueStore(blocks, bounds[1], blockSize);
+        key = IDHandler.getKey(v.getID());
+        standard.mutate(key, row, KeyColumnValueStore.NO_DELETIONS, txh);
+        compact.mutate(key, row, KeyColumnValueStore.NO_DELETIONS, txh);
+
+        rowQuery = new KeySliceQuery(key, bounds[0], bounds[1]);
+        StaticBuffer column = row.get(ROW_SIZE / 2).getColumn();
+        columnQuery = new KeySliceQuery(key, column, SliceQuery.pointRange(column));
+        update = new ArrayList<Entry>(1);
+        update.add(row.get(ROW_SIZE / 2));
+
+        KeySliceQuery physicalQuery = new KeySliceQuery(key, bounds[0], SliceQuery.pointRange(bounds[1]));
+        System.out.printf("%nBytes per edge with block size %d: standard %.2f, compact %.2f%n", blockSize,
+                getBytes(standard.getSlice(physicalQuery, txh)) / (double) ROW_SIZE,
+                getBytes(blocks.getSlice(physicalQuery, txh)) / (double) ROW_SIZE);
+    }
+
+    private static long getBytes(List<Entry> entries) {
+        long bytes = 0;
+        for (Entry entry : entries) bytes += entry.getColumn().length() + entry.getValue().length();
+        return bytes;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws StorageException {
+        txh.rollback();
+        standard.close();
+        compact.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_SIZE)
+    public List<Entry> readStandardRow() throws StorageException {
+        return standard.getSlice(rowQuery, txh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_SIZE)
+    public List<Entry> readCompactRow() throws StorageException {
+        return compact.getSlice(rowQuery, txh);
+    }
+
+    @Benchmark
+    public List<Entry> readStandardColumn() throws StorageException {
+        return standard.getSlice(columnQuery, txh);
+    }
+
+    @Benchmark
+    public List<Entry> readCompactColumn() throws StorageException {
+        return compact.getSlice(columnQuery, txh);
+    }
+
+    @Benchmark
+    public void updateStandardColumn() throws StorageException {
+        standard.mutate(key, update, KeyColumnValueStore.NO_DELETIONS, txh);
+    }
+
+    @Benchmark
+    public void updateCompactColumn() throws StorageException {
+        compact.mutate(key, update, KeyColumnValueStore.NO_DELETIONS, txh);
+    }
+
+}
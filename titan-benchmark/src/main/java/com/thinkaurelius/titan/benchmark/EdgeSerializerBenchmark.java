@@ -0,0 +1,149 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.core.TitanEdge;
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanLabel;
+import com.thinkaurelius.titan.core.TitanTransaction;
+import com.thinkaurelius.titan.core.TitanVertex;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.graphdb.database.EdgeSerializer;
+import com.thinkaurelius.titan.graphdb.database.RelationSlice;
+import com.thinkaurelius.titan.graphdb.database.StandardTitanGraph;
+import com.thinkaurelius.titan.graphdb.internal.InternalRelation;
+import com.thinkaurelius.titan.graphdb.relations.RelationCache;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import com.tinkerpop.blueprints.Direction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of edges and properties into edge store entries and their deserialization, both
+ * for individual entries and for slices of entries.
+ *
+ * @see EdgeSerializer#writeRelation(InternalRelation, int, StandardTitanTx)
+ * @see EdgeSerializer#readRelation(long, Entry, boolean, StandardTitanTx)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EdgeSerializerBenchmark {
+
+    public static final int SLICE_SIZE = 1000;
+
+    private StandardTitanGraph graph;
+    private StandardTitanTx tx;
+    private EdgeSerializer serializer;
+
+    private long vertexId;
+    private InternalRelation edge;
+    private InternalRelation property;
+    private Entry edgeEntry;
+    private Entry propertyEntry;
+    private List<Entry> slice;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = InMemoryGraphs.open();
+        serializer = graph.getEdgeSerializer();
+        TitanKey name = graph.makeKey("name").dataType(String.class).single().make();
+        TitanKey time = graph.makeKey("time").dataType(Long.class).single().make();
+        TitanLabel knows = graph.makeLabel("knows").sortKey(time).signature(name).make();
+        graph.commit();
+
+        TitanTransaction init = graph.newTransaction();
+        TitanVertex v1 = init.addVertex(), v2 = init.addVertex();
+        v1.setProperty(name, "vertex");
+        TitanEdge e = v1.addEdge(knows, v2);
+        e.setProperty(time, 1383829200000l);
+        e.setProperty(name, "edge");
+        for (int i = 1; i < SLICE_SIZE; i++) {
+            TitanEdge other = v1.addEdge(knows, init.addVertex());
+            other.setProperty(time, 1383829200000l + i);
+            other.setProperty(name, "edge" + i);
+        }
+        init.commit();
+        vertexId = v1.getID();
+
+        tx = (StandardTitanTx) graph.buildTransaction().readOnly().start();
+        TitanVertex v = tx.getVertex(vertexId);
+        edge = (InternalRelation) v.getTitanEdges(Direction.OUT, knows).iterator().next();
+        property = (InternalRelation) v.getProperties(name).iterator().next();
+        edgeEntry = serializer.writeRelation(edge, 0, tx);
+        propertyEntry = serializer.writeRelation(property, 0, tx);
+        slice = new ArrayList<Entry>(SLICE_SIZE);
+        for (TitanEdge other : v.getTitanEdges(Direction.OUT, knows)) {
+            slice.add(serializer.writeRelation((InternalRelation) other, 0, tx));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tx.rollback();
+        graph.shutdown();
+    }
+
+    @Benchmark
+    public Entry writeEdge() {
+        return serializer.writeRelation(edge, 0, tx);
+    }
+
+    @Benchmark
+    public Entry writeProperty() {
+        return serializer.writeRelation(property, 0, tx);
+    }
+
+    @Benchmark
+    public RelationCache readEdge() {
+        return serializer.readRelation(vertexId, copy(edgeEntry), false, tx);
+    }
+
+    @Benchmark
+    public RelationCache readEdgeHeader() {
+        return serializer.readRelation(vertexId, copy(edgeEntry), true, tx);
+    }
+
+    @Benchmark
+    public RelationCache readProperty() {
+        return serializer.readRelation(vertexId, copy(propertyEntry), false, tx);
+    }
+
+    /**
+     * Decodes the other vertex ids of a slice of edges entry by entry
+     */
+    @Benchmark
+    @OperationsPerInvocation(SLICE_SIZE)
+    public long readSliceHeaders() {
+        long sum = 0;
+        for (Entry entry : slice) sum += serializer.readRelation(vertexId, copy(entry), true, tx).getOtherVertexId();
+        return sum;
+    }
+
+    /**
+     * Decodes the other vertex ids of a slice of edges in batch
+     */
+    @Benchmark
+    @OperationsPerInvocation(SLICE_SIZE)
+    public long readSliceBatch() {
+        List<Entry> entries = new ArrayList<Entry>(slice.size());
+        for (Entry entry : slice) entries.add(copy(entry));
+        RelationSlice relations = serializer.readRelations(vertexId, entries, tx);
+        long sum = 0;
+        for (int i = 0; i < relations.size(); i++) sum += relations.getOtherVertexId(i);
+        return sum;
+    }
+
+    /**
+     * Entries cache the deserialized relation, hence every read operates on a fresh entry
+     */
+    private static Entry copy(Entry entry) {
+        return new StaticBufferEntry(entry.getColumn(), entry.getValue());
+    }
+
+}
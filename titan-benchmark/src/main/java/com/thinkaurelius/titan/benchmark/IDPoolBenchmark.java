@@ -0,0 +1,113 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.diskstorage.IDAuthority;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import com.thinkaurelius.titan.graphdb.database.idassigner.IDBlockSizer;
+import com.thinkaurelius.titan.graphdb.database.idassigner.StandardIDPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures id allocation through {@link StandardIDPool#nextID()} from a single thread and from 2, 4, 8, 16 and as
+ * many threads as there are processors sharing the pool. Id blocks are handed out by an in-memory {@link IDAuthority}
+ * without delay so that the pool itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IDPoolBenchmark {
+
+    @Param({"1000", "100000"})
+    public int blockSize;
+
+    private StandardIDPool pool;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        pool = new StandardIDPool(new InMemoryIDAuthority(blockSize), 0, Long.MAX_VALUE, 2 * 60 * 1000, 0.3);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public long nextID() {
+        return pool.nextID();
+    }
+
+    /*
+     * Thread sweep over a shared pool. JMH fixes the number of threads per benchmark method, hence one method per
+     * thread count. Run with "-t" to measure any other count with nextID().
+     */
+
+    @Benchmark
+    @Threads(2)
+    public long nextIDThreads2() {
+        return pool.nextID();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIDThreads4() {
+        return pool.nextID();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIDThreads8() {
+        return pool.nextID();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long nextIDThreads16() {
+        return pool.nextID();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long nextIDThreadsMax() {
+        return pool.nextID();
+    }
+
+    private static class InMemoryIDAuthority implements IDAuthority {
+
+        private final AtomicLong next = new AtomicLong(1);
+        private final long blockSize;
+
+        private InMemoryIDAuthority(long blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public long[] getIDBlock(int partition) {
+            long start = next.getAndAdd(blockSize);
+            return new long[]{start, start + blockSize};
+        }
+
+        @Override
+        public StaticBuffer[] getLocalIDPartition() {
+            //All ids are local
+            return new StaticBuffer[]{new StaticArrayBuffer(new byte[]{0, 0, 0, 0}),
+                    new StaticArrayBuffer(new byte[]{-1, -1, -1, -1})};
+        }
+
+        @Override
+        public void setIDBlockSizer(IDBlockSizer sizer) {
+            //Block size is fixed
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
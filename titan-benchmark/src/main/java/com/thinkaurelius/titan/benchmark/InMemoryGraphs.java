@@ -0,0 +1,27 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.core.TitanFactory;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.graphdb.database.StandardTitanGraph;
+import org.apache.commons.configuration.BaseConfiguration;
+
+/**
+ * Opens the in-memory graphs the graph level benchmarks run against.
+ */
+public class InMemoryGraphs {
+
+    public static BaseConfiguration getConfiguration() {
+        BaseConfiguration config = new BaseConfiguration();
+        config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE).addProperty(GraphDatabaseConfiguration.STORAGE_BACKEND_KEY, "inmemory");
+        return config;
+    }
+
+    public static StandardTitanGraph open() {
+        return open(getConfiguration());
+    }
+
+    public static StandardTitanGraph open(BaseConfiguration config) {
+        return (StandardTitanGraph) TitanFactory.open(config);
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreTransaction;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreTxConfig;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryKeyColumnValueStore;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.WriteByteBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures slice queries against the {@link InMemoryKeyColumnValueStore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class InMemoryStoreBenchmark {
+
+    public static final int NUM_ROWS = 1000;
+    public static final int SLICE_LIMIT = 10;
+
+    @Param({"10", "1000"})
+    public int columns;
+
+    private InMemoryStoreManager manager;
+    private InMemoryKeyColumnValueStore store;
+    private StoreTransaction tx;
+
+    private StaticBuffer[] keys;
+    private SliceQuery fullSlice;
+    private SliceQuery limitedSlice;
+    private SliceQuery columnSlice;
+
+    @Setup(Level.Trial)
+    public void setup() throws StorageException {
+        manager = new InMemoryStoreManager();
+        store = (InMemoryKeyColumnValueStore) manager.openDatabase("benchmark");
+        tx = manager.beginTransaction(new StoreTxConfig());
+
+        keys = new StaticBuffer[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            keys[i] = new WriteByteBuffer(8).putLong(i).getStaticBuffer();
+            List<Entry> entries = new ArrayList<Entry>(columns);
+            for (int c = 0; c < columns; c++) {
+                entries.add(new StaticBufferEntry(getColumn(c), new WriteByteBuffer(8).putLong(i * c).getStaticBuffer()));
+            }
+            store.mutate(keys[i], entries, ImmutableList.<StaticBuffer>of(), tx);
+        }
+        fullSlice = new SliceQuery(getColumn(0), getColumn(columns));
+        limitedSlice = new SliceQuery(getColumn(columns / 2), getColumn(columns)).setLimit(SLICE_LIMIT);
+        columnSlice = new SliceQuery(getColumn(columns / 2), getColumn(columns / 2 + 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws StorageException {
+        tx.rollback();
+        manager.close();
+    }
+
+    private static StaticBuffer getColumn(int c) {
+        return new WriteByteBuffer(4).putInt(c).getStaticBuffer();
+    }
+
+    private StaticBuffer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(NUM_ROWS)];
+    }
+
+    @Benchmark
+    public List<Entry> fullRowSlice() throws StorageException {
+        return store.getSlice(new KeySliceQuery(randomKey(), fullSlice), tx);
+    }
+
+    @Benchmark
+    public List<Entry> limitedSlice() throws StorageException {
+        return store.getSlice(new KeySliceQuery(randomKey(), limitedSlice), tx);
+    }
+
+    @Benchmark
+    public List<Entry> singleColumn() throws StorageException {
+        return store.getSlice(new KeySliceQuery(randomKey(), columnSlice), tx);
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.core.attribute.Geoshape;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.graphdb.database.serialize.kryo.KryoSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures attribute round-trips through the {@link KryoSerializer} for the common attribute types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KryoSerializerBenchmark {
+
+    @Param({"long", "double", "string", "date", "geoshape", "longArray"})
+    public String type;
+
+    private KryoSerializer serializer;
+    private Object value;
+    private Class<?> valueClass;
+    private StaticBuffer serialized;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serializer = new KryoSerializer();
+        if (type.equals("long")) value = 1383829200000l;
+        else if (type.equals("double")) value = 3.14159265358979;
+        else if (type.equals("string")) value = "The quick brown fox jumps over the lazy dog";
+        else if (type.equals("date")) value = new Date(1383829200000l);
+        else if (type.equals("geoshape")) value = Geoshape.point(37.7749, -122.4194);
+        else if (type.equals("longArray")) {
+            long[] array = new long[32];
+            for (int i = 0; i < array.length; i++) array[i] = i * 1000003l;
+            value = array;
+        } else throw new IllegalArgumentException("Unknown type: " + type);
+        valueClass = value.getClass();
+        serialized = write();
+    }
+
+    @Benchmark
+    public StaticBuffer write() {
+        return serializer.getDataOutput(128, true).writeObjectNotNull(value).getStaticBuffer();
+    }
+
+    @Benchmark
+    public Object read() {
+        return serializer.readObjectNotNull(serialized.asReadBuffer(), valueClass);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return serializer.readObjectNotNull(write().asReadBuffer(), valueClass);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.indexing.IndexTransaction;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeyColumnValueStore;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreTransaction;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreTxConfig;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.WriteByteBuffer;
+import com.thinkaurelius.titan.graphdb.database.cache.ExpirationStoreCache;
+import com.thinkaurelius.titan.graphdb.database.cache.OffHeapStoreCache;
+import com.thinkaurelius.titan.graphdb.database.cache.StoreCache;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hit paths of the {@link ExpirationStoreCache} and the {@link OffHeapStoreCache} on top of an in-memory
+ * edge store. All rows are cached during setup so that every benchmarked query is answered from the cache.
+ * The off-heap cache does not derive sub-slices from cached slices, hence subset queries are cached individually
+ * after their first execution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StoreCacheBenchmark {
+
+    public static final int NUM_ROWS = 10000;
+    public static final int MULTI_QUERY_SIZE = 20;
+
+    @Param({"10", "100"})
+    public int columns;
+
+    @Param({"expiration", "offheap"})
+    public String cacheType;
+
+    private InMemoryStoreManager manager;
+    private BackendTransaction tx;
+    private StoreCache cache;
+
+    private StaticBuffer[] keys;
+    private SliceQuery rowSlice;
+    private SliceQuery subSlice;
+
+    @Setup(Level.Trial)
+    public void setup() throws StorageException {
+        manager = new InMemoryStoreManager();
+        KeyColumnValueStore edgeStore = manager.openDatabase("edgestore");
+        StoreTransaction storeTx = manager.beginTransaction(new StoreTxConfig());
+        tx = new BackendTransaction(storeTx, manager.getFeatures(), edgeStore,
+                manager.openDatabase("vertexindex"), manager.openDatabase("edgeindex"),
+                1, 0, ImmutableMap.<String, IndexTransaction>of(), null);
+
+        keys = new StaticBuffer[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            keys[i] = IDHandler.getKey(i + 1);
+            List<Entry> entries = new ArrayList<Entry>(columns);
+            for (int c = 0; c < columns; c++) {
+                entries.add(new StaticBufferEntry(getColumn(c), new WriteByteBuffer(8).putLong(i * c).getStaticBuffer()));
+            }
+            edgeStore.mutate(keys[i], entries, ImmutableList.<StaticBuffer>of(), storeTx);
+        }
+        rowSlice = new SliceQuery(getColumn(0), getColumn(columns));
+        subSlice = new SliceQuery(getColumn(columns / 4), getColumn(columns / 2));
+
+        if (cacheType.equals("offheap"))
+            cache = new OffHeapStoreCache(TimeUnit.HOURS.toMillis(1), 0, 256l * 1024 * 1024);
+        else
+            cache = new ExpirationStoreCache(TimeUnit.HOURS.toMillis(1), 0, 256l * 1024 * 1024);
+        for (StaticBuffer key : keys) cache.query(new KeySliceQuery(key, rowSlice), tx);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws StorageException {
+        cache.close();
+        tx.rollback();
+        manager.close();
+    }
+
+    private static StaticBuffer getColumn(int c) {
+        return new WriteByteBuffer(4).putInt(c).getStaticBuffer();
+    }
+
+    private StaticBuffer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(NUM_ROWS)];
+    }
+
+    @Benchmark
+    public List<Entry> exactHit() {
+        return cache.query(new KeySliceQuery(randomKey(), rowSlice), tx);
+    }
+
+    /**
+     * Queries a slice that is contained in a cached slice
+     */
+    @Benchmark
+    public List<Entry> subsetHit() {
+        return cache.query(new KeySliceQuery(randomKey(), subSlice), tx);
+    }
+
+    @Benchmark
+    public List<List<Entry>> multiQueryHit() {
+        List<StaticBuffer> batch = new ArrayList<StaticBuffer>(MULTI_QUERY_SIZE);
+        for (int i = 0; i < MULTI_QUERY_SIZE; i++) batch.add(randomKey());
+        return cache.multiQuery(batch, rowSlice, tx);
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.thinkaurelius.titan.diskstorage.ReadBuffer;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.WriteBuffer;
+import com.thinkaurelius.titan.diskstorage.util.WriteByteBuffer;
+import com.thinkaurelius.titan.graphdb.database.idhandling.VariableLong;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the variable length encoding of {@link #BATCH_SIZE} longs of the configured bit length
+ * with {@link VariableLong}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@OperationsPerInvocation(VariableLongBenchmark.BATCH_SIZE)
+public class VariableLongBenchmark {
+
+    public static final int BATCH_SIZE = 1024;
+
+    @Param({"7", "21", "42", "63"})
+    public int bits;
+
+    private long[] values;
+    private StaticBuffer positive;
+    private StaticBuffer signed;
+    private StaticBuffer backward;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        values = new long[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            values[i] = random.nextLong() & ((1l << bits) - 1);
+        }
+        positive = writePositive();
+        signed = writeSigned();
+        backward = writePositiveBackward();
+    }
+
+    private WriteBuffer newBuffer() {
+        return new WriteByteBuffer(BATCH_SIZE * 10);
+    }
+
+    @Benchmark
+    public StaticBuffer writePositive() {
+        WriteBuffer out = newBuffer();
+        for (int i = 0; i < BATCH_SIZE; i++) VariableLong.writePositive(out, values[i]);
+        return out.getStaticBuffer();
+    }
+
+    @Benchmark
+    public long readPositive() {
+        ReadBuffer in = positive.asReadBuffer();
+        long sum = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) sum += VariableLong.readPositive(in);
+        return sum;
+    }
+
+    @Benchmark
+    public StaticBuffer writeSigned() {
+        WriteBuffer out = newBuffer();
+        for (int i = 0; i < BATCH_SIZE; i++) VariableLong.write(out, (i & 1) == 0 ? values[i] : -values[i]);
+        return out.getStaticBuffer();
+    }
+
+    @Benchmark
+    public long readSigned() {
+        ReadBuffer in = signed.asReadBuffer();
+        long sum = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) sum += VariableLong.read(in);
+        return sum;
+    }
+
+    @Benchmark
+    public StaticBuffer writePositiveBackward() {
+        WriteBuffer out = newBuffer();
+        for (int i = 0; i < BATCH_SIZE; i++) VariableLong.writePositiveBackward(out, values[i]);
+        return out.getStaticBuffer();
+    }
+
+    @Benchmark
+    public long readPositiveBackward() {
+        ReadBuffer in = backward.asReadBuffer();
+        in.movePosition(backward.length() - 1);
+        long sum = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) sum += VariableLong.readPositiveBackward(in);
+        return sum;
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.thinkaurelius.titan.benchmark;
+
+import com.google.common.collect.Iterables;
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanLabel;
+import com.thinkaurelius.titan.core.TitanTransaction;
+import com.thinkaurelius.titan.core.TitanVertex;
+import com.thinkaurelius.titan.graphdb.database.StandardTitanGraph;
+import com.tinkerpop.blueprints.Direction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures vertex-centric queries on a vertex with many incident edges against the in-memory backend. Each
+ * query runs in a new transaction so that the relations are read from the storage backend rather than the
+ * transaction's cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VertexCentricQueryBenchmark {
+
+    public static final int MAX_STARS = 10;
+
+    @Param({"100", "10000"})
+    public int degree;
+
+    private StandardTitanGraph graph;
+    private long hubId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = InMemoryGraphs.open();
+        TitanKey name = graph.makeKey("name").dataType(String.class).single().make();
+        TitanKey stars = graph.makeKey("stars").dataType(Integer.class).single().make();
+        TitanLabel rated = graph.makeLabel("rated").sortKey(stars).make();
+        TitanLabel knows = graph.makeLabel("knows").make();
+        graph.commit();
+
+        Random random = new Random(42);
+        TitanTransaction tx = graph.newTransaction();
+        TitanVertex hub = tx.addVertex();
+        hub.setProperty(name, "hub");
+        for (int i = 0; i < degree; i++) {
+            TitanVertex other = tx.addVertex();
+            other.setProperty(name, "v" + i);
+            hub.addEdge(rated, other).setProperty(stars, random.nextInt(MAX_STARS));
+            if (i % 10 == 0) hub.addEdge(knows, other);
+        }
+        tx.commit();
+        hubId = hub.getID();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graph.shutdown();
+    }
+
+    private TitanTransaction newTx() {
+        return graph.buildTransaction().readOnly().start();
+    }
+
+    @Benchmark
+    public int allEdges() {
+        TitanTransaction tx = newTx();
+        try {
+            return Iterables.size(tx.getVertex(hubId).query().direction(Direction.OUT).titanEdges());
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Benchmark
+    public long labelCount() {
+        TitanTransaction tx = newTx();
+        try {
+            return tx.getVertex(hubId).query().labels("knows").direction(Direction.OUT).count();
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Benchmark
+    public int sortKeyInterval() {
+        TitanTransaction tx = newTx();
+        try {
+            return Iterables.size(tx.getVertex(hubId).query().labels("rated").direction(Direction.OUT)
+                    .interval("stars", 2, 4).titanEdges());
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Benchmark
+    public int sortKeyLimit() {
+        TitanTransaction tx = newTx();
+        try {
+            return Iterables.size(tx.getVertex(hubId).query().labels("rated").direction(Direction.OUT)
+                    .has("stars", MAX_STARS - 1).limit(10).titanEdges());
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Benchmark
+    public int adjacentVertexIds() {
+        TitanTransaction tx = newTx();
+        try {
+            return tx.getVertex(hubId).query().labels("rated").direction(Direction.OUT).vertexIds().size();
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Benchmark
+    public int properties() {
+        TitanTransaction tx = newTx();
+        try {
+            return Iterables.size(tx.getVertex(hubId).query().properties());
+        } finally {
+            tx.rollback();
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.thinkaurelius.titan.graphdb.berkeleyje;
+
+import com.thinkaurelius.titan.BerkeleyJeStorageSetup;
+import com.thinkaurelius.titan.graphdb.TitanGraphTest;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Runs the graph test suite against the compact edge store format with small blocks so that rows span many blocks
+ */
+public class BerkeleyJECompactGraphTest extends TitanGraphTest {
+
+    public BerkeleyJECompactGraphTest() {
+        super(getConfiguration());
+    }
+
+    private static Configuration getConfiguration() {
+        Configuration config = BerkeleyJeStorageSetup.getBerkeleyJEGraphConfiguration();
+        Configuration storage = config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE);
+        storage.addProperty(GraphDatabaseConfiguration.EDGESTORE_FORMAT_KEY, "compact");
+        storage.addProperty(GraphDatabaseConfiguration.EDGESTORE_BLOCK_SIZE_KEY, 4);
+        return config;
+    }
+
+}
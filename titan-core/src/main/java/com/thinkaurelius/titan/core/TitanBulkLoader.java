@@ -0,0 +1,81 @@
+package com.thinkaurelius.titan.core;
+
+/**
+ * Ingests large amounts of vertices, edges and properties into a {@link TitanGraph}.
+ * Use {@link TitanGraph#newBulkLoader()} to obtain a TitanBulkLoader.
+ * <p/>
+ * A TitanBulkLoader accumulates the added elements in memory and persists them in batches. When a batch is persisted,
+ * ids are assigned to all new elements of the batch at once and the serialized relations as well as index entries are
+ * sorted by key and written to the storage backend in large batch mutations.
+ * The size of the batches is configured via {@link com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration#STORAGE_BULK_LOAD_BATCH_KEY}.
+ * Batches are sorted whenever the storage backend supports batch mutations, independent of the configured buffer size.
+ * <p/>
+ * Like batch loading, bulk loading disables locking as well as uniqueness and existence checks and assumes that the
+ * loaded data is consistent. A TitanBulkLoader is not thread-safe.
+ * <p/>
+ * Vertices returned by this loader remain valid arguments across batches. In contrast, edges and properties are only
+ * valid until the batch they belong to has been persisted.
+ */
+public interface TitanBulkLoader {
+
+    /**
+     * Creates a new vertex. The id of the vertex is assigned when the current batch is persisted.
+     *
+     * @return
+     */
+    public TitanVertex addVertex();
+
+    /**
+     * Retrieves the previously persisted vertex with the given id.
+     * Note, that the existence of the vertex is not verified.
+     *
+     * @param id
+     * @return
+     */
+    public TitanVertex getVertex(long id);
+
+    /**
+     * Creates a new edge with the given label between the given vertices.
+     *
+     * @param outVertex
+     * @param inVertex
+     * @param label
+     * @return
+     */
+    public TitanEdge addEdge(TitanVertex outVertex, TitanVertex inVertex, String label);
+
+    /**
+     * Creates a new property for the given key and value on the given vertex.
+     *
+     * @param vertex
+     * @param key
+     * @param value
+     * @return
+     */
+    public TitanProperty addProperty(TitanVertex vertex, String key, Object value);
+
+    /**
+     * Persists the current batch.
+     */
+    public void flush();
+
+    /**
+     * Persists the current batch and closes this loader.
+     */
+    public void close();
+
+    /**
+     * Returns the number of vertices added through this loader.
+     *
+     * @return
+     */
+    public long getVertexCount();
+
+    /**
+     * Returns the number of relations (edges and properties) added through this loader.
+     *
+     * @return
+     */
+    public long getRelationCount();
+
+}
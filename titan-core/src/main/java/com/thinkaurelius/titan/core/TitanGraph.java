@@ -37,6 +37,15 @@ public interface TitanGraph extends Graph, KeyIndexableGraph, ThreadedTransactio
      */
     public TransactionBuilder buildTransaction();
 
+    /**
+     * Returns a new {@link TitanBulkLoader} to ingest large amounts of data into this graph.
+     * The loader persists the added elements in large, sorted batches and does not verify consistency.
+     *
+     * @return a new TitanBulkLoader
+     * @see TitanBulkLoader
+     */
+    public TitanBulkLoader newBulkLoader();
+
 
     /**
      * Closes the graph database.
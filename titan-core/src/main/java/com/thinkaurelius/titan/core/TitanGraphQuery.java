@@ -106,4 +106,13 @@ public interface TitanGraphQuery extends GraphQuery {
      */
     public TitanGraphQuery orderBy(TitanKey key, Order order);
 
+    /**
+     * Returns a human readable description of how the vertices matching this query are retrieved, i.e. which
+     * indexes are called in which order with their estimated number of results and which conditions are
+     * evaluated in memory. Does not execute the query.
+     *
+     * @return
+     */
+    public String explain();
+
 }
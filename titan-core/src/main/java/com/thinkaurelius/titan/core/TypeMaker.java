@@ -32,7 +32,20 @@ public interface TypeMaker {
         /**
          * Acquires a lock to ensure uniqueness consistency.
          */
-        LOCK
+        LOCK,
+        /**
+         * Does not acquire a lock but writes the uniqueness relations and verifies that no
+         * concurrent transaction wrote a conflicting one before the transaction commits.
+         * In case of a conflict, the commit fails and the written uniqueness relations are removed.
+         * This avoids the lock wait time at the expense of failing both transactions
+         * when they conflict.
+         * <p/>
+         * Only supported for unique property keys, see {@link KeyMaker#unique(UniquenessConsistency)}, and only on
+         * storage backends without transactions. The verification relies on the written uniqueness relations being
+         * visible to concurrently committing transactions before they commit, which transactional storage backends
+         * do not guarantee.
+         */
+        OPTIMISTIC
     }
 
     public TitanType make();
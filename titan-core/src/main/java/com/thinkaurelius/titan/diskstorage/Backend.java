@@ -4,6 +4,8 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.thinkaurelius.titan.core.Titan;
 import com.thinkaurelius.titan.core.TitanConfigurationException;
 import com.thinkaurelius.titan.core.TitanException;
@@ -18,12 +20,15 @@ import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ConsistentKeyLo
 import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ExpectedValueCheckingStore;
 import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ExpectedValueCheckingTransaction;
 import com.thinkaurelius.titan.diskstorage.locking.transactional.TransactionalLockStore;
+import com.thinkaurelius.titan.diskstorage.util.BackendCompression;
 import com.thinkaurelius.titan.diskstorage.util.BackendOperation;
 import com.thinkaurelius.titan.diskstorage.util.MetricInstrumentedStore;
 import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
 import com.thinkaurelius.titan.graphdb.configuration.KCVSConfiguration;
 import com.thinkaurelius.titan.graphdb.configuration.TitanConstants;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
 import com.thinkaurelius.titan.graphdb.database.indexing.StandardIndexInformation;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
 import com.thinkaurelius.titan.graphdb.transaction.TransactionConfiguration;
 
 import org.apache.commons.configuration.BaseConfiguration;
@@ -41,6 +46,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 
 import static com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration.*;
@@ -71,6 +77,12 @@ public class Backend {
     public static final String ID_STORE_NAME = "titan_ids";
 
     public static final String TITAN_BACKEND_VERSION = "titan-version";
+    public static final String VALUE_COMPRESSION = "value-compression";
+    public static final String VALUE_COMPRESSION_STORES = "value-compression-stores";
+    public static final String NO_VALUE_COMPRESSION = "none";
+    public static final String EDGESTORE_FORMAT = "edgestore-format";
+    public static final String STANDARD_EDGESTORE_FORMAT = "standard";
+    public static final String COMPACT_EDGESTORE_FORMAT = "compact";
     public static final String MERGED_METRICS = "stores";
     public static final String LOCK_STORE_SUFFIX = "_lock_";
 
@@ -79,6 +91,12 @@ public class Backend {
 
     public static final int THREAD_POOL_SIZE_SCALE_FACTOR = 2;
 
+    /**
+     * The maximum number of reads per backend thread that can be outstanding on the thread pool before
+     * additional reads are executed on the calling thread.
+     */
+    public static final int MAX_PENDING_READS_PER_THREAD = 16;
+
     public static final Map<String, Integer> STATIC_KEY_LENGTHS = new HashMap<String, Integer>() {{
         put(EDGESTORE_NAME, 8);
         put(EDGESTORE_NAME + LOCK_STORE_SUFFIX, 8);
@@ -92,10 +110,19 @@ public class Backend {
     private KeyColumnValueStore vertexIndexStore;
     private KeyColumnValueStore edgeIndexStore;
     private IDAuthority idAuthority;
+    private BackendCompression valueCompression = BackendCompression.NO_COMPRESSION;
+    private Set<String> compressedStores = ImmutableSet.of();
+    private boolean compactEdgeStore = false;
 
     private final Map<String, IndexProvider> indexes;
 
     private final int bufferSize;
+    private final long bufferByteSize;
+    private final int maxPendingFlushes;
+    private final ExecutorService flushPool;
+    private final GroupCommitter groupCommitter;
+    private final int compressionThreshold;
+    private final int edgeStoreBlockSize;
     private final boolean hashPrefixIndex;
     private final boolean basicMetrics;
     private final boolean mergeBasicMetrics;
@@ -104,6 +131,7 @@ public class Backend {
     private final int readAttempts;
     private final int persistAttemptWaittime;
     private final ExecutorService threadPool;
+    private final Semaphore pendingReads;
 
     private final Function<String, Locker> lockerCreator;
     private final ConcurrentHashMap<String, Locker> lockers =
@@ -134,6 +162,27 @@ public class Backend {
             bufferSize = 0;
             log.debug("Buffering disabled because backend does not support batch mutations");
         } else bufferSize = bufferSizeTmp;
+        bufferByteSize = storageConfig.getLong(BUFFER_BYTE_SIZE_KEY, BUFFER_BYTE_SIZE_DEFAULT);
+        Preconditions.checkArgument(bufferByteSize >= 0, "Buffer byte size must be non-negative (use 0 to disable)");
+        maxPendingFlushes = storageConfig.getInt(BUFFER_MAX_PENDING_FLUSHES_KEY, BUFFER_MAX_PENDING_FLUSHES_DEFAULT);
+        Preconditions.checkArgument(maxPendingFlushes > 0, "Maximum number of pending flushes must be positive");
+        if (bufferSize > 1 && storageConfig.getBoolean(BUFFER_ASYNC_FLUSH_KEY, BUFFER_ASYNC_FLUSH_DEFAULT)) {
+            if (storeFeatures.supportsTransactions()) {
+                //Transaction handles of transactional backends must not be used by multiple threads concurrently
+                flushPool = null;
+                log.warn("Asynchronous buffer flushing disabled because the storage backend supports transactions");
+            } else {
+                flushPool = Executors.newCachedThreadPool(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TitanBufferFlush-%d").build());
+            }
+        } else {
+            flushPool = null;
+        }
+
+        compressionThreshold = storageConfig.getInt(VALUE_COMPRESSION_THRESHOLD_KEY, VALUE_COMPRESSION_THRESHOLD_DEFAULT);
+        Preconditions.checkArgument(compressionThreshold >= 0, "Compression threshold must be non-negative");
+        edgeStoreBlockSize = storageConfig.getInt(EDGESTORE_BLOCK_SIZE_KEY, EDGESTORE_BLOCK_SIZE_DEFAULT);
+        Preconditions.checkArgument(edgeStoreBlockSize > 0, "Edge store block size must be positive");
 
         writeAttempts = storageConfig.getInt(WRITE_ATTEMPTS_KEY, WRITE_ATTEMPTS_DEFAULT);
         Preconditions.checkArgument(writeAttempts > 0, "Write attempts must be positive");
@@ -142,12 +191,32 @@ public class Backend {
         persistAttemptWaittime = storageConfig.getInt(STORAGE_ATTEMPT_WAITTIME_KEY, STORAGE_ATTEMPT_WAITTIME_DEFAULT);
         Preconditions.checkArgument(persistAttemptWaittime > 0, "Persistence attempt retry wait time must be non-negative");
 
+        if (storageConfig.getBoolean(GROUP_COMMIT_KEY, GROUP_COMMIT_DEFAULT)) {
+            if (bufferSize <= 1) {
+                groupCommitter = null;
+                log.warn("Group commit disabled because buffering is disabled");
+            } else if (storeFeatures.supportsTransactions()) {
+                //A shared batch would commit the mutations of other transactions outside of their own store transaction
+                groupCommitter = null;
+                log.warn("Group commit disabled because the storage backend supports transactions");
+            } else {
+                groupCommitter = new GroupCommitter(storeManager,
+                        storageConfig.getInt(GROUP_COMMIT_WINDOW_KEY, GROUP_COMMIT_WINDOW_DEFAULT), TimeUnit.MILLISECONDS,
+                        storageConfig.getInt(GROUP_COMMIT_MAX_MUTATIONS_KEY, GROUP_COMMIT_MAX_MUTATIONS_DEFAULT),
+                        writeAttempts, persistAttemptWaittime);
+            }
+        } else {
+            groupCommitter = null;
+        }
+
         if (storageConfig.getBoolean(PARALLEL_BACKEND_OPS_KEY, PARALLEL_BACKEND_OPS_DEFAULT)) {
             int poolsize = Runtime.getRuntime().availableProcessors() * THREAD_POOL_SIZE_SCALE_FACTOR;
             threadPool = Executors.newFixedThreadPool(poolsize);
+            pendingReads = new Semaphore(poolsize * MAX_PENDING_READS_PER_THREAD);
             log.info("Initiated backend operations thread pool of size {}", poolsize);
         } else {
             threadPool = null;
+            pendingReads = null;
         }
 
         // If lock prefix is unspecified, specify it now
@@ -219,9 +288,20 @@ public class Backend {
         Preconditions.checkArgument(bufferSize <= 1 || storeManager.getFeatures().supportsBatchMutation());
         KeyColumnValueStore store = null;
         store = storeManager.openDatabase(name);
-        if (bufferSize > 1) {
+        boolean compactRows = compactEdgeStore && name.equals(EDGESTORE_NAME);
+        //Bulk loading transactions buffer their mutations whenever the backend supports batch mutations.
+        //Compact rows are read before they are modified and must not be buffered
+        if (storeFeatures.supportsBatchMutation() && !compactRows) {
             store = new BufferedKeyColumnValueStore(store, true);
         }
+        //Compress values before they are buffered and cache them decompressed
+        if (compressedStores.contains(name)) {
+            store = new CompressedKeyColumnValueStore(store, valueCompression, compressionThreshold);
+        }
+        //Group compact rows into blocks after compression so that each block is compressed as a whole
+        if (compactRows) {
+            store = new CompactRowKeyColumnValueStore(store, IDHandler.getBounds(RelationType.RELATION)[1], edgeStoreBlockSize);
+        }
         //Enable cache
         store = new CachedKeyColumnValueStore(store);
         return store;
@@ -253,32 +333,56 @@ public class Backend {
                 throw new IllegalStateException("Store needs to support consistent key or transactional operations for ID manager to guarantee proper id allocations");
             }
 
-            edgeStore = getLockStore(getBufferStore(EDGESTORE_NAME));
-            vertexIndexStore = getLockStore(getBufferStore(VERTEXINDEX_STORE_NAME));
-            edgeIndexStore = getLockStore(getBufferStore(EDGEINDEX_STORE_NAME), false);
-
-
-            if (hashPrefixIndex) {
-                vertexIndexStore = new HashPrefixKeyColumnValueStore(vertexIndexStore, 4);
-                edgeIndexStore = new HashPrefixKeyColumnValueStore(edgeIndexStore, 4);
-            }
-
-            if (basicMetrics) {
-                edgeStore = new MetricInstrumentedStore(edgeStore, getMetricsStoreName("edgeStore"));
-                vertexIndexStore = new MetricInstrumentedStore(vertexIndexStore, getMetricsStoreName("vertexIndexStore"));
-                edgeIndexStore = new MetricInstrumentedStore(edgeIndexStore, getMetricsStoreName("edgeIndexStore"));
-            }
-
             String version = null;
+            String configuredCompression = config.getString(VALUE_COMPRESSION_KEY, VALUE_COMPRESSION_DEFAULT).trim();
+            String configuredStores = "";
+            if (!configuredCompression.equalsIgnoreCase(NO_VALUE_COMPRESSION)) {
+                configuredStores = Joiner.on(",").join(getCompressedStores(config.containsKey(VALUE_COMPRESSION_STORES_KEY) ?
+                        config.getStringArray(VALUE_COMPRESSION_STORES_KEY) : new String[]{VALUE_COMPRESSION_STORES_DEFAULT}));
+            }
+            String configuredFormat = config.getString(EDGESTORE_FORMAT_KEY, EDGESTORE_FORMAT_DEFAULT).trim().toLowerCase();
+            Preconditions.checkArgument(configuredFormat.equals(STANDARD_EDGESTORE_FORMAT) || configuredFormat.equals(COMPACT_EDGESTORE_FORMAT),
+                    "Unknown edge store format: %s", configuredFormat);
+            //Compact rows are read, modified and rewritten which requires the isolation of storage transactions
+            boolean transactional = storeFeatures.supportsTransactions() && config.getBoolean(STORAGE_TRANSACTIONAL_KEY, STORAGE_TRANSACTIONAL_DEFAULT);
+            Preconditions.checkArgument(configuredFormat.equals(STANDARD_EDGESTORE_FORMAT) || transactional,
+                    "The compact edge store format requires a storage backend with transactions enabled");
             KCVSConfiguration systemConfig = new KCVSConfiguration(storeManager,SYSTEM_PROPERTIES_STORE_NAME,
                                                         SYSTEM_PROPERTIES_IDENTIFIER);
             try {
                 systemConfig.setMaxOperationWaitTime(config.getLong(SETUP_WAITTIME_KEY, SETUP_WAITTIME_DEFAULT));
                 version = systemConfig.getConfigurationProperty(TITAN_BACKEND_VERSION);
-                if (version == null) {
+                boolean isNew = version == null;
+                if (isNew) {
                     systemConfig.setConfigurationProperty(TITAN_BACKEND_VERSION, TitanConstants.VERSION);
                     version = TitanConstants.VERSION;
                 }
+                String compression = systemConfig.getConfigurationProperty(VALUE_COMPRESSION);
+                String compressedStoreNames = systemConfig.getConfigurationProperty(VALUE_COMPRESSION_STORES);
+                if (compression == null) {
+                    //Graphs that were created before value compression was recorded have no compressed stores
+                    compression = isNew ? configuredCompression : NO_VALUE_COMPRESSION;
+                    compressedStoreNames = compression.equalsIgnoreCase(NO_VALUE_COMPRESSION) ? "" : configuredStores;
+                    systemConfig.setConfigurationProperty(VALUE_COMPRESSION, compression);
+                    systemConfig.setConfigurationProperty(VALUE_COMPRESSION_STORES, compressedStoreNames);
+                }
+                if (config.containsKey(VALUE_COMPRESSION_KEY) && (!compression.equals(configuredCompression) || !compressedStoreNames.equals(configuredStores)))
+                    log.warn("Configured value compression [{}] of stores [{}] differs from the compression of the existing graph [{}] of stores [{}] which is used instead",
+                            new Object[]{configuredCompression, configuredStores, compression, compressedStoreNames});
+                compressedStores = getCompressedStores(compressedStoreNames.split(","));
+                if (!compressedStores.isEmpty()) valueCompression = getValueCompression(compression, config);
+                String format = systemConfig.getConfigurationProperty(EDGESTORE_FORMAT);
+                if (format == null) {
+                    //Graphs that were created before the format was recorded use the standard format
+                    format = isNew ? configuredFormat : STANDARD_EDGESTORE_FORMAT;
+                    systemConfig.setConfigurationProperty(EDGESTORE_FORMAT, format);
+                }
+                if (config.containsKey(EDGESTORE_FORMAT_KEY) && !format.equals(configuredFormat))
+                    log.warn("Configured edge store format [{}] differs from the format of the existing graph [{}] which is used instead",
+                            configuredFormat, format);
+                compactEdgeStore = format.equals(COMPACT_EDGESTORE_FORMAT);
+                Preconditions.checkState(!compactEdgeStore || transactional,
+                        "The graph uses the compact edge store format which requires a storage backend with transactions enabled");
             } finally {
                 systemConfig.close();
             }
@@ -286,6 +390,22 @@ public class Backend {
             if (!TitanConstants.VERSION.equals(version) && !TitanConstants.COMPATIBLE_VERSIONS.contains(version)) {
                 throw new TitanException("StorageBackend version is incompatible with current Titan version: " + version + " vs. " + TitanConstants.VERSION);
             }
+
+            edgeStore = getLockStore(getBufferStore(EDGESTORE_NAME));
+            vertexIndexStore = getLockStore(getBufferStore(VERTEXINDEX_STORE_NAME));
+            edgeIndexStore = getLockStore(getBufferStore(EDGEINDEX_STORE_NAME), false);
+
+
+            if (hashPrefixIndex) {
+                vertexIndexStore = new HashPrefixKeyColumnValueStore(vertexIndexStore, 4);
+                edgeIndexStore = new HashPrefixKeyColumnValueStore(edgeIndexStore, 4);
+            }
+
+            if (basicMetrics) {
+                edgeStore = new MetricInstrumentedStore(edgeStore, getMetricsStoreName("edgeStore"));
+                vertexIndexStore = new MetricInstrumentedStore(vertexIndexStore, getMetricsStoreName("vertexIndexStore"));
+                edgeIndexStore = new MetricInstrumentedStore(edgeIndexStore, getMetricsStoreName("edgeIndexStore"));
+            }
         } catch (StorageException e) {
             throw new TitanException("Could not initialize backend", e);
         }
@@ -320,6 +440,27 @@ public class Backend {
         return (KeyColumnValueStoreManager) manager;
     }
 
+    private final static Set<String> getCompressedStores(String[] storeNames) {
+        Set<String> stores = new TreeSet<String>();
+        for (String name : storeNames) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+            Preconditions.checkArgument(name.equals(EDGESTORE_NAME) || name.equals(VERTEXINDEX_STORE_NAME) || name.equals(EDGEINDEX_STORE_NAME),
+                    "Values of store [%s] cannot be compressed", name);
+            stores.add(name);
+        }
+        return stores;
+    }
+
+    private final static BackendCompression getValueCompression(String compression, Configuration config) {
+        if (compression.equalsIgnoreCase(NO_VALUE_COMPRESSION)) return BackendCompression.NO_COMPRESSION;
+        String clazzname = compression;
+        if (REGISTERED_COMPRESSIONS.containsKey(compression.toLowerCase())) {
+            clazzname = REGISTERED_COMPRESSIONS.get(compression.toLowerCase());
+        }
+        return instantiate(clazzname, config);
+    }
+
     private final static Map<String, IndexProvider> getIndexes(Configuration storageConfig) {
         Configuration indexConfig = storageConfig.subset(GraphDatabaseConfiguration.INDEX_NAMESPACE);
         Set<String> indexes = GraphDatabaseConfiguration.getUnqiuePrefixes(indexConfig);
@@ -410,9 +551,16 @@ public class Backend {
         StoreTxConfig txConfig = new StoreTxConfig(configuration.getMetricsPrefix());
         if (configuration.hasTimestamp()) txConfig.setTimestamp(configuration.getTimestamp());
         StoreTransaction tx = storeManager.beginTransaction(txConfig);
-        if (bufferSize > 1) {
+        if (configuration.getBulkLoadBatchSize() > 0 && storeFeatures.supportsBatchMutation()) {
+            //Bulk loading transactions buffer larger batches which are sorted prior to persisting, even if buffering is disabled
+            tx = new BufferTransaction(tx, storeManager, Math.max(bufferSize, configuration.getBulkLoadBatchSize()),
+                    bufferByteSize, writeAttempts, persistAttemptWaittime, 8, true, flushPool, maxPendingFlushes);
+        } else if (bufferSize > 1) {
             Preconditions.checkArgument(storeManager.getFeatures().supportsBatchMutation());
-            tx = new BufferTransaction(tx, storeManager, bufferSize, writeAttempts, persistAttemptWaittime);
+            //Mutations with a custom timestamp must be persisted through the transaction's own handle
+            tx = new BufferTransaction(tx, storeManager, bufferSize,
+                    bufferByteSize, writeAttempts, persistAttemptWaittime, 8, false, flushPool, maxPendingFlushes,
+                    configuration.hasTimestamp() ? null : groupCommitter);
         }
         if (!storeFeatures.supportsLocking()) {
             if (storeFeatures.supportsTransactions()) {
@@ -434,7 +582,7 @@ public class Backend {
 
         return new BackendTransaction(tx, storeManager.getFeatures(),
                 edgeStore, vertexIndexStore, edgeIndexStore,
-                readAttempts, persistAttemptWaittime, indexTx, threadPool);
+                readAttempts, persistAttemptWaittime, indexTx, threadPool, pendingReads);
     }
 
     public void close() throws StorageException {
@@ -446,6 +594,7 @@ public class Backend {
         if(threadPool != null) {
         	threadPool.shutdown();
         }
+        if (flushPool != null) flushPool.shutdown();
         //Indexes
         for (IndexProvider index : indexes.values()) index.close();
     }
@@ -490,6 +639,10 @@ public class Backend {
         put("es", "com.thinkaurelius.titan.diskstorage.es.ElasticSearchIndex");
     }};
 
+    private static final Map<String, String> REGISTERED_COMPRESSIONS = new HashMap<String, String>() {{
+        put("deflate", "com.thinkaurelius.titan.diskstorage.util.DeflateCompression");
+    }};
+
     private final Function<String, Locker> CONSISTENT_KEY_LOCKER_CREATOR = new Function<String, Locker>() {
         @Override
         public Locker apply(String lockerName) {
@@ -499,7 +652,9 @@ public class Backend {
             } catch (StorageException e) {
                 throw new TitanConfigurationException("Could not retrieve store named " + lockerName + " for locker configuration", e);
             }
-            return new ConsistentKeyLocker.Builder(lockerStore).fromCommonsConfig(storageConfig).build();
+            ConsistentKeyLocker.Builder builder = new ConsistentKeyLocker.Builder(lockerStore).fromCommonsConfig(storageConfig);
+            if (storageConfig.getBoolean(LOCK_BATCH_KEY, LOCK_BATCH_DEFAULT)) builder.batchManager(storeManager);
+            return builder.build();
         }
     };
 
@@ -1,12 +1,18 @@
 package com.thinkaurelius.titan.diskstorage;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.thinkaurelius.titan.core.TitanException;
+import com.thinkaurelius.titan.diskstorage.indexing.IndexPage;
 import com.thinkaurelius.titan.diskstorage.indexing.IndexQuery;
 import com.thinkaurelius.titan.diskstorage.indexing.IndexTransaction;
 import com.thinkaurelius.titan.diskstorage.indexing.KeyInformation;
 import com.thinkaurelius.titan.diskstorage.indexing.RawQuery;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
+import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ExpectedValueCheckingTransaction;
 import com.thinkaurelius.titan.diskstorage.util.BackendOperation;
 import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
 import org.apache.commons.lang.StringUtils;
@@ -14,13 +20,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Bundles all transaction handles from the various backend systems and provides a proxy for some of their
@@ -52,6 +58,7 @@ public class BackendTransaction implements TransactionHandle {
     private final int retryStorageWaitTime;
 
     private final Executor threadPool;
+    private final Semaphore pendingReads;
 
     private final Map<String, IndexTransaction> indexTx;
 
@@ -60,6 +67,15 @@ public class BackendTransaction implements TransactionHandle {
                               KeyColumnValueStore vertexIndexStore, KeyColumnValueStore edgeIndexStore,
                               int maxReadRetryAttempts, int retryStorageWaitTime,
                               Map<String, IndexTransaction> indexTx, Executor threadPool) {
+        this(storeTx, features, edgeStore, vertexIndexStore, edgeIndexStore, maxReadRetryAttempts, retryStorageWaitTime,
+                indexTx, threadPool, null);
+    }
+
+    public BackendTransaction(StoreTransaction storeTx, StoreFeatures features,
+                              KeyColumnValueStore edgeStore,
+                              KeyColumnValueStore vertexIndexStore, KeyColumnValueStore edgeIndexStore,
+                              int maxReadRetryAttempts, int retryStorageWaitTime,
+                              Map<String, IndexTransaction> indexTx, Executor threadPool, Semaphore pendingReads) {
         this.storeTx = storeTx;
         this.storeFeatures = features;
         this.edgeStore = edgeStore;
@@ -69,6 +85,7 @@ public class BackendTransaction implements TransactionHandle {
         this.retryStorageWaitTime = retryStorageWaitTime;
         this.indexTx = indexTx;
         this.threadPool = threadPool;
+        this.pendingReads = pendingReads;
     }
 
     public StoreTransaction getStoreTransactionHandle() {
@@ -148,6 +165,7 @@ public class BackendTransaction implements TransactionHandle {
      * @param expectedValue The expected value for the specified key-column pair on which to lock. Null if it is expected that the pair does not exist
      */
     public void acquireEdgeLock(StaticBuffer key, StaticBuffer column, StaticBuffer expectedValue) throws StorageException {
+        disableGroupCommit();
         edgeStore.acquireLock(key, column, expectedValue, storeTx);
     }
 
@@ -167,9 +185,20 @@ public class BackendTransaction implements TransactionHandle {
      * @param expectedValue The expected value for the specified key-column pair on which to lock. Null if it is expected that the pair does not exist
      */
     public void acquireVertexIndexLock(StaticBuffer key, StaticBuffer column, StaticBuffer expectedValue) throws StorageException {
+        disableGroupCommit();
         vertexIndexStore.acquireLock(key, column, expectedValue, storeTx);
     }
 
+    /**
+     * Mutations of transactions holding locks are not coalesced with those of other transactions
+     */
+    private void disableGroupCommit() {
+        StoreTransaction tx = storeTx;
+        if (tx instanceof ExpectedValueCheckingTransaction)
+            tx = ((ExpectedValueCheckingTransaction) tx).getBaseTransaction();
+        if (tx instanceof BufferTransaction) ((BufferTransaction) tx).disableGroupCommit();
+    }
+
     /* ###################################################
             Convenience Read Methods
      */
@@ -209,60 +238,124 @@ public class BackendTransaction implements TransactionHandle {
                     results.add(edgeStoreQuery(new KeySliceQuery(key, query)));
                 }
             } else {
-                final CountDownLatch doneSignal = new CountDownLatch(keys.size());
-                final AtomicInteger failureCount = new AtomicInteger(0);
-                List<Entry>[] resultArray = new List[keys.size()];
-                for (int i = 0; i < keys.size(); i++) {
-                    threadPool.execute(new SliceQueryRunner(new KeySliceQuery(keys.get(i), query),
-                            doneSignal, failureCount, resultArray, i));
-                }
-                try {
-                    doneSignal.await();
-                } catch (InterruptedException e) {
-                    throw new TitanException("Interrupted while waiting for multi-query to complete", e);
+                List<ListenableFuture<List<Entry>>> futures = edgeStoreMultiQueryAsync(keys, query);
+                results = new ArrayList<List<Entry>>(keys.size());
+                int failureCount = 0;
+                Throwable failure = null;
+                for (ListenableFuture<List<Entry>> future : futures) {
+                    try {
+                        results.add(Uninterruptibles.getUninterruptibly(future));
+                    } catch (ExecutionException e) {
+                        failureCount++;
+                        failure = e.getCause();
+                        log.warn("Individual query in multi-transaction failed: ", failure);
+                        results.add(null);
+                    }
                 }
-                if (failureCount.get() > 0) {
-                    throw new TitanException("Could not successfully complete multi-query. " + failureCount.get() + " individual queries failed.");
+                if (failureCount > 0) {
+                    throw new TitanException("Could not successfully complete multi-query. " + failureCount + " individual queries failed.", failure);
                 }
-                results = Arrays.asList(resultArray);
                 assert keys.size() == results.size();
-                for (List l : results) assert l != null;
             }
             return results;
         }
     }
 
-    private class SliceQueryRunner implements Runnable {
-
-        final KeySliceQuery kq;
-        final CountDownLatch doneSignal;
-        final AtomicInteger failureCount;
-        final Object[] resultArray;
-        final int resultPosition;
-
-        private SliceQueryRunner(KeySliceQuery kq, CountDownLatch doneSignal, AtomicInteger failureCount,
-                                 Object[] resultArray, int resultPosition) {
-            this.kq = kq;
-            this.doneSignal = doneSignal;
-            this.failureCount = failureCount;
-            this.resultArray = resultArray;
-            this.resultPosition = resultPosition;
+    /**
+     * Asynchronously retrieves the slice of the edge store for each of the given keys. The returned list contains one
+     * future per key (in the same order as the keys) which completes as soon as the slice for that key has been retrieved,
+     * so callers can start processing results before the slowest key returns. A failing key only fails its own future;
+     * each individual read is retried up to the configured number of read attempts.
+     * <p/>
+     * The number of outstanding reads submitted to the shared backend thread pool is bounded. When this limit is
+     * reached, reads are executed on the calling thread which throttles callers that issue reads faster than the
+     * storage backend can answer them.
+     * <p/>
+     * If the storage backend supports multi-queries natively, all keys are retrieved in one call and the futures
+     * complete together.
+     *
+     * @param keys  Keys to retrieve the slice for
+     * @param query Slice to retrieve for each key
+     * @return One future per key with the slice result
+     */
+    public List<ListenableFuture<List<Entry>>> edgeStoreMultiQueryAsync(final List<StaticBuffer> keys, final SliceQuery query) {
+        final List<ListenableFuture<List<Entry>>> results = new ArrayList<ListenableFuture<List<Entry>>>(keys.size());
+        if (storeFeatures.supportsMultiQuery()) {
+            final List<SettableFuture<List<Entry>>> settables = new ArrayList<SettableFuture<List<Entry>>>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                SettableFuture<List<Entry>> f = SettableFuture.create();
+                settables.add(f);
+                results.add(f);
+            }
+            submitRead(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<List<Entry>> slices = edgeStoreMultiQuery(keys, query);
+                        assert slices.size() == settables.size();
+                        for (int i = 0; i < settables.size(); i++) settables.get(i).set(slices.get(i));
+                    } catch (Throwable e) {
+                        for (SettableFuture<List<Entry>> f : settables) f.setException(e);
+                    }
+                }
+            });
+        } else {
+            for (StaticBuffer key : keys) {
+                final KeySliceQuery ksq = new KeySliceQuery(key, query);
+                ListenableFutureTask<List<Entry>> task = ListenableFutureTask.create(new Callable<List<Entry>>() {
+                    @Override
+                    public List<Entry> call() throws Exception {
+                        return edgeStoreQuery(ksq);
+                    }
+                });
+                results.add(task);
+                submitRead(task);
+            }
         }
+        return results;
+    }
+
+    /**
+     * Returns an executor which runs reads against this transaction on the shared backend thread pool, or null if
+     * parallel backend operations are disabled. Like {@link #edgeStoreMultiQueryAsync(List, SliceQuery)}, the number
+     * of outstanding reads is bounded and reads beyond that bound are executed on the calling thread.
+     *
+     * @return
+     */
+    public Executor getReadExecutor() {
+        if (threadPool == null) return null;
+        return new Executor() {
+            @Override
+            public void execute(Runnable read) {
+                submitRead(read);
+            }
+        };
+    }
 
-        @Override
-        public void run() {
+    private void submitRead(final Runnable read) {
+        if (threadPool == null || (pendingReads != null && !pendingReads.tryAcquire())) {
+            //Run on calling thread if there is no thread pool or it is saturated
+            read.run();
+        } else {
+            Runnable task = read;
+            if (pendingReads != null) {
+                task = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            read.run();
+                        } finally {
+                            pendingReads.release();
+                        }
+                    }
+                };
+            }
             try {
-                List<Entry> result;
-                if (maxReadRetryAttempts > 1)
-                    result = edgeStoreQuery(kq);
-                else //Premature optimization
-                    result = edgeStore.getSlice(kq, storeTx);
-                resultArray[resultPosition] = result;
-            } catch (Exception e) {
-                failureCount.incrementAndGet();
-                log.warn("Individual query in multi-transaction failed: ", e);
-            } finally {
-                doneSignal.countDown();
+                threadPool.execute(task);
+            } catch (RejectedExecutionException e) {
+                if (pendingReads != null) pendingReads.release();
+                log.debug("Backend thread pool rejected read - executing on calling thread", e);
+                read.run();
             }
         }
     }
@@ -316,6 +409,28 @@ public class BackendTransaction implements TransactionHandle {
         });
     }
 
+    /**
+     * Returns the key range of the edge store that is stored on the local machine.
+     *
+     * @return start (inclusive) and end (exclusive) key of the local partition
+     * @see KeyColumnValueStore#getLocalKeyPartition()
+     */
+    public StaticBuffer[] edgeStoreLocalKeyPartition() {
+        Preconditions.checkArgument(storeFeatures.hasLocalKeyPartition(), "The configured storage backend does not expose a local key partition");
+
+        return executeRead(new Callable<StaticBuffer[]>() {
+            @Override
+            public StaticBuffer[] call() throws Exception {
+                return edgeStore.getLocalKeyPartition();
+            }
+
+            @Override
+            public String toString() {
+                return "EdgeStoreLocalKeyPartition";
+            }
+        });
+    }
+
     public List<Entry> vertexIndexQuery(final KeySliceQuery query) {
         return executeRead(new Callable<List<Entry>>() {
             @Override
@@ -331,6 +446,28 @@ public class BackendTransaction implements TransactionHandle {
 
     }
 
+    public List<List<Entry>> vertexIndexMultiQuery(final List<StaticBuffer> keys, final SliceQuery query) {
+        if (storeFeatures.supportsMultiQuery()) {
+            return executeRead(new Callable<List<List<Entry>>>() {
+                @Override
+                public List<List<Entry>> call() throws Exception {
+                    return vertexIndexStore.getSlice(keys, query, storeTx);
+                }
+
+                @Override
+                public String toString() {
+                    return "MultiVertexIndexQuery";
+                }
+            });
+        } else {
+            List<List<Entry>> results = new ArrayList<List<Entry>>(keys.size());
+            for (StaticBuffer key : keys) {
+                results.add(vertexIndexQuery(new KeySliceQuery(key, query)));
+            }
+            return results;
+        }
+    }
+
     public List<Entry> edgeIndexQuery(final KeySliceQuery query) {
         return executeRead(new Callable<List<Entry>>() {
             @Override
@@ -360,6 +497,37 @@ public class BackendTransaction implements TransactionHandle {
         });
     }
 
+    public IndexPage indexQueryPage(final String index, final IndexQuery query, final Object cursor, final int pageSize) {
+        final IndexTransaction indexTx = getIndexTransactionHandle(index);
+        return executeRead(new Callable<IndexPage>() {
+            @Override
+            public IndexPage call() throws Exception {
+                return indexTx.queryPage(query, cursor, pageSize);
+            }
+
+            @Override
+            public String toString() {
+                return "IndexQueryPage";
+            }
+        });
+    }
+
+    public void indexCloseCursor(final String index, final Object cursor) {
+        final IndexTransaction indexTx = getIndexTransactionHandle(index);
+        executeRead(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                indexTx.closeCursor(cursor);
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "IndexCloseCursor";
+            }
+        });
+    }
+
     public Iterable<RawQuery.Result<String>> rawQuery(final String index, final RawQuery query) {
         final IndexTransaction indexTx = getIndexTransactionHandle(index);
         return executeRead(new Callable<Iterable<RawQuery.Result<String>>>() {
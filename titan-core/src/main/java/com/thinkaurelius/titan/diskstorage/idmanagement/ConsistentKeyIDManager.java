@@ -29,6 +29,11 @@ import java.util.Random;
  * <p/>
  * The partition id is used as the key and since key operations are considered consistent, this protocol guarantees
  * unique id block assignments.
+ * <p/>
+ * Since the block size may differ between instances (e.g. when block sizes are adapted to the local id consumption),
+ * competing applications may claim blocks with different ends. Hence, an application competes with all applications
+ * for blocks ending after its start and the earliest of those wins.
+ * 
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -189,7 +194,7 @@ public class ConsistentKeyIDManager extends AbstractIDManager implements Backend
                     } else {
 
                         assert 0 != target.length();
-                        final StaticBuffer[] slice = getBlockSlice(nextEnd);
+                        final StaticBuffer[] slice = getClaimSlice(nextStart);
 
                         /* At this point we've written our claim on [nextStart, nextEnd),
                          * but we haven't yet guaranteed the absence of a contending claim on
@@ -198,7 +203,7 @@ public class ConsistentKeyIDManager extends AbstractIDManager implements Backend
 
                         TimeUtility.INSTANCE.sleepUntil(after + idApplicationWaitMS, log);
 
-                        // Read all id allocation claims on this partition, for the counter value we're claiming
+                        // Read all id allocation claims on this partition for blocks ending after the start of ours
                         List<Entry> blocks = BackendOperation.execute(new BackendOperation.Transactional<List<Entry>>() {
                             @Override
                             public List<Entry> call(StoreTransaction txh) throws StorageException {
@@ -210,10 +215,10 @@ public class ConsistentKeyIDManager extends AbstractIDManager implements Backend
                             throw new PermanentStorageException("It seems there is a race-condition in the block application. " +
                                     "If you have multiple Titan instances running on one physical machine, ensure that they have unique machine idAuthorities");
 
-                        /* If our claim is the lexicographically first one, then our claim
-                         * is the most senior one and we own this id block
+                        /* If our claim is the earliest one among all claims which may overlap
+                         * our id block, then our claim is the most senior one and we own this id block
                          */
-                        if (target.equals(blocks.get(0).getColumn())) {
+                        if (target.equals(getSeniorClaim(blocks))) {
 
                             long result[] = new long[2];
                             result[0] = nextStart;
@@ -273,13 +278,43 @@ public class ConsistentKeyIDManager extends AbstractIDManager implements Backend
     }
 
 
-    private final StaticBuffer[] getBlockSlice(long blockValue) {
+    /**
+     * Returns the slice of all claims for blocks which end after the given block start. Claims are ordered by
+     * descending block end, hence the slice ends right before the claims for blocks ending at the given start.
+     * Since every application starts at the largest block end it has read, any other claim which overlaps a block
+     * starting at the given value is contained in this slice, regardless of its block size.
+     *
+     * @param blockStart
+     * @return
+     */
+    private final StaticBuffer[] getClaimSlice(long blockStart) {
         StaticBuffer[] slice = new StaticBuffer[2];
-        slice[0] = new WriteByteBuffer(16).putLong(-blockValue).putLong(0).getStaticBuffer();
-        slice[1] = new WriteByteBuffer(16).putLong(-blockValue).putLong(-1).getStaticBuffer();
+        slice[0] = LOWER_SLICE;
+        slice[1] = new WriteByteBuffer(16).putLong(-blockStart).putLong(0).getStaticBuffer();
         return slice;
     }
 
+    /**
+     * Returns the claim which was written first, i.e. the one with the smallest timestamp, using the rid to
+     * break ties.
+     *
+     * @param claims
+     * @return
+     */
+    private static StaticBuffer getSeniorClaim(List<Entry> claims) {
+        StaticBuffer senior = null;
+        for (Entry claim : claims) {
+            StaticBuffer column = claim.getColumn();
+            if (senior==null || getClaimOrder(column).compareTo(getClaimOrder(senior))<0) senior = column;
+        }
+        return senior;
+    }
+
+    private static StaticBuffer getClaimOrder(StaticBuffer column) {
+        //Skips the block end and compares timestamp and rid
+        return column.subrange(8, column.length()-8);
+    }
+
     private final StaticBuffer getBlockApplication(long blockValue) {
         WriteByteBuffer bb = new WriteByteBuffer(
                 8 // counter long
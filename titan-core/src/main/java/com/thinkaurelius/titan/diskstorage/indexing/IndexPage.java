@@ -0,0 +1,46 @@
+package com.thinkaurelius.titan.diskstorage.indexing;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * A page of the results of an {@link IndexQuery} returned by {@link IndexProvider#queryPage(IndexQuery, Object, int, KeyInformation.IndexRetriever, com.thinkaurelius.titan.diskstorage.TransactionHandle)}.
+ * <p/>
+ * Besides the document ids on this page, a page contains an opaque cursor which is passed back to the index provider
+ * to retrieve the next page. The cursor is null on the last page.
+ */
+public class IndexPage {
+
+    private final List<String> results;
+    private final Object cursor;
+
+    public IndexPage(List<String> results, Object cursor) {
+        Preconditions.checkNotNull(results);
+        this.results = results;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Returns the ids of the matching documents on this page
+     *
+     * @return
+     */
+    public List<String> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the cursor to retrieve the next page or null if this is the last page
+     *
+     * @return
+     */
+    public Object getCursor() {
+        return cursor;
+    }
+
+    public boolean isLast() {
+        return cursor == null;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.thinkaurelius.titan.diskstorage.indexing;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterates over the results of an {@link IndexQuery} by lazily retrieving one {@link IndexPage} at a time.
+ * The next page is only requested once all results of the current page have been consumed and no more results
+ * than the given limit are requested in total.
+ * <p/>
+ * The cursor of the current page is closed as soon as the limit has been reached. Iterators which are abandoned
+ * before their last page should be closed via {@link #close()}.
+ */
+public abstract class IndexPageIterator extends AbstractIterator<String> implements Closeable {
+
+    private final int limit;
+    private final int pageSize;
+
+    private Iterator<String> current = null;
+    private Object cursor = null;
+    private boolean exhausted = false;
+    private boolean closed = false;
+    private int count = 0;
+
+    public IndexPageIterator(int limit, int pageSize) {
+        Preconditions.checkArgument(limit >= 0, "Invalid limit: %s", limit);
+        Preconditions.checkArgument(pageSize > 0, "Invalid page size: %s", pageSize);
+        this.limit = limit;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Retrieves the page following the given cursor, or the first page if the cursor is null
+     *
+     * @param cursor
+     * @param pageSize
+     * @return
+     */
+    protected abstract IndexPage getPage(Object cursor, int pageSize);
+
+    /**
+     * Releases the given cursor of a page which is not the last page
+     *
+     * @param cursor
+     */
+    protected abstract void closeCursor(Object cursor);
+
+    @Override
+    protected String computeNext() {
+        if (closed) return endOfData();
+        if (count >= limit) {
+            close();
+            return endOfData();
+        }
+        while (current == null || !current.hasNext()) {
+            if (exhausted) return endOfData();
+            IndexPage page = getPage(cursor, Math.min(pageSize, limit - count));
+            cursor = page.getCursor();
+            exhausted = page.isLast();
+            current = page.getResults().iterator();
+        }
+        count++;
+        String result = current.next();
+        //Release the cursor as soon as the limit has been reached
+        if (count >= limit) close();
+        return result;
+    }
+
+    /**
+     * Closes the cursor of the current page unless it is the last page. No further results are returned afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        current = null;
+        if (cursor != null && !exhausted) closeCursor(cursor);
+        cursor = null;
+    }
+
+}
@@ -54,6 +54,35 @@ public interface IndexProvider extends IndexInformation {
      */
     public List<String> query(IndexQuery query, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException;
 
+    /**
+     * Executes the given query against the index and returns one page of the matching documents. The first page
+     * is retrieved by passing a null cursor, subsequent pages by passing the cursor of the previous page until the
+     * last page is reached. This allows large result sets to be retrieved incrementally.
+     * <p/>
+     * All pages of a query are retrieved within the same transaction. The limit of the query is enforced by the caller
+     * who stops requesting pages once enough results have been retrieved.
+     *
+     * @param query Query to execute
+     * @param cursor Cursor of the previous page or null to retrieve the first page
+     * @param pageSize Maximum number of results on the page
+     * @param informations Information on the keys used in the query accessible through {@link KeyInformation.IndexRetriever}.
+     * @param tx Enclosing transaction
+     * @return The page of matching document ids
+     * @throws StorageException
+     * @see IndexPage
+     */
+    public IndexPage queryPage(IndexQuery query, Object cursor, int pageSize, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException;
+
+    /**
+     * Releases all resources held by the given cursor. This is called when no more pages are retrieved for a query
+     * before its last page has been reached.
+     *
+     * @param cursor Cursor of a page returned by {@link #queryPage(IndexQuery, Object, int, KeyInformation.IndexRetriever, com.thinkaurelius.titan.diskstorage.TransactionHandle)} which is not the last page
+     * @param tx Enclosing transaction
+     * @throws StorageException
+     */
+    public void closeCursor(Object cursor, TransactionHandle tx) throws StorageException;
+
 
     /**
      * Executes the given raw query against the index
@@ -4,13 +4,20 @@ import com.google.common.base.Preconditions;
 import com.thinkaurelius.titan.diskstorage.StorageException;
 import com.thinkaurelius.titan.diskstorage.TransactionHandle;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Wraps the transaction handle of an index and buffers all mutations against an index for efficiency.
  * Also acts as a proxy to the {@link IndexProvider} methods.
+ * <p/>
+ * Keeps track of the cursors of paged queries which have not reached their last page yet and closes them
+ * when the transaction ends.
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -24,6 +31,7 @@ public class IndexTransaction implements TransactionHandle {
     private final TransactionHandle indexTx;
     private final KeyInformation.IndexRetriever keyInformations;
     private Map<String,Map<String,IndexMutation>> mutations;
+    private final Set<Object> openCursors;
 
     public IndexTransaction(final IndexProvider index, final KeyInformation.IndexRetriever keyInformations) throws StorageException {
         Preconditions.checkNotNull(index);
@@ -33,6 +41,7 @@ public class IndexTransaction implements TransactionHandle {
         this.indexTx=index.beginTransaction();
         Preconditions.checkNotNull(indexTx);
         this.mutations = null;
+        this.openCursors = Collections.synchronizedSet(new HashSet<Object>(4));
     }
 
     public void add(String store, String docid, String key, Object value, boolean isNew) {
@@ -68,12 +77,49 @@ public class IndexTransaction implements TransactionHandle {
         return index.query(query,keyInformations,indexTx);
     }
 
+    public IndexPage queryPage(IndexQuery query, Object cursor, int pageSize) throws StorageException {
+        IndexPage page = index.queryPage(query,cursor,pageSize,keyInformations,indexTx);
+        if (cursor!=null) openCursors.remove(cursor);
+        if (!page.isLast()) openCursors.add(page.getCursor());
+        return page;
+    }
+
+    /**
+     * Closes the given cursor of a paged query unless it has already been closed.
+     *
+     * @param cursor
+     * @throws StorageException
+     */
+    public void closeCursor(Object cursor) throws StorageException {
+        if (!openCursors.contains(cursor)) return;
+        index.closeCursor(cursor,indexTx);
+        openCursors.remove(cursor);
+    }
+
+    /**
+     * Whether this transaction holds cursors of paged queries which have not been closed yet
+     *
+     * @return
+     */
+    public boolean hasOpenCursors() {
+        return !openCursors.isEmpty();
+    }
+
+    private void closeCursors() throws StorageException {
+        List<Object> cursors;
+        synchronized (openCursors) {
+            cursors = new ArrayList<Object>(openCursors);
+        }
+        for (Object cursor : cursors) closeCursor(cursor);
+    }
+
     public Iterable<RawQuery.Result<String>> query(RawQuery query) throws StorageException {
         return index.query(query,keyInformations,indexTx);
     }
 
     @Override
     public void commit() throws StorageException {
+        closeCursors();
         flushInternal();
         indexTx.commit();
     }
@@ -81,7 +127,11 @@ public class IndexTransaction implements TransactionHandle {
     @Override
     public void rollback() throws StorageException {
         mutations=null;
-        indexTx.rollback();
+        try {
+            closeCursors();
+        } finally {
+            indexTx.rollback();
+        }
     }
 
     @Override
@@ -1,23 +1,50 @@
 package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
 
+import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.PermanentStorageException;
 import com.thinkaurelius.titan.diskstorage.StaticBuffer;
 import com.thinkaurelius.titan.diskstorage.StorageException;
 import com.thinkaurelius.titan.diskstorage.util.BackendOperation;
+import com.thinkaurelius.titan.util.stats.MetricManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Buffers mutations against multiple {@link KeyColumnValueStore} from the same storage backend for increased
- * write performance. The buffer size (i.e. number of mutations after which to flush) is configurable.
+ * write performance. The buffer is flushed when it holds the configured number of mutations (i.e. additions
+ * and deletions) or, if configured, when the buffered keys, columns and values exceed the configured number of
+ * bytes so that large values do not produce oversized batches.
  * <p/>
  * A BufferTransaction also attempts to flush multiple times in the event of temporary storage failures for increased
  * write robustness.
+ * <p/>
+ * If configured with a flush executor, full buffers are persisted asynchronously while the next buffer fills up.
+ * Batches are persisted one at a time in the order in which they were filled and at most the configured number
+ * of batches may be pending, beyond which the writing thread blocks. A failed batch fails all subsequent
+ * mutations, flushes and the commit of this transaction. {@link #flush()} and {@link #commit()} wait for all
+ * pending batches and persist the remaining mutations synchronously. Since batches are persisted through the
+ * wrapped transaction handle while the writing thread continues to use it, asynchronous flushing is only supported
+ * for storage backends which do not support transactions and whose handles therefore merely carry configuration.
+ * <p/>
+ * If configured to sort mutations, the buffered mutations of each store are ordered by key and the additions of each
+ * key are ordered by column prior to flushing so that the storage backend receives them in its native sort order.
+ * This is used for bulk loading.
+ * <p/>
+ * If configured with a {@link GroupCommitter}, buffered mutations are persisted together with those of other
+ * concurrently committing transactions until {@link #disableGroupCommit()} is called.
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -28,14 +55,44 @@ public class BufferTransaction implements StoreTransaction {
     private static final Logger log =
             LoggerFactory.getLogger(BufferTransaction.class);
 
+    public static final String M_BUFFER = "buffer";
+    public static final String M_FLUSH = "flush";
+    public static final String M_MUTATIONS = "mutations";
+    public static final String M_BYTES = "bytes";
+
     private final StoreTransaction tx;
     private final KeyColumnValueStoreManager manager;
     private final int bufferSize;
+    private final long bufferByteSize;
     private final int mutationAttempts;
     private final int attemptWaitTime;
+    private final int expectedNumStores;
+    private final boolean sortMutations;
 
     private int numMutations;
-    private final Map<String, Map<StaticBuffer, KCVMutation>> mutations;
+    private long numBytes;
+    private Map<String, Map<StaticBuffer, KCVMutation>> mutations;
+
+    /**
+     * Asynchronous flushing; null if buffers are flushed by the writing thread
+     */
+    private final Executor flushExecutor;
+    private final int maxPendingFlushes;
+    private final Queue<Map<String, Map<StaticBuffer, KCVMutation>>> queuedBatches;
+    private final Runnable flushWorker;
+    /**
+     * Number of batches which are queued or being persisted.
+     * This and the following fields are guarded by {@link #queuedBatches}.
+     */
+    private int pendingFlushes;
+    private boolean flushing;
+    private Throwable flushFailure;
+
+    /**
+     * Coalesces flushes with those of other transactions; null if this transaction persists its own mutations
+     */
+    private final GroupCommitter groupCommitter;
+    private volatile boolean groupCommit;
 
     public BufferTransaction(StoreTransaction tx, KeyColumnValueStoreManager manager,
                              int bufferSize, int attempts, int waitTime) {
@@ -44,30 +101,95 @@ public class BufferTransaction implements StoreTransaction {
 
     public BufferTransaction(StoreTransaction tx, KeyColumnValueStoreManager manager,
                              int bufferSize, int attempts, int waitTime, int expectedNumStores) {
+        this(tx, manager, bufferSize, attempts, waitTime, expectedNumStores, false);
+    }
+
+    public BufferTransaction(StoreTransaction tx, KeyColumnValueStoreManager manager,
+                             int bufferSize, int attempts, int waitTime, int expectedNumStores, boolean sortMutations) {
+        this(tx, manager, bufferSize, 0, attempts, waitTime, expectedNumStores, sortMutations, null, 1);
+    }
+
+    public BufferTransaction(StoreTransaction tx, KeyColumnValueStoreManager manager,
+                             int bufferSize, long bufferByteSize, int attempts, int waitTime, int expectedNumStores,
+                             boolean sortMutations, Executor flushExecutor, int maxPendingFlushes) {
+        this(tx, manager, bufferSize, bufferByteSize, attempts, waitTime, expectedNumStores,
+                sortMutations, flushExecutor, maxPendingFlushes, null);
+    }
+
+    /**
+     * @param bufferSize        number of mutations after which to flush
+     * @param bufferByteSize    number of buffered bytes after which to flush, 0 to flush by number of mutations only
+     * @param flushExecutor     executor which persists full buffers asynchronously, null to flush synchronously
+     * @param maxPendingFlushes maximum number of full buffers waiting to be persisted asynchronously
+     * @param groupCommitter    coalesces flushes with those of other transactions, null to flush individually
+     */
+    public BufferTransaction(StoreTransaction tx, KeyColumnValueStoreManager manager,
+                             int bufferSize, long bufferByteSize, int attempts, int waitTime, int expectedNumStores,
+                             boolean sortMutations, Executor flushExecutor, int maxPendingFlushes,
+                             GroupCommitter groupCommitter) {
         Preconditions.checkNotNull(tx);
         Preconditions.checkNotNull(manager);
         Preconditions.checkArgument(bufferSize > 1, "Buffering only makes sense when bufferSize>1");
+        Preconditions.checkArgument(bufferByteSize >= 0, "Buffer byte size must be non-negative (use 0 to disable)");
+        Preconditions.checkArgument(maxPendingFlushes > 0, "Must allow at least one pending flush");
+        Preconditions.checkArgument(flushExecutor == null || !manager.getFeatures().supportsTransactions(),
+                "Asynchronous flushing requires thread-safe transaction handles which transactional backends do not provide");
         this.tx = tx;
         this.manager = manager;
         this.numMutations = 0;
+        this.numBytes = 0;
         this.bufferSize = bufferSize;
+        this.bufferByteSize = bufferByteSize;
         this.mutationAttempts = attempts;
         this.attemptWaitTime = waitTime;
+        this.expectedNumStores = expectedNumStores;
+        this.sortMutations = sortMutations;
         this.mutations = new HashMap<String, Map<StaticBuffer, KCVMutation>>(expectedNumStores);
+
+        this.flushExecutor = flushExecutor;
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.queuedBatches = new ArrayDeque<Map<String, Map<StaticBuffer, KCVMutation>>>(maxPendingFlushes);
+        this.flushWorker = new Runnable() {
+            @Override
+            public void run() {
+                persistQueuedBatches();
+            }
+        };
+        this.pendingFlushes = 0;
+        this.flushing = false;
+        this.flushFailure = null;
+        this.groupCommitter = groupCommitter;
+        this.groupCommit = groupCommitter != null;
     }
 
     public StoreTransaction getWrappedTransactionHandle() {
         return tx;
     }
 
+    /**
+     * Persists all subsequent flushes of this transaction through its own handle rather than coalescing them
+     * with those of other transactions. Called when the transaction acquires locks.
+     */
+    public void disableGroupCommit() {
+        groupCommit = false;
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
     public void mutate(String store, StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions) throws StorageException {
         Preconditions.checkNotNull(store);
         if (additions.isEmpty() && deletions.isEmpty()) return;
 
-        KCVMutation m = new KCVMutation(additions, deletions);
+        KCVMutation m;
+        //Copy the lists when sorting since they are sorted in place before flushing
+        if (sortMutations) m = new KCVMutation(new ArrayList<Entry>(additions), new ArrayList<StaticBuffer>(deletions));
+        else m = new KCVMutation(additions, deletions);
         Map<StaticBuffer, KCVMutation> storeMutation = mutations.get(store);
         if (storeMutation == null) {
-            storeMutation = new HashMap<StaticBuffer, KCVMutation>();
+            if (sortMutations) storeMutation = new TreeMap<StaticBuffer, KCVMutation>();
+            else storeMutation = new HashMap<StaticBuffer, KCVMutation>();
             mutations.put(store, storeMutation);
         }
         KCVMutation existingM = storeMutation.get(key);
@@ -75,28 +197,70 @@ public class BufferTransaction implements StoreTransaction {
             existingM.merge(m);
         } else {
             storeMutation.put(key, m);
+            numBytes += key.length();
         }
 
         numMutations += additions.size();
         numMutations += deletions.size();
+        if (bufferByteSize > 0) {
+            for (Entry addition : additions) {
+                numBytes += addition.getColumn().length();
+                if (addition.getValue() != null) numBytes += addition.getValue().length();
+            }
+            for (StaticBuffer deletion : deletions) numBytes += deletion.length();
+        }
 
-        if (numMutations >= bufferSize) {
-            flushInternal();
+        if (numMutations >= bufferSize || (bufferByteSize > 0 && numBytes >= bufferByteSize)) {
+            flushInternal(flushExecutor != null);
         }
     }
 
     @Override
     public void flush() throws StorageException {
-        flushInternal();
+        flushInternal(false);
         tx.flush();
     }
 
-    private void flushInternal() throws StorageException {
-        if (numMutations > 0) {
+    /**
+     * Persists the buffered mutations, either by the calling thread after all pending batches have been persisted
+     * or by handing them to the flush executor.
+     */
+    private void flushInternal(boolean async) throws StorageException {
+        if (async) {
+            if (numMutations > 0) {
+                enqueue(mutations);
+                mutations = new HashMap<String, Map<StaticBuffer, KCVMutation>>(expectedNumStores);
+                numMutations = 0;
+                numBytes = 0;
+            }
+        } else {
+            awaitPendingFlushes();
+            if (numMutations > 0) {
+                persist(mutations);
+                clear();
+            }
+        }
+    }
+
+    private void persist(final Map<String, Map<StaticBuffer, KCVMutation>> batch) throws StorageException {
+        if (sortMutations) {
+            for (Map<StaticBuffer, KCVMutation> storeMutation : batch.values()) {
+                for (KCVMutation m : storeMutation.values()) {
+                    if (m.hasAdditions()) Collections.sort(m.getAdditions());
+                }
+            }
+        }
+        final String metricsPrefix = getConfiguration().getMetricsPrefix();
+        final Timer.Context timer = metricsPrefix == null ? null :
+                MetricManager.INSTANCE.getTimer(metricsPrefix, M_BUFFER, M_FLUSH).time();
+        if (groupCommit) {
+            //Retries are handled by the group committer
+            groupCommitter.mutateMany(batch, tx);
+        } else {
             BackendOperation.execute(new Callable<Boolean>() {
                 @Override
                 public Boolean call() throws Exception {
-                    manager.mutateMany(mutations, tx);
+                    manager.mutateMany(batch, tx);
                     return true;
                 }
 
@@ -105,8 +269,114 @@ public class BufferTransaction implements StoreTransaction {
                     return "BufferMutation";
                 }
             }, mutationAttempts, attemptWaitTime);
-            clear();
         }
+        if (metricsPrefix != null) {
+            timer.stop();
+            for (Map.Entry<String, Map<StaticBuffer, KCVMutation>> storeMutation : batch.entrySet()) {
+                if (storeMutation.getValue().isEmpty()) continue;
+                long mutationCount = 0, byteCount = 0;
+                for (Map.Entry<StaticBuffer, KCVMutation> keyMutation : storeMutation.getValue().entrySet()) {
+                    byteCount += keyMutation.getKey().length();
+                    KCVMutation m = keyMutation.getValue();
+                    mutationCount += m.getAdditions().size() + m.getDeletions().size();
+                    for (Entry addition : m.getAdditions()) {
+                        byteCount += addition.getColumn().length();
+                        if (addition.getValue() != null) byteCount += addition.getValue().length();
+                    }
+                    for (StaticBuffer deletion : m.getDeletions()) byteCount += deletion.length();
+                }
+                MetricManager.INSTANCE.getHistogram(metricsPrefix, M_BUFFER, storeMutation.getKey(), M_MUTATIONS).update(mutationCount);
+                MetricManager.INSTANCE.getHistogram(metricsPrefix, M_BUFFER, storeMutation.getKey(), M_BYTES).update(byteCount);
+            }
+        }
+    }
+
+    /**
+     * Queues the batch for asynchronous persistence, blocking while the maximum number of batches is pending.
+     */
+    private void enqueue(Map<String, Map<StaticBuffer, KCVMutation>> batch) throws StorageException {
+        boolean startWorker = false;
+        synchronized (queuedBatches) {
+            checkFlushFailure();
+            while (pendingFlushes >= maxPendingFlushes) {
+                waitForFlush();
+                checkFlushFailure();
+            }
+            queuedBatches.add(batch);
+            pendingFlushes++;
+            if (!flushing) {
+                flushing = true;
+                startWorker = true;
+            }
+        }
+        if (startWorker) {
+            try {
+                flushExecutor.execute(flushWorker);
+            } catch (RejectedExecutionException e) {
+                log.debug("Flush executor rejected buffer flush, flushing synchronously", e);
+                flushWorker.run();
+            }
+        }
+        checkFlushFailure();
+    }
+
+    /**
+     * Persists the queued batches in order until the queue is empty or a batch fails.
+     */
+    private void persistQueuedBatches() {
+        while (true) {
+            Map<String, Map<StaticBuffer, KCVMutation>> batch;
+            synchronized (queuedBatches) {
+                if (queuedBatches.isEmpty() || flushFailure != null) {
+                    pendingFlushes -= queuedBatches.size();
+                    queuedBatches.clear();
+                    flushing = false;
+                    queuedBatches.notifyAll();
+                    return;
+                }
+                batch = queuedBatches.poll();
+            }
+            Throwable failure = null;
+            try {
+                persist(batch);
+            } catch (Throwable e) {
+                log.error("Asynchronous buffer flush failed", e);
+                failure = e;
+            }
+            synchronized (queuedBatches) {
+                pendingFlushes--;
+                if (failure != null) flushFailure = failure;
+                queuedBatches.notifyAll();
+            }
+        }
+    }
+
+    private void awaitPendingFlushes() throws StorageException {
+        if (flushExecutor == null) return;
+        synchronized (queuedBatches) {
+            while (pendingFlushes > 0) waitForFlush();
+            checkFlushFailure();
+        }
+    }
+
+    private void waitForFlush() throws StorageException {
+        try {
+            queuedBatches.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PermanentStorageException("Interrupted while waiting for buffer flush", e);
+        }
+    }
+
+    private void checkFlushFailure() throws StorageException {
+        Throwable failure;
+        synchronized (queuedBatches) {
+            failure = flushFailure;
+        }
+        if (failure == null) return;
+        if (failure instanceof StorageException) throw (StorageException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        throw new PermanentStorageException("Asynchronous buffer flush failed", failure);
     }
 
     private void clear() {
@@ -114,17 +384,27 @@ public class BufferTransaction implements StoreTransaction {
             entry.getValue().clear();
         }
         numMutations = 0;
+        numBytes = 0;
     }
 
     @Override
     public void commit() throws StorageException {
-        flushInternal();
+        flushInternal(false);
         tx.commit();
     }
 
     @Override
     public void rollback() throws StorageException {
         clear();
+        if (flushExecutor != null) {
+            synchronized (queuedBatches) {
+                //Discard batches which have not been started
+                pendingFlushes -= queuedBatches.size();
+                queuedBatches.clear();
+                while (pendingFlushes > 0) waitForFlush();
+                flushFailure = null;
+            }
+        }
         tx.rollback();
     }
 
@@ -10,6 +10,7 @@ import java.util.List;
 /**
  * Wraps a {@link KeyColumnValueStore} and buffers all mutations in a corresponding {@link BufferTransaction}.
  * The buffered mutations are flushed in batches to increase write performance.
+ * Operations with any other transaction handle are passed through to the wrapped store.
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -26,8 +27,8 @@ public class BufferedKeyColumnValueStore implements KeyColumnValueStore {
     }
 
     private final StoreTransaction getTx(StoreTransaction txh) {
-        assert txh instanceof BufferTransaction;
-        return ((BufferTransaction) txh).getWrappedTransactionHandle();
+        if (txh instanceof BufferTransaction) return ((BufferTransaction) txh).getWrappedTransactionHandle();
+        else return txh;
     }
 
     @Override
@@ -47,8 +48,7 @@ public class BufferedKeyColumnValueStore implements KeyColumnValueStore {
 
     @Override
     public void mutate(StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
-        if (bufferEnabled) {
-            assert txh instanceof BufferTransaction;
+        if (bufferEnabled && txh instanceof BufferTransaction) {
             ((BufferTransaction) txh).mutate(store.getName(), key, additions, deletions);
         } else {
             store.mutate(key, additions, deletions, getTx(txh));
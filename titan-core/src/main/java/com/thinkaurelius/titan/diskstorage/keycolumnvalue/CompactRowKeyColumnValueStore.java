@@ -0,0 +1,421 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.util.RecordIterator;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Wraps a {@link KeyColumnValueStore} and stores the columns of each row grouped into blocks of consecutive columns,
+ * so that the columns of a row share their common prefixes and consecutive ids are delta-encoded.
+ * <p/>
+ * Each block is stored as a single column of the wrapped store whose name is the last column in the block, except for
+ * the last block of a row whose name is the upper bound of all columns. Hence, the block that contains a column, or
+ * would contain it if it existed, is the first block whose name is not smaller than the column. The value of a block
+ * is the number of entries followed by the entries in column order. Each column is written as the length of the
+ * prefix it shares with the preceding column and its remaining tail. A tail that has the same length as the tail of
+ * the preceding column, such as the backward written vertex and relation id of an edge, is written as the difference
+ * to the preceding tail if that is shorter. Values are written as is.
+ * <p/>
+ * Mutations read, modify and rewrite the affected blocks, hence this store must only wrap stores whose transactions
+ * isolate concurrent read-modify-write cycles, i.e. transactional stores. Blocks that exceed the configured number of
+ * entries are split. Locks are passed on to the wrapped store, which is expected to hold them implicitly through its
+ * transactions rather than to check the expected value of the column.
+ * <p/>
+ * All columns must be smaller than the upper bound given on construction and this store must only wrap stores
+ * whose columns have been written through it from the start.
+ */
+public class CompactRowKeyColumnValueStore implements KeyColumnValueStore {
+
+    private final KeyColumnValueStore store;
+    private final StaticBuffer upperBound;
+    private final StaticBuffer tailEnd;
+    private final int maxBlockSize;
+
+    public CompactRowKeyColumnValueStore(KeyColumnValueStore store, StaticBuffer upperBound, int maxBlockSize) {
+        Preconditions.checkNotNull(store);
+        Preconditions.checkNotNull(upperBound);
+        Preconditions.checkArgument(maxBlockSize > 0, "Invalid block size: %s", maxBlockSize);
+        this.store = store;
+        this.upperBound = upperBound;
+        this.tailEnd = SliceQuery.pointRange(upperBound);
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    @Override
+    public boolean containsKey(StaticBuffer key, StoreTransaction txh) throws StorageException {
+        return store.containsKey(key, txh);
+    }
+
+    @Override
+    public List<Entry> getSlice(KeySliceQuery query, StoreTransaction txh) throws StorageException {
+        StaticBuffer start = query.getSliceStart(), end = query.getSliceEnd();
+        if (start.compareTo(upperBound) >= 0 || start.compareTo(end) >= 0) return new ArrayList<Entry>(0);
+        if (end.compareTo(upperBound) > 0) end = upperBound;
+        //Each block named within the slice contains at least one entry of the slice
+        KeySliceQuery blockQuery = new KeySliceQuery(query.getKey(), start, end);
+        if (query.hasLimit()) blockQuery.setLimit(query.getLimit());
+        List<Entry> blocks = new ArrayList<Entry>(store.getSlice(blockQuery, txh));
+        if (!query.hasLimit() || blocks.size() < query.getLimit()) {
+            //The block following the slice may contain its last entries
+            blocks.addAll(store.getSlice(new KeySliceQuery(query.getKey(), end, tailEnd).setLimit(1), txh));
+        }
+        return decode(blocks, query);
+    }
+
+    @Override
+    public List<List<Entry>> getSlice(List<StaticBuffer> keys, SliceQuery query, StoreTransaction txh) throws StorageException {
+        List<List<Entry>> result = new ArrayList<List<Entry>>(keys.size());
+        for (StaticBuffer key : keys) result.add(getSlice(new KeySliceQuery(key, query), txh));
+        return result;
+    }
+
+    @Override
+    public void mutate(StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
+        //Additions take precedence over deletions of the same column
+        TreeMap<StaticBuffer, Entry> changes = new TreeMap<StaticBuffer, Entry>();
+        for (StaticBuffer column : deletions) changes.put(checkColumn(column), null);
+        for (Entry entry : additions) changes.put(checkColumn(entry.getColumn()), entry);
+        if (changes.isEmpty()) return;
+
+        List<Entry> blockAdditions = new ArrayList<Entry>();
+        Set<StaticBuffer> blockDeletions = new HashSet<StaticBuffer>();
+        StaticBuffer next = changes.firstKey();
+        while (next != null) {
+            List<Entry> found = store.getSlice(new KeySliceQuery(key, next, tailEnd).setLimit(1), txh);
+            TreeMap<StaticBuffer, Entry> entries = new TreeMap<StaticBuffer, Entry>();
+            SortedMap<StaticBuffer, Entry> group;
+            boolean isLast;
+            if (found.isEmpty()) {
+                group = changes.tailMap(next, true);
+                isLast = true;
+                next = null;
+            } else {
+                StaticBuffer name = found.get(0).getColumn();
+                for (Entry entry : decodeBlock(found.get(0).getValue())) entries.put(entry.getColumn(), entry);
+                blockDeletions.add(name);
+                isLast = name.equals(upperBound);
+                group = isLast ? changes.tailMap(next, true) : changes.subMap(next, true, name, true);
+                next = isLast ? null : changes.higherKey(name);
+            }
+            for (Map.Entry<StaticBuffer, Entry> change : group.entrySet()) {
+                if (change.getValue() == null) entries.remove(change.getKey());
+                else entries.put(change.getKey(), change.getValue());
+            }
+            addBlocks(new ArrayList<Entry>(entries.values()), isLast, blockAdditions);
+        }
+        for (Entry block : blockAdditions) blockDeletions.remove(block.getColumn());
+        store.mutate(key, blockAdditions, new ArrayList<StaticBuffer>(blockDeletions), txh);
+    }
+
+    private StaticBuffer checkColumn(StaticBuffer column) {
+        Preconditions.checkArgument(column.compareTo(upperBound) < 0, "Column exceeds the upper bound: %s", column);
+        return column;
+    }
+
+    /**
+     * Splits the given entries into blocks of at most the maximum block size and adds them to the given list
+     *
+     * @param entries
+     * @param isLast whether the entries are the last entries of the row
+     * @param blocks
+     */
+    private void addBlocks(List<Entry> entries, boolean isLast, List<Entry> blocks) {
+        if (entries.isEmpty()) return;
+        int numBlocks = (entries.size() + maxBlockSize - 1) / maxBlockSize;
+        int blockSize = (entries.size() + numBlocks - 1) / numBlocks;
+        for (int from = 0; from < entries.size(); from += blockSize) {
+            int to = Math.min(from + blockSize, entries.size());
+            StaticBuffer name = (isLast && to == entries.size()) ? upperBound : entries.get(to - 1).getColumn();
+            blocks.add(StaticBufferEntry.of(name, encodeBlock(entries.subList(from, to))));
+        }
+    }
+
+    /**
+     * Decodes the given blocks and returns the entries matching the slice and limit of the query
+     *
+     * @param blocks
+     * @param query
+     * @return
+     */
+    private static List<Entry> decode(List<Entry> blocks, SliceQuery query) {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry block : blocks) {
+            for (Entry entry : decodeBlock(block.getValue())) {
+                if (result.size() >= query.getLimit()) return result;
+                StaticBuffer column = entry.getColumn();
+                if (column.compareTo(query.getSliceStart()) < 0) continue;
+                if (column.compareTo(query.getSliceEnd()) >= 0) return result;
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    static StaticBuffer encodeBlock(List<Entry> entries) {
+        BlockWriter out = new BlockWriter();
+        out.writeVarLong(entries.size());
+        StaticBuffer previous = null;
+        for (Entry entry : entries) {
+            StaticBuffer column = entry.getColumn();
+            int shared = 0;
+            if (previous != null) {
+                int max = Math.min(previous.length(), column.length());
+                while (shared < max && previous.getByte(shared) == column.getByte(shared)) shared++;
+            }
+            int tail = column.length() - shared;
+            long delta = 0;
+            if (previous != null && tail > 0 && tail < 8 && previous.length() == column.length()) {
+                delta = toLong(column, shared, tail) - toLong(previous, shared, tail);
+                if (varLongLength(delta) >= tail) delta = 0;
+            }
+            out.writeVarLong(shared);
+            out.writeVarLong((((long) tail) << 1) | (delta > 0 ? 1 : 0));
+            if (delta > 0) out.writeVarLong(delta);
+            else out.write(column, shared, tail);
+            StaticBuffer value = entry.getValue();
+            if (value == null) {
+                out.writeVarLong(0);
+            } else {
+                out.writeVarLong(value.length() + 1);
+                out.write(value, 0, value.length());
+            }
+            previous = column;
+        }
+        return out.getBuffer();
+    }
+
+    static List<Entry> decodeBlock(StaticBuffer block) {
+        BlockReader in = new BlockReader(block.as(StaticBuffer.ARRAY_FACTORY));
+        int size = (int) in.readVarLong();
+        List<Entry> entries = new ArrayList<Entry>(size);
+        byte[] previous = null;
+        for (int i = 0; i < size; i++) {
+            int shared = (int) in.readVarLong();
+            long header = in.readVarLong();
+            int tail = (int) (header >>> 1);
+            byte[] column = new byte[shared + tail];
+            if (shared > 0) System.arraycopy(previous, 0, column, 0, shared);
+            if ((header & 1) != 0) {
+                long value = toLong(previous, shared, tail) + in.readVarLong();
+                for (int j = column.length - 1; j >= shared; j--) {
+                    column[j] = (byte) value;
+                    value >>>= 8;
+                }
+            } else {
+                in.read(column, shared, tail);
+            }
+            int valueLength = (int) in.readVarLong();
+            StaticBuffer value = valueLength == 0 ? null : in.view(valueLength - 1);
+            entries.add(StaticBufferEntry.of(new StaticArrayBuffer(column), value));
+            previous = column;
+        }
+        Preconditions.checkArgument(!in.hasRemaining(), "Invalid block encoding");
+        return entries;
+    }
+
+    private static long toLong(StaticBuffer buffer, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) value = (value << 8) | (buffer.getByte(i) & 0xFF);
+        return value;
+    }
+
+    private static long toLong(byte[] buffer, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) value = (value << 8) | (buffer[i] & 0xFF);
+        return value;
+    }
+
+    private static int varLongLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    @Override
+    public void acquireLock(StaticBuffer key, StaticBuffer column, StaticBuffer expectedValue, StoreTransaction txh) throws StorageException {
+        store.acquireLock(key, column, expectedValue, txh);
+    }
+
+    @Override
+    public KeyIterator getKeys(KeyRangeQuery keyQuery, StoreTransaction txh) throws StorageException {
+        KeyRangeQuery blockQuery = new KeyRangeQuery(keyQuery.getKeyStart(), keyQuery.getKeyEnd(), keyQuery.getSliceStart(), tailEnd);
+        return new DecodingKeyIterator(store.getKeys(blockQuery, txh), keyQuery);
+    }
+
+    @Override
+    public KeyIterator getKeys(SliceQuery columnQuery, StoreTransaction txh) throws StorageException {
+        return new DecodingKeyIterator(store.getKeys(new SliceQuery(columnQuery.getSliceStart(), tailEnd), txh), columnQuery);
+    }
+
+    @Override
+    public StaticBuffer[] getLocalKeyPartition() throws StorageException {
+        return store.getLocalKeyPartition();
+    }
+
+    @Override
+    public String getName() {
+        return store.getName();
+    }
+
+    @Override
+    public void close() throws StorageException {
+        store.close();
+    }
+
+    private static class BlockWriter {
+
+        private byte[] buffer = new byte[64];
+        private int position = 0;
+
+        private void ensureCapacity(int length) {
+            if (position + length > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void write(StaticBuffer source, int offset, int length) {
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) buffer[position++] = source.getByte(offset + i);
+        }
+
+        private StaticBuffer getBuffer() {
+            return new StaticArrayBuffer(buffer, 0, position);
+        }
+    }
+
+    private static class BlockReader {
+
+        private final byte[] buffer;
+        private int position = 0;
+
+        private BlockReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer[position++];
+                value |= ((long) (b & 0x7F)) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+
+        private void read(byte[] target, int offset, int length) {
+            System.arraycopy(buffer, position, target, offset, length);
+            position += length;
+        }
+
+        private StaticBuffer view(int length) {
+            StaticBuffer result = new StaticArrayBuffer(buffer, position, position + length);
+            position += length;
+            return result;
+        }
+
+        private boolean hasRemaining() {
+            return position < buffer.length;
+        }
+    }
+
+    /**
+     * Decodes the blocks of each key and skips keys without entries in the slice
+     */
+    private static class DecodingKeyIterator implements KeyIterator {
+
+        private final KeyIterator iterator;
+        private final SliceQuery query;
+
+        private StaticBuffer nextKey = null;
+        private List<Entry> nextEntries = null;
+        private List<Entry> currentEntries = null;
+
+        private DecodingKeyIterator(KeyIterator iterator, SliceQuery query) {
+            this.iterator = iterator;
+            this.query = query;
+        }
+
+        @Override
+        public RecordIterator<Entry> getEntries() {
+            Preconditions.checkState(currentEntries != null, "No current key");
+            final Iterator<Entry> entries = currentEntries.iterator();
+            return new RecordIterator<Entry>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Entry next() {
+                    return entries.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextKey == null && iterator.hasNext()) {
+                StaticBuffer key = iterator.next();
+                List<Entry> blocks = new ArrayList<Entry>();
+                RecordIterator<Entry> entries = iterator.getEntries();
+                try {
+                    while (entries.hasNext()) blocks.add(entries.next());
+                } finally {
+                    try {
+                        entries.close();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not close entries of key: " + key, e);
+                    }
+                }
+                List<Entry> decoded = decode(blocks, query);
+                if (!decoded.isEmpty()) {
+                    nextKey = key;
+                    nextEntries = decoded;
+                }
+            }
+            return nextKey != null;
+        }
+
+        @Override
+        public StaticBuffer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            StaticBuffer key = nextKey;
+            currentEntries = nextEntries;
+            nextKey = null;
+            nextEntries = null;
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            iterator.close();
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.util.BackendCompression;
+import com.thinkaurelius.titan.diskstorage.util.RecordIterator;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps a {@link KeyColumnValueStore} and compresses all values that are at least as long as the configured
+ * threshold with the given {@link BackendCompression}.
+ * <p/>
+ * Compressed values are prefixed with the two byte header {@link #MARKER}, {@link #COMPRESSED}. All other values are
+ * stored as is, unless they start with {@link #MARKER} themselves in which case they are prefixed with
+ * {@link #MARKER}, {@link #UNCOMPRESSED} to keep them apart from compressed values. Hence, values below the
+ * threshold do not carry any overhead unless they happen to start with the marker byte. Values are only stored
+ * compressed if the compressed representation including the header is smaller. Since reading a value does not
+ * depend on the threshold, the threshold can be changed at any time without affecting the readability of existing
+ * values.
+ * <p/>
+ * Since values starting with the marker byte are escaped, this store must only wrap stores whose values have been
+ * written through it from the start.
+ */
+public class CompressedKeyColumnValueStore implements KeyColumnValueStore {
+
+    public static final byte MARKER = (byte) 0xFF;
+    public static final byte UNCOMPRESSED = 0;
+    public static final byte COMPRESSED = 1;
+
+    private static final int HEADER_LENGTH = 2;
+
+    private final KeyColumnValueStore store;
+    private final BackendCompression compression;
+    private final int threshold;
+
+    public CompressedKeyColumnValueStore(KeyColumnValueStore store, BackendCompression compression, int threshold) {
+        Preconditions.checkNotNull(store);
+        Preconditions.checkNotNull(compression);
+        Preconditions.checkArgument(threshold >= 0, "Invalid compression threshold: %s", threshold);
+        this.store = store;
+        this.compression = compression;
+        this.threshold = threshold;
+    }
+
+    StaticBuffer encode(StaticBuffer value) {
+        if (value == null || value.length() == 0) return value;
+        if (value.length() >= threshold) {
+            StaticBuffer compressed = compression.compress(value);
+            if (compressed.length() + HEADER_LENGTH < value.length()) return withHeader(COMPRESSED, compressed);
+        }
+        if (value.getByte(0) == MARKER) return withHeader(UNCOMPRESSED, value);
+        return value;
+    }
+
+    StaticBuffer decode(StaticBuffer value) {
+        if (value == null || value.length() == 0 || value.getByte(0) != MARKER) return value;
+        Preconditions.checkArgument(value.length() >= HEADER_LENGTH, "Value is missing the compression flag");
+        byte flag = value.getByte(1);
+        StaticBuffer payload = value.subrange(HEADER_LENGTH, value.length() - HEADER_LENGTH);
+        switch (flag) {
+            case UNCOMPRESSED:
+                return payload;
+            case COMPRESSED:
+                return compression.decompress(payload);
+            default:
+                throw new IllegalArgumentException("Invalid compression flag: " + flag);
+        }
+    }
+
+    private static StaticBuffer withHeader(byte flag, StaticBuffer payload) {
+        byte[] result = new byte[payload.length() + HEADER_LENGTH];
+        result[0] = MARKER;
+        result[1] = flag;
+        System.arraycopy(payload.as(StaticBuffer.ARRAY_FACTORY), 0, result, HEADER_LENGTH, payload.length());
+        return new StaticArrayBuffer(result);
+    }
+
+    private Entry encode(Entry entry) {
+        return StaticBufferEntry.of(entry.getColumn(), encode(entry.getValue()));
+    }
+
+    private Entry decode(Entry entry) {
+        return StaticBufferEntry.of(entry.getColumn(), decode(entry.getValue()));
+    }
+
+    private List<Entry> decode(List<Entry> entries) {
+        List<Entry> result = new ArrayList<Entry>(entries.size());
+        for (Entry entry : entries) result.add(decode(entry));
+        return result;
+    }
+
+    @Override
+    public boolean containsKey(StaticBuffer key, StoreTransaction txh) throws StorageException {
+        return store.containsKey(key, txh);
+    }
+
+    @Override
+    public List<Entry> getSlice(KeySliceQuery query, StoreTransaction txh) throws StorageException {
+        return decode(store.getSlice(query, txh));
+    }
+
+    @Override
+    public List<List<Entry>> getSlice(List<StaticBuffer> keys, SliceQuery query, StoreTransaction txh) throws StorageException {
+        List<List<Entry>> slices = store.getSlice(keys, query, txh);
+        List<List<Entry>> result = new ArrayList<List<Entry>>(slices.size());
+        for (List<Entry> slice : slices) result.add(decode(slice));
+        return result;
+    }
+
+    @Override
+    public void mutate(StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
+        List<Entry> encoded = additions;
+        if (!additions.isEmpty()) {
+            encoded = new ArrayList<Entry>(additions.size());
+            for (Entry entry : additions) encoded.add(encode(entry));
+        }
+        store.mutate(key, encoded, deletions, txh);
+    }
+
+    @Override
+    public void acquireLock(StaticBuffer key, StaticBuffer column, StaticBuffer expectedValue, StoreTransaction txh) throws StorageException {
+        store.acquireLock(key, column, encode(expectedValue), txh);
+    }
+
+    @Override
+    public KeyIterator getKeys(KeyRangeQuery keyQuery, StoreTransaction txh) throws StorageException {
+        return new DecodingKeyIterator(store.getKeys(keyQuery, txh));
+    }
+
+    @Override
+    public KeyIterator getKeys(SliceQuery columnQuery, StoreTransaction txh) throws StorageException {
+        return new DecodingKeyIterator(store.getKeys(columnQuery, txh));
+    }
+
+    @Override
+    public StaticBuffer[] getLocalKeyPartition() throws StorageException {
+        return store.getLocalKeyPartition();
+    }
+
+    @Override
+    public String getName() {
+        return store.getName();
+    }
+
+    @Override
+    public void close() throws StorageException {
+        store.close();
+    }
+
+    private class DecodingKeyIterator implements KeyIterator {
+
+        private final KeyIterator iterator;
+
+        private DecodingKeyIterator(KeyIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public RecordIterator<Entry> getEntries() {
+            final RecordIterator<Entry> entries = iterator.getEntries();
+            return new RecordIterator<Entry>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Entry next() {
+                    return decode(entries.next());
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    entries.close();
+                }
+            };
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public StaticBuffer next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public void close() throws IOException {
+            iterator.close();
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.thinkaurelius.titan.diskstorage.PermanentStorageException;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.util.BackendOperation;
+import com.thinkaurelius.titan.util.stats.MetricManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the mutations of concurrently committing transactions into shared
+ * {@link KeyColumnValueStoreManager#mutateMany(java.util.Map, StoreTransaction)} batches.
+ * <p/>
+ * The first transaction to submit its mutations becomes the leader of the next batch. It waits for the configured
+ * time window, or until the batch holds the configured number of mutations, for other transactions to submit theirs
+ * and then persists all of them in one batch through a dedicated store transaction. The other transactions block
+ * until the batch has been persisted. Mutations of one transaction are never coalesced with its own later mutations
+ * since each call blocks until its mutations have been persisted. Mutations of different transactions in the same
+ * batch are concurrent and hence have no defined order relative to each other.
+ * <p/>
+ * If the shared batch fails, the mutations of each transaction are persisted individually through the
+ * transaction's own handle so that each transaction receives its own result. Since mutations are idempotent,
+ * re-applying those which were persisted by the failed batch is safe.
+ * <p/>
+ * Since shared batches are persisted outside of the transactions they belong to, group commit is only supported
+ * for storage backends which do not support transactions.
+ */
+
+public class GroupCommitter {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(GroupCommitter.class);
+
+    public static final String M_GROUP_COMMIT = "groupcommit";
+    public static final String M_TRANSACTIONS = "transactions";
+    public static final String M_MUTATIONS = "mutations";
+    public static final String M_FALLBACK = "fallback";
+
+    private final KeyColumnValueStoreManager manager;
+    private final long windowNS;
+    private final int maxMutations;
+    private final int mutationAttempts;
+    private final int attemptWaitTime;
+
+    /**
+     * The batch collecting mutations; null if no batch is waiting for its window to pass.
+     * Guarded by this instance.
+     */
+    private Batch collecting;
+
+    public GroupCommitter(KeyColumnValueStoreManager manager, long window, TimeUnit unit, int maxMutations,
+                          int attempts, int waitTime) {
+        Preconditions.checkNotNull(manager);
+        Preconditions.checkArgument(window >= 0, "Group commit window must be non-negative");
+        Preconditions.checkArgument(maxMutations > 0, "Maximum number of mutations per batch must be positive");
+        Preconditions.checkArgument(manager.getFeatures().supportsBatchMutation(),
+                "Group commit requires a storage backend with batch mutations");
+        Preconditions.checkArgument(!manager.getFeatures().supportsTransactions(),
+                "Group commit would break the atomicity of the storage backend's transactions");
+        this.manager = manager;
+        this.windowNS = unit.toNanos(window);
+        this.maxMutations = maxMutations;
+        this.mutationAttempts = attempts;
+        this.attemptWaitTime = waitTime;
+        this.collecting = null;
+    }
+
+    /**
+     * Persists the given mutations of the given transaction, possibly together with the mutations of other
+     * transactions. Returns once the mutations have been persisted.
+     *
+     * @param mutations mutations to persist, keyed by store name and key
+     * @param tx        handle of the transaction the mutations belong to
+     * @throws StorageException if the mutations could not be persisted
+     */
+    public void mutateMany(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction tx) throws StorageException {
+        Preconditions.checkNotNull(mutations);
+        Preconditions.checkNotNull(tx);
+        Request request = new Request(mutations, tx);
+        Batch batch;
+        boolean leader = false;
+        synchronized (this) {
+            if (collecting == null) {
+                collecting = new Batch(tx.getConfiguration().getMetricsPrefix());
+                leader = true;
+            }
+            batch = collecting;
+            batch.add(request);
+            if (batch.numMutations >= maxMutations) {
+                //Full batches are no longer open to other transactions
+                collecting = null;
+                notifyAll();
+            }
+        }
+        if (leader) {
+            awaitWindow(batch);
+            persist(batch);
+        }
+        request.await();
+    }
+
+    private void awaitWindow(Batch batch) {
+        long deadline = System.nanoTime() + windowNS;
+        boolean interrupted = false;
+        synchronized (this) {
+            long remaining;
+            while (collecting == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    //The other transactions in this batch depend on the leader to persist it
+                    interrupted = true;
+                }
+            }
+            if (collecting == batch) collecting = null;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void persist(Batch batch) {
+        String metricsPrefix = batch.metricsPrefix;
+        if (metricsPrefix != null) {
+            MetricManager.INSTANCE.getHistogram(metricsPrefix, M_GROUP_COMMIT, M_TRANSACTIONS).update(batch.requests.size());
+            MetricManager.INSTANCE.getHistogram(metricsPrefix, M_GROUP_COMMIT, M_MUTATIONS).update(batch.numMutations);
+        }
+        if (batch.requests.size() == 1) {
+            Request request = batch.requests.get(0);
+            request.complete(persistIndividually(request));
+            return;
+        }
+        Throwable failure = null;
+        try {
+            persistShared(batch);
+        } catch (Throwable e) {
+            log.warn("Shared batch of " + batch.requests.size() + " transactions failed, persisting them individually", e);
+            failure = e;
+        }
+        for (Request request : batch.requests) {
+            if (failure == null) request.complete(null);
+            else {
+                if (metricsPrefix != null)
+                    MetricManager.INSTANCE.getCounter(metricsPrefix, M_GROUP_COMMIT, M_FALLBACK).inc();
+                request.complete(persistIndividually(request));
+            }
+        }
+    }
+
+    private void persistShared(Batch batch) throws StorageException {
+        Map<String, Map<StaticBuffer, KCVMutation>> shared = new HashMap<String, Map<StaticBuffer, KCVMutation>>();
+        for (Request request : batch.requests) {
+            for (Map.Entry<String, Map<StaticBuffer, KCVMutation>> storeMutation : request.mutations.entrySet()) {
+                Map<StaticBuffer, KCVMutation> sharedStoreMutation = shared.get(storeMutation.getKey());
+                if (sharedStoreMutation == null) {
+                    sharedStoreMutation = new HashMap<StaticBuffer, KCVMutation>();
+                    shared.put(storeMutation.getKey(), sharedStoreMutation);
+                }
+                for (Map.Entry<StaticBuffer, KCVMutation> keyMutation : storeMutation.getValue().entrySet()) {
+                    //Copy the mutation so that the transaction's own mutations are unchanged for the fallback
+                    KCVMutation m = keyMutation.getValue();
+                    KCVMutation copy = new KCVMutation(new ArrayList<Entry>(m.getAdditions()),
+                            new ArrayList<StaticBuffer>(m.getDeletions()));
+                    KCVMutation existing = sharedStoreMutation.get(keyMutation.getKey());
+                    if (existing != null) existing.merge(copy);
+                    else sharedStoreMutation.put(keyMutation.getKey(), copy);
+                }
+            }
+        }
+        StoreTxConfig leaderConfig = batch.requests.get(0).tx.getConfiguration();
+        final StoreTransaction sharedTx = manager.beginTransaction(
+                new StoreTxConfig(leaderConfig.getConsistency(), leaderConfig.getMetricsPrefix()));
+        try {
+            execute(shared, sharedTx);
+            sharedTx.commit();
+        } catch (RuntimeException e) {
+            sharedTx.rollback();
+            throw e;
+        } catch (StorageException e) {
+            sharedTx.rollback();
+            throw e;
+        }
+    }
+
+    private Throwable persistIndividually(Request request) {
+        try {
+            execute(request.mutations, request.tx);
+            return null;
+        } catch (Throwable e) {
+            return e;
+        }
+    }
+
+    private void execute(final Map<String, Map<StaticBuffer, KCVMutation>> mutations, final StoreTransaction tx) {
+        BackendOperation.execute(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                manager.mutateMany(mutations, tx);
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "GroupCommitMutation";
+            }
+        }, mutationAttempts, attemptWaitTime);
+    }
+
+    private static class Batch {
+
+        private final String metricsPrefix;
+        private final List<Request> requests = new ArrayList<Request>();
+        private int numMutations = 0;
+
+        private Batch(String metricsPrefix) {
+            this.metricsPrefix = metricsPrefix;
+        }
+
+        private void add(Request request) {
+            requests.add(request);
+            for (Map<StaticBuffer, KCVMutation> storeMutation : request.mutations.values()) {
+                for (KCVMutation m : storeMutation.values()) {
+                    numMutations += m.getAdditions().size() + m.getDeletions().size();
+                }
+            }
+        }
+    }
+
+    private static class Request {
+
+        private final Map<String, Map<StaticBuffer, KCVMutation>> mutations;
+        private final StoreTransaction tx;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        private Request(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction tx) {
+            this.mutations = mutations;
+            this.tx = tx;
+        }
+
+        private void complete(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        private void await() throws StorageException {
+            //The leader completes every request of its batch
+            Uninterruptibles.awaitUninterruptibly(done);
+            if (failure == null) return;
+            if (failure instanceof StorageException) throw (StorageException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            throw new PermanentStorageException("Group commit failed", failure);
+        }
+    }
+
+}
@@ -5,18 +5,23 @@ import com.google.common.collect.ImmutableList;
 import com.thinkaurelius.titan.diskstorage.StaticBuffer;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
 import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
-import com.thinkaurelius.titan.diskstorage.util.NoLock;
+import com.thinkaurelius.titan.util.datastructures.ByteSize;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implements a row in the in-memory implementation {@link InMemoryKeyColumnValueStore} which is comprised of
  * column-value pairs. This data is held in a sorted array for space and retrieval efficiency.
+ * <p/>
+ * The array is never modified once it has been published. Mutations merge all additions and deletions into a new
+ * copy of the array which replaces the current one atomically. Hence, reads never block and always observe
+ * the complete effect of a mutation, while concurrent mutations of the same row are serialized.
+ * <p/>
+ * A row that becomes empty is retired and must be replaced by a new row for subsequent mutations,
+ * so that empty rows can be removed from the store.
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -25,150 +30,111 @@ class ColumnValueStore {
 
     private static final double SIZE_THRESHOLD = 0.66;
 
-    private Data data;
+    private static final Data EMPTY = new Data(new Entry[0], 0);
 
-    public ColumnValueStore() {
-        data = new Data(new Entry[0], 0);
+    private final AtomicLong storeByteSize;
+
+    private volatile Data data = EMPTY;
+    private boolean retired = false;
+
+    ColumnValueStore(AtomicLong storeByteSize) {
+        Preconditions.checkNotNull(storeByteSize);
+        this.storeByteSize = storeByteSize;
     }
 
-    boolean isEmpty(StoreTransaction txh) {
-        Lock lock = getLock(txh);
-        lock.lock();
-        try {
-            return data.isEmpty();
-        } finally {
-            lock.unlock();
-        }
+    boolean isEmpty() {
+        return data.isEmpty();
     }
 
-    List<Entry> getSlice(KeySliceQuery query, StoreTransaction txh) {
-        Lock lock = getLock(txh);
-        lock.lock();
-        try {
-            Data datacp = data;
-            int start = datacp.getIndex(query.getSliceStart());
-            if (start < 0) start = (-start - 1);
-            int end = datacp.getIndex(query.getSliceEnd());
-            if (end < 0) end = (-end - 1);
-            if (start < end) {
-                List<Entry> result = new ArrayList<Entry>(end - start);
-                for (int i = start; i < end; i++) {
-                    if (query.hasLimit() && result.size() >= query.getLimit()) break;
-                    result.add(datacp.get(i));
-                }
-                return result;
-            } else {
-                return ImmutableList.of();
-            }
-        } finally {
-            lock.unlock();
-        }
+    /**
+     * Returns the approximate number of bytes occupied by the entries of this row
+     *
+     * @return
+     */
+    long getByteSize() {
+        return data.byteSize;
     }
 
+    List<Entry> getSlice(KeySliceQuery query) {
+        Data datacp = data;
+        int start = datacp.getIndex(query.getSliceStart());
+        if (start < 0) start = (-start - 1);
+        int end = datacp.getIndex(query.getSliceEnd());
+        if (end < 0) end = (-end - 1);
+        if (start < end) {
+            if (query.hasLimit()) end = Math.min(end, start + query.getLimit());
+            List<Entry> result = new ArrayList<Entry>(end - start);
+            for (int i = start; i < end; i++) result.add(datacp.get(i));
+            return result;
+        } else {
+            return ImmutableList.of();
+        }
+    }
 
-    synchronized void mutate(List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) {
-        //Prepare data
-        Entry[] add;
+    /**
+     * Applies the additions and deletions to this row.
+     *
+     * @param additions
+     * @param deletions
+     * @return false if this row has been retired and the mutation has not been applied, else true
+     */
+    boolean mutate(List<Entry> additions, List<StaticBuffer> deletions) {
+        //Prepare data outside of the lock
+        Entry[] add = new Entry[additions.size()];
+        int addSize = 0;
         if (!additions.isEmpty()) {
-            add = new Entry[additions.size()];
-            int pos = 0;
-            for (Entry e : additions) {
-                add[pos] = e;
-                pos++;
-            }
+            add = additions.toArray(add);
             Arrays.sort(add);
-        } else add = new Entry[0];
-
-        //Filter out deletions that are also added
-        StaticBuffer[] del;
-        if (!deletions.isEmpty()) {
-            Iterator<StaticBuffer> iter = deletions.iterator();
-            while (iter.hasNext()) {
-                if (Arrays.binarySearch(add, new StaticBufferEntry(iter.next(), null)) >= 0) {
-                    iter.remove();
-                }
-            }
-            del = deletions.toArray(new StaticBuffer[deletions.size()]);
-            Arrays.sort(del);
-        } else del = new StaticBuffer[0];
-
-        Lock lock = getLock(txh);
-        lock.lock();
-        try {
-            Entry[] olddata = data.array;
-            int oldsize = data.size;
-            Entry[] newdata = new Entry[oldsize + add.length];
-
-            //Merge sort
-            int i = 0, iold = 0, iadd = 0, idel = 0;
-            while (iold < oldsize) {
-                Entry e = olddata[iold];
-                iold++;
-                //Compare with additions
-                if (iadd < add.length) {
-                    int compare = e.compareTo(add[iadd]);
-                    if (compare >= 0) {
-                        e = add[iadd];
-                        iadd++;
-                        //Skip duplicates
-                        while (iadd < add.length && e.equals(add[iadd])) iadd++;
-                    }
-                    if (compare > 0) iold--;
-                }
-                //Compare with deletions
-                if (idel < del.length) {
-                    int compare = ByteBufferUtil.compare(e.getColumn(), del[idel]);
-                    if (compare == 0) e = null;
-                    if (compare >= 0) idel++;
-                }
-                if (e != null) {
-                    newdata[i] = e;
-                    i++;
-                }
-            }
-            while (iadd < add.length) {
-                newdata[i] = add[iadd];
-                i++;
-                iadd++;
+            //Skip duplicates
+            addSize = 1;
+            for (int i = 1; i < add.length; i++) {
+                if (!add[i].equals(add[addSize - 1])) add[addSize++] = add[i];
             }
+        }
 
-            if (i * 1.0 / newdata.length < SIZE_THRESHOLD) {
-                //shrink array to free space
-                Entry[] tmpdata = newdata;
-                newdata = new Entry[i];
-                System.arraycopy(tmpdata, 0, newdata, 0, i);
-            }
-            data = new Data(newdata, i);
-        } finally {
-            lock.unlock();
+        //Filter out deletions that are also added
+        StaticBuffer[] del = new StaticBuffer[deletions.size()];
+        int delSize = 0;
+        for (StaticBuffer column : deletions) {
+            if (Arrays.binarySearch(add, 0, addSize, new StaticBufferEntry(column, null)) < 0) del[delSize++] = column;
+        }
+        Arrays.sort(del, 0, delSize);
+
+        synchronized (this) {
+            if (retired) return false;
+            Data olddata = data;
+            Data newdata = olddata.merge(add, addSize, del, delSize);
+            data = newdata;
+            storeByteSize.addAndGet(newdata.byteSize - olddata.byteSize);
+            if (newdata.isEmpty()) retired = true;
+            return true;
         }
     }
 
-    private ReentrantLock lock = null;
+    synchronized boolean isRetired() {
+        return retired;
+    }
 
-    private Lock getLock(StoreTransaction txh) {
-        if (txh.getConfiguration().getConsistency().isKeyConsistent()) {
-            if (lock == null) {
-                synchronized (this) {
-                    if (lock == null) {
-                        lock = new ReentrantLock();
-                    }
-                }
-            }
-            return lock;
-        } else return NoLock.INSTANCE;
+    private static long getByteSize(Entry entry) {
+        StaticBuffer value = entry.getValue();
+        return ByteSize.OBJECT_HEADER + 2 * ByteSize.OBJECT_REFERENCE + 2 * ByteSize.STATICARRAYBUFFER_RAW_SIZE +
+                entry.getColumn().length() + (value == null ? 0 : value.length());
     }
 
     private static class Data {
 
         final Entry[] array;
         final int size;
+        final long byteSize;
 
         Data(final Entry[] array, final int size) {
             Preconditions.checkArgument(size >= 0 && size <= array.length);
-            assert isSorted();
             this.array = array;
             this.size = size;
+            assert isSorted();
+            long bytes = ByteSize.OBJECT_HEADER + 4 + array.length * ByteSize.OBJECT_REFERENCE;
+            for (int i = 0; i < size; i++) bytes += ColumnValueStore.getByteSize(array[i]);
+            this.byteSize = bytes;
         }
 
         boolean isEmpty() {
@@ -183,6 +149,46 @@ class ColumnValueStore {
             return array[index];
         }
 
+        /**
+         * Merges the sorted additions and deletions into a copy of this data. Additions replace existing entries
+         * with the same column.
+         */
+        Data merge(Entry[] add, int addSize, StaticBuffer[] del, int delSize) {
+            if (addSize == 0 && delSize == 0) return this;
+            Entry[] newdata = new Entry[size + addSize];
+            int i = 0, iold = 0, iadd = 0, idel = 0;
+            while (iold < size || iadd < addSize) {
+                Entry e;
+                if (iadd >= addSize) {
+                    e = array[iold++];
+                } else if (iold >= size) {
+                    e = add[iadd++];
+                } else {
+                    int compare = array[iold].compareTo(add[iadd]);
+                    if (compare < 0) {
+                        e = array[iold++];
+                    } else {
+                        e = add[iadd++];
+                        if (compare == 0) iold++;
+                    }
+                }
+                //Deletions never match additions since those have been filtered out
+                while (idel < delSize && ByteBufferUtil.compare(del[idel], e.getColumn()) < 0) idel++;
+                if (idel < delSize && ByteBufferUtil.compare(del[idel], e.getColumn()) == 0) {
+                    idel++;
+                    continue;
+                }
+                newdata[i++] = e;
+            }
+
+            if (i == 0) return EMPTY;
+            if (i * 1.0 / newdata.length < SIZE_THRESHOLD) {
+                //shrink array to free space
+                newdata = Arrays.copyOf(newdata, i);
+            }
+            return new Data(newdata, i);
+        }
+
         boolean isSorted() {
             for (int i = 1; i < size; i++) {
                 if (!(array[i].compareTo(array[i - 1]) > 0)) return false;
@@ -8,6 +8,7 @@ import com.thinkaurelius.titan.diskstorage.StaticBuffer;
 import com.thinkaurelius.titan.diskstorage.StorageException;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
 import com.thinkaurelius.titan.diskstorage.util.RecordIterator;
+import com.thinkaurelius.titan.util.datastructures.ByteSize;
 import org.apache.commons.lang.StringUtils;
 
 import javax.annotation.Nullable;
@@ -17,11 +18,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An in-memory implementation of {@link KeyColumnValueStore}.
- * This implementation is thread-safe. All data is held in memory, which means that the capacity of this store is
- * determined by the available heap space. No data is persisted and all data lost when the jvm terminates or store closed.
+ * This implementation is thread-safe and reads never block. All data is held in memory, which means that the capacity
+ * of this store is determined by the available heap space. No data is persisted and all data lost when the jvm terminates
+ * or store closed.
  *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
@@ -30,6 +33,7 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
 
     private final String name;
     private final ConcurrentNavigableMap<StaticBuffer, ColumnValueStore> kcv;
+    private final AtomicLong byteSize = new AtomicLong(0);
 
     public InMemoryKeyColumnValueStore(final String name) {
         Preconditions.checkArgument(StringUtils.isNotBlank(name));
@@ -40,14 +44,14 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
     @Override
     public boolean containsKey(StaticBuffer key, StoreTransaction txh) throws StorageException {
         ColumnValueStore cvs = kcv.get(key);
-        return cvs != null && !cvs.isEmpty(txh);
+        return cvs != null && !cvs.isEmpty();
     }
 
     @Override
     public List<Entry> getSlice(KeySliceQuery query, StoreTransaction txh) throws StorageException {
         ColumnValueStore cvs = kcv.get(query.getKey());
         if (cvs == null) return Lists.newArrayList();
-        else return cvs.getSlice(query, txh);
+        else return cvs.getSlice(query);
     }
 
     @Override
@@ -57,12 +61,24 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
 
     @Override
     public void mutate(StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
-        ColumnValueStore cvs = kcv.get(key);
-        if (cvs == null) {
-            kcv.putIfAbsent(key, new ColumnValueStore());
-            cvs = kcv.get(key);
+        while (true) {
+            ColumnValueStore cvs = kcv.get(key);
+            if (cvs == null) {
+                if (additions.isEmpty()) return;
+                ColumnValueStore newcvs = new ColumnValueStore(byteSize);
+                cvs = kcv.putIfAbsent(key, newcvs);
+                if (cvs == null) {
+                    cvs = newcvs;
+                    byteSize.addAndGet(getRowByteSize(key));
+                }
+            }
+            boolean applied = cvs.mutate(additions, deletions);
+            if (cvs.isRetired() && kcv.remove(key, cvs)) {
+                //Remove rows which became empty
+                byteSize.addAndGet(-getRowByteSize(key));
+            }
+            if (applied) return;
         }
-        cvs.mutate(additions, deletions, txh);
     }
 
     @Override
@@ -92,13 +108,29 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
         return name;
     }
 
+    /**
+     * Returns the approximate number of bytes occupied by the data in this store
+     *
+     * @return
+     */
+    public long getByteSize() {
+        return byteSize.get();
+    }
+
+    private static long getRowByteSize(StaticBuffer key) {
+        //Skip list node, index node and row object plus key
+        return 3 * ByteSize.OBJECT_HEADER + 6 * ByteSize.OBJECT_REFERENCE + 4 +
+                ByteSize.STATICARRAYBUFFER_RAW_SIZE + key.length();
+    }
+
     public void clear() {
         kcv.clear();
+        byteSize.set(0);
     }
 
     @Override
     public void close() throws StorageException {
-        kcv.clear();
+        clear();
     }
 
 
@@ -117,7 +149,7 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
             this.rows = Iterators.filter(rows, new Predicate<Map.Entry<StaticBuffer, ColumnValueStore>>() {
                 @Override
                 public boolean apply(@Nullable Map.Entry<StaticBuffer, ColumnValueStore> entry) {
-                    return entry != null && !entry.getValue().isEmpty(transaction);
+                    return entry != null && !entry.getValue().isEmpty();
                 }
             });
 
@@ -134,7 +166,7 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
 
             final KeySliceQuery keySlice = new KeySliceQuery(currentRow.getKey(), columnSlice);
             return new RecordIterator<Entry>() {
-                private final Iterator<Entry> items = currentRow.getValue().getSlice(keySlice, transaction).iterator();
+                private final Iterator<Entry> items = currentRow.getValue().getSlice(keySlice).iterator();
 
                 @Override
                 public boolean hasNext() {
@@ -169,7 +201,7 @@ public class InMemoryKeyColumnValueStore implements KeyColumnValueStore {
 
             while (rows.hasNext()) {
                 nextRow = rows.next();
-                List<Entry> ents = nextRow.getValue().getSlice(new KeySliceQuery(nextRow.getKey(), columnSlice), transaction);
+                List<Entry> ents = nextRow.getValue().getSlice(new KeySliceQuery(nextRow.getKey(), columnSlice));
                 if (null != ents && 0 < ents.size())
                     break;
             }
@@ -92,6 +92,17 @@ public class InMemoryStoreManager implements KeyColumnValueStoreManager {
         }
     }
 
+    /**
+     * Returns the approximate number of bytes occupied by the data in all stores of this manager
+     *
+     * @return
+     */
+    public long getByteSize() {
+        long size = 0;
+        for (InMemoryKeyColumnValueStore store : stores.values()) size += store.getByteSize();
+        return size;
+    }
+
     @Override
     public String getName() {
         return toString();
@@ -251,6 +251,23 @@ public abstract class AbstractLocker<S extends LockStatus> implements Locker {
      */
     protected abstract void checkSingleLock(KeyColumn lockID, S lockStatus, StoreTransaction tx) throws Throwable;
 
+    /**
+     * Verify all locks held by {@code tx}. The default implementation calls
+     * {@link #checkSingleLock(KeyColumn, LockStatus, StoreTransaction)} for
+     * each lock in turn. Implementations that can verify multiple locks at
+     * once should override this method.
+     *
+     * @param locks all locks held by {@code tx} and their status
+     * @param tx    identifies the process claiming the locks
+     * @throws Throwable if any lock fails the check or if the attempted check
+     *                   encountered an error
+     */
+    protected void checkAllLocks(Map<KeyColumn, S> locks, StoreTransaction tx) throws Throwable {
+        for (KeyColumn kc : locks.keySet()) {
+            checkSingleLock(kc, locks.get(kc), tx);
+        }
+    }
+
     /**
      * Try to unlock/release/delete the lock identified by {@code lockID} and
      * both held by and verified for {@code tx}. This method is only called with
@@ -328,9 +345,7 @@ public abstract class AbstractLocker<S extends LockStatus> implements Locker {
         // interrupt
         boolean ok = false;
         try {
-            for (KeyColumn kc : m.keySet()) {
-                checkSingleLock(kc, m.get(kc), tx);
-            }
+            checkAllLocks(m, tx);
             ok = true;
         } catch (InterruptedException e) {
             throw new TemporaryLockingException(e);
@@ -380,7 +395,7 @@ public abstract class AbstractLocker<S extends LockStatus> implements Locker {
     }
 
     private boolean lockLocally(KeyColumn lockID, long expireNS, StoreTransaction tx) {
-        return llm.lock(lockID, tx, expireNS, TimeUnit.NANOSECONDS);
+        return llm.lock(lockID, tx, expireNS, TimeUnit.NANOSECONDS, tx.getConfiguration().getMetricsPrefix());
     }
 
     private void unlockLocally(KeyColumn lockID, StoreTransaction txh) {
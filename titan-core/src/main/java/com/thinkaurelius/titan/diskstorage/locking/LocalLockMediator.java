@@ -1,13 +1,18 @@
 package com.thinkaurelius.titan.diskstorage.locking;
 
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
 import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ExpectedValueCheckingTransaction;
 import com.thinkaurelius.titan.diskstorage.util.KeyColumn;
 import com.thinkaurelius.titan.diskstorage.util.TimeUtility;
+import com.thinkaurelius.titan.util.stats.MetricManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class resolves lock contention between two transactions on the same JVM.
@@ -18,6 +23,13 @@ import java.util.concurrent.TimeUnit;
  * transaction in a process holds any given lock. This class prevents two
  * transactions in a single process from concurrently writing the same lock to a
  * distributed key-value store.
+ * <p/>
+ * Locks are recorded in a striped table. A ({@code key}, {@code column}) pair is
+ * hashed to 64 bits which select the stripe and the slot within the stripe. Each stripe
+ * is an open-addressing table guarded by its own lock, so that transactions locking
+ * different pairs rarely contend and re-locking or unlocking a pair does not allocate.
+ * Expired slots are taken over by the next requestor of the same pair. They are otherwise kept until
+ * the holder unlocks them, so that unlocking an expired lock is not reported as an error.
  *
  * @author Dan LaRocque <dalaro@hopcount.org>
  */
@@ -27,6 +39,20 @@ public class LocalLockMediator<T> {
     private static final Logger log = LoggerFactory
             .getLogger(LocalLockMediator.class);
 
+    private static final String M_LOCAL_LOCKS = "localLocks";
+    /**
+     * Lock attempts which failed because the lock was held by another transaction
+     */
+    private static final String M_CONTENTION = "contention";
+    /**
+     * Expired locks which were taken over by another transaction
+     */
+    private static final String M_EXPIRED = "expired";
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
     /**
      * Namespace for which this mediator is responsible
      *
@@ -35,15 +61,25 @@ public class LocalLockMediator<T> {
     private final String name;
 
     /**
-     * Maps a ({@code key}, {@code column}) pair to the local transaction
-     * holding a lock on that pair. Values in this map may have already expired
-     * according to {@link AuditRecord#expires}, in which case the lock should
+     * Maps the hash of a ({@code key}, {@code column}) pair to the local transaction
+     * holding a lock on that pair. Locks in this table may have already expired
+     * according to their expiration time, in which case the lock should
      * be considered invalid.
      */
-    private final ConcurrentHashMap<KeyColumn, AuditRecord<T>> locks = new ConcurrentHashMap<KeyColumn, AuditRecord<T>>();
+    private final Stripe[] stripes;
+    private final int stripeMask;
 
     public LocalLockMediator(String name) {
+        this(name, DEFAULT_STRIPES);
+    }
+
+    public LocalLockMediator(String name, int numStripes) {
+        Preconditions.checkArgument(numStripes > 0 && Integer.bitCount(numStripes) == 1,
+                "Number of stripes must be a power of 2: %s", numStripes);
         this.name = name;
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) stripes[i] = new Stripe();
+        this.stripeMask = numStripes - 1;
 
         assert null != this.name;
     }
@@ -84,55 +120,111 @@ public class LocalLockMediator<T> {
      */
     public boolean lock(KeyColumn kc, T requestor,
                         long expires, TimeUnit tu) {
+        return lock(kc, requestor, expires, tu, null);
+    }
+
+    /**
+     * Like {@link #lock(KeyColumn, Object, long, java.util.concurrent.TimeUnit)} but records lock contention
+     * and the takeover of expired locks under the given metrics prefix.
+     *
+     * @param metricsPrefix prefix of the recorded metrics or null to record none
+     */
+    public boolean lock(KeyColumn kc, T requestor,
+                        long expires, TimeUnit tu, String metricsPrefix) {
         assert null != kc;
         assert null != requestor;
 
-        AuditRecord<T> audit = new AuditRecord<T>(requestor, TimeUnit.NANOSECONDS.convert(expires, tu));
-        AuditRecord<T> inmap = locks.putIfAbsent(kc, audit);
+        final long expiresNS = TimeUnit.NANOSECONDS.convert(expires, tu);
+        final long hash = hash(kc);
+        final Stripe stripe = stripes[stripeIndex(hash)];
+
+        stripe.lock();
+        try {
+            int index = stripe.indexOf(hash, kc);
+            if (!stripe.isAvailable(index, requestor)) {
+                // we lost to a valid lock
+                recordMetric(metricsPrefix, M_CONTENTION);
+                if (log.isTraceEnabled()) {
+                    log.trace("Local lock failed: {} namespace={} txn={} (already owned by {})",
+                            new Object[]{kc, name, requestor, stripe.holders[index]});
+                }
+                return false;
+            }
+            stripe.put(hash, kc, requestor, expiresNS, this, metricsPrefix);
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Acquire the locks specified by {@code kcs} atomically: either all locks are acquired
+     * or none is. Each lock behaves as if it had been acquired by
+     * {@link #lock(KeyColumn, Object, long, java.util.concurrent.TimeUnit)}, in particular locks
+     * already held by {@code requestor} merely have their expiration time updated.
+     * <p/>
+     * The stripes covering the locks are held in a canonical order while the locks are acquired,
+     * so that concurrent calls on overlapping sets neither deadlock nor partially succeed.
+     *
+     * @param kcs       lock identifiers
+     * @param requestor the object locking {@code kcs}
+     * @param expires   the absolute time since the UNIX epoch at which these locks will automatically expire
+     * @param tu        the units of {@code expires}
+     * @return true if all locks are acquired, false if none was acquired
+     */
+    public boolean lockAll(Collection<KeyColumn> kcs, T requestor,
+                           long expires, TimeUnit tu) {
+        return lockAll(kcs, requestor, expires, tu, null);
+    }
 
-        boolean success = false;
+    /**
+     * Like {@link #lockAll(java.util.Collection, Object, long, java.util.concurrent.TimeUnit)} but records lock
+     * contention and the takeover of expired locks under the given metrics prefix.
+     *
+     * @param metricsPrefix prefix of the recorded metrics or null to record none
+     */
+    public boolean lockAll(Collection<KeyColumn> kcs, T requestor,
+                           long expires, TimeUnit tu, String metricsPrefix) {
+        assert null != kcs;
+        assert null != requestor;
+        if (kcs.isEmpty()) return true;
+
+        final long expiresNS = TimeUnit.NANOSECONDS.convert(expires, tu);
+        final KeyColumn[] columns = kcs.toArray(new KeyColumn[kcs.size()]);
+        final long[] hashes = new long[columns.length];
+        final int[] held = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            hashes[i] = hash(columns[i]);
+            held[i] = stripeIndex(hashes[i]);
+        }
+        //Canonical order of stripes, each stripe locked once
+        Arrays.sort(held);
+        int numHeld = 0;
+        for (int i = 0; i < held.length; i++) {
+            if (numHeld == 0 || held[numHeld - 1] != held[i]) held[numHeld++] = held[i];
+        }
 
-        if (null == inmap) {
-            // Uncontended lock succeeded
-            if (log.isTraceEnabled()) {
-                log.trace("New local lock created: {} namespace={} txn={}",
-                        new Object[]{kc, name, requestor});
-            }
-            success = true;
-        } else if (inmap.equals(audit)) {
-            // requestor has already locked kc; update expiresAt
-            success = locks.replace(kc, inmap, audit);
-            if (log.isTraceEnabled()) {
-                if (success) {
-                    log.trace(
-                            "Updated local lock expiration: {} namespace={} txn={} oldexp={} newexp={}",
-                            new Object[]{kc, name, requestor, inmap.expires,
-                                    audit.expires});
-                } else {
-                    log.trace(
-                            "Failed to update local lock expiration: {} namespace={} txn={} oldexp={} newexp={}",
-                            new Object[]{kc, name, requestor, inmap.expires,
-                                    audit.expires});
+        for (int i = 0; i < numHeld; i++) stripes[held[i]].lock();
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                Stripe stripe = stripes[stripeIndex(hashes[i])];
+                int index = stripe.indexOf(hashes[i], columns[i]);
+                if (!stripe.isAvailable(index, requestor)) {
+                    recordMetric(metricsPrefix, M_CONTENTION);
+                    if (log.isTraceEnabled()) {
+                        log.trace("Local lock of {} columns failed on {} namespace={} txn={} (already owned by {})",
+                                new Object[]{columns.length, columns[i], name, requestor, stripe.holders[index]});
+                    }
+                    return false;
                 }
             }
-        } else if (inmap.expires <= TimeUtility.INSTANCE.getApproxNSSinceEpoch()) {
-            // the recorded lock has expired; replace it
-            success = locks.replace(kc, inmap, audit);
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Discarding expired lock: {} namespace={} txn={} expired={}",
-                        new Object[]{kc, name, inmap.holder, inmap.expires});
-            }
-        } else {
-            // we lost to a valid lock
-            if (log.isTraceEnabled()) {
-                log.trace(
-                        "Local lock failed: {} namespace={} txn={} (already owned by {})",
-                        new Object[]{kc, name, requestor, inmap});
+            for (int i = 0; i < columns.length; i++) {
+                stripes[stripeIndex(hashes[i])].put(hashes[i], columns[i], requestor, expiresNS, this, metricsPrefix);
             }
+            return true;
+        } finally {
+            for (int i = numHeld - 1; i >= 0; i--) stripes[held[i]].unlock();
         }
-
-        return success;
     }
 
     /**
@@ -143,116 +235,218 @@ public class LocalLockMediator<T> {
      * @param requestor the object which previously locked {@code kc}
      */
     public boolean unlock(KeyColumn kc, T requestor) {
-
-        if (!locks.containsKey(kc)) {
-            log.error("Local unlock failed: no locks found for {}", kc);
-            return false;
+        final long hash = hash(kc);
+        final Stripe stripe = stripes[stripeIndex(hash)];
+
+        stripe.lock();
+        try {
+            int index = stripe.indexOf(hash, kc);
+            if (index < 0) {
+                log.error("Local unlock failed: no locks found for {}", kc);
+                return false;
+            }
+            if (!stripe.holders[index].equals(requestor)) {
+                log.error("Local unlock of {} by {} failed: it is held by {}",
+                        new Object[]{kc, requestor, stripe.holders[index]});
+                return false;
+            }
+            stripe.remove(index);
+        } finally {
+            stripe.unlock();
         }
 
-        AuditRecord<T> unlocker = new AuditRecord<T>(requestor, 0);
+        if (log.isTraceEnabled()) {
+            log.trace("Local unlock succeeded: {} namespace={} txn={}",
+                    new Object[]{kc, name, requestor});
+        }
+        return true;
+    }
 
-        AuditRecord<T> holder = locks.get(kc);
+    public String toString() {
+        int size = 0;
+        for (Stripe stripe : stripes) size += stripe.size;
+        return "LocalLockMediator [" + name + ",  ~" + size
+                + " current locks]";
+    }
 
-        if (!holder.equals(unlocker)) {
-            log.error("Local unlock of {} by {} failed: it is held by {}",
-                    new Object[]{kc, unlocker, holder});
-            return false;
-        }
+    private static void recordMetric(String metricsPrefix, String name) {
+        if (null != metricsPrefix) MetricManager.INSTANCE.getCounter(metricsPrefix, M_LOCAL_LOCKS, name).inc();
+    }
 
-        boolean removed = locks.remove(kc, unlocker);
+    private int stripeIndex(long hash) {
+        return (int) (hash >>> 32) & stripeMask;
+    }
 
-        if (removed) {
-            if (log.isTraceEnabled()) {
-                log.trace("Local unlock succeeded: {} namespace={} txn={}",
-                        new Object[]{kc, name, requestor});
-            }
-        } else {
-            log.warn("Local unlock warning: lock record for {} disappeared "
-                    + "during removal; this suggests the lock either expired "
-                    + "while we were removing it, or that it was erroneously "
-                    + "unlocked multiple times.", kc);
-        }
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
 
-        // Even if !removed, we're finished unlocking, so return true
-        return true;
+    /**
+     * Computes a 64 bit hash of the key and column bytes. The upper half selects the stripe
+     * and the lower half the slot within the stripe.
+     */
+    static long hash(KeyColumn kc) {
+        long h = hash(FNV_OFFSET, kc.getKey());
+        h = hash(h, kc.getColumn());
+        //Finalization step of MurmurHash3 to spread the bits
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
-    public String toString() {
-        return "LocalLockMediator [" + name + ",  ~" + locks.size()
-                + " current locks]";
+    private static long hash(long h, StaticBuffer buffer) {
+        final int length = buffer.length();
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (buffer.getByte(i) & 0xff)) * FNV_PRIME;
+        }
+        return (h ^ length) * FNV_PRIME;
     }
 
     /**
-     * A record containing the local transaction that holds a lock and the
-     * lock's expiration time.
+     * A stripe of the lock table. Slots are addressed by linear probing on the lower half of the hash
+     * and hold the lock identifier, the local transaction that holds the lock and the
+     * lock's expiration time in nanoseconds from the epoch as returned by
+     * {@link TimeUtility#getApproxNSSinceEpoch()}.
+     * <p/>
+     * All methods must be called while holding the stripe's lock.
      */
-    private static class AuditRecord<T> {
+    private static class Stripe extends ReentrantLock {
+
+        private static final double MAX_LOAD = 0.5;
+
+        private long[] hashes;
+        private KeyColumn[] columns;
+        private Object[] holders;
+        private long[] expires;
+        private int size;
+
+        private Stripe() {
+            allocate(INITIAL_STRIPE_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            hashes = new long[capacity];
+            columns = new KeyColumn[capacity];
+            holders = new Object[capacity];
+            expires = new long[capacity];
+            size = 0;
+        }
+
+        private int slot(long hash) {
+            return (int) hash & (columns.length - 1);
+        }
 
         /**
-         * The local transaction that holds/held the lock.
-         */
-        private final T holder;
-        /**
-         * The expiration time of a the lock. Conventionally, this is in
-         * nanoseconds from the epoch as returned by
-         * {@link TimeUtility#getApproxNSSinceEpoch()}.
-         */
-        private final long expires;
-        /**
-         * Cached hashCode.
+         * @return the index of the slot holding {@code kc}, or {@code -(index + 1)} of the
+         *         empty slot where it would be inserted
          */
-        private int hashCode;
-
-        private AuditRecord(T holder, long expires) {
-            this.holder = holder;
-            this.expires = expires;
+        private int indexOf(long hash, KeyColumn kc) {
+            final int mask = columns.length - 1;
+            for (int i = slot(hash); ; i = (i + 1) & mask) {
+                if (null == columns[i]) return -(i + 1);
+                if (hashes[i] == hash && columns[i].equals(kc)) return i;
+            }
         }
 
         /**
-         * This implementation depends only on the lock holder and not on the
-         * lock expiration time.
+         * Whether {@code requestor} may acquire the lock at {@code index}, i.e. the lock
+         * is not held, held by {@code requestor} or has expired.
          */
-        @Override
-        public int hashCode() {
-            if (0 == hashCode)
-                hashCode = holder.hashCode();
+        private boolean isAvailable(int index, Object requestor) {
+            return index < 0 || holders[index].equals(requestor)
+                    || expires[index] <= TimeUtility.INSTANCE.getApproxNSSinceEpoch();
+        }
 
-            return hashCode;
+        private void put(long hash, KeyColumn kc, Object requestor, long expiresNS, LocalLockMediator<?> mediator,
+                         String metricsPrefix) {
+            int index = indexOf(hash, kc);
+            if (index >= 0) {
+                if (holders[index].equals(requestor)) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Updated local lock expiration: {} namespace={} txn={} oldexp={} newexp={}",
+                                new Object[]{kc, mediator.name, requestor, expires[index], expiresNS});
+                    }
+                } else {
+                    // the recorded lock has expired; replace it
+                    recordMetric(metricsPrefix, M_EXPIRED);
+                    if (log.isTraceEnabled()) {
+                        log.trace("Discarding expired lock: {} namespace={} txn={} expired={}",
+                                new Object[]{kc, mediator.name, holders[index], expires[index]});
+                    }
+                    holders[index] = requestor;
+                }
+                expires[index] = expiresNS;
+                return;
+            }
+
+            if (size + 1 > columns.length * MAX_LOAD) {
+                grow();
+                index = indexOf(hash, kc);
+            }
+            index = -index - 1;
+            hashes[index] = hash;
+            columns[index] = kc;
+            holders[index] = requestor;
+            expires[index] = expiresNS;
+            size++;
+            if (log.isTraceEnabled()) {
+                log.trace("New local lock created: {} namespace={} txn={}",
+                        new Object[]{kc, mediator.name, requestor});
+            }
         }
 
         /**
-         * This implementation depends only on the lock holder and not on the
-         * lock expiration time.
+         * Removes the slot at {@code index} and shifts subsequent slots of the same probe sequence
+         * backwards so that no tombstones are needed.
          */
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            /*
-             * This warning suppression is harmless because we are only going to
-             * call other.holder.equals(...), and since equals(...) is part of
-             * Object, it is guaranteed to be defined no matter the concrete
-             * type of parameter T.
-             */
-            @SuppressWarnings("rawtypes")
-            AuditRecord other = (AuditRecord) obj;
-            if (holder == null) {
-                if (other.holder != null)
-                    return false;
-            } else if (!holder.equals(other.holder))
-                return false;
-            return true;
+        private void remove(int index) {
+            final int mask = columns.length - 1;
+            clear(index);
+            size--;
+            for (int i = (index + 1) & mask; null != columns[i]; i = (i + 1) & mask) {
+                int home = slot(hashes[i]);
+                boolean inPlace = index <= i ? (index < home && home <= i) : (index < home || home <= i);
+                if (!inPlace) {
+                    hashes[index] = hashes[i];
+                    columns[index] = columns[i];
+                    holders[index] = holders[i];
+                    expires[index] = expires[i];
+                    clear(i);
+                    index = i;
+                }
+            }
         }
 
-        @Override
-        public String toString() {
-            return "AuditRecord [txn=" + holder + ", expires=" + expires + "]";
+        private void clear(int index) {
+            columns[index] = null;
+            holders[index] = null;
         }
 
+        /**
+         * Rehashes all locks into a table twice the size. Expired locks are retained since their holders
+         * still unlock them.
+         */
+        private void grow() {
+            final long[] oldHashes = hashes;
+            final KeyColumn[] oldColumns = columns;
+            final Object[] oldHolders = holders;
+            final long[] oldExpires = expires;
+
+            allocate(oldColumns.length * 2);
+            final int mask = columns.length - 1;
+            for (int i = 0; i < oldColumns.length; i++) {
+                if (null == oldColumns[i]) continue;
+                int index = slot(oldHashes[i]);
+                while (null != columns[index]) index = (index + 1) & mask;
+                hashes[index] = oldHashes[i];
+                columns[index] = oldColumns[i];
+                holders[index] = oldHolders[i];
+                expires[index] = oldExpires[i];
+                size++;
+            }
+        }
     }
 
 }
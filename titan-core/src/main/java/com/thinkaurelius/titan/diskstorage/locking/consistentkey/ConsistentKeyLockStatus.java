@@ -13,11 +13,13 @@ public class ConsistentKeyLockStatus implements LockStatus {
     private long writeNS;
     private long expireNS;
     private boolean checked;
+    private boolean written;
 
     public ConsistentKeyLockStatus(long writeTimestamp, TimeUnit writeUnits, long expireTimestamp, TimeUnit expireUnits) {
         this.writeNS =  TimeUnit.NANOSECONDS.convert(writeTimestamp, writeUnits);
         this.expireNS = TimeUnit.NANOSECONDS.convert(expireTimestamp,  expireUnits);
         this.checked = false;
+        this.written = true;
     }
 
     @Override
@@ -37,6 +39,26 @@ public class ConsistentKeyLockStatus implements LockStatus {
         this.checked = true;
     }
 
+    /**
+     * Whether the lock claim has been written to the store. Claims that are written in batches are only
+     * written when the locks are checked.
+     *
+     * @return
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    void setPending() {
+        this.written = false;
+    }
+
+    void setWritten(long writeTimestamp, long expireTimestamp, TimeUnit unit) {
+        this.writeNS = TimeUnit.NANOSECONDS.convert(writeTimestamp, unit);
+        this.expireNS = TimeUnit.NANOSECONDS.convert(expireTimestamp, unit);
+        this.written = true;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -3,6 +3,7 @@ package com.thinkaurelius.titan.diskstorage.locking.consistentkey;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.thinkaurelius.titan.core.TitanConfigurationException;
 import com.thinkaurelius.titan.diskstorage.PermanentStorageException;
@@ -17,13 +18,18 @@ import com.thinkaurelius.titan.diskstorage.util.KeyColumn;
 import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
 import com.thinkaurelius.titan.diskstorage.util.TimestampProvider;
 import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.util.stats.MetricManager;
 
 import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -108,6 +114,17 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
  * {@code rid} is only unique at the process level.  Without a mediator, distinct
  * threads could write lock columns with the same {@code rid} and be unable to
  * tell their lock claims apart.
+ * <p/>
+ * <h4>Batched locking</h4>
+ * <p/>
+ * When a {@link KeyColumnValueStoreManager} is configured via
+ * {@link Builder#batchManager(KeyColumnValueStoreManager)}, lock claims are not
+ * written one at a time. Instead, all claims of a transaction are written with a
+ * single {@link KeyColumnValueStoreManager#mutateMany(java.util.Map, StoreTransaction)}
+ * call when its locks are checked, so that they share the same timestamp. The
+ * locker then waits only once for {@code lockWait} and reads all lock rows with a
+ * single multi-key slice if the store supports it. The steps of the protocol are
+ * otherwise unchanged.
  */
 public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus> implements Locker {
 
@@ -120,8 +137,23 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
 
     private final int lockRetryCount;
 
+    /**
+     * Manager of {@link #store} used to write lock claims in batches, or null
+     * if claims are written individually
+     */
+    private final KeyColumnValueStoreManager batchManager;
+
+    private static final String M_LOCKS = "locks";
+    private static final String M_BATCH = "batch";
+    private static final String M_WRITE = "write";
+    private static final String M_WAIT = "wait";
+    private static final String M_CHECK = "check";
+
     private static final StaticBuffer zeroBuf = ByteBufferUtil.getIntBuffer(0); // TODO this does not belong here
 
+    private static final StaticBuffer LOCK_COL_START = ByteBufferUtil.zeroBuffer(9);
+    private static final StaticBuffer LOCK_COL_END = ByteBufferUtil.oneBuffer(9);
+
     private static final Logger log = LoggerFactory.getLogger(ConsistentKeyLocker.class);
 
     public static class Builder extends AbstractLocker.Builder<ConsistentKeyLockStatus, Builder> {
@@ -131,6 +163,7 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
         // Optional (has default)
         private long lockWaitNS;
         private int lockRetryCount;
+        private KeyColumnValueStoreManager batchManager;
 
         public Builder(KeyColumnValueStore store) {
             this.store = store;
@@ -148,6 +181,18 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
             return self();
         }
 
+        /**
+         * Write and check the lock claims of each transaction in batches using the given
+         * manager, which must be the manager that opened the lock store.
+         *
+         * @param manager the manager of the lock store
+         * @return this builder
+         */
+        public Builder batchManager(KeyColumnValueStoreManager manager) {
+            this.batchManager = manager;
+            return self();
+        }
+
         public Builder fromCommonsConfig(Configuration config) {
             rid(new StaticArrayBuffer(DistributedStoreManager.getRid(config)));
 
@@ -175,7 +220,7 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
 
         public ConsistentKeyLocker build() {
             preBuild();
-            return new ConsistentKeyLocker(store, rid, times, serializer, llm, lockWaitNS, lockRetryCount, lockExpireNS, lockState);
+            return new ConsistentKeyLocker(store, rid, times, serializer, llm, lockWaitNS, lockRetryCount, lockExpireNS, lockState, batchManager);
         }
 
         @Override
@@ -198,11 +243,17 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
                                 TimestampProvider times, ConsistentKeyLockerSerializer serializer,
                                 LocalLockMediator<StoreTransaction> llm, long lockWaitNS,
                                 int lockRetryCount, long lockExpireNS,
-                                LockerState<ConsistentKeyLockStatus> lockState) {
+                                LockerState<ConsistentKeyLockStatus> lockState,
+                                KeyColumnValueStoreManager batchManager) {
         super(rid, times, serializer, llm, lockState, lockExpireNS, log);
         this.store = store;
         this.lockWaitNS = lockWaitNS;
         this.lockRetryCount = lockRetryCount;
+        this.batchManager = batchManager;
+    }
+
+    private boolean isBatched() {
+        return batchManager != null;
     }
 
     private long getLockWait(TimeUnit tu) {
@@ -230,6 +281,16 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
     @Override
     protected ConsistentKeyLockStatus writeSingleLock(KeyColumn lockID, StoreTransaction txh) throws Throwable {
 
+        if (isBatched()) {
+            // The claim is written together with all other claims of the transaction when the locks are checked
+            final long nowNS = times.getApproxNSSinceEpoch();
+            ConsistentKeyLockStatus status = new ConsistentKeyLockStatus(
+                    nowNS, TimeUnit.NANOSECONDS,
+                    nowNS + lockExpireNS, TimeUnit.NANOSECONDS);
+            status.setPending();
+            return status;
+        }
+
         final StaticBuffer lockKey = serializer.toLockKey(lockID.getKey(), lockID.getColumn());
         StaticBuffer oldLockCol = null;
 
@@ -329,9 +390,13 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
         final long nowNS = times.sleepUntil(ls.getWriteTimestamp(TimeUnit.NANOSECONDS) + getLockWait(TimeUnit.NANOSECONDS));
 
         // Slice the store
-        KeySliceQuery ksq = new KeySliceQuery(serializer.toLockKey(kc.getKey(), kc.getColumn()), ByteBufferUtil.zeroBuffer(9), ByteBufferUtil.oneBuffer(9));
+        KeySliceQuery ksq = new KeySliceQuery(serializer.toLockKey(kc.getKey(), kc.getColumn()), LOCK_COL_START, LOCK_COL_END);
         List<Entry> claimEntries = getSliceWithRetries(ksq, tx);
 
+        checkClaims(kc, ls, claimEntries, nowNS);
+    }
+
+    private void checkClaims(final KeyColumn kc, final ConsistentKeyLockStatus ls, List<Entry> claimEntries, final long nowNS) throws StorageException {
         // Extract timestamp and rid from the column in each returned Entry...
         Iterable<TimestampRid> iter = Iterables.transform(claimEntries, new Function<Entry, TimestampRid>() {
             @Override
@@ -355,6 +420,154 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
         ls.setChecked();
     }
 
+    /**
+     * Writes all pending lock claims of the transaction at once, waits until {@code lockWait} has passed
+     * since the most recent claim, and then reads all lock rows at once to verify the claims.
+     */
+    @Override
+    protected void checkAllLocks(Map<KeyColumn, ConsistentKeyLockStatus> locks, StoreTransaction tx) throws Throwable {
+        if (!isBatched()) {
+            super.checkAllLocks(locks, tx);
+            return;
+        }
+
+        final Map<KeyColumn, ConsistentKeyLockStatus> unchecked = new LinkedHashMap<KeyColumn, ConsistentKeyLockStatus>();
+        final Map<KeyColumn, ConsistentKeyLockStatus> unwritten = new LinkedHashMap<KeyColumn, ConsistentKeyLockStatus>();
+        for (Map.Entry<KeyColumn, ConsistentKeyLockStatus> lock : locks.entrySet()) {
+            if (lock.getValue().isChecked()) continue;
+            unchecked.put(lock.getKey(), lock.getValue());
+            if (!lock.getValue().isWritten()) unwritten.put(lock.getKey(), lock.getValue());
+        }
+        if (unchecked.isEmpty()) return;
+
+        final long startNS = times.getApproxNSSinceEpoch();
+        if (!unwritten.isEmpty()) writeBatchLocks(unwritten, tx);
+        final long writtenNS = times.getApproxNSSinceEpoch();
+
+        // Wait once for the most recent claim
+        long latestNS = 0;
+        for (ConsistentKeyLockStatus ls : unchecked.values()) {
+            latestNS = Math.max(latestNS, ls.getWriteTimestamp(TimeUnit.NANOSECONDS));
+        }
+        final long nowNS = times.sleepUntil(latestNS + getLockWait(TimeUnit.NANOSECONDS));
+
+        // Read all lock rows at once
+        List<StaticBuffer> lockKeys = new ArrayList<StaticBuffer>(unchecked.size());
+        for (KeyColumn kc : unchecked.keySet()) {
+            lockKeys.add(serializer.toLockKey(kc.getKey(), kc.getColumn()));
+        }
+        List<List<Entry>> claimEntries = getSlicesWithRetries(lockKeys, tx);
+        final long readNS = times.getApproxNSSinceEpoch();
+
+        int i = 0;
+        for (Map.Entry<KeyColumn, ConsistentKeyLockStatus> lock : unchecked.entrySet()) {
+            checkClaims(lock.getKey(), lock.getValue(), claimEntries.get(i++), nowNS);
+        }
+
+        log.debug("Checked {} locks: wrote {} claims in {} ns, waited {} ns, read claims in {} ns",
+                new Object[]{unchecked.size(), unwritten.size(), writtenNS - startNS, nowNS - writtenNS, readNS - nowNS});
+        String metricsPrefix = tx.getConfiguration().getMetricsPrefix();
+        if (null != metricsPrefix) {
+            MetricManager.INSTANCE.getTimer(metricsPrefix, M_LOCKS, M_BATCH, M_WRITE).update(writtenNS - startNS, TimeUnit.NANOSECONDS);
+            MetricManager.INSTANCE.getTimer(metricsPrefix, M_LOCKS, M_BATCH, M_WAIT).update(nowNS - writtenNS, TimeUnit.NANOSECONDS);
+            MetricManager.INSTANCE.getTimer(metricsPrefix, M_LOCKS, M_BATCH, M_CHECK).update(readNS - nowNS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Writes the claims for all given locks with a single mutation following the same retry
+     * protocol as {@link #writeSingleLock(KeyColumn, StoreTransaction)}: a write that failed temporarily
+     * or took longer than {@code lockWait} is retried with a new timestamp while deleting the previous claims.
+     */
+    private void writeBatchLocks(Map<KeyColumn, ConsistentKeyLockStatus> locks, StoreTransaction txh) throws Throwable {
+        final List<StaticBuffer> lockKeys = new ArrayList<StaticBuffer>(locks.size());
+        for (KeyColumn kc : locks.keySet()) {
+            lockKeys.add(serializer.toLockKey(kc.getKey(), kc.getColumn()));
+        }
+        StaticBuffer oldLockCol = null;
+
+        for (int i = 0; i < lockRetryCount; i++) {
+            final long before = times.getApproxNSSinceEpoch();
+            final StaticBuffer newLockCol = serializer.toLockCol(before, rid);
+            Throwable error = null;
+            try {
+                mutateLocks(lockKeys, Arrays.<Entry>asList(new StaticBufferEntry(newLockCol, zeroBuf)),
+                        null == oldLockCol ? ImmutableList.<StaticBuffer>of() : Arrays.asList(oldLockCol), overrideTimestamp(txh, before));
+            } catch (StorageException e) {
+                error = e;
+            }
+            final long after = times.getApproxNSSinceEpoch();
+            oldLockCol = newLockCol;
+
+            if (null == error && after - before <= getLockWait(TimeUnit.NANOSECONDS)) {
+                for (ConsistentKeyLockStatus ls : locks.values()) {
+                    ls.setWritten(before, before + lockExpireNS, TimeUnit.NANOSECONDS);
+                }
+                // update local lock expiration times
+                llm.lockAll(locks.keySet(), txh, before + lockExpireNS, TimeUnit.NANOSECONDS,
+                        txh.getConfiguration().getMetricsPrefix());
+                return;
+            } else if (null == error) {
+                log.warn("Batched write of {} locks succeeded but took too long: duration {} ms exceeded limit {} ms",
+                        new Object[]{locks.size(), TimeUnit.MILLISECONDS.convert(after - before, TimeUnit.NANOSECONDS),
+                                getLockWait(TimeUnit.MILLISECONDS)});
+            } else if (error instanceof TemporaryStorageException) {
+                log.warn("Temporary exception during batched lock write", error);
+            } else {
+                log.error("Fatal exception encountered during attempted batched lock write", error);
+                tryDeleteBatchLocksOnce(lockKeys, oldLockCol, txh);
+                throw error;
+            }
+        }
+        tryDeleteBatchLocksOnce(lockKeys, oldLockCol, txh);
+        throw new TemporaryStorageException("Lock write retry count exceeded");
+    }
+
+    private void tryDeleteBatchLocksOnce(List<StaticBuffer> lockKeys, StaticBuffer col, StoreTransaction txh) {
+        try {
+            mutateLocks(lockKeys, ImmutableList.<Entry>of(), Arrays.asList(col), overrideTimestamp(txh, times.getApproxNSSinceEpoch()));
+        } catch (StorageException e) {
+            log.warn("Failed to delete batched lock write: abandoning potentially-unreleased locks", e);
+        }
+    }
+
+    private void mutateLocks(List<StaticBuffer> lockKeys, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
+        if (batchManager.getFeatures().supportsBatchMutation()) {
+            Map<StaticBuffer, KCVMutation> mutations = new HashMap<StaticBuffer, KCVMutation>(lockKeys.size());
+            for (StaticBuffer lockKey : lockKeys) {
+                mutations.put(lockKey, new KCVMutation(additions, deletions));
+            }
+            batchManager.mutateMany(ImmutableMap.of(store.getName(), mutations), txh);
+        } else {
+            for (StaticBuffer lockKey : lockKeys) {
+                store.mutate(lockKey, additions, deletions, txh);
+            }
+        }
+    }
+
+    private List<List<Entry>> getSlicesWithRetries(List<StaticBuffer> lockKeys, StoreTransaction tx) throws StorageException {
+        if (!batchManager.getFeatures().supportsMultiQuery()) {
+            List<List<Entry>> result = new ArrayList<List<Entry>>(lockKeys.size());
+            for (StaticBuffer lockKey : lockKeys) {
+                result.add(getSliceWithRetries(new KeySliceQuery(lockKey, LOCK_COL_START, LOCK_COL_END), tx));
+            }
+            return result;
+        }
+
+        for (int i = 0; i < lockRetryCount; i++) {
+            try {
+                return store.getSlice(lockKeys, new SliceQuery(LOCK_COL_START, LOCK_COL_END), tx);
+            } catch (PermanentStorageException e) {
+                log.error("Failed to check locks", e);
+                throw new PermanentLockingException(e);
+            } catch (TemporaryStorageException e) {
+                log.warn("Temporary storage failure while checking locks", e);
+            }
+        }
+
+        throw new TemporaryStorageException("Maximum retries (" + lockRetryCount + ") exceeded while checking locks");
+    }
+
     private List<Entry> getSliceWithRetries(KeySliceQuery ksq, StoreTransaction tx) throws StorageException {
 
         for (int i = 0; i < lockRetryCount; i++) {
@@ -430,6 +643,7 @@ public class ConsistentKeyLocker extends AbstractLocker<ConsistentKeyLockStatus>
 
     @Override
     protected void deleteSingleLock(KeyColumn kc, ConsistentKeyLockStatus ls, StoreTransaction tx) {
+        if (!ls.isWritten()) return; // the claim never made it to the store
         List<StaticBuffer> dels = ImmutableList.of(serializer.toLockCol(ls.getWriteTimestamp(TimeUnit.NANOSECONDS), rid));
         for (int i = 0; i < lockRetryCount; i++) {
             try {
@@ -55,7 +55,7 @@ public class ExpectedValueCheckingTransaction implements StoreTransaction {
         this.retryCount = retryCount;
     }
 
-    StoreTransaction getBaseTransaction() {
+    public StoreTransaction getBaseTransaction() {
         return baseTx;
     }
 
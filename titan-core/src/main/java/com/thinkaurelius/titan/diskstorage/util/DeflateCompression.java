@@ -0,0 +1,102 @@
+package com.thinkaurelius.titan.diskstorage.util;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.core.TitanException;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link BackendCompression} based on the Deflate algorithm of {@link Deflater}.
+ * <p/>
+ * A compressed value consists of the length of the uncompressed value as a 4 byte integer
+ * followed by the raw deflate stream. Compressing the same value with the same compression level
+ * always yields the same bytes.
+ */
+public class DeflateCompression implements BackendCompression {
+
+    private static final int LENGTH_BYTES = 4;
+
+    private final int level;
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(level, true);
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    public DeflateCompression() {
+        this(new BaseConfiguration());
+    }
+
+    public DeflateCompression(Configuration config) {
+        level = config.getInt(GraphDatabaseConfiguration.VALUE_COMPRESSION_LEVEL_KEY,
+                GraphDatabaseConfiguration.VALUE_COMPRESSION_LEVEL_DEFAULT);
+        Preconditions.checkArgument(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION,
+                "Invalid compression level: %s", level);
+    }
+
+    @Override
+    public StaticBuffer compress(StaticBuffer value) {
+        byte[] input = value.as(StaticBuffer.ARRAY_FACTORY);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] output = new byte[LENGTH_BYTES + input.length + 16];
+        writeLength(output, input.length);
+        int length = LENGTH_BYTES;
+        while (!deflater.finished()) {
+            if (length == output.length) output = Arrays.copyOf(output, output.length * 2);
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return new StaticArrayBuffer(output, length);
+    }
+
+    @Override
+    public StaticBuffer decompress(StaticBuffer value) {
+        Preconditions.checkArgument(value.length() >= LENGTH_BYTES, "Invalid compressed value");
+        int length = value.getInt(0);
+        Preconditions.checkArgument(length >= 0, "Invalid compressed value length: %s", length);
+        byte[] input = value.subrange(LENGTH_BYTES, value.length() - LENGTH_BYTES).as(StaticBuffer.ARRAY_FACTORY);
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        //The nowrap mode of Inflater requires an additional dummy byte at the end of the input
+        inflater.setInput(Arrays.copyOf(input, input.length + 1));
+        byte[] output = new byte[length];
+        try {
+            int read = 0;
+            while (read < length) {
+                int n = inflater.inflate(output, read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new TitanException("Compressed value is truncated");
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new TitanException("Could not decompress value", e);
+        }
+        return new StaticArrayBuffer(output);
+    }
+
+    private static void writeLength(byte[] array, int length) {
+        array[0] = (byte) (length >>> 24);
+        array[1] = (byte) (length >>> 16);
+        array[2] = (byte) (length >>> 8);
+        array[3] = (byte) length;
+    }
+
+}
@@ -2,6 +2,7 @@ package com.thinkaurelius.titan.graphdb.configuration;
 
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreFeatures;
 import com.thinkaurelius.titan.graphdb.database.cache.ExpirationStoreCache;
+import com.thinkaurelius.titan.graphdb.database.cache.OffHeapStoreCache;
 import com.thinkaurelius.titan.graphdb.database.cache.PassThroughStoreCache;
 import com.thinkaurelius.titan.graphdb.database.cache.StoreCache;
 import info.ganglia.gmetric4j.gmetric.GMetric.UDPAddressingMode;
@@ -137,6 +138,23 @@ public class GraphDatabaseConfiguration {
     public static final String DB_CACHE_TIME_KEY = "db-cache-time";
     public static final long DB_CACHE_TIME_DEFAULT = 10000;
 
+    /**
+     * The database level cache answers queries from cached results of larger slices for the same vertex. When a vertex
+     * is queried for this many different slices that could not be answered from the cache, the entire row of that vertex
+     * is loaded into the cache so that all subsequent slice queries are answered from it.
+     * Setting this value to 0 disables full row promotion.
+     */
+    public static final String DB_CACHE_FULL_ROW_THRESHOLD_KEY = "db-cache-full-row-threshold";
+    public static final int DB_CACHE_FULL_ROW_THRESHOLD_DEFAULT = 0;
+
+    /**
+     * Whether the database level cache should hold the cached query results outside the JVM heap (in direct memory).
+     * This avoids garbage collection overhead for large caches. When enabled, {@link #DB_CACHE_SIZE_KEY} should be
+     * configured as an absolute size in bytes and the JVM's maximum direct memory must be at least as large.
+     */
+    public static final String DB_CACHE_OFFHEAP_KEY = "db-cache-offheap";
+    public static final boolean DB_CACHE_OFFHEAP_DEFAULT = false;
+
     private static final long ETERNAL_CACHE_EXPIRATION = 1000l*3600*24*365*200; //200 years
 
     /**
@@ -149,6 +167,16 @@ public class GraphDatabaseConfiguration {
     public static final String TX_CACHE_SIZE_KEY = "tx-cache-size";
     public static final int TX_CACHE_SIZE_DEFAULT = 20000;
 
+    /**
+     * Configures the implementation of the vertex cache whose size is configured via {@link #TX_CACHE_SIZE_KEY}.
+     * The default "guava" cache is based on Guava's cache. The "primitive" cache uses an open-addressing table with
+     * primitive long keys and CLOCK eviction which reduces the memory footprint and garbage collection overhead of
+     * transactions that access a large number of vertices.
+     */
+    public static final String TX_CACHE_TYPE_KEY = "tx-cache-type";
+    public static final String TX_CACHE_TYPE_DEFAULT = "guava";
+    public static final String TX_CACHE_TYPE_PRIMITIVE = "primitive";
+
     // ################ STORAGE #######################
     // ################################################
 
@@ -184,6 +212,67 @@ public class GraphDatabaseConfiguration {
     public static final String STORAGE_BATCH_KEY = "batch-loading";
     public static final boolean STORAGE_BATCH_DEFAULT = false;
 
+    /**
+     * Compression that is applied to the values of the stores configured in {@link #VALUE_COMPRESSION_STORES_KEY}.
+     * Either "none" to disable compression, "deflate", or the name of a class implementing
+     * {@link com.thinkaurelius.titan.diskstorage.util.BackendCompression} with a constructor that accepts
+     * a {@link Configuration}.
+     * <p/>
+     * This option and the compressed stores only take effect when the graph is created
+     * and are recorded in the storage backend for the lifetime of the graph.
+     */
+    public static final String VALUE_COMPRESSION_KEY = "value-compression";
+    public static final String VALUE_COMPRESSION_DEFAULT = "none";
+
+    /**
+     * Comma separated list of the stores whose values are compressed
+     */
+    public static final String VALUE_COMPRESSION_STORES_KEY = "value-compression-stores";
+    public static final String VALUE_COMPRESSION_STORES_DEFAULT = "edgestore";
+
+    /**
+     * Minimum length in bytes of a value before it is compressed. Smaller values are stored uncompressed since
+     * compression rarely pays off for them. This option can be changed for existing graphs.
+     */
+    public static final String VALUE_COMPRESSION_THRESHOLD_KEY = "value-compression-threshold";
+    public static final int VALUE_COMPRESSION_THRESHOLD_DEFAULT = 256;
+
+    /**
+     * Compression level between 1 (fastest) and 9 (smallest) used by the deflate value compression
+     */
+    public static final String VALUE_COMPRESSION_LEVEL_KEY = "value-compression-level";
+    public static final int VALUE_COMPRESSION_LEVEL_DEFAULT = 1;
+
+    /**
+     * Format of the rows in the edge store. In the default "standard" format each relation is stored in its own column.
+     * In the "compact" format the relations of a vertex are grouped into blocks of consecutive relations which share
+     * the common prefixes of their columns and delta-encode their ids, which reduces the size of vertices with many
+     * relations at the expense of rewriting a block on every mutation. The compact format requires a storage backend
+     * with transactions.
+     * <p/>
+     * This option only takes effect when the graph is created and is recorded in the storage backend for the
+     * lifetime of the graph. Graphs created before the format was recorded use the standard format.
+     *
+     * @see com.thinkaurelius.titan.diskstorage.keycolumnvalue.CompactRowKeyColumnValueStore
+     */
+    public static final String EDGESTORE_FORMAT_KEY = "edgestore-format";
+    public static final String EDGESTORE_FORMAT_DEFAULT = "standard";
+
+    /**
+     * Maximum number of relations in a block of the compact edge store format. Larger blocks compress better but
+     * make mutations more expensive. This option can be changed for existing graphs.
+     */
+    public static final String EDGESTORE_BLOCK_SIZE_KEY = "edgestore-block-size";
+    public static final int EDGESTORE_BLOCK_SIZE_DEFAULT = 64;
+
+    /**
+     * Number of relations that a {@link com.thinkaurelius.titan.core.TitanBulkLoader} accumulates before it assigns ids
+     * to the accumulated elements and persists them against the storage backend in one sorted batch of mutations.
+     * Larger batches increase write throughput at the expense of memory.
+     */
+    public static final String STORAGE_BULK_LOAD_BATCH_KEY = "bulk-load-batch-size";
+    public static final int STORAGE_BULK_LOAD_BATCH_DEFAULT = 100000;
+
     /**
      * Enables transactions on storage backends that support them
      */
@@ -197,6 +286,53 @@ public class GraphDatabaseConfiguration {
     public static final String BUFFER_SIZE_KEY = "buffer-size";
     public static final int BUFFER_SIZE_DEFAULT = 1024;
 
+    /**
+     * Flushes the buffered graph mutations once their keys, columns and values exceed the specified number of bytes,
+     * even if fewer mutations than {@link #BUFFER_SIZE_KEY} have been buffered. This keeps large values from producing
+     * oversized batches. Set to 0 to flush by number of mutations only.
+     */
+    public static final String BUFFER_BYTE_SIZE_KEY = "buffer-byte-size";
+    public static final long BUFFER_BYTE_SIZE_DEFAULT = 4 * 1024 * 1024;
+
+    /**
+     * Persists full buffers asynchronously while the transaction continues to fill the next buffer.
+     * Failures of asynchronous flushes surface on subsequent mutations or when the transaction commits.
+     * Since full buffers are persisted through the transaction's storage backend handle while the transaction keeps
+     * using it, this option is ignored for storage backends which support transactions because their handles are
+     * not thread-safe.
+     */
+    public static final String BUFFER_ASYNC_FLUSH_KEY = "buffer-async-flush";
+    public static final boolean BUFFER_ASYNC_FLUSH_DEFAULT = false;
+
+    /**
+     * Maximum number of full buffers per transaction which are waiting to be persisted asynchronously.
+     * The transaction blocks when it fills another buffer beyond this limit.
+     */
+    public static final String BUFFER_MAX_PENDING_FLUSHES_KEY = "buffer-max-pending-flushes";
+    public static final int BUFFER_MAX_PENDING_FLUSHES_DEFAULT = 1;
+
+    /**
+     * Coalesces the buffered mutations of concurrently committing transactions into shared batches.
+     * Transactions which acquire locks or use a custom timestamp always persist their mutations on their own.
+     * Requires buffering to be enabled and is ignored for storage backends which support transactions, since
+     * shared batches are persisted outside of the transactions they belong to.
+     */
+    public static final String GROUP_COMMIT_KEY = "group-commit";
+    public static final boolean GROUP_COMMIT_DEFAULT = false;
+
+    /**
+     * Time in milliseconds that a shared batch waits for the mutations of other committing transactions
+     * before it is persisted.
+     */
+    public static final String GROUP_COMMIT_WINDOW_KEY = "group-commit-window";
+    public static final int GROUP_COMMIT_WINDOW_DEFAULT = 2;
+
+    /**
+     * Number of mutations after which a shared batch is persisted without waiting for the remainder of the window.
+     */
+    public static final String GROUP_COMMIT_MAX_MUTATIONS_KEY = "group-commit-max-mutations";
+    public static final int GROUP_COMMIT_MAX_MUTATIONS_DEFAULT = 4096;
+
     /**
      * Number of times the database attempts to persist the transactional state to the storage layer.
      * Persisting the state of a committed transaction might fail for various reasons, some of which are
@@ -230,6 +366,46 @@ public class GraphDatabaseConfiguration {
     public static final String PARALLEL_BACKEND_OPS_KEY = "parallel-backend-ops";
     public static final boolean PARALLEL_BACKEND_OPS_DEFAULT = true;
 
+    /**
+     * If enabled, Titan serializes the mutations of large transactions in parallel when they are committed.
+     * The mutated vertices are split into partitions by vertex key which are serialized by a bounded pool of worker threads.
+     * The resulting mutations are merged into the storage transaction in a deterministic order on the committing thread.
+     */
+    public static final String PARALLEL_COMMIT_KEY = "parallel-commit";
+    public static final boolean PARALLEL_COMMIT_DEFAULT = false;
+
+    /**
+     * The number of worker threads used to serialize commits when {@link #PARALLEL_COMMIT_KEY} is enabled.
+     * Defaults to the number of available processors.
+     */
+    public static final String PARALLEL_COMMIT_THREADS_KEY = "parallel-commit-threads";
+
+    /**
+     * The minimum number of mutated vertices a transaction must touch before its commit is serialized in parallel.
+     * Smaller commits are serialized on the committing thread since the overhead of dispatching to the worker pool
+     * would outweigh the benefit.
+     */
+    public static final String PARALLEL_COMMIT_MIN_VERTICES_KEY = "parallel-commit-min-vertices";
+    public static final int PARALLEL_COMMIT_MIN_VERTICES_DEFAULT = 1000;
+
+    /**
+     * If enabled, graph queries whose conditions are answered by multiple index calls (e.g. because they span several
+     * index providers) execute those calls concurrently on the backend thread pool configured via
+     * {@link #PARALLEL_BACKEND_OPS_KEY} instead of one after the other. The number of concurrent calls is bounded
+     * by the thread pool; calls that exceed the bound are executed on the querying thread.
+     */
+    public static final String PARALLEL_INDEX_QUERIES_KEY = "parallel-index-queries";
+    public static final boolean PARALLEL_INDEX_QUERIES_DEFAULT = false;
+
+    /**
+     * Number of results retrieved per round-trip when a graph query is answered by a single call to an external index
+     * provider. Such results are streamed page by page as the query result is iterated instead of being retrieved at
+     * once, so that large result sets are not truncated and iteration can stop early. Streamed results bypass the
+     * index cache of the transaction. Streaming is disabled by default (0).
+     */
+    public static final String INDEX_PAGE_SIZE_KEY = "index-page-size";
+    public static final int INDEX_PAGE_SIZE_DEFAULT = 0;
+
     /**
      * A unique identifier for the machine running the @TitanGraph@ instance.
      * It must be ensured that no other machine accessing the storage backend can have the same identifier.
@@ -262,6 +438,14 @@ public class GraphDatabaseConfiguration {
      */
     public static final String LOCK_EXPIRE_MS = "lock-expiry-time";
     public static final long LOCK_EXPIRE_MS_DEFAULT = 300 * 1000;
+    /**
+     * Whether the consistent key locker writes and verifies all lock applications of a transaction in batches.
+     * When enabled, all lock applications are written together when the locks are verified, the system waits
+     * only once for {@link #LOCK_WAIT_MS} and reads all applications in a single multi-key read if supported by
+     * the storage backend. Disabled by default.
+     */
+    public static final String LOCK_BATCH_KEY = "lock-batch";
+    public static final boolean LOCK_BATCH_DEFAULT = false;
 
     /**
      * Locker type to use.  The supported types are in {@link com.thinkaurelius.titan.diskstorage.Backend}.
@@ -439,6 +623,27 @@ public class GraphDatabaseConfiguration {
     public static final String IDS_RENEW_BUFFER_PERCENTAGE_KEY = "renew-percentage";
     public static final double IDS_RENEW_BUFFER_PERCENTAGE_DEFAULT = 0.3; // 30 %
 
+    /**
+     * Whether the size of the id blocks should adapt to the observed rate of id allocation. When enabled, the block
+     * size of each partition grows for partitions that consume ids quickly (e.g. during bulk loading) and shrinks for
+     * idle partitions so that less id space is wasted. {@link #IDS_BLOCK_SIZE_KEY} is used as the initial block size.
+     */
+    public static final String IDS_ADAPTIVE_BLOCK_SIZE_KEY = "adaptive-block-size";
+    public static final boolean IDS_ADAPTIVE_BLOCK_SIZE_DEFAULT = false;
+
+    /**
+     * The desired time in milliseconds between two id block acquisitions for the same partition when adaptive block
+     * sizing is enabled. Blocks are enlarged when they are consumed faster and reduced when consumed much slower.
+     */
+    public static final String IDS_ADAPTIVE_TARGET_INTERVAL_KEY = "adaptive-target-interval";
+    public static final long IDS_ADAPTIVE_TARGET_INTERVAL_DEFAULT = 60 * 1000; // 1 minute
+
+    /**
+     * The maximum factor by which an adaptive block size may be larger or smaller than the initial block size.
+     */
+    public static final String IDS_ADAPTIVE_FACTOR_KEY = "adaptive-factor";
+    public static final int IDS_ADAPTIVE_FACTOR_DEFAULT = 32;
+
     // ############## External Index ######################
     // ################################################
 
@@ -715,7 +920,11 @@ public class GraphDatabaseConfiguration {
     private boolean readOnly;
     private boolean flushIDs;
     private boolean batchLoading;
+    private int bulkLoadBatchSize;
+    private boolean parallelIndexQueries;
+    private int indexPageSize;
     private int txCacheSize;
+    private boolean primitiveTxCache;
     private DefaultTypeMaker defaultTypeMaker;
     private Boolean propertyPrefetching;
     private boolean allowVertexIdSetting;
@@ -860,7 +1069,16 @@ public class GraphDatabaseConfiguration {
         readOnly = storageConfig.getBoolean(STORAGE_READONLY_KEY, STORAGE_READONLY_DEFAULT);
         flushIDs = configuration.subset(IDS_NAMESPACE).getBoolean(IDS_FLUSH_KEY, IDS_FLUSH_DEFAULT);
         batchLoading = storageConfig.getBoolean(STORAGE_BATCH_KEY, STORAGE_BATCH_DEFAULT);
+        bulkLoadBatchSize = storageConfig.getInt(STORAGE_BULK_LOAD_BATCH_KEY, STORAGE_BULK_LOAD_BATCH_DEFAULT);
+        Preconditions.checkArgument(bulkLoadBatchSize > 0, "Bulk load batch size must be positive: %s", bulkLoadBatchSize);
+        parallelIndexQueries = storageConfig.getBoolean(PARALLEL_INDEX_QUERIES_KEY, PARALLEL_INDEX_QUERIES_DEFAULT);
+        indexPageSize = storageConfig.getInt(INDEX_PAGE_SIZE_KEY, INDEX_PAGE_SIZE_DEFAULT);
+        Preconditions.checkArgument(indexPageSize >= 0, "Index page size must be non-negative: %s", indexPageSize);
         txCacheSize = configuration.getInt(TX_CACHE_SIZE_KEY, TX_CACHE_SIZE_DEFAULT);
+        String txCacheType = configuration.getString(TX_CACHE_TYPE_KEY, TX_CACHE_TYPE_DEFAULT);
+        Preconditions.checkArgument(TX_CACHE_TYPE_DEFAULT.equals(txCacheType) || TX_CACHE_TYPE_PRIMITIVE.equals(txCacheType),
+                "Invalid " + TX_CACHE_TYPE_KEY + " option: " + txCacheType);
+        primitiveTxCache = TX_CACHE_TYPE_PRIMITIVE.equals(txCacheType);
         defaultTypeMaker = preregisteredAutoType.get(configuration.getString(AUTO_TYPE_KEY, AUTO_TYPE_DEFAULT));
         Preconditions.checkNotNull(defaultTypeMaker, "Invalid " + AUTO_TYPE_KEY + " option: " + configuration.getString(AUTO_TYPE_KEY, AUTO_TYPE_DEFAULT));
         //Disable auto-type making when batch-loading is enabled since that may overwrite types without warning
@@ -1060,10 +1278,26 @@ public class GraphDatabaseConfiguration {
         return txCacheSize;
     }
 
+    public boolean hasPrimitiveTxCache() {
+        return primitiveTxCache;
+    }
+
     public boolean isBatchLoading() {
         return batchLoading;
     }
 
+    public int getBulkLoadBatchSize() {
+        return bulkLoadBatchSize;
+    }
+
+    public boolean hasParallelIndexQueries() {
+        return parallelIndexQueries;
+    }
+
+    public int getIndexPageSize() {
+        return indexPageSize;
+    }
+
     public String getMetricsPrefix() {
         return metricsPrefix;
     }
@@ -1107,6 +1341,31 @@ public class GraphDatabaseConfiguration {
     }
 
 
+    /**
+     * Returns the number of worker threads to use for parallel commits or 0 if parallel commits are disabled.
+     *
+     * @return
+     */
+    public int getParallelCommitThreads() {
+        Configuration storageconfig = configuration.subset(STORAGE_NAMESPACE);
+        if (!storageconfig.getBoolean(PARALLEL_COMMIT_KEY, PARALLEL_COMMIT_DEFAULT)) return 0;
+        int threads = storageconfig.getInt(PARALLEL_COMMIT_THREADS_KEY, Runtime.getRuntime().availableProcessors());
+        Preconditions.checkArgument(threads > 0, "Number of parallel commit threads must be positive");
+        return threads;
+    }
+
+    public int getParallelCommitMinVertices() {
+        int min = configuration.subset(STORAGE_NAMESPACE).getInt(PARALLEL_COMMIT_MIN_VERTICES_KEY, PARALLEL_COMMIT_MIN_VERTICES_DEFAULT);
+        Preconditions.checkArgument(min > 0, "Minimum number of vertices for parallel commit must be positive");
+        return min;
+    }
+
+    public long getLockExpireMS() {
+        long expire = configuration.subset(STORAGE_NAMESPACE).getLong(LOCK_EXPIRE_MS, LOCK_EXPIRE_MS_DEFAULT);
+        Preconditions.checkArgument(expire > 0, "Lock expiration time must be positive");
+        return expire;
+    }
+
     public static List<RegisteredAttributeClass<?>> getRegisteredAttributeClasses(Configuration config) {
         List<RegisteredAttributeClass<?>> all = new ArrayList<RegisteredAttributeClass<?>>();
         Iterator<String> iter = config.getKeys();
@@ -1203,9 +1462,17 @@ public class GraphDatabaseConfiguration {
         }
         log.info("Configuring edge store cache size: {}",cacheSizeBytes);
 
+        if (cacheconf.getBoolean(DB_CACHE_OFFHEAP_KEY,DB_CACHE_OFFHEAP_DEFAULT))
+            return new OffHeapStoreCache(expirationTime,
+                    cacheconf.getLong(DB_CACHE_CLEAN_WAIT_KEY,DB_CACHE_CLEAN_WAIT_DEFAULT),
+                    cacheSizeBytes);
+
+        int fullRowThreshold = cacheconf.getInt(DB_CACHE_FULL_ROW_THRESHOLD_KEY,DB_CACHE_FULL_ROW_THRESHOLD_DEFAULT);
+        Preconditions.checkArgument(fullRowThreshold>=0,"Invalid full row threshold: %s",fullRowThreshold);
+
         return new ExpirationStoreCache(expirationTime,
                 cacheconf.getLong(DB_CACHE_CLEAN_WAIT_KEY,DB_CACHE_CLEAN_WAIT_DEFAULT),
-                cacheSizeBytes);
+                cacheSizeBytes, fullRowThreshold);
     }
 
 
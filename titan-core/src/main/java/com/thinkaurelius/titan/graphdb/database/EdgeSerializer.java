@@ -33,6 +33,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler.*;
 
@@ -46,7 +48,6 @@ public class EdgeSerializer {
 
 
     private static final int DEFAULT_COLUMN_CAPACITY = 60;
-    private static final int DEFAULT_VALUE_CAPACITY = 128;
 
     private final Serializer serializer;
 
@@ -123,6 +124,20 @@ public class EdgeSerializer {
     }
 
 
+    /**
+     * Decodes the headers of all relations in the given slice of entries of the vertex with the given id in batch.
+     * Values and properties of the relations are decoded lazily upon access.
+     *
+     * @param vertexid
+     * @param entries
+     * @param tx
+     * @return
+     * @see RelationSlice
+     */
+    public RelationSlice readRelations(long vertexid, List<Entry> entries, StandardTitanTx tx) {
+        return new RelationSlice(vertexid, entries, this, tx);
+    }
+
     public Direction parseDirection(Entry data) {
         RelationCache map = data.getCache();
         if (map != null) return map.direction;
@@ -285,14 +300,42 @@ public class EdgeSerializer {
         }
     }
 
-    private void writeInlineTypes(long[] typeids, InternalRelation relation, DataOutput out, StandardTitanTx tx) {
+    private void writeInlineTypes(long[] typeids, InternalRelation relation, DataOutput out,
+                                  StandardTitanTx tx, Map<Long, InternalType> types) {
         for (long typeid : typeids) {
-            TitanType t = tx.getExistingType(typeid);
+            TitanType t = getType(typeid, tx, types);
             writeInline(out, t, relation.getProperty(t), false);
         }
     }
 
+    private static TitanType getType(long typeid, StandardTitanTx tx, Map<Long, InternalType> types) {
+        if (types == null) return tx.getExistingType(typeid);
+        TitanType type = types.get(typeid);
+        Preconditions.checkArgument(type != null, "Type has not been resolved: %s", typeid);
+        return type;
+    }
+
     public Entry writeRelation(InternalRelation relation, int position, StandardTitanTx tx) {
+        Preconditions.checkNotNull(tx);
+        return writeRelation(relation, position, tx, null);
+    }
+
+    /**
+     * Like {@link #writeRelation(InternalRelation, int, StandardTitanTx)} but resolves all types from the given map
+     * instead of the transaction. This allows relations to be serialized outside of the thread that owns
+     * their transaction.
+     *
+     * @param relation
+     * @param position
+     * @param types    the types of the relation and all its sort key, signature and property types by id
+     * @return
+     */
+    public Entry writeRelation(InternalRelation relation, int position, Map<Long, InternalType> types) {
+        Preconditions.checkNotNull(types);
+        return writeRelation(relation, position, null, types);
+    }
+
+    private Entry writeRelation(InternalRelation relation, int position, StandardTitanTx tx, Map<Long, InternalType> types) {
         Preconditions.checkArgument(position < relation.getLen());
         TitanType type = relation.getType();
         long typeid = type.getID();
@@ -300,14 +343,14 @@ public class EdgeSerializer {
         Direction dir = EdgeDirection.fromPosition(position);
         int dirID = getDirID(dir, relation.isProperty() ? RelationType.PROPERTY : RelationType.EDGE);
 
-        DataOutput colOut = serializer.getDataOutput(DEFAULT_COLUMN_CAPACITY, true);
+        DataOutput colOut = serializer.getPooledDataOutput(true);
         IDHandler.writeEdgeType(colOut, typeid, dirID);
 
         InternalType definition = (InternalType) type;
         long[] sortKey = definition.getSortKey();
         int startPosition = colOut.getPosition();
         if (!type.isUnique(dir)) {
-            writeInlineTypes(sortKey, relation, colOut, tx);
+            writeInlineTypes(sortKey, relation, colOut, tx, types);
         }
         int endPosition = colOut.getPosition();
 
@@ -318,7 +361,7 @@ public class EdgeSerializer {
             vertexIdDiff = relation.getVertex((position + 1) % 2).getID() - relation.getVertex(position).getID();
 
         if (type.isUnique(dir)) {
-            writer = serializer.getDataOutput(DEFAULT_VALUE_CAPACITY, true);
+            writer = serializer.getPooledDataOutput(true);
             if (relation.isEdge()) VariableLong.write(writer, vertexIdDiff);
             VariableLong.write(writer, relationIdDiff);
         } else {
@@ -327,7 +370,7 @@ public class EdgeSerializer {
         }
 
         if (!type.isUnique(dir)) {
-            writer = serializer.getDataOutput(DEFAULT_VALUE_CAPACITY, true);
+            writer = serializer.getPooledDataOutput(true);
         }
 
         if (relation.isProperty()) {
@@ -345,10 +388,10 @@ public class EdgeSerializer {
 
         //Write signature & sort key if unique
         if (type.isUnique(dir)) {
-            writeInlineTypes(sortKey, relation, writer, tx);
+            writeInlineTypes(sortKey, relation, writer, tx, types);
         }
         long[] signature = definition.getSignature();
-        writeInlineTypes(signature, relation, writer, tx);
+        writeInlineTypes(signature, relation, writer, tx, types);
 
 
         //Write remaining properties
@@ -368,7 +411,7 @@ public class EdgeSerializer {
         long[] remaining = remainingTypes.toArray();
         Arrays.sort(remaining);
         for (long tid : remaining) {
-            TitanType t = tx.getExistingType(tid);
+            TitanType t = getType(tid, tx, types);
             writeInline(writer, t, relation.getProperty(t), true);
         }
 
@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.thinkaurelius.titan.core.*;
 import com.thinkaurelius.titan.core.attribute.Cmp;
@@ -13,6 +14,7 @@ import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.locking.PermanentLockingException;
 import com.thinkaurelius.titan.diskstorage.util.WriteByteBuffer;
 import com.thinkaurelius.titan.graphdb.database.idhandling.VariableLong;
 import com.thinkaurelius.titan.graphdb.database.serialize.DataOutput;
@@ -52,14 +54,23 @@ public class IndexSerializer {
 
     private static final Logger log = LoggerFactory.getLogger(IndexSerializer.class);
 
-    private static final int DEFAULT_VALUE_CAPACITY = 40;
 
     private final Serializer serializer;
     private final Map<String, ? extends IndexInformation> indexes;
-
-    public IndexSerializer(Serializer serializer, Map<String, ? extends IndexInformation> indexes) {
+    private final long pendingExpireMS;
+
+    /**
+     * @param serializer
+     * @param indexes
+     * @param pendingExpireMS number of milliseconds after which pending entries of optimistic unique keys are
+     *                        considered to be left behind by failed commits, see
+     *                        {@link #verifyOptimisticUniqueProperties(java.util.List, java.util.List, BackendTransaction)}
+     */
+    public IndexSerializer(Serializer serializer, Map<String, ? extends IndexInformation> indexes, long pendingExpireMS) {
+        Preconditions.checkArgument(pendingExpireMS > 0, "Invalid pending entry expiration time: %s", pendingExpireMS);
         this.serializer = serializer;
         this.indexes = indexes;
+        this.pendingExpireMS = pendingExpireMS;
     }
 
 //    public IndexInformation getIndexInformation(String indexName) {
@@ -146,27 +157,11 @@ public class IndexSerializer {
     }
 
     public void addProperty(TitanProperty prop, BackendTransaction tx) throws StorageException {
-        TitanKey key = prop.getPropertyKey();
-        for (String index : key.getIndexes(Vertex.class)) {
-            if (index.equals(Titan.Token.STANDARD_INDEX)) {
-                tx.mutateVertexIndex(getIndexKey(prop.getValue()),
-                        Lists.newArrayList(StaticBufferEntry.of(getIndexColumn(key, prop), getIndexValue(prop))), NO_DELETIONS);
-            } else {
-                addKeyValue(prop.getVertex(), key, prop.getValue(), index, tx);
-            }
-        }
+        applyIndexUpdates(getPropertyUpdates(prop, true), tx);
     }
 
     public void removeProperty(TitanProperty prop, BackendTransaction tx) throws StorageException {
-        TitanKey key = prop.getPropertyKey();
-        for (String index : key.getIndexes(Vertex.class)) {
-            if (index.equals(Titan.Token.STANDARD_INDEX)) {
-                tx.mutateVertexIndex(getIndexKey(prop.getValue()), NO_ADDITIONS,
-                        Lists.newArrayList(getIndexColumn(key, prop)));
-            } else {
-                removeKeyValue(prop.getVertex(), key, index, tx);
-            }
-        }
+        applyIndexUpdates(getPropertyUpdates(prop, false), tx);
     }
 
     public void lockKeyedProperty(TitanProperty prop, BackendTransaction tx) throws StorageException {
@@ -178,51 +173,284 @@ public class IndexSerializer {
         }
     }
 
-    public void addEdge(InternalRelation relation, BackendTransaction tx) throws StorageException {
-        Preconditions.checkArgument(relation instanceof TitanEdge, "Only edges can be indexed for now");
-        for (TitanType type : relation.getPropertyKeysDirect()) {
-            if (type instanceof TitanKey) {
-                TitanKey key = (TitanKey) type;
-                for (String index : key.getIndexes(Edge.class)) {
-                    Object value = relation.getPropertyDirect(key);
-                    if (index.equals(Titan.Token.STANDARD_INDEX)) {
-                        tx.mutateEdgeIndex(getIndexKey(value),
-                                Lists.newArrayList(StaticBufferEntry.of(getIDIndexColumn(key, relation.getID()),
-                                        relationID2ByteBuffer((RelationIdentifier) relation.getId()))), NO_DELETIONS);
+    /**
+     * Whether the given property has a unique value which is verified optimistically at commit time.
+     *
+     * @param prop
+     * @return
+     * @see #verifyOptimisticUniqueProperties(java.util.List, java.util.List, BackendTransaction)
+     * @see TypeMaker.UniquenessConsistency#OPTIMISTIC
+     */
+    public boolean isOptimisticUnique(TitanProperty prop) {
+        TitanKey key = prop.getPropertyKey();
+        return key.isUnique(Direction.IN) && ((InternalType) key).uniqueOptimistic(Direction.IN);
+    }
+
+    /**
+     * Writes pending vertex index entries for the given properties and reads back the index rows of their values with
+     * one multi-query per property key to verify that no other vertex has been assigned the same value.
+     * Optimistic unique keys store the vertex id in the index column so that concurrently written entries
+     * do not overwrite each other and hence are visible to the verification. The entries of removed properties
+     * are deleted upfront so that a value can be moved between vertices within one transaction.
+     * <p/>
+     * Pending entries are ignored by index retrievals. They are replaced by regular entries when the index updates
+     * of the properties are persisted after a successful verification. Transactions which write a conflicting value
+     * concurrently may hence all fail, but at most one succeeds.
+     * <p/>
+     * If the verification or any subsequent step of the commit fails, the caller must undo the index mutations with
+     * {@link #revertOptimisticUniqueProperties(java.util.List, java.util.List, BackendTransaction)} so that the
+     * entries do not block the values.
+     * <p/>
+     * Pending entries carry the time at which they were written. Entries of other vertices which have been pending
+     * for longer than the lock expiration time were left behind by commits that never completed, e.g. because the
+     * committing instance crashed. Like expired lock claims, such entries are not considered conflicts and are deleted.
+     *
+     * @param added   new properties for which {@link #isOptimisticUnique(TitanProperty)}
+     * @param removed removed properties for which {@link #isOptimisticUnique(TitanProperty)}
+     * @param tx
+     * @throws StorageException if the entries could not be written or read or if a conflict was detected
+     */
+    public void verifyOptimisticUniqueProperties(List<TitanProperty> added, List<TitanProperty> removed,
+                                                 BackendTransaction tx) throws StorageException {
+        for (TitanProperty prop : removed) {
+            Preconditions.checkArgument(prop.isRemoved() && isOptimisticUnique(prop));
+            tx.mutateVertexIndex(getIndexKey(prop.getValue()), NO_ADDITIONS,
+                    ImmutableList.of(getIndexColumn(prop.getPropertyKey(), prop)));
+        }
+        Map<TitanKey, List<TitanProperty>> byKey = new HashMap<TitanKey, List<TitanProperty>>();
+        for (TitanProperty prop : added) {
+            Preconditions.checkArgument(prop.isNew() && isOptimisticUnique(prop));
+            TitanKey key = prop.getPropertyKey();
+            Preconditions.checkArgument(key.hasIndex(Titan.Token.STANDARD_INDEX, Vertex.class), "Standard Index needs to be created for property to be declared unique [%s]", key.getName());
+            List<TitanProperty> keyProps = byKey.get(key);
+            if (keyProps == null) {
+                keyProps = new ArrayList<TitanProperty>();
+                byKey.put(key, keyProps);
+            }
+            keyProps.add(prop);
+            tx.mutateVertexIndex(getIndexKey(prop.getValue()),
+                    ImmutableList.<Entry>of(StaticBufferEntry.of(getIndexColumn(key, prop), getPendingIndexValue(prop))), NO_DELETIONS);
+        }
+        tx.flush();
+
+        long staleBefore = System.currentTimeMillis() - pendingExpireMS;
+        boolean removedStale = false;
+        List<TitanProperty> conflicts = new ArrayList<TitanProperty>();
+        for (Map.Entry<TitanKey, List<TitanProperty>> keyProps : byKey.entrySet()) {
+            StaticBuffer column = getUniqueIndexColumn(keyProps.getKey());
+            List<StaticBuffer> indexKeys = new ArrayList<StaticBuffer>(keyProps.getValue().size());
+            for (TitanProperty prop : keyProps.getValue()) indexKeys.add(getIndexKey(prop.getValue()));
+            List<List<Entry>> rows = tx.vertexIndexMultiQuery(indexKeys, new SliceQuery(column, SliceQuery.pointRange(column)));
+            for (int i = 0; i < rows.size(); i++) {
+                TitanProperty prop = keyProps.getValue().get(i);
+                StaticBuffer ownColumn = getIndexColumn(keyProps.getKey(), prop);
+                boolean conflict = false;
+                for (Entry entry : rows.get(i)) {
+                    if (entry.getColumn().equals(ownColumn)) continue;
+                    ReadBuffer entryValue = entry.getReadValue();
+                    long vertexId = VariableLong.readPositive(entryValue);
+                    long pendingSince = getPendingTimestamp(entryValue);
+                    if (pendingSince >= 0 && pendingSince < staleBefore) {
+                        log.warn("Removed stale pending entry of vertex {} for unique value [{}] written at {}",
+                                new Object[]{vertexId, prop.getValue(), pendingSince});
+                        tx.mutateVertexIndex(indexKeys.get(i), NO_ADDITIONS, ImmutableList.of(entry.getColumn()));
+                        removedStale = true;
                     } else {
-                        addKeyValue(relation, key, value, index, tx);
+                        conflict = true;
                     }
                 }
+                if (conflict) conflicts.add(prop);
             }
         }
+        if (removedStale) tx.flush();
+        if (!conflicts.isEmpty())
+            throw new PermanentLockingException("Unique values have concurrently been assigned to other vertices: " + conflicts);
+    }
+
+    /**
+     * Undoes the index mutations of {@link #verifyOptimisticUniqueProperties(java.util.List, java.util.List, BackendTransaction)}
+     * by deleting the entries of the added properties and restoring those of the removed properties.
+     *
+     * @param added   new properties which have been verified
+     * @param removed removed properties which have been verified
+     * @param tx
+     * @throws StorageException if the index mutations could not be persisted
+     */
+    public void revertOptimisticUniqueProperties(List<TitanProperty> added, List<TitanProperty> removed,
+                                                 BackendTransaction tx) throws StorageException {
+        for (TitanProperty prop : added) {
+            tx.mutateVertexIndex(getIndexKey(prop.getValue()), NO_ADDITIONS,
+                    ImmutableList.of(getIndexColumn(prop.getPropertyKey(), prop)));
+        }
+        for (TitanProperty prop : removed) {
+            tx.mutateVertexIndex(getIndexKey(prop.getValue()),
+                    ImmutableList.<Entry>of(StaticBufferEntry.of(getIndexColumn(prop.getPropertyKey(), prop), getIndexValue(prop))), NO_DELETIONS);
+        }
+        tx.flush();
+    }
+
+    public void addEdge(InternalRelation relation, BackendTransaction tx) throws StorageException {
+        applyIndexUpdates(getEdgeUpdates(relation, true), tx);
     }
 
     public void removeEdge(InternalRelation relation, BackendTransaction tx) throws StorageException {
+        applyIndexUpdates(getEdgeUpdates(relation, false), tx);
+    }
+
+    /**
+     * Computes all index updates caused by adding or removing the given relation without applying them. This allows
+     * the (potentially expensive) serialization of index entries to happen independently of the {@link BackendTransaction}
+     * which is not thread-safe. The returned updates are applied via {@link #applyIndexUpdates(java.util.List, BackendTransaction)}.
+     *
+     * @param relation new or removed relation
+     * @return list of index updates, which may be empty
+     */
+    public List<IndexUpdate> getIndexUpdates(InternalRelation relation) {
+        Preconditions.checkArgument(relation.isNew() || relation.isRemoved());
+        boolean isAddition = !relation.isRemoved();
+        if (relation.isProperty()) return getPropertyUpdates((TitanProperty) relation, isAddition);
+        else if (relation.isEdge()) return getEdgeUpdates(relation, isAddition);
+        else return ImmutableList.of();
+    }
+
+    public void applyIndexUpdates(List<IndexUpdate> updates, BackendTransaction tx) throws StorageException {
+        for (IndexUpdate update : updates) update.apply(tx);
+    }
+
+    private List<IndexUpdate> getPropertyUpdates(TitanProperty prop, boolean isAddition) {
+        TitanKey key = prop.getPropertyKey();
+        List<IndexUpdate> updates = null;
+        for (String index : key.getIndexes(Vertex.class)) {
+            if (updates == null) updates = new ArrayList<IndexUpdate>(2);
+            if (index.equals(Titan.Token.STANDARD_INDEX)) {
+                if (isAddition) {
+                    updates.add(IndexUpdate.addition(ElementType.VERTEX, getIndexKey(prop.getValue()),
+                            StaticBufferEntry.of(getIndexColumn(key, prop), getIndexValue(prop))));
+                } else {
+                    updates.add(IndexUpdate.deletion(ElementType.VERTEX, getIndexKey(prop.getValue()),
+                            getIndexColumn(key, prop)));
+                }
+            } else {
+                updates.add(getKeyValueUpdate(prop.getVertex(), key, prop.getValue(), index, isAddition));
+            }
+        }
+        if (updates == null) return ImmutableList.of();
+        return updates;
+    }
+
+    private List<IndexUpdate> getEdgeUpdates(InternalRelation relation, boolean isAddition) {
         Preconditions.checkArgument(relation instanceof TitanEdge, "Only edges can be indexed for now");
+        List<IndexUpdate> updates = null;
         for (TitanType type : relation.getPropertyKeysDirect()) {
             if (type instanceof TitanKey) {
                 TitanKey key = (TitanKey) type;
                 for (String index : key.getIndexes(Edge.class)) {
+                    if (updates == null) updates = new ArrayList<IndexUpdate>(2);
                     Object value = relation.getPropertyDirect(key);
                     if (index.equals(Titan.Token.STANDARD_INDEX)) {
-                        tx.mutateEdgeIndex(getIndexKey(value), NO_ADDITIONS,
-                                Lists.newArrayList(getIDIndexColumn(key, relation.getID())));
+                        if (isAddition) {
+                            updates.add(IndexUpdate.addition(ElementType.EDGE, getIndexKey(value),
+                                    StaticBufferEntry.of(getIDIndexColumn(key, relation.getID()),
+                                            relationID2ByteBuffer((RelationIdentifier) relation.getId()))));
+                        } else {
+                            updates.add(IndexUpdate.deletion(ElementType.EDGE, getIndexKey(value),
+                                    getIDIndexColumn(key, relation.getID())));
+                        }
                     } else {
-                        removeKeyValue(relation, key, index, tx);
+                        updates.add(getKeyValueUpdate(relation, key, value, index, isAddition));
                     }
                 }
             }
         }
+        if (updates == null) return ImmutableList.of();
+        return updates;
     }
 
-    private void addKeyValue(TitanElement element, TitanKey key, Object value, String index, BackendTransaction tx) throws StorageException {
+    private IndexUpdate getKeyValueUpdate(TitanElement element, TitanKey key, Object value, String index, boolean isAddition) {
         Preconditions.checkArgument(key.isUnique(Direction.OUT), "Only out-unique properties are supported by index [%s]", index);
-        tx.getIndexTransactionHandle(index).add(getStoreName(element), element2String(element), key2String(key), value, element.isNew());
+        if (isAddition) {
+            return IndexUpdate.externalAddition(index, getStoreName(element), element2String(element), key2String(key), value, element.isNew());
+        } else {
+            return IndexUpdate.externalDeletion(index, getStoreName(element), element2String(element), key2String(key), element.isRemoved());
+        }
     }
 
-    private void removeKeyValue(TitanElement element, TitanKey key, String index, BackendTransaction tx) {
-        Preconditions.checkArgument(key.isUnique(Direction.OUT), "Only out-unique properties are supported by index [%s]", index);
-        tx.getIndexTransactionHandle(index).delete(getStoreName(element), element2String(element), key2String(key), element.isRemoved());
+    /**
+     * A single, fully serialized update against either the standard index (vertex or edge index store) or an
+     * external {@link IndexProvider}.
+     */
+    public static class IndexUpdate {
+
+        private final String index;
+        private final ElementType elementType;
+        private final StaticBuffer key;
+        private final Entry addition;
+        private final StaticBuffer deletion;
+
+        private final String store;
+        private final String docid;
+        private final String field;
+        private final Object value;
+        private final boolean elementFlag;
+
+        private IndexUpdate(String index, ElementType elementType, StaticBuffer key, Entry addition, StaticBuffer deletion,
+                            String store, String docid, String field, Object value, boolean elementFlag) {
+            this.index = index;
+            this.elementType = elementType;
+            this.key = key;
+            this.addition = addition;
+            this.deletion = deletion;
+            this.store = store;
+            this.docid = docid;
+            this.field = field;
+            this.value = value;
+            this.elementFlag = elementFlag;
+        }
+
+        private static IndexUpdate addition(ElementType type, StaticBuffer key, Entry entry) {
+            return new IndexUpdate(Titan.Token.STANDARD_INDEX, type, key, entry, null, null, null, null, null, false);
+        }
+
+        private static IndexUpdate deletion(ElementType type, StaticBuffer key, StaticBuffer column) {
+            return new IndexUpdate(Titan.Token.STANDARD_INDEX, type, key, null, column, null, null, null, null, false);
+        }
+
+        private static IndexUpdate externalAddition(String index, String store, String docid, String field, Object value, boolean isNew) {
+            return new IndexUpdate(index, null, null, null, null, store, docid, field, value, isNew);
+        }
+
+        private static IndexUpdate externalDeletion(String index, String store, String docid, String field, boolean deleteAll) {
+            return new IndexUpdate(index, null, null, null, null, store, docid, field, null, deleteAll);
+        }
+
+        public boolean isStandardIndex() {
+            return IndexSerializer.isStandardIndex(index);
+        }
+
+        public boolean isAddition() {
+            return isStandardIndex() ? addition != null : value != null;
+        }
+
+        public void apply(BackendTransaction tx) throws StorageException {
+            if (isStandardIndex()) {
+                List<Entry> additions = addition == null ? NO_ADDITIONS : Lists.newArrayList(addition);
+                List<StaticBuffer> deletions = deletion == null ? NO_DELETIONS : Lists.newArrayList(deletion);
+                switch (elementType) {
+                    case VERTEX:
+                        tx.mutateVertexIndex(key, additions, deletions);
+                        break;
+                    case EDGE:
+                        tx.mutateEdgeIndex(key, additions, deletions);
+                        break;
+                    default:
+                        throw new AssertionError(elementType);
+                }
+            } else if (value != null) {
+                tx.getIndexTransactionHandle(index).add(store, docid, field, value, elementFlag);
+            } else {
+                tx.getIndexTransactionHandle(index).delete(store, docid, field, elementFlag);
+            }
+        }
     }
 
     /* ################################################
@@ -273,6 +501,41 @@ public class IndexSerializer {
         }
     }
 
+    /**
+     * Like {@link #query(String, com.thinkaurelius.titan.diskstorage.indexing.IndexQuery, com.thinkaurelius.titan.diskstorage.BackendTransaction)}
+     * but retrieves the results from external indexes lazily in pages of the given size so that large result sets
+     * are neither materialized at once nor truncated. Results from the standard index are retrieved at once.
+     * Cursors of streams which are not iterated to the end are closed when the transaction ends.
+     *
+     * @param indexName
+     * @param query
+     * @param tx
+     * @param pageSize
+     * @return
+     */
+    public Iterator<Object> queryStream(final String indexName, final IndexQuery query, final BackendTransaction tx, int pageSize) {
+        Preconditions.checkArgument(indexes.containsKey(indexName), "Index unknown or unconfigured: %s", indexName);
+        if (isStandardIndex(indexName)) return query(indexName, query, tx).iterator();
+        int limit = query.hasLimit() ? query.getLimit() : Integer.MAX_VALUE;
+        return Iterators.transform(new IndexPageIterator(limit, pageSize) {
+            @Override
+            protected IndexPage getPage(Object cursor, int pageSize) {
+                return tx.indexQueryPage(indexName, query, cursor, pageSize);
+            }
+
+            @Override
+            protected void closeCursor(Object cursor) {
+                tx.indexCloseCursor(indexName, cursor);
+            }
+        }, new Function<String, Object>() {
+            @Nullable
+            @Override
+            public Object apply(@Nullable String id) {
+                return string2ElementId(id);
+            }
+        });
+    }
+
     private List<Object> processSingleCondition(ElementType resultType, PredicateCondition pc, final int limit, BackendTransaction tx) {
         Preconditions.checkArgument(resultType == ElementType.EDGE || resultType == ElementType.VERTEX);
         Preconditions.checkArgument(pc.getPredicate() == Cmp.EQUAL, "Only equality index retrievals are supported on standard index");
@@ -283,7 +546,10 @@ public class IndexSerializer {
                 "Cannot retrieve for given property key - it does not have an index [%s]", key.getName());
         Object value = pc.getValue();
         StaticBuffer column = getUniqueIndexColumn(key);
-        KeySliceQuery sq = new KeySliceQuery(getIndexKey(value), column, SliceQuery.pointRange(column), ((InternalType) key).isStatic(Direction.IN)).setLimit(limit);
+        boolean optimistic = resultType == ElementType.VERTEX && ((InternalType) key).uniqueOptimistic(Direction.IN);
+        KeySliceQuery sq = new KeySliceQuery(getIndexKey(value), column, SliceQuery.pointRange(column), ((InternalType) key).isStatic(Direction.IN));
+        //Pending entries of optimistic unique keys are filtered below and must not count towards the limit
+        if (!optimistic) sq.setLimit(limit);
         List<Entry> r;
         if (resultType == ElementType.VERTEX) {
             r = tx.vertexIndexQuery(sq);
@@ -292,9 +558,13 @@ public class IndexSerializer {
         }
         List<Object> results = new ArrayList<Object>(r.size());
         for (Entry entry : r) {
+            if (results.size() >= limit) break;
             ReadBuffer entryValue = entry.getReadValue();
             if (resultType == ElementType.VERTEX) {
-                results.add(VariableLong.readPositive(entryValue));
+                long vertexId = VariableLong.readPositive(entryValue);
+                //Only the verified owner of an optimistic unique value has a regular entry
+                if (optimistic && getPendingTimestamp(entryValue) >= 0) continue;
+                results.add(vertexId);
             } else {
                 results.add(bytebuffer2RelationId(entryValue));
             }
@@ -460,7 +730,7 @@ public class IndexSerializer {
     }
 
     private final StaticBuffer getIndexKey(Object att) {
-        DataOutput out = serializer.getDataOutput(DEFAULT_VALUE_CAPACITY, true);
+        DataOutput out = serializer.getPooledDataOutput(true);
         out.writeObjectNotNull(att);
         return out.getStaticBuffer();
     }
@@ -469,8 +739,29 @@ public class IndexSerializer {
         return VariableLong.positiveByteBuffer(new long[]{prop.getVertex().getID(), prop.getID()});
     }
 
+    /**
+     * Entries of optimistic unique keys which have not been verified yet carry the time at which they were written
+     * after the ids
+     */
+    private static final StaticBuffer getPendingIndexValue(TitanProperty prop) {
+        return VariableLong.positiveByteBuffer(new long[]{prop.getVertex().getID(), prop.getID(), System.currentTimeMillis()});
+    }
+
+    /**
+     * @param value index entry value positioned after the vertex id
+     * @return the time at which the pending entry was written or -1 if the entry is not pending
+     */
+    private static final long getPendingTimestamp(ReadBuffer value) {
+        VariableLong.readPositive(value);
+        if (!value.hasRemaining()) return -1;
+        return VariableLong.readPositive(value);
+    }
+
     private static final StaticBuffer getIndexColumn(TitanKey key, TitanProperty prop) {
         if (key.isUnique(Direction.IN)) {
+            //Optimistic unique keys store one entry per vertex so that conflicts can be detected
+            if (((InternalType) key).uniqueOptimistic(Direction.IN))
+                return getIDIndexColumn(key, prop.getVertex().getID());
             return getUniqueIndexColumn(key);
         } else if (key.isUnique(Direction.OUT)) {
             return getIDIndexColumn(key, prop.getVertex().getID());
@@ -0,0 +1,203 @@
+package com.thinkaurelius.titan.graphdb.database;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.ReadBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.database.idhandling.VariableLong;
+import com.thinkaurelius.titan.graphdb.idmanagement.IDManager;
+import com.thinkaurelius.titan.graphdb.internal.InternalType;
+import com.thinkaurelius.titan.graphdb.relations.RelationCache;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import com.tinkerpop.blueprints.Direction;
+
+import java.util.List;
+
+import static com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler.*;
+
+/**
+ * The relations of a vertex contained in a slice of edge store entries, decoded in batch.
+ * <p/>
+ * The type id, direction, relation id and adjacent vertex id of all relations are decoded upfront into parallel
+ * primitive arrays using the same {@link IDHandler} and {@link VariableLong} decoding as {@link EdgeSerializer}. This avoids allocating a {@link RelationCache} and
+ * deserializing the property values and inline properties of each relation, which dominates the decoding cost for
+ * vertices with many relations when only the relation headers are needed. The {@link RelationCache} of an individual
+ * relation is only constructed when {@link #getRelation(int)} or {@link #getValue(int)} is invoked for it.
+ * <p/>
+ * Relations are accessed by their position in the slice.
+ *
+ * @see EdgeSerializer#readRelations(long, List, StandardTitanTx)
+ */
+public class RelationSlice {
+
+    private final long vertexId;
+    private final List<Entry> entries;
+    private final EdgeSerializer serializer;
+    private final StandardTitanTx tx;
+
+    private final long[] typeIds;
+    private final byte[] dirIds;
+    private final long[] relationIds;
+    private final long[] otherVertexIds;
+
+    RelationSlice(long vertexId, List<Entry> entries, EdgeSerializer serializer, StandardTitanTx tx) {
+        Preconditions.checkArgument(vertexId > 0);
+        Preconditions.checkNotNull(entries);
+        this.vertexId = vertexId;
+        this.entries = entries;
+        this.serializer = serializer;
+        this.tx = tx;
+
+        int size = entries.size();
+        typeIds = new long[size];
+        dirIds = new byte[size];
+        relationIds = new long[size];
+        otherVertexIds = new long[size];
+
+        InternalType type = null;
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            RelationCache cache = entry.getCache();
+            if (cache != null) {
+                //Entry has been decoded before
+                typeIds[i] = cache.typeId;
+                relationIds[i] = cache.relationId;
+                if (IDManager.isPropertyKeyID(cache.typeId)) {
+                    dirIds[i] = PROPERTY_DIR;
+                } else {
+                    dirIds[i] = (byte) (cache.direction == Direction.OUT ? EDGE_OUT_DIR : EDGE_IN_DIR);
+                    otherVertexIds[i] = cache.getOtherVertexId();
+                }
+                continue;
+            }
+
+            ReadBuffer column = entry.getReadColumn();
+            long[] typeAndDir = IDHandler.readEdgeType(column);
+            int dirID = (int) typeAndDir[1];
+            typeIds[i] = typeAndDir[0];
+            dirIds[i] = (byte) dirID;
+            type = getType(type, typeIds[i]);
+            boolean isEdge = dirID != PROPERTY_DIR;
+            Direction dir = dirID == EDGE_IN_DIR ? Direction.IN : Direction.OUT;
+
+            long relationIdDiff, vertexIdDiff = 0;
+            if (type.isUnique(dir)) {
+                ReadBuffer value = entry.getReadValue();
+                if (isEdge) vertexIdDiff = VariableLong.read(value);
+                relationIdDiff = VariableLong.read(value);
+            } else {
+                //Move position to end to read backwards
+                column.movePosition(column.length() - column.getPosition() - 1);
+                relationIdDiff = VariableLong.readBackward(column);
+                if (isEdge) vertexIdDiff = VariableLong.readBackward(column);
+            }
+            assert relationIdDiff + vertexId > 0;
+            relationIds[i] = relationIdDiff + vertexId;
+            if (isEdge) otherVertexIds[i] = vertexId + vertexIdDiff;
+        }
+    }
+
+    private InternalType getType(InternalType previous, long typeId) {
+        //Relations are sorted by type, hence consecutive relations mostly have the same type
+        if (previous != null && previous.getID() == typeId) return previous;
+        return (InternalType) tx.getExistingType(typeId);
+    }
+
+    /* ---------------------------------------------------------------
+     * Access
+     * ---------------------------------------------------------------
+     */
+
+    public long getVertexId() {
+        return vertexId;
+    }
+
+    public int size() {
+        return typeIds.length;
+    }
+
+    public long getTypeId(int pos) {
+        return typeIds[pos];
+    }
+
+    public boolean isEdge(int pos) {
+        return dirIds[pos] != PROPERTY_DIR;
+    }
+
+    public boolean isProperty(int pos) {
+        return dirIds[pos] == PROPERTY_DIR;
+    }
+
+    /**
+     * Returns the direction of the relation at the given position from the perspective of the vertex.
+     * Properties always have direction {@link Direction#OUT}.
+     *
+     * @param pos
+     * @return
+     */
+    public Direction getDirection(int pos) {
+        return dirIds[pos] == EDGE_IN_DIR ? Direction.IN : Direction.OUT;
+    }
+
+    public long getRelationId(int pos) {
+        return relationIds[pos];
+    }
+
+    /**
+     * Returns the id of the adjacent vertex of the edge at the given position
+     *
+     * @param pos
+     * @return
+     * @throws IllegalStateException if the relation at the given position is not an edge
+     */
+    public long getOtherVertexId(int pos) {
+        Preconditions.checkState(isEdge(pos), "Relation is not an edge: %s", pos);
+        return otherVertexIds[pos];
+    }
+
+    /**
+     * Returns the ids of the adjacent vertices of all edges with the given type id in the given direction.
+     * If typeId is 0, the edges of all types are considered.
+     *
+     * @param typeId
+     * @param dir
+     * @return
+     */
+    public LongArrayList getOtherVertexIds(long typeId, Direction dir) {
+        Preconditions.checkNotNull(dir);
+        LongArrayList ids = new LongArrayList();
+        for (int i = 0; i < typeIds.length; i++) {
+            if (dirIds[i] == PROPERTY_DIR || (typeId != 0 && typeIds[i] != typeId)) continue;
+            if (dir == Direction.BOTH || getDirection(i) == dir) ids.add(otherVertexIds[i]);
+        }
+        return ids;
+    }
+
+    public Entry getEntry(int pos) {
+        return entries.get(pos);
+    }
+
+    /**
+     * Fully decodes the relation at the given position including its value and properties
+     *
+     * @param pos
+     * @return
+     */
+    public RelationCache getRelation(int pos) {
+        return serializer.readRelation(vertexId, entries.get(pos), false, tx);
+    }
+
+    /**
+     * Returns the value of the property at the given position
+     *
+     * @param pos
+     * @return
+     * @throws IllegalStateException if the relation at the given position is not a property
+     */
+    public <O> O getValue(int pos) {
+        Preconditions.checkState(isProperty(pos), "Relation is not a property: %s", pos);
+        return (O) serializer.readRelation(vertexId, entries.get(pos), true, tx).getValue();
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.thinkaurelius.titan.graphdb.database;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.core.*;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import com.thinkaurelius.titan.util.stats.MetricManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TitanBulkLoader} implementation which accumulates each batch in a bulk loading transaction
+ * (see {@link com.thinkaurelius.titan.graphdb.transaction.StandardTransactionBuilder#enableBulkLoading(int)})
+ * and commits it once the number of relations configured via
+ * {@link GraphDatabaseConfiguration#STORAGE_BULK_LOAD_BATCH_KEY} has been added.
+ * <p/>
+ * Committing a batch assigns ids to all new elements through the {@link com.thinkaurelius.titan.graphdb.database.idassigner.VertexIDAssigner}
+ * at once and writes the sorted mutations against the edge and index stores in large batches.
+ * <p/>
+ * The number of loaded vertices and relations, the latency and size of each batch, and the heap usage after each
+ * batch are recorded as metrics.
+ * <p/>
+ * Like batch loading, bulk loading disables locking as well as uniqueness and existence checks and assumes that the
+ * loaded data is consistent. A loader is not thread-safe. Vertices returned by the loader remain valid arguments
+ * across batches. In contrast, edges and properties are only valid until the batch they belong to has been persisted.
+ */
+public class StandardBulkLoader implements TitanBulkLoader {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(StandardBulkLoader.class);
+
+    private static final String METRICS_PREFIX = GraphDatabaseConfiguration.METRICS_SYSTEM_PREFIX_DEFAULT + ".bulkload";
+    private static final Counter VERTICES = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "vertices");
+    private static final Counter RELATIONS = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "relations");
+    private static final Timer FLUSH_TIMER = MetricManager.INSTANCE.getTimer(METRICS_PREFIX, "flush");
+    private static final Histogram BATCH_SIZES = MetricManager.INSTANCE.getHistogram(METRICS_PREFIX, "batch");
+    private static final Histogram HEAP_USED = MetricManager.INSTANCE.getHistogram(METRICS_PREFIX, "heap");
+
+    private final StandardTitanGraph graph;
+    private final int batchSize;
+
+    private StandardTitanTx tx;
+    private int batchRelations;
+    private long vertexCount;
+    private long relationCount;
+
+    public StandardBulkLoader(StandardTitanGraph graph, int batchSize) {
+        Preconditions.checkNotNull(graph);
+        Preconditions.checkArgument(batchSize > 0, "Invalid batch size: %s", batchSize);
+        this.graph = graph;
+        this.batchSize = batchSize;
+        this.batchRelations = 0;
+        this.vertexCount = 0;
+        this.relationCount = 0;
+        this.tx = startBatch();
+    }
+
+    private StandardTitanTx startBatch() {
+        return (StandardTitanTx) graph.buildTransaction().enableBulkLoading(batchSize).start();
+    }
+
+    private void verifyOpen() {
+        Preconditions.checkState(tx != null, "Bulk loader has been closed");
+    }
+
+    /**
+     * Returns the representative of the given vertex in the transaction of the current batch. Vertices without an id
+     * have been added in the current batch, all others are retrieved by id.
+     */
+    private TitanVertex resolve(TitanVertex vertex) {
+        Preconditions.checkNotNull(vertex);
+        if (!vertex.hasId()) return vertex;
+        return tx.getVertex(vertex.getID());
+    }
+
+    private void added(int relations) {
+        batchRelations += relations;
+        relationCount += relations;
+        RELATIONS.inc(relations);
+        if (batchRelations >= batchSize) flush();
+    }
+
+    @Override
+    public TitanVertex addVertex() {
+        verifyOpen();
+        TitanVertex vertex = tx.addVertex();
+        vertexCount++;
+        VERTICES.inc();
+        //Each vertex carries its vertex state property
+        added(1);
+        return vertex;
+    }
+
+    @Override
+    public TitanVertex getVertex(long id) {
+        verifyOpen();
+        return tx.getVertex(id);
+    }
+
+    @Override
+    public TitanEdge addEdge(TitanVertex outVertex, TitanVertex inVertex, String label) {
+        verifyOpen();
+        TitanEdge edge = tx.addEdge(resolve(outVertex), resolve(inVertex), tx.getEdgeLabel(label));
+        added(1);
+        return edge;
+    }
+
+    @Override
+    public TitanProperty addProperty(TitanVertex vertex, String key, Object value) {
+        verifyOpen();
+        TitanProperty property = tx.addProperty(resolve(vertex), tx.getPropertyKey(key), value);
+        added(1);
+        return property;
+    }
+
+    @Override
+    public void flush() {
+        verifyOpen();
+        try {
+            persistBatch();
+        } finally {
+            tx = startBatch();
+        }
+    }
+
+    private void persistBatch() {
+        int relations = batchRelations;
+        batchRelations = 0;
+        if (relations == 0) {
+            tx.rollback();
+            return;
+        }
+        Timer.Context time = FLUSH_TIMER.time();
+        try {
+            tx.commit();
+        } finally {
+            time.stop();
+        }
+        BATCH_SIZES.update(relations);
+        Runtime runtime = Runtime.getRuntime();
+        HEAP_USED.update(runtime.totalMemory() - runtime.freeMemory());
+        log.debug("Persisted bulk load batch of {} relations. Loaded {} vertices and {} relations in total",
+                new Object[]{relations, vertexCount, relationCount});
+    }
+
+    @Override
+    public void close() {
+        if (tx == null) return;
+        try {
+            persistBatch();
+        } finally {
+            tx = null;
+        }
+    }
+
+    @Override
+    public long getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public long getRelationCount() {
+        return relationCount;
+    }
+
+}
@@ -3,7 +3,9 @@ package com.thinkaurelius.titan.graphdb.database;
 import com.carrotsearch.hppc.LongArrayList;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.thinkaurelius.titan.core.*;
 import com.thinkaurelius.titan.diskstorage.Backend;
 import com.thinkaurelius.titan.diskstorage.BackendTransaction;
@@ -19,6 +21,7 @@ import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
 import com.thinkaurelius.titan.graphdb.database.cache.StoreCache;
 import com.thinkaurelius.titan.graphdb.database.idassigner.VertexIDAssigner;
 import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.database.scan.ScanVertex;
 import com.thinkaurelius.titan.graphdb.database.serialize.AttributeHandling;
 import com.thinkaurelius.titan.graphdb.database.serialize.Serializer;
 import com.thinkaurelius.titan.graphdb.idmanagement.IDInspector;
@@ -27,12 +30,15 @@ import com.thinkaurelius.titan.graphdb.internal.InternalElement;
 import com.thinkaurelius.titan.graphdb.internal.InternalRelation;
 import com.thinkaurelius.titan.graphdb.internal.InternalType;
 import com.thinkaurelius.titan.graphdb.internal.InternalVertex;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
+import com.thinkaurelius.titan.graphdb.query.IndexStatistics;
 import com.thinkaurelius.titan.graphdb.relations.EdgeDirection;
 import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
 import com.thinkaurelius.titan.graphdb.transaction.StandardTransactionBuilder;
 import com.thinkaurelius.titan.graphdb.transaction.TransactionConfiguration;
 import com.thinkaurelius.titan.graphdb.types.system.SystemKey;
 import com.thinkaurelius.titan.graphdb.types.system.SystemTypeManager;
+import com.thinkaurelius.titan.graphdb.types.vertices.TitanTypeVertex;
 import com.thinkaurelius.titan.graphdb.util.ExceptionFactory;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Features;
@@ -42,9 +48,17 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class StandardTitanGraph extends TitanBlueprintsGraph {
 
@@ -69,6 +83,11 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
 
     private final RelationQueryCache relationCache;
     private final StoreCache edgeStoreCache;
+    private final IndexStatistics indexStatistics;
+
+    private final int parallelCommitThreads;
+    private final int parallelCommitMinVertices;
+    private final ExecutorService commitPool;
 
     public StandardTitanGraph(GraphDatabaseConfiguration configuration) {
         this.config = configuration;
@@ -80,11 +99,22 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
         this.idManager = idAssigner.getIDManager();
 
         this.serializer = config.getSerializer();
-        this.indexSerializer = new IndexSerializer(this.serializer, this.backend.getIndexInformation());
+        this.indexSerializer = new IndexSerializer(this.serializer, this.backend.getIndexInformation(), config.getLockExpireMS());
         this.edgeSerializer = new EdgeSerializer(this.serializer);
         this.vertexExistenceQuery = edgeSerializer.getQuery(SystemKey.VertexState, Direction.OUT, new EdgeSerializer.TypedInterval[0], null).setLimit(1);
         this.relationCache = new RelationQueryCache(this.edgeSerializer);
         this.edgeStoreCache = config.getEdgeStoreCache();
+        this.indexStatistics = new IndexStatistics();
+
+        this.parallelCommitThreads = config.getParallelCommitThreads();
+        this.parallelCommitMinVertices = config.getParallelCommitMinVertices();
+        if (parallelCommitThreads > 0) {
+            this.commitPool = Executors.newFixedThreadPool(parallelCommitThreads,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TitanCommit-%d").build());
+            log.info("Initiated parallel commit thread pool of size {}", parallelCommitThreads);
+        } else {
+            this.commitPool = null;
+        }
         isOpen = true;
     }
 
@@ -102,6 +132,7 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
             backend.close();
             edgeStoreCache.close();
             relationCache.close();
+            if (commitPool != null) commitPool.shutdown();
         } catch (StorageException e) {
             throw new TitanException("Could not close storage backend", e);
         } finally {
@@ -125,6 +156,12 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
         return new StandardTransactionBuilder(getConfiguration(), this);
     }
 
+    @Override
+    public TitanBulkLoader newBulkLoader() {
+        if (!isOpen) ExceptionFactory.graphShutdown();
+        return new StandardBulkLoader(this, config.getBulkLoadBatchSize());
+    }
+
     @Override
     public TitanTransaction newThreadBoundTransaction() {
         return buildTransaction().threadBound().start();
@@ -162,23 +199,34 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
         return relationCache;
     }
 
+    public IndexStatistics getIndexStatistics() {
+        return indexStatistics;
+    }
+
     public GraphDatabaseConfiguration getConfiguration() {
         return config;
     }
 
+    public StoreFeatures getStoreFeatures() {
+        return backend.getStoreFeatures();
+    }
+
     // ################### READ #########################
 
-    public RecordIterator<Long> getVertexIDs(final BackendTransaction tx) {
+    private KeyIterator getVertexKeys(SliceQuery projection, BackendTransaction tx) {
         Preconditions.checkArgument(backend.getStoreFeatures().supportsOrderedScan() ||
                 backend.getStoreFeatures().supportsUnorderedScan(),
                 "The configured storage backend does not support global graph operations - use Faunus instead");
 
-        final KeyIterator keyiter;
         if (backend.getStoreFeatures().supportsUnorderedScan()) {
-            keyiter = tx.edgeStoreKeys(vertexExistenceQuery);
+            return tx.edgeStoreKeys(projection);
         } else {
-            keyiter = tx.edgeStoreKeys(new KeyRangeQuery(IDHandler.MIN_KEY, IDHandler.MAX_KEY, vertexExistenceQuery));
+            return tx.edgeStoreKeys(new KeyRangeQuery(IDHandler.MIN_KEY, IDHandler.MAX_KEY, projection));
         }
+    }
+
+    public RecordIterator<Long> getVertexIDs(final BackendTransaction tx) {
+        final KeyIterator keyiter = getVertexKeys(vertexExistenceQuery, tx);
 
         return new RecordIterator<Long>() {
 
@@ -204,6 +252,97 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
         };
     }
 
+    /**
+     * Scans all vertices in the graph and returns a {@link ScanVertex} for each with all of its relations.
+     *
+     * @param tx
+     * @return
+     * @see #scanVertices(SliceQuery, StandardTitanTx)
+     */
+    public RecordIterator<ScanVertex> scanVertices(StandardTitanTx tx) {
+        return scanVertices(edgeSerializer.getQuery(RelationType.RELATION), tx);
+    }
+
+    /**
+     * Scans all vertices in the graph and returns a {@link ScanVertex} for each with those relations that are
+     * within the given projection. Vertices without relations in the projection are skipped. The projection for a
+     * particular type can be constructed via {@link EdgeSerializer#getQuery(InternalType, Direction, EdgeSerializer.TypedInterval[], EdgeSerializer.VertexConstraint)}.
+     * <p/>
+     * In contrast to {@link #getVertexIDs(BackendTransaction)}, the relations are read together with the vertex
+     * keys in one pass and the returned vertices are not added to the transaction's vertex cache so that the memory
+     * footprint of the scan remains constant. The returned iterator must be closed.
+     *
+     * @param projection
+     * @param tx
+     * @return
+     */
+    public RecordIterator<ScanVertex> scanVertices(SliceQuery projection, StandardTitanTx tx) {
+        Preconditions.checkNotNull(projection);
+        return scanVertices(getVertexKeys(projection, tx.getTxHandle()), tx);
+    }
+
+    /**
+     * Scans all vertices whose keys fall into the given key range. Requires a storage backend that supports
+     * ordered scans.
+     *
+     * @param keyStart start key of the range (inclusive)
+     * @param keyEnd end key of the range (exclusive)
+     * @param projection
+     * @param tx
+     * @return
+     * @see #scanVertices(SliceQuery, StandardTitanTx)
+     */
+    public RecordIterator<ScanVertex> scanVertices(StaticBuffer keyStart, StaticBuffer keyEnd, SliceQuery projection, StandardTitanTx tx) {
+        Preconditions.checkNotNull(projection);
+        return scanVertices(tx.getTxHandle().edgeStoreKeys(new KeyRangeQuery(keyStart, keyEnd, projection)), tx);
+    }
+
+    private RecordIterator<ScanVertex> scanVertices(final KeyIterator keyiter, final StandardTitanTx tx) {
+        final IDInspector idInspector = getIDInspector();
+
+        return new RecordIterator<ScanVertex>() {
+
+            private ScanVertex next = nextVertex();
+
+            private ScanVertex nextVertex() {
+                while (keyiter.hasNext()) {
+                    long id = IDHandler.getKeyID(keyiter.next());
+                    //Skip type definitions
+                    if (idInspector.isTypeID(id)) continue;
+                    List<Entry> entries = new ArrayList<Entry>();
+                    RecordIterator<Entry> entryiter = keyiter.getEntries();
+                    while (entryiter.hasNext()) entries.add(entryiter.next());
+                    if (entries.isEmpty()) continue;
+                    return new ScanVertex(id, entries, edgeSerializer, tx);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ScanVertex next() {
+                if (next == null) throw new NoSuchElementException();
+                ScanVertex current = next;
+                next = nextVertex();
+                return current;
+            }
+
+            @Override
+            public void close() throws IOException {
+                keyiter.close();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Removal not supported");
+            }
+        };
+    }
+
     public List<Entry> edgeQuery(long vid, SliceQuery query, BackendTransaction tx) {
         Preconditions.checkArgument(vid > 0);
         return edgeStoreCache.query(new KeySliceQuery(IDHandler.getKey(vid), query),tx);
@@ -243,6 +382,8 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
             public List<StaticBuffer> call() throws Exception {
                 //2. Collect deleted edges
                 ListMultimap<InternalVertex, InternalRelation> mutations = ArrayListMultimap.create();
+                List<TitanProperty> optimisticAdded = new ArrayList<TitanProperty>();
+                List<TitanProperty> optimisticRemoved = new ArrayList<TitanProperty>();
                 if (deletedRelations != null && !deletedRelations.isEmpty()) {
                     for (InternalRelation del : deletedRelations) {
                         Preconditions.checkArgument(del.isRemoved());
@@ -259,6 +400,8 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
                         //Update Indexes
                         if (del.isProperty()) {
                             if (acquireLocks) indexSerializer.lockKeyedProperty((TitanProperty) del, mutator);
+                            if (acquireLocks && indexSerializer.isOptimisticUnique((TitanProperty) del))
+                                optimisticRemoved.add((TitanProperty) del);
                         }
 
                     }
@@ -291,6 +434,8 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
                     //Update Indexes
                     if (relation.isProperty()) {
                         if (acquireLocks) indexSerializer.lockKeyedProperty((TitanProperty) relation, mutator);
+                        if (acquireLocks && indexSerializer.isOptimisticUnique((TitanProperty) relation))
+                            optimisticAdded.add((TitanProperty) relation);
                     }
 
                 }
@@ -307,9 +452,21 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
                     }
                 }
 
-                if (!mutations.isEmpty()) mutatedVertexKeys.addAll(persist(mutations, tx));
-                mutator.commit();
-                return mutatedVertexKeys;
+                boolean success = false;
+                try {
+                    //4. Verify optimistic uniqueness before persisting any relations
+                    if (!optimisticAdded.isEmpty())
+                        indexSerializer.verifyOptimisticUniqueProperties(optimisticAdded, optimisticRemoved, mutator);
+
+                    if (!mutations.isEmpty()) mutatedVertexKeys.addAll(persist(mutations, tx));
+                    mutator.commit();
+                    success = true;
+                    return mutatedVertexKeys;
+                } finally {
+                    //Unverified or uncommitted entries would otherwise block their values permanently
+                    if (!success && !optimisticAdded.isEmpty())
+                        revertOptimisticUniqueProperties(optimisticAdded, optimisticRemoved, mutator);
+                }
             }
 
             @Override
@@ -322,6 +479,15 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
     }
 
 
+    private void revertOptimisticUniqueProperties(List<TitanProperty> added, List<TitanProperty> removed,
+                                                  BackendTransaction mutator) {
+        try {
+            indexSerializer.revertOptimisticUniqueProperties(added, removed, mutator);
+        } catch (Throwable e) {
+            log.error("Could not revert the index entries of optimistic unique properties: " + added, e);
+        }
+    }
+
     private <V extends InternalVertex> List<StaticBuffer> persist(ListMultimap<V, InternalRelation> mutatedEdges,
                                                     StandardTitanTx tx) throws StorageException {
         assert mutatedEdges != null && !mutatedEdges.isEmpty();
@@ -330,48 +496,168 @@ public class StandardTitanGraph extends TitanBlueprintsGraph {
 
         BackendTransaction mutator = tx.getTxHandle();
         List<StaticBuffer> mutatedKeys = new ArrayList<StaticBuffer>(vertices.size());
-        for (V vertex : vertices) {
-            Preconditions.checkArgument(vertex.getID() > 0, "Vertex has no id: %s", vertex.getID());
-            List<InternalRelation> edges = mutatedEdges.get(vertex);
-            List<Entry> additions = new ArrayList<Entry>(edges.size());
-            List<StaticBuffer> deletions = new ArrayList<StaticBuffer>(Math.max(10, edges.size() / 10));
-            for (InternalRelation edge : edges) {
-                for (int pos = 0; pos < edge.getLen(); pos++) {
-                    if (edge.getVertex(pos).equals(vertex)) {
-                        if (edge.isRemoved()) {
-                            deletions.add(edgeSerializer.writeRelation(edge, pos, tx).getColumn());
-                        } else {
-                            Preconditions.checkArgument(edge.isNew());
-                            additions.add(edgeSerializer.writeRelation(edge, pos, tx));
-                        }
+        if (commitPool != null && vertices.size() >= parallelCommitMinVertices) {
+            for (VertexMutation mutation : serializeParallel(mutatedEdges, tx)) {
+                mutation.apply(mutator, mutatedKeys);
+            }
+        } else {
+            for (V vertex : vertices) {
+                serialize(vertex, mutatedEdges.get(vertex), tx).apply(mutator, mutatedKeys);
+            }
+        }
+        return mutatedKeys;
+    }
+
+    private VertexMutation serialize(InternalVertex vertex, List<InternalRelation> edges, StandardTitanTx tx) {
+        return serialize(vertex, edges, tx, null);
+    }
+
+    /**
+     * Serializes the relations of the given vertex. Types are resolved through the given map if it is not null and
+     * through the transaction otherwise.
+     */
+    private VertexMutation serialize(InternalVertex vertex, List<InternalRelation> edges, StandardTitanTx tx,
+                                     Map<Long, InternalType> types) {
+        Preconditions.checkArgument(vertex.getID() > 0, "Vertex has no id: %s", vertex.getID());
+        List<Entry> additions = new ArrayList<Entry>(edges.size());
+        List<StaticBuffer> deletions = new ArrayList<StaticBuffer>(Math.max(10, edges.size() / 10));
+        for (InternalRelation edge : edges) {
+            for (int pos = 0; pos < edge.getLen(); pos++) {
+                if (edge.getVertex(pos).equals(vertex)) {
+                    Entry entry = types == null ? edgeSerializer.writeRelation(edge, pos, tx)
+                                                : edgeSerializer.writeRelation(edge, pos, types);
+                    if (edge.isRemoved()) {
+                        deletions.add(entry.getColumn());
+                    } else {
+                        Preconditions.checkArgument(edge.isNew());
+                        additions.add(entry);
                     }
                 }
             }
+        }
 
-            StaticBuffer vertexKey = IDHandler.getKey(vertex.getID());
-            mutator.mutateEdges(vertexKey, additions, deletions);
-            if (!vertex.isNew()) mutatedKeys.add(vertexKey);
-            //Index Updates
-            for (InternalRelation relation : edges) {
-                if (relation.getVertex(0).equals(vertex)) {
-                    if (relation.isRemoved()) {
-                        if (relation.isProperty()) {
-                            indexSerializer.removeProperty((TitanProperty) relation, mutator);
-                        } else if (relation.isEdge()) {
-                            indexSerializer.removeEdge(relation, mutator);
-                        }
-                    } else {
-                        Preconditions.checkArgument(relation.isNew());
-                        if (relation.isProperty()) {
-                            indexSerializer.addProperty((TitanProperty) relation, mutator);
-                        } else {
-                            indexSerializer.addEdge(relation, mutator);
+        //Index Updates
+        List<IndexSerializer.IndexUpdate> indexUpdates = new ArrayList<IndexSerializer.IndexUpdate>();
+        for (InternalRelation relation : edges) {
+            if (relation.getVertex(0).equals(vertex)) {
+                indexUpdates.addAll(indexSerializer.getIndexUpdates(relation));
+            }
+        }
+        return new VertexMutation(IDHandler.getKey(vertex.getID()), vertex.isNew(), additions, deletions, indexUpdates);
+    }
+
+    /**
+     * Splits the mutated vertices into contiguous partitions which are serialized concurrently by the commit pool.
+     * The returned mutations are in the same order as the vertices in the given multimap so that the merge
+     * into the (not thread-safe) storage transaction is deterministic.
+     * <p/>
+     * The transaction is not thread-safe and hence never accessed by the commit pool. All types are resolved
+     * on the committing thread into an immutable map which is handed to the workers instead. Removed relations
+     * read their properties through the transaction, so vertices with removals are serialized on the committing thread.
+     */
+    private <V extends InternalVertex> List<VertexMutation> serializeParallel(final ListMultimap<V, InternalRelation> mutatedEdges,
+                                                                               final StandardTitanTx tx) throws StorageException {
+        final List<V> vertices = new ArrayList<V>(mutatedEdges.keySet());
+        final VertexMutation[] mutations = new VertexMutation[vertices.size()];
+        Map<Long, InternalType> typeMap = new HashMap<Long, InternalType>();
+        List<Integer> positions = new ArrayList<Integer>(vertices.size());
+        for (int i = 0; i < vertices.size(); i++) {
+            V vertex = vertices.get(i);
+            List<InternalRelation> edges = mutatedEdges.get(vertex);
+            if (hasRemovedRelation(edges)) {
+                mutations[i] = serialize(vertex, edges, tx);
+            } else {
+                for (InternalRelation relation : edges) resolveTypes(relation, typeMap, tx);
+                positions.add(i);
+            }
+        }
+        final Map<Long, InternalType> types = ImmutableMap.copyOf(typeMap);
+
+        List<Future<?>> partitions = new ArrayList<Future<?>>(parallelCommitThreads);
+        if (!positions.isEmpty()) {
+            int numPartitions = Math.min(parallelCommitThreads, positions.size());
+            int partitionSize = (positions.size() + numPartitions - 1) / numPartitions;
+            for (int start = 0; start < positions.size(); start += partitionSize) {
+                final List<Integer> partition = positions.subList(start, Math.min(start + partitionSize, positions.size()));
+                partitions.add(commitPool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int pos : partition) {
+                            V vertex = vertices.get(pos);
+                            mutations[pos] = serialize(vertex, mutatedEdges.get(vertex), null, types);
                         }
+                        return null;
                     }
-                }
+                }));
             }
         }
-        return mutatedKeys;
+
+        try {
+            for (Future<?> partition : partitions) partition.get();
+        } catch (InterruptedException e) {
+            for (Future<?> partition : partitions) partition.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new TitanException("Interrupted while serializing commit", e);
+        } catch (ExecutionException e) {
+            for (Future<?> partition : partitions) partition.cancel(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) throw (StorageException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new TitanException("Could not serialize commit", cause);
+        }
+        return Arrays.asList(mutations);
+    }
+
+    private static boolean hasRemovedRelation(List<InternalRelation> relations) {
+        for (InternalRelation relation : relations) {
+            if (relation.isRemoved()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the type of the given relation and the types of its sort key, signature and properties to the map
+     * and loads their definitions so that serialization does not need to access the transaction.
+     */
+    private static void resolveTypes(InternalRelation relation, Map<Long, InternalType> types, StandardTitanTx tx) {
+        InternalType type = (InternalType) relation.getType();
+        resolveType(type, types);
+        for (long typeid : type.getSortKey()) resolveType((InternalType) tx.getExistingType(typeid), types);
+        for (long typeid : type.getSignature()) resolveType((InternalType) tx.getExistingType(typeid), types);
+        for (TitanType t : relation.getPropertyKeysDirect()) resolveType((InternalType) t, types);
+    }
+
+    private static void resolveType(InternalType type, Map<Long, InternalType> types) {
+        if (types.containsKey(type.getID())) return;
+        if (type instanceof TitanTypeVertex) ((TitanTypeVertex) type).loadDefinition();
+        types.put(type.getID(), type);
+    }
+
+    /**
+     * The serialized edge store and index mutations for a single vertex.
+     */
+    private static class VertexMutation {
+
+        private final StaticBuffer vertexKey;
+        private final boolean isNew;
+        private final List<Entry> additions;
+        private final List<StaticBuffer> deletions;
+        private final List<IndexSerializer.IndexUpdate> indexUpdates;
+
+        private VertexMutation(StaticBuffer vertexKey, boolean isNew, List<Entry> additions,
+                               List<StaticBuffer> deletions, List<IndexSerializer.IndexUpdate> indexUpdates) {
+            this.vertexKey = vertexKey;
+            this.isNew = isNew;
+            this.additions = additions;
+            this.deletions = deletions;
+            this.indexUpdates = indexUpdates;
+        }
+
+        private void apply(BackendTransaction mutator, List<StaticBuffer> mutatedKeys) throws StorageException {
+            mutator.mutateEdges(vertexKey, additions, deletions);
+            if (!isNew) mutatedKeys.add(vertexKey);
+            for (IndexSerializer.IndexUpdate update : indexUpdates) update.apply(mutator);
+        }
     }
 
 }
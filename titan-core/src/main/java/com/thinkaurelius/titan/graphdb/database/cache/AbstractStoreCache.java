@@ -0,0 +1,184 @@
+package com.thinkaurelius.titan.graphdb.database.cache;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Base class for {@link StoreCache} implementations which cache slices for a fixed amount of time and handle
+ * invalidations by expiring keys.
+ * <p/>
+ * Queries against an invalidated key bypass the cache until the cache time has passed, so that stale slices are never
+ * returned. Since each such query incurs a penalty, a cleanup thread removes the cached slices of invalidated keys
+ * once their grace period has passed and enough penalties have accumulated.
+ */
+public abstract class AbstractStoreCache implements StoreCache {
+
+    private static final int INVALIDATE_KEY_FRACTION_PENALTY = 1000;
+    private static final int PENALTY_THRESHOLD = 5;
+
+    private volatile CountDownLatch penaltyCountdown;
+
+    private final ConcurrentHashMap<StaticBuffer,Long> expiredKeys;
+
+    protected final long cacheTimeMS;
+    private final long expirationGracePeriodMS;
+    private final CleanupThread cleanupThread;
+
+    protected AbstractStoreCache(final long cacheTimeMS, final long expirationGracePeriodMS) {
+        Preconditions.checkArgument(cacheTimeMS>0,"Cache expiration must be positive: %s",cacheTimeMS);
+        Preconditions.checkArgument(System.currentTimeMillis()+1000l*3600*24*365*100+cacheTimeMS>0,"Cache expiration time too large, overflow may occur: %s",cacheTimeMS);
+        Preconditions.checkArgument(expirationGracePeriodMS>=0,"Invalid expiration grace peiod: %s",expirationGracePeriodMS);
+        this.cacheTimeMS = cacheTimeMS;
+        this.expirationGracePeriodMS = expirationGracePeriodMS;
+        int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+        expiredKeys = new ConcurrentHashMap<StaticBuffer, Long>(50,0.75f,concurrencyLevel);
+        penaltyCountdown = new CountDownLatch(PENALTY_THRESHOLD);
+        cleanupThread = new CleanupThread();
+    }
+
+    /**
+     * Starts the cleanup thread. Must be called once at the end of the constructor of the implementing class.
+     */
+    protected final void startCleanup() {
+        cleanupThread.start();
+    }
+
+    /**
+     * Returns the cached result for the given query or null if it is not cached
+     *
+     * @param query
+     * @return
+     */
+    protected abstract List<Entry> getIfPresent(KeySliceQuery query);
+
+    /**
+     * Caches the given result of the given query
+     *
+     * @param query
+     * @param result
+     */
+    protected abstract void put(KeySliceQuery query, List<Entry> result);
+
+    /**
+     * Removes all cached slices of the given keys. Called by the cleanup thread.
+     *
+     * @param keys
+     */
+    protected abstract void invalidateCached(Set<StaticBuffer> keys);
+
+    protected boolean isExpired(final KeySliceQuery query) {
+        Long until = expiredKeys.get(query.getKey());
+        if (until==null) return false;
+        if (isBeyondExpirationTime(until)) {
+            expiredKeys.remove(query.getKey(),until);
+            return false;
+        }
+        //We suffer
+        penaltyCountdown.countDown();
+        return true;
+    }
+
+    @Override
+    public List<List<Entry>> multiQuery(List<StaticBuffer> keys, SliceQuery query, BackendTransaction tx) {
+        List<Entry>[] results = (List<Entry>[])new List[keys.size()];
+        List<StaticBuffer> remainingKeys = new ArrayList<StaticBuffer>(keys.size());
+        KeySliceQuery[] ksqs = new KeySliceQuery[keys.size()];
+        for (int i=0;i<keys.size();i++) {
+            StaticBuffer key = keys.get(i);
+            ksqs[i] = new KeySliceQuery(key,query);
+            List<Entry> result = null;
+            if (!isExpired(ksqs[i])) result = getIfPresent(ksqs[i]);
+            else ksqs[i]=null;
+            if (result!=null) results[i]=result;
+            else remainingKeys.add(key);
+        }
+        List<List<Entry>> subresults = tx.edgeStoreMultiQuery(remainingKeys,query);
+        int pos = 0;
+        for (int i=0;i<results.length;i++) {
+            if (results[i]!=null) continue;
+            assert pos<subresults.size();
+            List<Entry> subresult = subresults.get(pos);
+            assert subresult!=null;
+            results[i]=subresult;
+            if (ksqs[i]!=null) put(ksqs[i],subresult);
+            pos++;
+        }
+        assert pos==subresults.size();
+        return Arrays.asList(results);
+    }
+
+    protected final long getExpirationTime() {
+        return System.currentTimeMillis()+cacheTimeMS;
+    }
+
+    protected final boolean isBeyondExpirationTime(long until) {
+        return until<System.currentTimeMillis();
+    }
+
+    private final long getAge(long until) {
+        long age = System.currentTimeMillis() - (until-cacheTimeMS);
+        assert age>=0;
+        return age;
+    }
+
+    @Override
+    public void invalidate(StaticBuffer key) {
+        expiredKeys.put(key,getExpirationTime());
+        if (Math.random()<1.0/INVALIDATE_KEY_FRACTION_PENALTY) penaltyCountdown.countDown();
+    }
+
+    @Override
+    public void close() {
+        cleanupThread.stopThread();
+    }
+
+    private class CleanupThread extends Thread {
+
+        private boolean stop = false;
+
+        public CleanupThread() {
+            this.setDaemon(true);
+            this.setName(AbstractStoreCache.this.getClass().getSimpleName() + "-" + getId());
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (stop) return;
+                try {
+
+                    penaltyCountdown.await();
+                } catch (InterruptedException e) {
+                    if (stop) return;
+                    else throw new RuntimeException("Cleanup thread got interrupted",e);
+                }
+                //Do clean up work by invalidating all entries for expired keys
+                HashMap<StaticBuffer,Long> expiredKeysCopy = new HashMap<StaticBuffer,Long>(expiredKeys.size());
+                for (Map.Entry<StaticBuffer,Long> expKey : expiredKeys.entrySet()) {
+                    if (isBeyondExpirationTime(expKey.getValue()))
+                        expiredKeys.remove(expKey.getKey(), expKey.getValue());
+                    else if (getAge(expKey.getValue())>=expirationGracePeriodMS)
+                        expiredKeysCopy.put(expKey.getKey(),expKey.getValue());
+                }
+                invalidateCached(expiredKeysCopy.keySet());
+                penaltyCountdown = new CountDownLatch(PENALTY_THRESHOLD);
+                for (Map.Entry<StaticBuffer,Long> expKey : expiredKeysCopy.entrySet()) {
+                    expiredKeys.remove(expKey.getKey(),expKey.getValue());
+                }
+            }
+        }
+
+        void stopThread() {
+            stop = true;
+            this.interrupt();
+        }
+    }
+}
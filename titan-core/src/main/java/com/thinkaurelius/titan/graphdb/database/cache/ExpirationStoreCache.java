@@ -4,6 +4,9 @@ import com.codahale.metrics.Counter;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.cache.Weigher;
 import com.thinkaurelius.titan.core.TitanException;
 import com.thinkaurelius.titan.diskstorage.BackendTransaction;
@@ -12,6 +15,8 @@ import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
 import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
 import com.thinkaurelius.titan.util.stats.MetricManager;
 
 import static com.thinkaurelius.titan.util.datastructures.ByteSize.*;
@@ -22,13 +27,13 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Matthias Broecheler (me@matthiasb.com)
  */
-public class ExpirationStoreCache implements StoreCache {
+public class ExpirationStoreCache extends AbstractStoreCache {
 
     private static final Logger log =
             LoggerFactory.getLogger(ExpirationStoreCache.class);
@@ -37,30 +42,47 @@ public class ExpirationStoreCache implements StoreCache {
     private static final int STATICARRAYBUFFER_SIZE = STATICARRAYBUFFER_RAW_SIZE + 10; // 10 = last number is average length
     private static final int KEY_QUERY_SIZE = OBJECT_HEADER + 4 + 1 + 3 * (OBJECT_REFERENCE + STATICARRAYBUFFER_SIZE); // object_size + int + boolean + 3 static buffers
 
-    private static final int INVALIDATE_KEY_FRACTION_PENALTY = 1000;
-    private static final int PENALTY_THRESHOLD = 5;
+    private static final int MAX_TRACKED_PROMOTION_KEYS = 100000;
+
+    /**
+     * The slice covering all relations of a vertex in the edge store
+     */
+    private static final SliceQuery FULL_ROW_SLICE;
+
+    static {
+        StaticBuffer[] bounds = IDHandler.getBounds(RelationType.RELATION);
+        FULL_ROW_SLICE = new SliceQuery(bounds[0],bounds[1]);
+    }
 
     private static final String METRICS_PREFIX = GraphDatabaseConfiguration.METRICS_SYSTEM_PREFIX_DEFAULT
             + "." + ExpirationStoreCache.class.getSimpleName();
     private static final Counter GLOBAL_CACHE_MISSES = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "misses");
     private static final Counter GLOBAL_CACHE_RETRIEVALS = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "retrievals");
 
-    private volatile CountDownLatch penaltyCountdown;
-
     private final Cache<KeySliceQuery,List<Entry>> cache;
-    private final ConcurrentHashMap<StaticBuffer,Long> expiredKeys;
+    private final ConcurrentHashMap<StaticBuffer,Set<SliceQuery>> cachedSlices;
 
-    private final long cacheTimeMS;
-    private final long expirationGracePeriodMS;
-    private final CleanupThread cleanupThread;
+    private final int fullRowThreshold;
+    private final Cache<StaticBuffer,AtomicInteger> sliceMisses;
 
     public ExpirationStoreCache(final long cacheTimeMS, final long expirationGracePeriodMS, final long maximumByteSize) {
-        Preconditions.checkArgument(cacheTimeMS>0,"Cache expiration must be positive: %s");
-        Preconditions.checkArgument(System.currentTimeMillis()+1000l*3600*24*365*100+cacheTimeMS>0,"Cache expiration time too large, overflow may occur: %s",cacheTimeMS);
-        this.cacheTimeMS = cacheTimeMS;
+        this(cacheTimeMS,expirationGracePeriodMS,maximumByteSize,0);
+    }
+
+    /**
+     *
+     * @param cacheTimeMS
+     * @param expirationGracePeriodMS
+     * @param maximumByteSize
+     * @param fullRowThreshold Number of cache misses on slices of the same key after which the entire row of that key
+     *                         is cached instead. 0 disables full row promotion.
+     */
+    public ExpirationStoreCache(final long cacheTimeMS, final long expirationGracePeriodMS, final long maximumByteSize,
+                                final int fullRowThreshold) {
+        super(cacheTimeMS,expirationGracePeriodMS);
         int concurrencyLevel = Runtime.getRuntime().availableProcessors();
-        Preconditions.checkArgument(expirationGracePeriodMS>=0,"Invalid expiration grace peiod: %s",expirationGracePeriodMS);
-        this.expirationGracePeriodMS = expirationGracePeriodMS;
+        Preconditions.checkArgument(fullRowThreshold>=0,"Invalid full row threshold: %s",fullRowThreshold);
+        this.fullRowThreshold = fullRowThreshold;
 
         CacheBuilder<KeySliceQuery,List<Entry>> cachebuilder = CacheBuilder.newBuilder()
                 .maximumWeight(maximumByteSize)
@@ -74,14 +96,27 @@ public class ExpirationStoreCache implements StoreCache {
                         for (Entry e : entries) size+=e.getByteSize();
                         return size;
                     }
+                })
+                .removalListener(new RemovalListener<KeySliceQuery, List<Entry>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<KeySliceQuery, List<Entry>> notification) {
+                        KeySliceQuery query = notification.getKey();
+                        if (query!=null && notification.getCause()!=RemovalCause.REPLACED) unregisterSlice(query);
+                    }
                 });
 
         cache = cachebuilder.build();
-        expiredKeys = new ConcurrentHashMap<StaticBuffer, Long>(50,0.75f,concurrencyLevel);
-        penaltyCountdown = new CountDownLatch(PENALTY_THRESHOLD);
-
-        cleanupThread = new CleanupThread();
-        cleanupThread.start();
+        cachedSlices = new ConcurrentHashMap<StaticBuffer, Set<SliceQuery>>(1000,0.75f,concurrencyLevel);
+        if (fullRowThreshold>0) {
+            sliceMisses = CacheBuilder.newBuilder()
+                    .maximumSize(MAX_TRACKED_PROMOTION_KEYS)
+                    .concurrencyLevel(concurrencyLevel)
+                    .expireAfterWrite(cacheTimeMS, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            sliceMisses = null;
+        }
+        startCleanup();
     }
 
     public static void resetGlobablCounts() {
@@ -102,133 +137,147 @@ public class ExpirationStoreCache implements StoreCache {
         return getGlobalCacheRetrievals()-getGlobalCacheMisses();
     }
 
-    private boolean isExpired(final KeySliceQuery query) {
-        Long until = expiredKeys.get(query.getKey());
-        if (until==null) return false;
-        if (isBeyondExpirationTime(until)) {
-            expiredKeys.remove(query.getKey(),until);
-            return false;
-        }
-        //We suffer
-        penaltyCountdown.countDown();
-        return true;
-    }
-
     @Override
     public List<Entry> query(final KeySliceQuery query, final BackendTransaction tx) {
         if (isExpired(query)) return tx.edgeStoreQuery(query);
 
+        GLOBAL_CACHE_RETRIEVALS.inc();
+        List<Entry> result = getIfPresent(query);
+        if (result!=null) return result;
+
+        final KeySliceQuery target;
+        if (promoteToFullRow(query)) target = new KeySliceQuery(query.getKey(),FULL_ROW_SLICE);
+        else target = query;
         try {
-            GLOBAL_CACHE_RETRIEVALS.inc();
-            return cache.get(query,new Callable<List<Entry>>() {
+            result = cache.get(target,new Callable<List<Entry>>() {
                 @Override
                 public List<Entry> call() throws Exception {
                     GLOBAL_CACHE_MISSES.inc();
-                    return tx.edgeStoreQuery(query);
+                    return tx.edgeStoreQuery(target);
                 }
             });
+            //Registered after the result is cached, see registerSlice
+            registerSlice(target);
         } catch (Exception e) {
             if (e instanceof TitanException) throw (TitanException)e;
             else if (e.getCause() instanceof TitanException) throw (TitanException)e.getCause();
             else throw new TitanException(e);
         }
+        if (target==query) return result;
+        else return query.getSubset(target,result);
     }
 
     @Override
-    public List<List<Entry>> multiQuery(List<StaticBuffer> keys, SliceQuery query, BackendTransaction tx) {
-        List<Entry>[] results = (List<Entry>[])new List[keys.size()];
-        List<StaticBuffer> remainingKeys = new ArrayList<StaticBuffer>(keys.size());
-        KeySliceQuery[] ksqs = new KeySliceQuery[keys.size()];
-        for (int i=0;i<keys.size();i++) {
-            StaticBuffer key = keys.get(i);
-            ksqs[i] = new KeySliceQuery(key,query);
-            List<Entry> result = null;
-            if (!isExpired(ksqs[i])) result = cache.getIfPresent(ksqs[i]);
-            else ksqs[i]=null;
-            if (result!=null) results[i]=result;
-            else remainingKeys.add(key);
-        }
-        List<List<Entry>> subresults = tx.edgeStoreMultiQuery(remainingKeys,query);
-        int pos = 0;
-        for (int i=0;i<results.length;i++) {
-            if (results[i]!=null) continue;
-            assert pos<subresults.size();
-            List<Entry> subresult = subresults.get(pos);
-            assert subresult!=null;
-            results[i]=subresult;
-            if (ksqs[i]!=null) cache.put(ksqs[i],subresult);
-            pos++;
-        }
-        assert pos==subresults.size();
-        return Arrays.asList(results);
-    }
-
-    private final long getExpirationTime() {
-        return System.currentTimeMillis()+cacheTimeMS;
+    protected void put(KeySliceQuery query, List<Entry> result) {
+        cache.put(query,result);
+        registerSlice(query);
     }
 
-    private final boolean isBeyondExpirationTime(long until) {
-        return until<System.currentTimeMillis();
+    /**
+     * Returns the result for the given query if it is cached or can be derived from the cached result of
+     * a slice for the same key that contains the requested slice. Returns null otherwise.
+     *
+     * @param query
+     * @return
+     */
+    @Override
+    protected List<Entry> getIfPresent(final KeySliceQuery query) {
+        List<Entry> result = cache.getIfPresent(query);
+        if (result!=null) return result;
+        Set<SliceQuery> slices = cachedSlices.get(query.getKey());
+        if (slices==null) return null;
+        for (SliceQuery slice : slices) {
+            if (slice.equals(query)) continue;
+            KeySliceQuery superQuery = new KeySliceQuery(query.getKey(),slice);
+            List<Entry> superResult = cache.getIfPresent(superQuery);
+            if (superResult==null) continue;
+            SliceQuery covering = getCoveringSlice(superQuery,superResult,query);
+            if (covering!=null) return query.getSubset(covering,superResult);
+        }
+        return null;
     }
 
-    private final long getAge(long until) {
-        long age = System.currentTimeMillis() - (until-cacheTimeMS);
-        assert age>=0;
-        return age;
+    /**
+     * Returns a slice which subsumes the given query and for which the given result of the super query is complete,
+     * or null if the result of the query is not contained in the result of the super query.
+     */
+    private static SliceQuery getCoveringSlice(SliceQuery superQuery, List<Entry> superResult, SliceQuery query) {
+        if (superQuery.subsumes(query)) return superQuery;
+        //If the super query's limit was not reached, its result is complete for the entire interval
+        if (superQuery.hasLimit() && superResult.size()<superQuery.getLimit()) {
+            SliceQuery interval = new SliceQuery(superQuery.getSliceStart(),superQuery.getSliceEnd());
+            if (interval.subsumes(query)) return interval;
+        }
+        return null;
     }
 
-    @Override
-    public void invalidate(StaticBuffer key) {
-        expiredKeys.put(key,getExpirationTime());
-        if (Math.random()<1.0/INVALIDATE_KEY_FRACTION_PENALTY) penaltyCountdown.countDown();
+    private boolean promoteToFullRow(KeySliceQuery query) {
+        if (sliceMisses==null || !FULL_ROW_SLICE.subsumes(query) || FULL_ROW_SLICE.equals(query)) return false;
+        AtomicInteger misses = sliceMisses.getIfPresent(query.getKey());
+        if (misses==null) {
+            misses = new AtomicInteger(0);
+            AtomicInteger previous = sliceMisses.asMap().putIfAbsent(query.getKey(),misses);
+            if (previous!=null) misses = previous;
+        }
+        if (misses.incrementAndGet()<fullRowThreshold) return false;
+        sliceMisses.invalidate(query.getKey());
+        return true;
     }
 
-    @Override
-    public void close() {
-        cleanupThread.stopThread();
+    /**
+     * Registers the slice of the given query after its result has been put into the cache.
+     * <p/>
+     * The registration of a slice is only modified while holding the monitor of the key's slice set and only
+     * according to whether the result is currently cached. Since the removal listener runs after the result has been
+     * removed, concurrent invalidations, evictions and puts of the same slice cannot leave a registration behind
+     * for a result that is no longer cached nor drop the registration of a cached result.
+     *
+     * @param query
+     */
+    private void registerSlice(KeySliceQuery query) {
+        while (true) {
+            Set<SliceQuery> slices = cachedSlices.get(query.getKey());
+            if (slices==null) {
+                slices = Collections.newSetFromMap(new ConcurrentHashMap<SliceQuery, Boolean>(4));
+                Set<SliceQuery> previous = cachedSlices.putIfAbsent(query.getKey(),slices);
+                if (previous!=null) slices = previous;
+            }
+            synchronized (slices) {
+                //The set has been removed by a concurrent unregistration, hence retry with a new one
+                if (cachedSlices.get(query.getKey())!=slices) continue;
+                if (cache.asMap().containsKey(query)) slices.add(new SliceQuery(query));
+                else if (slices.isEmpty()) cachedSlices.remove(query.getKey(),slices);
+                return;
+            }
+        }
     }
 
-    private class CleanupThread extends Thread {
-
-        private boolean stop = false;
-
-        public CleanupThread() {
-            this.setDaemon(true);
-            this.setName("ExpirationStoreCache-" + getId());
+    private void unregisterSlice(KeySliceQuery query) {
+        Set<SliceQuery> slices = cachedSlices.get(query.getKey());
+        if (slices==null) return;
+        synchronized (slices) {
+            //The slice has been cached again in the meantime
+            if (cache.asMap().containsKey(query)) return;
+            slices.remove(new SliceQuery(query));
+            if (slices.isEmpty()) cachedSlices.remove(query.getKey(),slices);
         }
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-                if (stop) return;
-                try {
-
-                    penaltyCountdown.await();
-                } catch (InterruptedException e) {
-                    if (stop) return;
-                    else throw new RuntimeException("Cleanup thread got interrupted",e);
-                }
-                //Do clean up work by invalidating all entries for expired keys
-                HashMap<StaticBuffer,Long> expiredKeysCopy = new HashMap<StaticBuffer,Long>(expiredKeys.size());
-                for (Map.Entry<StaticBuffer,Long> expKey : expiredKeys.entrySet()) {
-                    if (isBeyondExpirationTime(expKey.getValue()))
-                        expiredKeys.remove(expKey.getKey(), expKey.getValue());
-                    else if (getAge(expKey.getValue())>=expirationGracePeriodMS)
-                        expiredKeysCopy.put(expKey.getKey(),expKey.getValue());
-                }
-                for (KeySliceQuery ksq : cache.asMap().keySet()) {
-                    if (expiredKeysCopy.containsKey(ksq.getKey())) cache.invalidate(ksq);
-                }
-                penaltyCountdown = new CountDownLatch(PENALTY_THRESHOLD);
-                for (Map.Entry<StaticBuffer,Long> expKey : expiredKeysCopy.entrySet()) {
-                    expiredKeys.remove(expKey.getKey(),expKey.getValue());
-                }
-            }
-        }
+    /**
+     * Returns the number of registered slices. For testing only.
+     *
+     * @return
+     */
+    int getNumRegisteredSlices() {
+        int count = 0;
+        for (Set<SliceQuery> slices : cachedSlices.values()) count+=slices.size();
+        return count;
+    }
 
-        void stopThread() {
-            stop = true;
-            this.interrupt();
+    @Override
+    protected void invalidateCached(Set<StaticBuffer> keys) {
+        for (KeySliceQuery ksq : cache.asMap().keySet()) {
+            if (keys.contains(ksq.getKey())) cache.invalidate(ksq);
         }
     }
 }
@@ -0,0 +1,341 @@
+package com.thinkaurelius.titan.graphdb.database.cache;
+
+import com.codahale.metrics.Counter;
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.util.stats.MetricManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link StoreCache} which keeps the serialized slice results outside the JVM heap so that large caches do not
+ * add to garbage collection overhead.
+ * <p/>
+ * Slices are appended to direct {@link ByteBuffer} segments of fixed size in a log structured fashion. Only a small
+ * index entry per cached slice lives on the heap. Once the configured number of bytes is exhausted, the oldest
+ * segment is evicted as a whole together with all slices it contains and is reused for subsequent slices, so that
+ * the allocated off-heap memory is bounded by the configured size. Each reuse starts a new generation of the segment.
+ * Reads and writes of a slot hold the segment's read lock and are only performed if the segment is still in the
+ * generation of the slot, hence they never observe or overwrite the slices of a later generation. A cache hit copies
+ * the slice onto the heap so that no references into segments remain. Slices which do not fit into a single segment
+ * are not cached.
+ */
+public class OffHeapStoreCache extends AbstractStoreCache {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(OffHeapStoreCache.class);
+
+    public static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024; //4 MB
+    public static final int MIN_SEGMENT_SIZE = 64 * 1024; //64 KB
+    private static final int MIN_NUM_SEGMENTS = 8;
+
+    private static final int NULL_VALUE_LENGTH = -1;
+
+    private static final String METRICS_PREFIX = GraphDatabaseConfiguration.METRICS_SYSTEM_PREFIX_DEFAULT
+            + "." + OffHeapStoreCache.class.getSimpleName();
+    private static final Counter GLOBAL_CACHE_MISSES = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "misses");
+    private static final Counter GLOBAL_CACHE_RETRIEVALS = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "retrievals");
+
+    private final ConcurrentHashMap<KeySliceQuery,Slot> index;
+
+    private final long maximumByteSize;
+    private final int segmentSize;
+    private final AtomicBoolean warnedOversized;
+
+    //Guarded by this
+    private final LinkedList<Segment> segments;
+    private Segment current;
+
+    private final AtomicLong usedBytes;
+
+    public OffHeapStoreCache(final long cacheTimeMS, final long expirationGracePeriodMS, final long maximumByteSize) {
+        super(cacheTimeMS,expirationGracePeriodMS);
+        Preconditions.checkArgument(maximumByteSize>=MIN_SEGMENT_SIZE,"Cache size is too small: %s",maximumByteSize);
+        this.maximumByteSize = maximumByteSize;
+        this.segmentSize = (int)Math.max(MIN_SEGMENT_SIZE,Math.min(MAX_SEGMENT_SIZE,maximumByteSize/MIN_NUM_SEGMENTS));
+
+        int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+        index = new ConcurrentHashMap<KeySliceQuery, Slot>(1000,0.75f,concurrencyLevel);
+
+        segments = new LinkedList<Segment>();
+        current = null;
+        usedBytes = new AtomicLong(0);
+        warnedOversized = new AtomicBoolean(false);
+
+        log.debug("Allocating off-heap cache of {} bytes in segments of {} bytes",maximumByteSize,segmentSize);
+
+        startCleanup();
+    }
+
+    public static void resetGlobablCounts() {
+        // Approximate (inexact)
+        GLOBAL_CACHE_MISSES.dec(GLOBAL_CACHE_MISSES.getCount());
+        GLOBAL_CACHE_RETRIEVALS.dec(GLOBAL_CACHE_RETRIEVALS.getCount());
+    }
+
+    public static long getGlobalCacheRetrievals() {
+        return GLOBAL_CACHE_RETRIEVALS.getCount();
+    }
+
+    public static long getGlobalCacheMisses() {
+        return GLOBAL_CACHE_MISSES.getCount();
+    }
+
+    public static long getGlobalCacheHits() {
+        return getGlobalCacheRetrievals()-getGlobalCacheMisses();
+    }
+
+    /**
+     * Returns the exact number of bytes of serialized slice data currently held by this cache.
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes of off-heap memory currently allocated by this cache. This is the number of
+     * live segments times the segment size and never exceeds the configured maximum size.
+     *
+     * @return
+     */
+    public synchronized long getAllocatedBytes() {
+        return ((long)segments.size())*segmentSize;
+    }
+
+    @Override
+    public List<Entry> query(final KeySliceQuery query, final BackendTransaction tx) {
+        if (isExpired(query)) return tx.edgeStoreQuery(query);
+
+        GLOBAL_CACHE_RETRIEVALS.inc();
+        List<Entry> result = getIfPresent(query);
+        if (result==null) {
+            GLOBAL_CACHE_MISSES.inc();
+            result = tx.edgeStoreQuery(query);
+            put(query,result);
+        }
+        return result;
+    }
+
+    @Override
+    protected List<Entry> getIfPresent(KeySliceQuery query) {
+        Slot slot = index.get(query);
+        if (slot==null) return null;
+        if (isBeyondExpirationTime(slot.until)) {
+            removeSlot(query,slot);
+            return null;
+        }
+        return slot.read();
+    }
+
+    @Override
+    protected void put(KeySliceQuery query, List<Entry> entries) {
+        int length = 4;
+        for (Entry entry : entries) {
+            StaticBuffer value = entry.getValue();
+            length += 8 + entry.getColumn().length() + (value==null?0:value.length());
+        }
+        if (length>segmentSize) {
+            //Slice too large to be cached
+            if (warnedOversized.compareAndSet(false,true))
+                log.warn("Slice of {} bytes exceeds the segment size of {} bytes and is not cached. Further occurrences are logged at debug level",length,segmentSize);
+            else
+                log.debug("Slice of {} bytes for query [{}] exceeds the segment size and is not cached",length,query);
+            return;
+        }
+
+        Slot slot = allocate(length);
+        Segment segment = slot.segment;
+        segment.lock.readLock().lock();
+        try {
+            //The segment has been reused since the slot was allocated
+            if (slot.isStale()) return;
+            ByteBuffer b = segment.buffer.duplicate();
+            b.position(slot.offset);
+            b.putInt(entries.size());
+            for (Entry entry : entries) {
+                write(b,entry.getColumn());
+                write(b,entry.getValue());
+            }
+            assert b.position()==slot.offset+length;
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        //Publish after the data has been written
+        Slot previous = index.put(query,slot);
+        segment.queries.add(query);
+        usedBytes.addAndGet(length);
+        if (previous!=null) usedBytes.addAndGet(-previous.length);
+        if (slot.isStale()) removeSlot(query,slot);
+    }
+
+    private static void write(ByteBuffer b, StaticBuffer buffer) {
+        if (buffer==null) {
+            b.putInt(NULL_VALUE_LENGTH);
+            return;
+        }
+        int len = buffer.length();
+        b.putInt(len);
+        b.put(buffer.asByteBuffer());
+    }
+
+    private synchronized Slot allocate(int length) {
+        assert length<=segmentSize;
+        if (current==null || current.position+length>segmentSize) {
+            if (segments.isEmpty() || ((long)segments.size()+1)*segmentSize<=maximumByteSize) {
+                current = new Segment(ByteBuffer.allocateDirect(segmentSize));
+            } else {
+                //Reuse the oldest segment instead of allocating more memory
+                current = segments.removeFirst();
+                evict(current);
+            }
+            segments.addLast(current);
+        }
+        Slot slot = new Slot(current,current.generation,current.position,length,getExpirationTime());
+        current.position+=length;
+        return slot;
+    }
+
+    /**
+     * Removes all slices of the given segment and resets it for reuse. Waits for all reads and writes of slots in the
+     * segment to finish.
+     *
+     * @param segment
+     */
+    private void evict(Segment segment) {
+        segment.lock.writeLock().lock();
+        try {
+            segment.generation++;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        for (KeySliceQuery query : segment.queries) {
+            Slot slot = index.get(query);
+            if (slot!=null && slot.segment==segment) removeSlot(query,slot);
+        }
+        segment.queries.clear();
+        segment.position = 0;
+    }
+
+    private void removeSlot(KeySliceQuery query, Slot slot) {
+        if (index.remove(query,slot)) usedBytes.addAndGet(-slot.length);
+    }
+
+    @Override
+    protected void invalidateCached(Set<StaticBuffer> keys) {
+        for (Map.Entry<KeySliceQuery,Slot> entry : index.entrySet()) {
+            if (keys.contains(entry.getKey().getKey())) removeSlot(entry.getKey(),entry.getValue());
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            segments.clear();
+            current = null;
+        }
+        index.clear();
+        usedBytes.set(0);
+    }
+
+    private static class Segment {
+
+        private final ByteBuffer buffer;
+        private final Queue<KeySliceQuery> queries;
+        private final ReadWriteLock lock;
+        //Guarded by OffHeapStoreCache.this
+        private int position;
+        //Only incremented while holding the write lock
+        private volatile int generation;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.queries = new ConcurrentLinkedQueue<KeySliceQuery>();
+            this.lock = new ReentrantReadWriteLock();
+            this.position = 0;
+            this.generation = 0;
+        }
+
+    }
+
+    private static class Slot {
+
+        private final Segment segment;
+        private final int generation;
+        private final int offset;
+        private final int length;
+        private final long until;
+
+        private Slot(Segment segment, int generation, int offset, int length, long until) {
+            this.segment = segment;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.until = until;
+        }
+
+        /**
+         * Whether the segment has been reused since this slot was allocated
+         *
+         * @return
+         */
+        private boolean isStale() {
+            return segment.generation!=generation;
+        }
+
+        /**
+         * Copies the slot onto the heap with a single bulk read and returns the entries as views on that copy.
+         * The returned entries hold no references to the segment. Returns null if the segment has been reused.
+         *
+         * @return
+         */
+        private List<Entry> read() {
+            byte[] data = new byte[length];
+            segment.lock.readLock().lock();
+            try {
+                if (isStale()) return null;
+                ByteBuffer src = segment.buffer.duplicate();
+                src.position(offset);
+                src.get(data);
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+            ByteBuffer b = ByteBuffer.wrap(data);
+            int size = b.getInt();
+            List<Entry> entries = new ArrayList<Entry>(size);
+            for (int i=0;i<size;i++) {
+                StaticBuffer column = view(b,data);
+                StaticBuffer value = view(b,data);
+                entries.add(StaticBufferEntry.of(column,value));
+            }
+            assert b.position()==length;
+            return entries;
+        }
+
+        private static StaticBuffer view(ByteBuffer b, byte[] data) {
+            int len = b.getInt();
+            if (len==NULL_VALUE_LENGTH) return null;
+            int start = b.position();
+            b.position(start+len);
+            return new StaticArrayBuffer(data,start,start+len);
+        }
+
+    }
+}
@@ -0,0 +1,105 @@
+package com.thinkaurelius.titan.graphdb.database.idassigner;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link IDBlockSizer} which adapts the block size of each partition to the rate at which ids are consumed in
+ * that partition.
+ * <p/>
+ * Every invocation of {@link #getBlockSize(int)} corresponds to the acquisition of a new id block. If blocks for
+ * a partition are requested more frequently than the configured target interval, the block size is doubled so that
+ * fewer round trips to the {@link com.thinkaurelius.titan.diskstorage.IDAuthority} are needed. If blocks are requested
+ * much less frequently, the block size is halved to reduce the amount of id space that is lost when a pool is closed.
+ * The block size always remains within the bounds given by the base block size of the partition divided and
+ * multiplied by the configured factor.
+ */
+public class AdaptiveIDBlockSizer implements IDBlockSizer {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(AdaptiveIDBlockSizer.class);
+
+    /**
+     * Minimum number of blocks that fit into the id space of a partition
+     */
+    private static final long MIN_BLOCKS_PER_PARTITION = 1024;
+
+    private final IDBlockSizer baseSizer;
+    private final long targetIntervalMS;
+    private final int factor;
+
+    private final ConcurrentHashMap<Integer,PartitionState> partitions;
+
+    /**
+     *
+     * @param baseSizer Sizer which determines the initial block size and upper bound of each partition
+     * @param targetIntervalMS Desired time between two block acquisitions in the same partition
+     * @param factor Maximum factor by which the block size may deviate from the initial block size
+     */
+    public AdaptiveIDBlockSizer(IDBlockSizer baseSizer, long targetIntervalMS, int factor) {
+        Preconditions.checkNotNull(baseSizer);
+        Preconditions.checkArgument(targetIntervalMS>0,"Invalid target interval: %s",targetIntervalMS);
+        Preconditions.checkArgument(factor>=1,"Invalid block size factor: %s",factor);
+        this.baseSizer = baseSizer;
+        this.targetIntervalMS = targetIntervalMS;
+        this.factor = factor;
+        this.partitions = new ConcurrentHashMap<Integer, PartitionState>();
+    }
+
+    @Override
+    public long getBlockSize(int partitionID) {
+        PartitionState state = partitions.get(partitionID);
+        if (state==null) {
+            state = new PartitionState(partitionID);
+            PartitionState previous = partitions.putIfAbsent(partitionID,state);
+            if (previous!=null) state=previous;
+        }
+        return state.nextBlockSize(currentTimeMillis());
+    }
+
+    @Override
+    public long getIdUpperBound(int partitionID) {
+        return baseSizer.getIdUpperBound(partitionID);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private class PartitionState {
+
+        private final int partitionID;
+        private final long minSize;
+        private final long maxSize;
+
+        private long size;
+        private long lastAcquisition;
+
+        private PartitionState(int partitionID) {
+            this.partitionID = partitionID;
+            long base = baseSizer.getBlockSize(partitionID);
+            minSize = Math.max(1,base/factor);
+            maxSize = Math.max(base,Math.min(base*factor,baseSizer.getIdUpperBound(partitionID)/MIN_BLOCKS_PER_PARTITION));
+            size = base;
+            lastAcquisition = -1;
+        }
+
+        private synchronized long nextBlockSize(long time) {
+            if (lastAcquisition>=0) {
+                long interval = time-lastAcquisition;
+                long previous = size;
+                if (interval<targetIntervalMS/2) size = Math.min(maxSize,size*2);
+                else if (interval>targetIntervalMS*2) size = Math.max(minSize,size/2);
+                if (size!=previous)
+                    log.debug("Adjusted id block size of partition {} from {} to {} after {} ms",new Object[]{partitionID,previous,size,interval});
+            }
+            lastAcquisition = time;
+            return size;
+        }
+
+    }
+
+}
@@ -1,13 +1,35 @@
 package com.thinkaurelius.titan.graphdb.database.idassigner;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.thinkaurelius.titan.core.TitanException;
 import com.thinkaurelius.titan.diskstorage.IDAuthority;
 import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.util.stats.MetricManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
+ * Lock-free {@link IDPool} implementation.
+ * <p/>
+ * Blocks of ids are acquired from the {@link IDAuthority}. Each thread leases a small sub-block of the current block
+ * by means of a single compare-and-swap operation and then hands out ids from its lease without any synchronization.
+ * Before the current block is exhausted, the next block is acquired asynchronously so that threads rarely have to wait
+ * on the storage backend.
+ * <p/>
+ * Ids that have been leased by a thread but are not used before the pool is closed are lost.
+ * <p/>
+ * The latency of block acquisitions as well as the number of acquired and wasted ids are recorded as metrics. Wasted
+ * ids are all ids acquired by a pool that it did not hand out before it was closed, i.e. the unleased ids of its
+ * blocks as well as the unused ids of the threads' leases.
+ *
  * @author Matthias Broecheler (me@matthiasb.com)
  */
 
@@ -16,13 +38,25 @@ public class StandardIDPool implements IDPool {
     private static final Logger log =
             LoggerFactory.getLogger(StandardIDPool.class);
 
-    private static final long BUFFER_EMPTY = -1;
-    private static final long BUFFER_POOL_EXHAUSTION = -100;
-
     private static final int RENEW_ID_COUNT = 100;
 
-    private static final long RENEW_WAIT_INTERVAL = 1000;
+    /**
+     * Maximum number of ids a thread leases from the current block at once
+     */
+    public static final int MAX_LEASE_SIZE = 64;
+
+    /**
+     * Minimum number of leases each block is split into
+     */
+    private static final int MIN_LEASES_PER_BLOCK = 16;
 
+    private static final String METRICS_PREFIX = GraphDatabaseConfiguration.METRICS_SYSTEM_PREFIX_DEFAULT + ".ids";
+    private static final Timer BLOCK_FETCH_TIMER = MetricManager.INSTANCE.getTimer(METRICS_PREFIX, "fetch");
+    private static final Counter ACQUIRED_IDS = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "acquired");
+    private static final Counter WASTED_IDS = MetricManager.INSTANCE.getCounter(METRICS_PREFIX, "wasted");
+
+    private static final ExecutorService RENEWAL_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TitanID-renewal-%d").build());
 
     private final IDAuthority idAuthority;
     private final long maxID; //inclusive
@@ -31,15 +65,13 @@ public class StandardIDPool implements IDPool {
     private final long renewTimeoutMS;
     private final double renewBufferPercentage;
 
-    private long nextID;
-    private long currentMaxID;
-    private long renewBufferID;
-
-    private volatile long bufferNextID;
-    private volatile long bufferMaxID;
-    private Thread idBlockRenewer;
+    private final AtomicReference<Block> currentBlock;
+    private final AtomicReference<Future<Block>> nextBlock;
+    private final ThreadLocal<Lease> leases;
 
-    private boolean initialized;
+    private final AtomicLong acquiredIDs;
+    //Striped to avoid contention between threads handing out ids
+    private final Counter handedOutIDs;
 
     public StandardIDPool(IDAuthority idAuthority, long partitionID, long maximumID, long renewTimeoutMS, double renewBufferPercentage) {
         Preconditions.checkArgument(maximumID > 0);
@@ -52,125 +84,192 @@ public class StandardIDPool implements IDPool {
         Preconditions.checkArgument(renewBufferPercentage>0.0 && renewBufferPercentage<=1.0,"Renew-buffer percentage must be in (0.0,1.0]");
         this.renewBufferPercentage = renewBufferPercentage;
 
-        nextID = 0;
-        currentMaxID = 0;
-        renewBufferID = 0;
-
-        bufferNextID = BUFFER_EMPTY;
-        bufferMaxID = BUFFER_EMPTY;
-        idBlockRenewer = null;
+        currentBlock = new AtomicReference<Block>(Block.EMPTY);
+        nextBlock = new AtomicReference<Future<Block>>(null);
+        leases = new ThreadLocal<Lease>();
+        acquiredIDs = new AtomicLong(0);
+        handedOutIDs = new Counter();
+    }
 
-        initialized = false;
+    @Override
+    public long nextID() {
+        Lease lease = leases.get();
+        if (lease==null || lease.next>=lease.end) {
+            lease = newLease();
+            leases.set(lease);
+        }
+        long returnId = lease.next;
+        lease.next++;
+        if (returnId > maxID) throw new IDPoolExhaustedException("Exhausted max id of " + maxID);
+        handedOutIDs.inc();
+        log.trace("[{}] Returned id: {}", partitionID, returnId);
+        return returnId;
     }
 
-    private void waitForIDRenewer() throws InterruptedException {
-        long timeStart = System.currentTimeMillis(); long timeDelta=0;
-        while (idBlockRenewer!= null && idBlockRenewer.isAlive() && ((timeDelta=System.currentTimeMillis()-timeStart)<renewTimeoutMS)) {
-            //Updating thread has not yet completed, so wait for it
-            if (timeDelta<RENEW_WAIT_INTERVAL) {
-                log.debug("Waiting for id renewal thread on partition {} [{} ms]",partitionID,timeDelta);
-            } else {
-                log.warn("Waiting for id renewal thread on partition {} [{} ms]",partitionID,timeDelta);
+    private Lease newLease() {
+        while (true) {
+            Block block = currentBlock.get();
+            long start = block.next.getAndAdd(block.leaseSize);
+            if (start<block.end) {
+                long end = Math.min(start+block.leaseSize,block.end);
+                if (start<=block.renewID && block.renewID<end) startNextBlockAcquisition();
+                return new Lease(start,end);
+            }
+            //Current block is exhausted
+            Future<Block> future = startNextBlockAcquisition();
+            Block newBlock = waitForBlock(future);
+            if (currentBlock.compareAndSet(block,newBlock)) {
+                log.debug("[ID Partition {}] Acquired range: [{},{}]", new Object[]{ partitionID, newBlock.start, newBlock.end });
+                nextBlock.compareAndSet(future,null);
             }
-            idBlockRenewer.join(RENEW_WAIT_INTERVAL);
         }
-        if (idBlockRenewer!=null && idBlockRenewer.isAlive())
-            throw new TitanException("ID renewal thread on partition ["+partitionID+"] did not complete in time. ["+(System.currentTimeMillis()-timeStart)+" ms]");
     }
 
-    private synchronized void nextBlock() throws InterruptedException {
-        assert nextID == currentMaxID;
-
-        waitForIDRenewer();
-        if (bufferMaxID == BUFFER_POOL_EXHAUSTION || bufferNextID == BUFFER_POOL_EXHAUSTION)
-            throw new IDPoolExhaustedException("Exhausted ID Pool for partition: " + partitionID);
-
-        Preconditions.checkArgument(bufferMaxID > 0, bufferMaxID);
-        Preconditions.checkArgument(bufferNextID > 0, bufferNextID);
-
-        nextID = bufferNextID;
-        currentMaxID = bufferMaxID;
-
-        log.debug("[ID Partition {}] Acquired range: [{},{}]", new Object[]{ partitionID, nextID, currentMaxID });
-
-        assert nextID > 0 && currentMaxID > nextID;
-
-        bufferNextID = BUFFER_EMPTY;
-        bufferMaxID = BUFFER_EMPTY;
-
-        renewBufferID = currentMaxID - Math.max(RENEW_ID_COUNT, Math.round((currentMaxID - nextID)*renewBufferPercentage));
-        if (renewBufferID >= currentMaxID) renewBufferID = currentMaxID - 1;
-        if (renewBufferID < nextID) renewBufferID = nextID;
-        assert renewBufferID >= nextID && renewBufferID < currentMaxID;
+    private Future<Block> startNextBlockAcquisition() {
+        while (true) {
+            Future<Block> future = nextBlock.get();
+            if (future!=null) return future;
+            FutureTask<Block> task = new FutureTask<Block>(new Callable<Block>() {
+                @Override
+                public Block call() throws Exception {
+                    long[] idblock;
+                    Timer.Context time = BLOCK_FETCH_TIMER.time();
+                    try {
+                        idblock = idAuthority.getIDBlock(partitionID);
+                    } finally {
+                        time.stop();
+                    }
+                    ACQUIRED_IDS.inc(idblock[1]-idblock[0]);
+                    acquiredIDs.addAndGet(idblock[1]-idblock[0]);
+                    return new Block(idblock[0],idblock[1],renewBufferPercentage);
+                }
+            });
+            if (nextBlock.compareAndSet(null,task)) {
+                log.debug("Starting id block renewal on partition {}", partitionID);
+                RENEWAL_EXECUTOR.execute(task);
+                return task;
+            }
+        }
     }
 
-    private void renewBuffer() {
-        Preconditions.checkArgument(bufferNextID == BUFFER_EMPTY, bufferNextID);
-        Preconditions.checkArgument(bufferMaxID == BUFFER_EMPTY, bufferMaxID);
+    private Block waitForBlock(Future<Block> future) {
         try {
-            long[] idblock = idAuthority.getIDBlock(partitionID);
-            bufferNextID = idblock[0];
-            bufferMaxID = idblock[1];
-            Preconditions.checkArgument(bufferNextID > 0, bufferNextID);
-            Preconditions.checkArgument(bufferMaxID > bufferNextID, bufferMaxID);
-        } catch (StorageException e) {
-            throw new TitanException("Could not acquire new ID block from storage", e);
-        } catch (IDPoolExhaustedException e) {
-            bufferNextID = BUFFER_POOL_EXHAUSTION;
-            bufferMaxID = BUFFER_POOL_EXHAUSTION;
+            return future.get(renewTimeoutMS,TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new TitanException("Could not renew id block due to interruption", e);
+        } catch (TimeoutException e) {
+            throw new TitanException("ID renewal on partition ["+partitionID+"] did not complete in time. ["+renewTimeoutMS+" ms]", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            //An exhausted pool remains exhausted, all other failures are retried on the next attempt
+            if (cause instanceof IDPoolExhaustedException) throw new IDPoolExhaustedException("Exhausted ID Pool for partition: " + partitionID, cause);
+            nextBlock.compareAndSet(future,null);
+            if (cause instanceof StorageException) throw new TitanException("Could not acquire new ID block from storage", cause);
+            else if (cause instanceof TitanException) throw (TitanException)cause;
+            else throw new TitanException("Could not acquire new ID block", cause);
         }
     }
 
     @Override
-    public synchronized long nextID() {
-        assert nextID <= currentMaxID;
-        if (!initialized) {
-            startNextIDAcquisition();
-            initialized = true;
-        }
-
-        if (nextID == currentMaxID) {
+    public void close() {
+        //Wait for pending renewal to finish
+        Future<Block> future = nextBlock.get();
+        if (future!=null) {
             try {
-                nextBlock();
+                future.get(renewTimeoutMS,TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
-                throw new TitanException("Could not renew id block due to interruption", e);
+                throw new TitanException("Interrupted while waiting for id renewal to finish", e);
+            } catch (TimeoutException e) {
+                throw new TitanException("ID renewal on partition ["+partitionID+"] did not complete in time. ["+renewTimeoutMS+" ms]", e);
+            } catch (ExecutionException e) {
+                log.debug("ID renewal on partition {} failed during close",partitionID,e.getCause());
             }
         }
+        //Record ids which have been acquired but were never handed out, whether leased or not
+        long wasted = Math.max(0,acquiredIDs.get()-handedOutIDs.getCount());
+        WASTED_IDS.inc(wasted);
+        log.debug("Closed id pool for partition {} with {} unused ids",partitionID,wasted);
+    }
 
-        if (nextID == renewBufferID) {
-            startNextIDAcquisition();
-        }
-        long returnId = nextID;
-        nextID++;
-        if (returnId > maxID) throw new IDPoolExhaustedException("Exhausted max id of " + maxID);
-        log.trace("[{}] Returned id: {}", partitionID, returnId);
-        return returnId;
+    /**
+     * Returns the timer which measures the latency of id block acquisitions from the {@link IDAuthority} across
+     * all id pools.
+     *
+     * @return
+     */
+    public static Timer getBlockFetchTimer() {
+        return BLOCK_FETCH_TIMER;
     }
 
-    @Override
-    public synchronized void close() {
-        //Wait for renewer to finish
-        try {
-            waitForIDRenewer();
-        } catch (InterruptedException e) {
-            throw new TitanException("Interrupted while waiting for id renewer thread to finish", e);
-        }
+    /**
+     * Returns the number of ids that have been acquired from the {@link IDAuthority} across all id pools.
+     *
+     * @return
+     */
+    public static long getAcquiredIDCount() {
+        return ACQUIRED_IDS.getCount();
+    }
+
+    /**
+     * Returns the number of ids that have been acquired from the {@link IDAuthority} but were never handed out
+     * by the id pools that have been closed, including ids leased by threads that were not used.
+     *
+     * @return
+     */
+    public static long getWastedIDCount() {
+        return WASTED_IDS.getCount();
     }
 
-    private void startNextIDAcquisition() {
-        Preconditions.checkArgument(idBlockRenewer == null || !idBlockRenewer.isAlive(), idBlockRenewer);
-        //Renew buffer
-        log.debug("Starting id block renewal thread upon {}", nextID);
-        idBlockRenewer = new IDBlockThread();
-        idBlockRenewer.start();
+    /**
+     * Block of ids acquired from the {@link IDAuthority}. Threads lease ranges of the block by advancing next.
+     */
+    private static class Block {
+
+        private static final Block EMPTY = new Block();
+
+        private final long start;
+        private final long end; //exclusive
+        private final long renewID;
+        private final int leaseSize;
+        private final AtomicLong next;
+
+        private Block() {
+            start = 0;
+            end = 0;
+            renewID = -1;
+            leaseSize = 1;
+            next = new AtomicLong(0);
+        }
+
+        private Block(long start, long end, double renewBufferPercentage) {
+            Preconditions.checkArgument(start > 0, start);
+            Preconditions.checkArgument(end > start, end);
+            this.start = start;
+            this.end = end;
+            this.next = new AtomicLong(start);
+            long blockSize = end - start;
+            this.leaseSize = (int)Math.max(1,Math.min(MAX_LEASE_SIZE,blockSize/MIN_LEASES_PER_BLOCK));
+
+            long renew = end - Math.max(RENEW_ID_COUNT, Math.round(blockSize*renewBufferPercentage));
+            if (renew >= end) renew = end - 1;
+            if (renew < start) renew = start;
+            assert renew >= start && renew < end;
+            this.renewID = renew;
+        }
+
     }
 
-    private class IDBlockThread extends Thread {
+    /**
+     * Range of ids leased by a single thread. Only accessed by the owning thread.
+     */
+    private static class Lease {
+
+        private long next;
+        private final long end; //exclusive
 
-        @Override
-        public void run() {
-            renewBuffer();
-            log.debug("Finishing id renewal thread");
+        private Lease(long next, long end) {
+            this.next = next;
+            this.end = end;
         }
 
     }
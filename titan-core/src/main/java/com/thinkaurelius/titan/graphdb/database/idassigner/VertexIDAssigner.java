@@ -84,7 +84,13 @@ public class VertexIDAssigner {
         this.maxPartitionID = (int) idManager.getMaxPartitionCount();
 
         long baseBlockSize = config.getLong(IDS_BLOCK_SIZE_KEY, IDS_BLOCK_SIZE_DEFAULT);
-        idAuthority.setIDBlockSizer(new SimpleVertexIDBlockSizer(baseBlockSize));
+        IDBlockSizer blockSizer = new SimpleVertexIDBlockSizer(baseBlockSize);
+        if (config.getBoolean(IDS_ADAPTIVE_BLOCK_SIZE_KEY, IDS_ADAPTIVE_BLOCK_SIZE_DEFAULT)) {
+            blockSizer = new AdaptiveIDBlockSizer(blockSizer,
+                    config.getLong(IDS_ADAPTIVE_TARGET_INTERVAL_KEY, IDS_ADAPTIVE_TARGET_INTERVAL_DEFAULT),
+                    config.getInt(IDS_ADAPTIVE_FACTOR_KEY, IDS_ADAPTIVE_FACTOR_DEFAULT));
+        }
+        idAuthority.setIDBlockSizer(blockSizer);
 
         renewTimeoutMS = config.getLong(IDS_RENEW_TIMEOUT_KEY,IDS_RENEW_TIMEOUT_DEFAULT);
         renewBufferPercentage = config.getDouble(IDS_RENEW_BUFFER_PERCENTAGE_KEY,IDS_RENEW_BUFFER_PERCENTAGE_DEFAULT);
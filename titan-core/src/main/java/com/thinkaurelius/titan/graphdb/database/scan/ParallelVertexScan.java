@@ -0,0 +1,227 @@
+package com.thinkaurelius.titan.graphdb.database.scan;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thinkaurelius.titan.core.TitanException;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeyIterator;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeyRangeQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StoreFeatures;
+import com.thinkaurelius.titan.diskstorage.util.RecordIterator;
+import com.thinkaurelius.titan.graphdb.database.StandardTitanGraph;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Scans all vertices of the graph in parallel and feeds them to a {@link ScanConsumer}.
+ * <p/>
+ * On storage backends that support ordered scans, the key space is split into the configured number of ranges
+ * which are scanned concurrently by a pool of worker threads, each range in its own transaction. If the storage
+ * backend exposes a local key partition, only the local partition is split and scanned. Since vertex ids are
+ * assigned in ascending order, the upper end of the occupied key space is located first so that the ranges
+ * divide the actual data evenly. Configuring more ranges than threads balances the load when the data
+ * is skewed.
+ * <p/>
+ * Storage backends which only support unordered scans are scanned sequentially in a single range.
+ *
+ * @see StandardTitanGraph#scanVertices(StaticBuffer, StaticBuffer, SliceQuery, StandardTitanTx)
+ */
+public class ParallelVertexScan {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(ParallelVertexScan.class);
+
+    /**
+     * Number of ranges per thread if the number of ranges is not specified explicitly
+     */
+    public static final int DEFAULT_RANGES_PER_THREAD = 4;
+
+    private final StandardTitanGraph graph;
+    private final SliceQuery projection;
+    private final int numRanges;
+    private final int numThreads;
+
+    /**
+     * @param graph
+     * @param projection Relations to read for each vertex
+     * @param numRanges Number of key ranges the key space is split into
+     * @param numThreads Number of threads that scan ranges concurrently
+     */
+    public ParallelVertexScan(StandardTitanGraph graph, SliceQuery projection, int numRanges, int numThreads) {
+        Preconditions.checkNotNull(graph);
+        Preconditions.checkNotNull(projection);
+        Preconditions.checkArgument(numRanges > 0, "Invalid number of ranges: %s", numRanges);
+        Preconditions.checkArgument(numThreads > 0, "Invalid number of threads: %s", numThreads);
+        this.graph = graph;
+        this.projection = projection;
+        this.numRanges = numRanges;
+        this.numThreads = numThreads;
+    }
+
+    public ParallelVertexScan(StandardTitanGraph graph, int numThreads) {
+        this(graph, graph.getEdgeSerializer().getQuery(RelationType.RELATION), numThreads * DEFAULT_RANGES_PER_THREAD, numThreads);
+    }
+
+    /**
+     * Runs the scan and returns the number of vertices passed to the given consumer. Blocks until all ranges have
+     * been scanned. If the scan of any range fails, the remaining ranges are cancelled.
+     *
+     * @param consumer
+     * @return
+     */
+    public long run(final ScanConsumer consumer) {
+        Preconditions.checkNotNull(consumer);
+        List<StaticBuffer[]> ranges = getRanges();
+        log.debug("Scanning vertices in {} ranges with {} threads", ranges.size(), numThreads);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, ranges.size()),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TitanScan-%d").build());
+        List<Future<Long>> results = new ArrayList<Future<Long>>(ranges.size());
+        try {
+            for (final StaticBuffer[] range : ranges) {
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return scan(range, consumer);
+                    }
+                }));
+            }
+            long count = 0;
+            for (Future<Long> result : results) count += result.get();
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TitanException("Interrupted while scanning vertices", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TitanException) throw (TitanException) cause;
+            throw new TitanException("Could not scan vertices", cause);
+        } finally {
+            for (Future<Long> result : results) result.cancel(true);
+            pool.shutdownNow();
+        }
+    }
+
+    private long scan(StaticBuffer[] range, ScanConsumer consumer) throws IOException {
+        StandardTitanTx tx = (StandardTitanTx) graph.buildTransaction().readOnly().start();
+        try {
+            RecordIterator<ScanVertex> vertices = (range == null)
+                    ? graph.scanVertices(projection, tx)
+                    : graph.scanVertices(range[0], range[1], projection, tx);
+            long count = 0;
+            try {
+                while (vertices.hasNext()) {
+                    if (Thread.interrupted()) throw new TitanException("Interrupted while scanning vertices");
+                    consumer.process(vertices.next());
+                    count++;
+                }
+            } finally {
+                vertices.close();
+            }
+            return count;
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    /**
+     * Returns the key ranges, each consisting of start key (inclusive) and end key (exclusive), that are scanned
+     * concurrently. The returned list contains a single null element if the storage backend does not support
+     * ordered scans.
+     *
+     * @return
+     */
+    public List<StaticBuffer[]> getRanges() {
+        List<StaticBuffer[]> ranges = new ArrayList<StaticBuffer[]>(numRanges);
+        StoreFeatures features = graph.getStoreFeatures();
+        if (!features.supportsOrderedScan()) {
+            ranges.add(null);
+            return ranges;
+        }
+
+        StandardTitanTx tx = (StandardTitanTx) graph.buildTransaction().readOnly().start();
+        try {
+            BackendTransaction btx = tx.getTxHandle();
+            //Key ranges are computed in id space where the end is exclusive
+            long start = 0, end = Long.MAX_VALUE;
+            if (features.hasLocalKeyPartition()) {
+                StaticBuffer[] partition = btx.edgeStoreLocalKeyPartition();
+                long partitionStart = getCeilingID(partition[0]), partitionEnd = getCeilingID(partition[1]);
+                //Wrapping partitions are scanned in full
+                if (partitionStart < partitionEnd) {
+                    start = partitionStart;
+                    end = partitionEnd;
+                }
+            }
+
+            long last = start;
+            if (hasKeys(btx, start, end)) {
+                //Binary search for the largest id in use
+                long upper = end;
+                while (upper - last > 1) {
+                    long mid = last + (upper - last) / 2;
+                    if (hasKeys(btx, mid, end)) last = mid;
+                    else upper = mid;
+                }
+            }
+
+            long length = last - start + 1;
+            int num = (int) Math.min(numRanges, length);
+            long rangeStart = start;
+            for (int i = 1; i <= num; i++) {
+                long rangeEnd = (i == num) ? end : Math.min(end, start + (long) (length * ((double) i / num)));
+                if (rangeEnd <= rangeStart) continue;
+                ranges.add(new StaticBuffer[]{getKey(rangeStart), getKey(rangeEnd)});
+                rangeStart = rangeEnd;
+            }
+        } finally {
+            tx.rollback();
+        }
+        return ranges;
+    }
+
+    private boolean hasKeys(BackendTransaction tx, long startID, long endID) {
+        KeyIterator keys = tx.edgeStoreKeys(new KeyRangeQuery(getKey(startID), getKey(endID), projection));
+        try {
+            return keys.hasNext();
+        } finally {
+            try {
+                keys.close();
+            } catch (IOException e) {
+                throw new TitanException("Could not close key iterator", e);
+            }
+        }
+    }
+
+    private static StaticBuffer getKey(long id) {
+        return (id == Long.MAX_VALUE) ? IDHandler.MAX_KEY : IDHandler.getKey(id);
+    }
+
+    /**
+     * Returns the smallest id whose key is greater than or equal to the given key
+     */
+    private static long getCeilingID(StaticBuffer key) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (i < key.length() ? (key.getByte(i) & 0xFF) : 0);
+        }
+        boolean greater = false;
+        for (int i = 8; i < key.length(); i++) {
+            if (key.getByte(i) != 0) greater = true;
+        }
+        long id = value >>> 1;
+        if (((value & 1) != 0 || greater) && id < Long.MAX_VALUE) id++;
+        return id;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.thinkaurelius.titan.graphdb.database.scan;
+
+/**
+ * Receives the vertices read by a {@link ParallelVertexScan}.
+ * <p/>
+ * Since the key ranges of a scan are processed concurrently, implementations must be thread-safe.
+ */
+public interface ScanConsumer {
+
+    /**
+     * Processes the given vertex. Any exception thrown aborts the scan.
+     *
+     * @param vertex
+     */
+    public void process(ScanVertex vertex);
+
+}
@@ -0,0 +1,92 @@
+package com.thinkaurelius.titan.graphdb.database.scan;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanType;
+import com.thinkaurelius.titan.graphdb.relations.RelationCache;
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * Read-only view of a relation decoded from an edge store entry during a vertex scan.
+ * <p/>
+ * In contrast to {@link com.thinkaurelius.titan.core.TitanRelation}s, a ScanRelation does not reference the
+ * adjacent vertex but only its id so that no vertices need to be instantiated in the transaction.
+ *
+ * @see ScanVertex
+ */
+public class ScanRelation {
+
+    private final TitanType type;
+    private final RelationCache relation;
+
+    ScanRelation(TitanType type, RelationCache relation) {
+        assert type != null && relation != null && type.getID() == relation.typeId;
+        this.type = type;
+        this.relation = relation;
+    }
+
+    public long getID() {
+        return relation.relationId;
+    }
+
+    public TitanType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the direction of this relation from the perspective of the scanned vertex.
+     * Properties always have direction {@link Direction#OUT}.
+     *
+     * @return
+     */
+    public Direction getDirection() {
+        return relation.direction;
+    }
+
+    public boolean isProperty() {
+        return type.isPropertyKey();
+    }
+
+    public boolean isEdge() {
+        return type.isEdgeLabel();
+    }
+
+    /**
+     * Returns the value of this property
+     *
+     * @return
+     * @throws IllegalStateException if this relation is not a property
+     */
+    public <O> O getValue() {
+        Preconditions.checkState(isProperty(), "Relation is not a property: %s", type.getName());
+        return (O) relation.getValue();
+    }
+
+    /**
+     * Returns the id of the vertex on the other end of this edge
+     *
+     * @return
+     * @throws IllegalStateException if this relation is not an edge
+     */
+    public long getOtherVertexID() {
+        Preconditions.checkState(isEdge(), "Relation is not an edge: %s", type.getName());
+        return relation.getOtherVertexId();
+    }
+
+    /**
+     * Returns the value of the given property key on this relation or null if no such property exists
+     *
+     * @param key
+     * @return
+     */
+    public <O> O getProperty(TitanKey key) {
+        Preconditions.checkNotNull(key);
+        return relation.get(key.getID());
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + "[" + relation.relationId + "]";
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.thinkaurelius.titan.graphdb.database.scan;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.thinkaurelius.titan.core.TitanType;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.graphdb.database.EdgeSerializer;
+import com.thinkaurelius.titan.graphdb.database.RelationSlice;
+import com.thinkaurelius.titan.graphdb.internal.InternalType;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
+import com.tinkerpop.blueprints.Direction;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-only view of a vertex and the relations read for it during a vertex scan.
+ * <p/>
+ * A ScanVertex is constructed directly from the entries returned by the storage backend for the vertex's row and
+ * decodes relations lazily upon iteration. Relation headers are decoded in batch via a {@link RelationSlice}. It is not registered with the transaction it was read in, hence it is
+ * garbage collected once it is no longer referenced. Only the relations within the projection of the scan are
+ * available.
+ *
+ * @see com.thinkaurelius.titan.graphdb.database.StandardTitanGraph#scanVertices(com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery, com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx)
+ */
+public class ScanVertex {
+
+    private final long id;
+    private final List<Entry> entries;
+    private final EdgeSerializer edgeSerializer;
+    private final StandardTitanTx tx;
+
+    private RelationSlice slice;
+
+    public ScanVertex(long id, List<Entry> entries, EdgeSerializer edgeSerializer, StandardTitanTx tx) {
+        Preconditions.checkArgument(id > 0);
+        Preconditions.checkNotNull(entries);
+        this.id = id;
+        this.entries = entries;
+        this.edgeSerializer = edgeSerializer;
+        this.tx = tx;
+    }
+
+    public long getID() {
+        return id;
+    }
+
+    /**
+     * Returns the raw entries of this vertex's row within the projection of the scan
+     *
+     * @return
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    private RelationSlice getSlice() {
+        if (slice == null) slice = edgeSerializer.readRelations(id, entries, tx);
+        return slice;
+    }
+
+    /**
+     * Returns all relations of this vertex excluding hidden relations
+     *
+     * @return
+     */
+    public Iterable<ScanRelation> getRelations() {
+        return getRelations(null);
+    }
+
+    /**
+     * Returns all relations of the given type
+     *
+     * @param type
+     * @return
+     */
+    public Iterable<ScanRelation> getRelations(final TitanType type) {
+        return new Iterable<ScanRelation>() {
+            @Override
+            public Iterator<ScanRelation> iterator() {
+                final RelationSlice slice = getSlice();
+                return new AbstractIterator<ScanRelation>() {
+
+                    private int pos = 0;
+
+                    @Override
+                    protected ScanRelation computeNext() {
+                        while (pos < slice.size()) {
+                            int current = pos++;
+                            //Relations of other types are filtered on the decoded headers
+                            if (type != null && slice.getTypeId(current) != type.getID()) continue;
+                            TitanType relationType = type != null ? type : tx.getExistingType(slice.getTypeId(current));
+                            if (type == null && ((InternalType) relationType).isHidden()) continue;
+                            return new ScanRelation(relationType, slice.getRelation(current));
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the value of the first property with the given key or null if this vertex does not have such a property
+     *
+     * @param key
+     * @return
+     */
+    public <O> O getProperty(String key) {
+        TitanType type = tx.getType(key);
+        if (type == null || !type.isPropertyKey()) return null;
+        Iterator<ScanRelation> iter = getRelations(type).iterator();
+        return iter.hasNext() ? iter.next().<O>getValue() : null;
+    }
+
+    /**
+     * Returns the ids of all vertices adjacent to this vertex via edges with the given label in the given direction
+     *
+     * @param label
+     * @param dir
+     * @return
+     */
+    public LongArrayList getAdjacentVertexIDs(String label, Direction dir) {
+        Preconditions.checkNotNull(dir);
+        TitanType type = tx.getType(label);
+        if (type == null || !type.isEdgeLabel()) return new LongArrayList();
+        return getSlice().getOtherVertexIds(type.getID(), dir);
+    }
+
+    @Override
+    public String toString() {
+        return "v[" + id + "]";
+    }
+
+}
@@ -20,4 +20,14 @@ public interface Serializer extends AttributeHandling {
 
     public DataOutput getDataOutput(int capacity, boolean serializeObjects);
 
+    /**
+     * Returns a {@link DataOutput} backed by a reusable buffer of the calling thread. Retrieving the written bytes via
+     * {@link DataOutput#getStaticBuffer()} or {@link DataOutput#getStaticBufferFlipBytes(int, int)} copies them and
+     * returns the buffer for reuse, after which the returned DataOutput can no longer be used.
+     *
+     * @param serializeObjects
+     * @return
+     */
+    public DataOutput getPooledDataOutput(boolean serializeObjects);
+
 }
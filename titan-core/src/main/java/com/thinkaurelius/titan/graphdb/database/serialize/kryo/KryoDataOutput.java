@@ -9,22 +9,33 @@ import com.thinkaurelius.titan.diskstorage.util.StaticByteBuffer;
 import com.thinkaurelius.titan.graphdb.database.serialize.DataOutput;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class KryoDataOutput implements DataOutput {
 
 
-    private final Output output;
+    private Output output;
     private final KryoSerializer serializer;
     private final Kryo kryo;
+    /**
+     * The serializer whose pool the output is returned to once the written bytes are retrieved, or null if
+     * the output is not pooled
+     */
+    private final KryoSerializer pool;
 
     KryoDataOutput(Output output) {
         this(output, null);
     }
 
     KryoDataOutput(Output output, KryoSerializer serializer) {
+        this(output, serializer, null);
+    }
+
+    KryoDataOutput(Output output, KryoSerializer serializer, KryoSerializer pool) {
         Preconditions.checkNotNull(output);
         this.output=output;
         this.serializer = serializer;
+        this.pool = pool;
         if (serializer !=null) kryo = serializer.getKryo();
         else kryo = null;
     }
@@ -101,10 +112,17 @@ public class KryoDataOutput implements DataOutput {
 
     @Override
     public StaticBuffer getStaticBufferFlipBytes(int from, int to) {
+        Preconditions.checkState(output!=null, "DataOutput has already been released");
         byte[] value = output.getBuffer();
         int limit = output.position();
         Preconditions.checkArgument(from>=0 && from<=to);
         Preconditions.checkArgument(to<=limit);
+        if (pool!=null) {
+            //Copy the written bytes so that the buffer can be reused
+            value = Arrays.copyOf(value,limit);
+            pool.releaseOutput(output);
+            output = null;
+        }
         for (int i=from;i<to;i++) value[i] = (byte)~value[i];
         return new StaticArrayBuffer(value,0,limit);
     }
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,10 +36,28 @@ public class KryoSerializer extends DefaultAttributeHandling implements Serializ
     private static final Logger log =
             LoggerFactory.getLogger(KryoSerializer.class);
     private static final int MAX_OUTPUT_SIZE = 10 * 1024 * 1024;
+    /**
+     * Initial size of pooled output buffers
+     */
+    private static final int POOLED_OUTPUT_SIZE = 256;
+    /**
+     * Pooled output buffers that have grown beyond this size are discarded rather than retained by the thread
+     */
+    private static final int MAX_POOLED_OUTPUT_SIZE = 64 * 1024;
+    /**
+     * Maximum number of output buffers retained per thread
+     */
+    private static final int MAX_POOLED_OUTPUTS = 8;
 
     private final boolean registerRequired;
     private final ThreadLocal<Kryo> kryos;
     private final Map<Integer,TypeRegistration> registrations;
+    private final ThreadLocal<ArrayDeque<Output>> outputPool = new ThreadLocal<ArrayDeque<Output>>() {
+        @Override
+        protected ArrayDeque<Output> initialValue() {
+            return new ArrayDeque<Output>(MAX_POOLED_OUTPUTS);
+        }
+    };
 
     private static final StaticBuffer.Factory<Input> INPUT_FACTORY = new StaticBuffer.Factory<Input>() {
         @Override
@@ -145,6 +164,32 @@ public class KryoSerializer extends DefaultAttributeHandling implements Serializ
         else return new KryoDataOutput(output);
     }
 
+    @Override
+    public DataOutput getPooledDataOutput(boolean serializeObjects) {
+        Output output = acquireOutput();
+        if (serializeObjects) return new KryoDataOutput(output, this, this);
+        else return new KryoDataOutput(output, null, this);
+    }
+
+    private Output acquireOutput() {
+        Output output = outputPool.get().pollFirst();
+        if (output == null) output = new Output(POOLED_OUTPUT_SIZE, MAX_OUTPUT_SIZE);
+        return output;
+    }
+
+    /**
+     * Returns an output buffer acquired from the pool of the calling thread
+     *
+     * @param output
+     */
+    void releaseOutput(Output output) {
+        ArrayDeque<Output> pool = outputPool.get();
+        if (output.getBuffer().length <= MAX_POOLED_OUTPUT_SIZE && pool.size() < MAX_POOLED_OUTPUTS) {
+            output.clear();
+            pool.offerFirst(output);
+        }
+    }
+
     private final Cache<Class<?>,Boolean> objectVerificationCache = CacheBuilder.newBuilder()
                                 .maximumSize(10000).concurrencyLevel(4).initialCapacity(32).build();
 
@@ -155,14 +200,16 @@ public class KryoSerializer extends DefaultAttributeHandling implements Serializ
             if (!(kryo.getSerializer(o.getClass()) instanceof FieldSerializer)) status=Boolean.TRUE;
             else if (!isValidClass(o.getClass())) status=Boolean.FALSE;
             else {
+                Output out = acquireOutput();
                 try {
-                    Output out = new Output(128, MAX_OUTPUT_SIZE);
                     kryo.writeClassAndObject(out,o);
                     Input in = new Input(out.getBuffer(),0,out.position());
                     Object ocopy = kryo.readClassAndObject(in);
                     status=(o.equals(ocopy)?Boolean.TRUE:Boolean.FALSE);
                 } catch (Throwable e) {
                     status=Boolean.FALSE;
+                } finally {
+                    releaseOutput(out);
                 }
             }
             objectVerificationCache.put(o.getClass(),status);
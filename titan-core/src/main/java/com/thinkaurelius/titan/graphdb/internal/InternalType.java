@@ -17,6 +17,8 @@ public interface InternalType extends TitanType, InternalVertex {
 
     public boolean uniqueLock(Direction direction);
 
+    public boolean uniqueOptimistic(Direction direction);
+
     public long[] getSignature();
 
     public long[] getSortKey();
@@ -205,6 +205,43 @@ abstract class AbstractVertexCentricQueryBuilder implements BaseVertexQuery {
         return null;
     }
 
+    /**
+     * Returns a {@link SimpleVertexQueryProcessor} which answers this query for the given vertex directly from
+     * the vertex's entries in the edge store, or null if this query is too complex for it.
+     *
+     * @param relationType
+     * @param vertex
+     * @return
+     */
+    protected SimpleVertexQueryProcessor getSimpleQuery(RelationType relationType, InternalVertex vertex) {
+        if (!vertex.isLoaded() || types.length>1 || includeHidden ||
+                (relationType==RelationType.PROPERTY && tx.getConfiguration().hasPropertyPrefetching())) {
+            return null; //Simple query does not apply
+        }
+        TitanType type = null;
+        if (types.length>0) {
+            type = getType(types[0]);
+            if (type==null) return null;
+        }
+        switch (relationType) {
+            case PROPERTY:
+                assert constraints.isEmpty();
+                if (limit!=Query.NO_LIMIT) return null;
+                return new SimpleVertexQueryProcessor(vertex,(TitanKey)type);
+            case EDGE:
+                if (type!=null) {
+                    //Get sortKey and accept if no further conditions are unmatched.
+                    EdgeSerializer.TypedInterval[] sortKeyConstraints = getFittingKeyConstraints((InternalType)type);
+                    if (sortKeyConstraints==null) return null;
+                    return new SimpleVertexQueryProcessor(vertex,dir,(TitanLabel)type,sortKeyConstraints,limit);
+                } else {
+                    if (!constraints.isEmpty()) return null;
+                    return new SimpleVertexQueryProcessor(vertex,dir,(TitanLabel)type,null,limit);
+                }
+            default: throw new IllegalArgumentException("Invalid relation type: " + relationType);
+        }
+    }
+
     private static final int HARD_MAX_LIMIT   = 300000;
 
     protected BaseVertexCentricQuery constructQuery(RelationType returnType) {
@@ -15,7 +15,6 @@ import com.thinkaurelius.titan.graphdb.query.condition.*;
 import com.thinkaurelius.titan.graphdb.relations.RelationIdentifier;
 import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
 import com.thinkaurelius.titan.util.datastructures.IterablesUtil;
-import com.thinkaurelius.titan.util.stats.ObjectAccumulator;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
@@ -155,7 +154,40 @@ public class GraphCentricQueryBuilder implements TitanGraphQuery {
     private static final int MAX_BASE_LIMIT = 20000;
     private static final int HARD_MAX_LIMIT = 50000;
 
+    /**
+     * An index call is only executed if its estimated number of results is at most this factor larger than
+     * the estimate of the driving index call. Otherwise, its conditions are filtered in memory on the results of
+     * the other index calls.
+     */
+    private static final double IN_MEMORY_FILTER_RATIO = 10.0;
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    /**
+     * Returns a description of how the vertices or edges matching this query are retrieved: the index calls
+     * in the order in which their results are intersected together with their estimated number of results,
+     * and the conditions that are filtered in memory.
+     *
+     * @param resultType
+     * @return
+     */
+    public String explain(ElementType resultType) {
+        StringBuilder explanation = new StringBuilder();
+        GraphCentricQuery query = constructQuery(resultType, explanation);
+        if (query.isEmpty()) explanation.append("Query has no results").append(NEWLINE);
+        return explanation.toString();
+    }
+
+    @Override
+    public String explain() {
+        return explain(ElementType.VERTEX);
+    }
+
     private GraphCentricQuery constructQuery(final ElementType resultType) {
+        return constructQuery(resultType, null);
+    }
+
+    private GraphCentricQuery constructQuery(final ElementType resultType, @Nullable StringBuilder explanation) {
         Preconditions.checkNotNull(resultType);
         if (limit == 0) return GraphCentricQuery.emptyQuery(resultType);
 
@@ -166,6 +198,8 @@ public class GraphCentricQueryBuilder implements TitanGraphQuery {
         orders.makeImmutable();
         if (orders.isEmpty()) orders = OrderList.NO_ORDER;
 
+        if (explanation != null) explanation.append("Query ").append(conditions).append(":").append(resultType).append(NEWLINE);
+
         //Count how many conditions are not covered by an index
         int andClausesNotCovered = 0;
         Map<Condition, Set<String>> andConditionCoverage = Maps.newHashMap();
@@ -175,57 +209,117 @@ public class GraphCentricQueryBuilder implements TitanGraphQuery {
                 andConditionCoverage.put(child, indexes);
             } else {
                 andClausesNotCovered++;
+                if (explanation != null) explanation.append("  filter in memory ").append(child).append(": not indexed").append(NEWLINE);
             }
         }
 
         BackendQueryHolder<JointIndexQuery> query;
         if (!andConditionCoverage.isEmpty()) {
-            JointIndexQuery jointQuery = new JointIndexQuery();
-            boolean isSorted = true;
+            IndexStatistics statistics = tx.getGraph().getIndexStatistics();
+            List<IndexCallPlan> calls = new ArrayList<IndexCallPlan>(4);
 
             while (!andConditionCoverage.isEmpty()) {
-                final ObjectAccumulator<String> counts = new ObjectAccumulator<String>(5);
-                for (Set<String> indexes : andConditionCoverage.values()) {
-                    for (String index : indexes) counts.incBy(index, 1.0);
-                }
-                //Give extra credit to indexes that cover the order
-                for (String index : counts.getObjects()) {
-                    if (indexCoversOrder(index, orders, resultType)) counts.incBy(index,1.0);
-                }
-                final String bestIndex = counts.getMaxObject();
-                Preconditions.checkNotNull(bestIndex);
-                boolean supportsOrder = indexCoversOrder(bestIndex, orders, resultType);
-
-                final And<TitanElement> matchingCond = new And<TitanElement>((int) counts.getCount(bestIndex));
-                Iterator<Map.Entry<Condition, Set<String>>> conditer = andConditionCoverage.entrySet().iterator();
-                while (conditer.hasNext()) {
-                    Map.Entry<Condition, Set<String>> entry = conditer.next();
-                    if (entry.getValue().contains(bestIndex)) {
-                        matchingCond.add(entry.getKey());
-                        conditer.remove();
+                //Pick the index call with the fewest estimated results, preferring calls that cover more conditions and the order
+                Set<String> candidates = Sets.newHashSet();
+                for (Set<String> indexes : andConditionCoverage.values()) candidates.addAll(indexes);
+                IndexCallPlan best = null;
+                for (String index : candidates) {
+                    final And<TitanElement> matchingCond = new And<TitanElement>();
+                    for (Map.Entry<Condition, Set<String>> entry : andConditionCoverage.entrySet()) {
+                        if (entry.getValue().contains(index)) matchingCond.add(entry.getKey());
                     }
+                    boolean supportsOrder = indexCoversOrder(index, orders, resultType);
+                    final IndexQuery subquery = serializer.getQuery(index, resultType, matchingCond, supportsOrder ? orders : OrderList.NO_ORDER);
+                    IndexCallPlan call = new IndexCallPlan(index, matchingCond, subquery, supportsOrder,
+                            statistics.estimate(index, subquery, matchingCond));
+                    if (best == null || call.compareTo(best) < 0) best = call;
                 }
-                final IndexQuery subquery = serializer.getQuery(bestIndex, resultType, matchingCond, supportsOrder ? orders : OrderList.NO_ORDER);
-                jointQuery.add(bestIndex, subquery);
-                isSorted = isSorted && supportsOrder;
+                Preconditions.checkNotNull(best);
+                for (Condition<TitanElement> covered : best.condition.getChildren()) andConditionCoverage.remove(covered);
+                calls.add(best);
             }
+            //The most selective index call drives the intersection
+            Collections.sort(calls);
 
-            /* TODO: smarter optimization:
-            1) use only one PredicateCondition if in-unique
-            2) use in-memory histograms to estimate selectivity of PredicateConditions and filter out low-selectivity ones if they would result in an individual index call (better to filter afterwards in memory)
-            */
+            JointIndexQuery jointQuery = new JointIndexQuery();
+            boolean isSorted = true;
+            double driving = calls.get(0).estimate;
+            for (IndexCallPlan call : calls) {
+                if (!jointQuery.isEmpty() && call.estimate > IN_MEMORY_FILTER_RATIO * driving) {
+                    andClausesNotCovered += call.condition.size();
+                    if (explanation != null) explanation.append("  filter in memory ").append(call.condition)
+                            .append(": index ").append(call.index).append(" too unselective, estimated ").append(Math.round(call.estimate)).append(" results").append(NEWLINE);
+                    continue;
+                }
+                jointQuery.add(call.index, call.query);
+                isSorted = isSorted && call.supportsOrder;
+                if (explanation != null) explanation.append("  index ").append(call.index).append(" ").append(call.query)
+                        .append(": estimated ").append(Math.round(call.estimate)).append(" results").append(NEWLINE);
+            }
 
-            int indexLimit = limit == Query.NO_LIMIT ? DEFAULT_NO_LIMIT : Math.min(MAX_BASE_LIMIT, limit);
-            indexLimit = Math.min(HARD_MAX_LIMIT, QueryUtil.adjustLimitForTxModifications(tx, andClausesNotCovered, indexLimit));
+            int indexLimit;
+            if (isStreamed(jointQuery, tx.getGraph().getConfiguration().getIndexPageSize())) {
+                //Results are retrieved lazily page by page, hence the limit only bounds the total number of results
+                if (andClausesNotCovered > 0 || limit == Query.NO_LIMIT) indexLimit = Query.NO_LIMIT;
+                else indexLimit = QueryUtil.adjustLimitForTxModifications(tx, andClausesNotCovered, limit);
+                if (explanation != null) explanation.append("  results streamed in pages of ")
+                        .append(tx.getGraph().getConfiguration().getIndexPageSize()).append(NEWLINE);
+            } else {
+                indexLimit = limit == Query.NO_LIMIT ? DEFAULT_NO_LIMIT : Math.min(MAX_BASE_LIMIT, limit);
+                indexLimit = Math.min(HARD_MAX_LIMIT, QueryUtil.adjustLimitForTxModifications(tx, andClausesNotCovered, indexLimit));
+            }
             jointQuery.setLimit(indexLimit);
             query = new BackendQueryHolder<JointIndexQuery>(jointQuery, andClausesNotCovered == 0, isSorted, null);
         } else {
             query = new BackendQueryHolder<JointIndexQuery>(new JointIndexQuery(), false, false, null);
+            if (explanation != null) explanation.append("  full scan over all ").append(resultType).append(" elements").append(NEWLINE);
         }
+        if (explanation != null) explanation.append("  sorted: ").append(query.isSorted())
+                .append(", fully answered by indexes: ").append(query.isFitted()).append(NEWLINE);
 
         return new GraphCentricQuery(resultType, conditions, orders, query, limit);
     }
 
+    /**
+     * Whether the results of the given index query are streamed from the index provider in pages of the given size
+     * rather than retrieved at once. This is the case for queries answered by a single call to an external index.
+     *
+     * @param query
+     * @param pageSize
+     * @return
+     */
+    public static boolean isStreamed(JointIndexQuery query, int pageSize) {
+        return pageSize > 0 && query.size() == 1 && !query.getIndex(0).equals(Titan.Token.STANDARD_INDEX);
+    }
+
+    /**
+     * Candidate index call considered when planning a query
+     */
+    private static class IndexCallPlan implements Comparable<IndexCallPlan> {
+
+        private final String index;
+        private final And<TitanElement> condition;
+        private final IndexQuery query;
+        private final boolean supportsOrder;
+        private final double estimate;
+
+        private IndexCallPlan(String index, And<TitanElement> condition, IndexQuery query, boolean supportsOrder, double estimate) {
+            this.index = index;
+            this.condition = condition;
+            this.query = query;
+            this.supportsOrder = supportsOrder;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(IndexCallPlan other) {
+            if (estimate != other.estimate) return Double.compare(estimate, other.estimate);
+            if (condition.size() != other.condition.size()) return other.condition.size() - condition.size();
+            if (supportsOrder != other.supportsOrder) return supportsOrder ? -1 : 1;
+            return index.compareTo(other.index);
+        }
+    }
+
     private static final boolean indexCoversOrder(String index, OrderList orders, ElementType resultType) {
         if (orders.isEmpty()) return true;
         else if (index.equals(Titan.Token.STANDARD_INDEX)) return false;
@@ -0,0 +1,236 @@
+package com.thinkaurelius.titan.graphdb.query;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.AtomicDouble;
+import com.thinkaurelius.titan.core.TitanElement;
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanType;
+import com.thinkaurelius.titan.core.attribute.Cmp;
+import com.thinkaurelius.titan.core.attribute.Contain;
+import com.thinkaurelius.titan.core.attribute.Geo;
+import com.thinkaurelius.titan.core.attribute.Text;
+import com.thinkaurelius.titan.diskstorage.indexing.IndexQuery;
+import com.thinkaurelius.titan.graphdb.query.condition.Condition;
+import com.thinkaurelius.titan.graphdb.query.condition.PredicateCondition;
+import com.tinkerpop.blueprints.Direction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Estimates the number of results returned by index calls to plan graph-centric queries.
+ * <p/>
+ * Estimates are maintained per query shape, i.e. the index together with the keys and predicates of the index call
+ * but not the compared values. The estimate of a shape is an exponentially weighted average of the result sizes of
+ * past calls of that shape against the standard index or the external index providers. Calls that hit their limit
+ * only contribute a lower bound. Shapes without observations are estimated from the predicates: equality on a key
+ * with unique values matches one element, other equality conditions are more selective than full-text and geo
+ * predicates, which in turn are more selective than range and inequality conditions.
+ * <p/>
+ * A condition on a list of values of a key, i.e. an IN condition or a disjunction of equality conditions on the same
+ * key, has the shape of the equality condition and is estimated as the estimate of the equality condition times the
+ * number of values. Observations of such calls are recorded per value.
+ * <p/>
+ * Estimates are shared across all transactions of a graph and are updated without synchronization, hence they are
+ * approximate.
+ *
+ * @see GraphCentricQueryBuilder
+ */
+public class IndexStatistics {
+
+    public static final double UNIQUE_ESTIMATE = 1;
+    public static final double EQUALITY_ESTIMATE = 100;
+    public static final double TEXT_ESTIMATE = 1000;
+    public static final double RANGE_ESTIMATE = 10000;
+    public static final double UNBOUNDED_ESTIMATE = 1000000;
+
+    /**
+     * Weight of a new observation in the average
+     */
+    private static final double OBSERVATION_WEIGHT = 0.25;
+
+    private static final int MAX_SHAPES = 10000;
+
+    private final Cache<String, AtomicDouble> observations;
+
+    public IndexStatistics() {
+        observations = CacheBuilder.newBuilder().maximumSize(MAX_SHAPES).build();
+    }
+
+    /**
+     * Returns the estimated number of results of the given index call. The condition is the condition of the call
+     * on the graph's keys from which the index query was constructed.
+     *
+     * @param index
+     * @param query
+     * @param condition
+     * @return
+     */
+    public double estimate(String index, IndexQuery query, Condition<TitanElement> condition) {
+        AtomicDouble observed = observations.getIfPresent(getShape(index, query));
+        if (observed != null) return Math.min(observed.get() * getMultiplicity(query.getCondition()), UNBOUNDED_ESTIMATE);
+        return estimate(condition);
+    }
+
+    /**
+     * Records the number of results returned by an index call
+     *
+     * @param index
+     * @param query The executed index query
+     * @param numResults
+     */
+    public void record(String index, IndexQuery query, int numResults) {
+        Preconditions.checkArgument(numResults >= 0);
+        final double sample = numResults / getMultiplicity(query.getCondition());
+        boolean truncated = query.hasLimit() && numResults >= query.getLimit();
+        AtomicDouble observed;
+        try {
+            observed = observations.get(getShape(index, query), new Callable<AtomicDouble>() {
+                @Override
+                public AtomicDouble call() {
+                    return new AtomicDouble(sample);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new AssertionError(e);
+        }
+        double current = observed.get();
+        if (truncated) {
+            //The result size is only a lower bound of the actual result size
+            if (current < sample) observed.set(sample);
+        } else {
+            observed.set(current + OBSERVATION_WEIGHT * (sample - current));
+        }
+    }
+
+    /**
+     * Estimates the number of results matching the given condition from its predicates
+     *
+     * @param condition
+     * @return
+     */
+    public static double estimate(Condition<TitanElement> condition) {
+        switch (condition.getType()) {
+            case AND:
+                double min = UNBOUNDED_ESTIMATE;
+                for (Condition<TitanElement> child : condition.getChildren()) min = Math.min(min, estimate(child));
+                return min;
+            case OR:
+                double sum = 0;
+                for (Condition<TitanElement> child : condition.getChildren()) sum += estimate(child);
+                return Math.min(sum, UNBOUNDED_ESTIMATE);
+            case LITERAL:
+                if (condition instanceof PredicateCondition) return estimate((PredicateCondition) condition);
+                return UNBOUNDED_ESTIMATE;
+            default:
+                return UNBOUNDED_ESTIMATE;
+        }
+    }
+
+    private static double estimate(PredicateCondition<?, TitanElement> condition) {
+        TitanPredicate predicate = condition.getPredicate();
+        double equality = EQUALITY_ESTIMATE;
+        if (condition.getKey() instanceof TitanKey && ((TitanKey) condition.getKey()).isUnique(Direction.IN)) {
+            equality = UNIQUE_ESTIMATE;
+        }
+        if (predicate == Cmp.EQUAL) {
+            return equality;
+        } else if (predicate == Contain.IN) {
+            return equality * Math.max(1, ((Collection) condition.getValue()).size());
+        } else if (predicate instanceof Text || predicate instanceof Geo) {
+            return TEXT_ESTIMATE;
+        } else if (predicate == Cmp.NOT_EQUAL || predicate == Contain.NOT_IN) {
+            return UNBOUNDED_ESTIMATE;
+        } else {
+            return RANGE_ESTIMATE;
+        }
+    }
+
+    /**
+     * Returns the shape of the given index call, which identifies the index, keys and predicates but not the values
+     *
+     * @param index
+     * @param query
+     * @return
+     */
+    static String getShape(String index, IndexQuery query) {
+        StringBuilder b = new StringBuilder();
+        b.append(index).append(':').append(query.getStore()).append(':');
+        appendShape(b, query.getCondition());
+        return b.toString();
+    }
+
+    private static void appendShape(StringBuilder b, Condition<TitanElement> condition) {
+        if (condition instanceof PredicateCondition) {
+            PredicateCondition pc = (PredicateCondition) condition;
+            Object key = pc.getKey();
+            b.append(key instanceof TitanType ? ((TitanType) key).getName() : key.toString());
+            //A list of values has the shape of a single value
+            b.append(' ').append(pc.getPredicate() == Contain.IN ? Cmp.EQUAL : pc.getPredicate());
+        } else if (condition.hasChildren()) {
+            List<String> children = getChildShapes(condition);
+            if (isValueList(condition, children)) b.append(children.get(0));
+            else b.append(condition.getType()).append(children);
+        } else {
+            b.append(condition);
+        }
+    }
+
+    /**
+     * Returns the factor by which the number of results of the given condition exceeds the number of results of
+     * a condition of its shape on single values, i.e. the product of the sizes of the value lists in the condition.
+     *
+     * @param condition
+     * @return
+     */
+    static double getMultiplicity(Condition<TitanElement> condition) {
+        if (condition instanceof PredicateCondition) {
+            PredicateCondition pc = (PredicateCondition) condition;
+            if (pc.getPredicate() == Contain.IN) return Math.max(1, ((Collection) pc.getValue()).size());
+            return 1;
+        } else if (condition.hasChildren()) {
+            double multiplicity;
+            if (isValueList(condition, getChildShapes(condition))) {
+                multiplicity = 0;
+                for (Condition<TitanElement> child : condition.getChildren()) multiplicity += getMultiplicity(child);
+            } else {
+                multiplicity = 1;
+                for (Condition<TitanElement> child : condition.getChildren()) {
+                    if (condition.getType() == Condition.Type.AND) multiplicity *= getMultiplicity(child);
+                    else multiplicity = Math.max(multiplicity, getMultiplicity(child));
+                }
+            }
+            return Math.max(1, multiplicity);
+        } else {
+            return 1;
+        }
+    }
+
+    private static List<String> getChildShapes(Condition<TitanElement> condition) {
+        //Order children so that the shape is independent of the order of conditions
+        List<String> children = new ArrayList<String>(condition.numChildren());
+        for (Condition<TitanElement> child : condition.getChildren()) {
+            StringBuilder cb = new StringBuilder();
+            appendShape(cb, child);
+            children.add(cb.toString());
+        }
+        Collections.sort(children);
+        return children;
+    }
+
+    /**
+     * Whether the condition is a disjunction of conditions of the same shape, such as the equality conditions
+     * into which an IN condition is rewritten
+     */
+    private static boolean isValueList(Condition<TitanElement> condition, List<String> childShapes) {
+        if (condition.getType() != Condition.Type.OR || childShapes.isEmpty()) return false;
+        return childShapes.get(0).equals(childShapes.get(childShapes.size() - 1));
+    }
+
+}
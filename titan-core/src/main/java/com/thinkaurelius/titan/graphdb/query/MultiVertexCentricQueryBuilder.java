@@ -17,8 +17,10 @@ import com.tinkerpop.blueprints.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -166,6 +168,10 @@ public class MultiVertexCentricQueryBuilder extends AbstractVertexCentricQueryBu
 
     protected Map<TitanVertex, Iterable<? extends TitanRelation>> relations(RelationType returnType) {
         Preconditions.checkArgument(!vertices.isEmpty(), "Need to add at least one vertex to query");
+        return relations(returnType, vertices);
+    }
+
+    private Map<TitanVertex, Iterable<? extends TitanRelation>> relations(RelationType returnType, Collection<InternalVertex> vertices) {
         BaseVertexCentricQuery vq = super.constructQuery(returnType);
         Map<TitanVertex, Iterable<? extends TitanRelation>> result = new HashMap<TitanVertex, Iterable<? extends TitanRelation>>(vertices.size());
         if (!vq.isEmpty()) {
@@ -218,12 +224,33 @@ public class MultiVertexCentricQueryBuilder extends AbstractVertexCentricQueryBu
         return result;
     }
 
+    /**
+     * For all vertices to which {@link SimpleVertexQueryProcessor} applies, the edge store entries are retrieved
+     * in a single multi-query and the adjacent vertex ids are decoded directly from the entries.
+     */
     @Override
     public Map<TitanVertex, VertexList> vertexIds() {
-        Map<TitanVertex, Iterable<TitanEdge>> base = titanEdges();
-        Map<TitanVertex, VertexList> result = new HashMap<TitanVertex, VertexList>(base.size());
-        for (Map.Entry<TitanVertex, Iterable<TitanEdge>> entry : base.entrySet()) {
-            result.put(entry.getKey(), edges2VertexIds(entry.getValue(), entry.getKey()));
+        Preconditions.checkArgument(!vertices.isEmpty(), "Need to add at least one vertex to query");
+        Map<TitanVertex, VertexList> result = new HashMap<TitanVertex, VertexList>(vertices.size());
+        Map<InternalVertex, SimpleVertexQueryProcessor> simple = new HashMap<InternalVertex, SimpleVertexQueryProcessor>(vertices.size());
+        List<InternalVertex> others = new ArrayList<InternalVertex>();
+        for (InternalVertex v : vertices) {
+            SimpleVertexQueryProcessor qp = getSimpleQuery(RelationType.EDGE, v);
+            if (qp != null) simple.put(v, qp);
+            else others.add(v);
+        }
+        if (!simple.isEmpty()) {
+            //The slice query only depends on the query constraints and is hence identical for all vertices
+            tx.executeMultiQuery(simple.keySet(), simple.values().iterator().next().getSliceQuery());
+            for (Map.Entry<InternalVertex, SimpleVertexQueryProcessor> entry : simple.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().vertexIds());
+            }
+        }
+        if (!others.isEmpty()) {
+            Map<TitanVertex, Iterable<TitanEdge>> base = (Map) relations(RelationType.EDGE, others);
+            for (Map.Entry<TitanVertex, Iterable<TitanEdge>> entry : base.entrySet()) {
+                result.put(entry.getKey(), edges2VertexIds(entry.getValue(), entry.getKey()));
+            }
         }
         return result;
     }
@@ -3,6 +3,7 @@ package com.thinkaurelius.titan.graphdb.query;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.thinkaurelius.titan.core.*;
 import com.thinkaurelius.titan.core.attribute.Cmp;
 import com.thinkaurelius.titan.core.attribute.Contain;
@@ -16,6 +17,10 @@ import com.tinkerpop.blueprints.Direction;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class QueryUtil {
 
@@ -242,6 +247,20 @@ public class QueryUtil {
 
 
     public static <R> List<R> processIntersectingRetrievals(List<IndexCall<R>> retrievals, final int limit) {
+        return processIntersectingRetrievals(retrievals, limit, null);
+    }
+
+    /**
+     * Executes the given retrievals and returns the intersection of their results. If an executor is given,
+     * the retrievals of each round are executed concurrently on that executor with the first retrieval running
+     * on the calling thread. The results are intersected in the order of the retrievals either way.
+     *
+     * @param retrievals
+     * @param limit
+     * @param executor Executor for concurrent retrievals or null to execute them sequentially
+     * @return
+     */
+    public static <R> List<R> processIntersectingRetrievals(List<IndexCall<R>> retrievals, final int limit, @Nullable Executor executor) {
         Preconditions.checkArgument(!retrievals.isEmpty());
         Preconditions.checkArgument(limit >= 0, "Invalid limit: %s", limit);
         List<R> results = null;
@@ -258,14 +277,9 @@ public class QueryUtil {
         do {
             exhaustedResults = true;
             results = null;
-            for (IndexCall<R> call : retrievals) {
-                Collection<R> subresult;
-                try {
-                    subresult = call.call(sublimit);
-                } catch (Exception e) {
-                    throw new TitanException("Could not process individual retrieval call ", e);
-                }
-
+            List<Collection<R>> subresults = (executor == null || retrievals.size() < 2) ? null : callConcurrently(retrievals, sublimit, executor);
+            for (int i = 0; i < retrievals.size(); i++) {
+                Collection<R> subresult = (subresults == null) ? call(retrievals.get(i), sublimit) : subresults.get(i);
                 if (subresult.size() >= sublimit) exhaustedResults = false;
                 if (results == null) {
                     results = Lists.newArrayList(subresult);
@@ -276,6 +290,8 @@ public class QueryUtil {
                         if (!subresultset.contains(riter.next())) riter.remove();
                     }
                 }
+                //The intersection is empty and cannot grow since all retrievals so far returned their complete results
+                if (results.isEmpty() && exhaustedResults) break;
             }
             sublimit = (int) Math.min(Integer.MAX_VALUE - 1, Math.pow(sublimit, 1.5));
         } while (results.size() < limit && !exhaustedResults);
@@ -283,6 +299,41 @@ public class QueryUtil {
     }
 
 
+    private static <R> List<Collection<R>> callConcurrently(List<IndexCall<R>> retrievals, final int limit, Executor executor) {
+        List<Collection<R>> results = new ArrayList<Collection<R>>(retrievals.size());
+        List<FutureTask<Collection<R>>> futures = new ArrayList<FutureTask<Collection<R>>>(retrievals.size() - 1);
+        for (final IndexCall<R> call : retrievals.subList(1, retrievals.size())) {
+            FutureTask<Collection<R>> future = new FutureTask<Collection<R>>(new Callable<Collection<R>>() {
+                @Override
+                public Collection<R> call() {
+                    return QueryUtil.call(call, limit);
+                }
+            });
+            futures.add(future);
+            executor.execute(future);
+        }
+        results.add(call(retrievals.get(0), limit));
+        for (FutureTask<Collection<R>> future : futures) {
+            try {
+                results.add(Uninterruptibles.getUninterruptibly(future));
+            } catch (ExecutionException e) {
+                for (FutureTask<Collection<R>> f : futures) f.cancel(true);
+                Throwable cause = e.getCause();
+                if (cause instanceof TitanException) throw (TitanException) cause;
+                throw new TitanException("Could not process individual retrieval call ", cause);
+            }
+        }
+        return results;
+    }
+
+    private static <R> Collection<R> call(IndexCall<R> call, int limit) {
+        try {
+            return call.call(limit);
+        } catch (Exception e) {
+            throw new TitanException("Could not process individual retrieval call ", e);
+        }
+    }
+
     public interface IndexCall<R> {
 
         public Collection<R> call(int limit);
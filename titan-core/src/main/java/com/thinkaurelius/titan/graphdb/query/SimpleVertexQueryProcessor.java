@@ -1,6 +1,5 @@
 package com.thinkaurelius.titan.graphdb.query;
 
-import cern.colt.list.AbstractLongList;
 import cern.colt.list.LongArrayList;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -11,6 +10,7 @@ import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
 import com.thinkaurelius.titan.graphdb.database.EdgeSerializer;
 import com.thinkaurelius.titan.graphdb.database.RelationQueryCache;
+import com.thinkaurelius.titan.graphdb.database.RelationSlice;
 import com.thinkaurelius.titan.graphdb.internal.InternalType;
 import com.thinkaurelius.titan.graphdb.internal.InternalVertex;
 import com.thinkaurelius.titan.graphdb.internal.RelationType;
@@ -158,27 +158,52 @@ public class SimpleVertexQueryProcessor implements Iterable<Entry> {
         });
     }
 
+    /**
+     * Returns the ids of the adjacent vertices. The ids are decoded in batch from the entries' bytes via
+     * {@link RelationSlice} so that no relation or vertex objects are constructed.
+     *
+     * @return
+     */
     public VertexList vertexIds() {
-        AbstractLongList list = new LongArrayList();
-        for (Long id : Iterables.transform(this,new Function<Entry, Long>() {
-            @Nullable
-            @Override
-            public Long apply(@Nullable Entry entry) {
-                return edgeSerializer.readRelation(vertex.getID(),entry,true,tx).getOtherVertexId();
+        List<Entry> entries;
+        if (sliceQuery.hasLimit() && sliceQuery.getLimit()!=this.limit) {
+            entries = Lists.newArrayList(iterator());
+        } else {
+            Collection<Entry> basic = getBasicEntries();
+            entries = (basic instanceof List) ? (List<Entry>) basic : new ArrayList<Entry>(basic);
+        }
+        RelationSlice slice = edgeSerializer.readRelations(vertex.getID(), entries, tx);
+        long[] ids = new long[slice.size()];
+        int size = 0;
+        for (int i = 0; i < slice.size() && size < limit; i++) {
+            if (filterDirection==null || slice.getDirection(i)==filterDirection) {
+                ids[size++] = slice.getOtherVertexId(i);
             }
-        })) {
-            list.add(id);
         }
-        return new VertexLongList(tx,list);
+        if (size < ids.length) ids = Arrays.copyOf(ids, size);
+        return new VertexLongList(tx, new LongArrayList(ids));
     }
 
-    private Iterator<Entry> getBasicIterator() {
+    /**
+     * Returns the slice query that is executed against the edge store
+     *
+     * @return
+     */
+    public SliceQuery getSliceQuery() {
+        return sliceQuery;
+    }
+
+    private Collection<Entry> getBasicEntries() {
         return vertex.loadRelations(sliceQuery, new Retriever<SliceQuery, List<Entry>>() {
             @Override
             public List<Entry> get(SliceQuery query) {
                 return tx.getGraph().edgeQuery(vertex.getID(), query, tx.getTxHandle());
             }
-        }).iterator();
+        });
+    }
+
+    private Iterator<Entry> getBasicIterator() {
+        return getBasicEntries().iterator();
     }
 
 
@@ -197,33 +197,10 @@ public class VertexCentricQueryBuilder extends AbstractVertexCentricQueryBuilder
         return new QueryProcessor<VertexCentricQuery,TitanRelation,SliceQuery>(constructQuery(returnType), tx.edgeProcessor);
     }
 
+    @Override
     protected SimpleVertexQueryProcessor getSimpleQuery(RelationType relationType, InternalVertex vertex) {
-        if (!vertex.isLoaded() || types.length>1 || includeHidden || adjacentVertex!=null ||
-                (relationType==RelationType.PROPERTY && tx.getConfiguration().hasPropertyPrefetching())) {
-            return null; //Simple query does not apply
-        }
-        TitanType type = null;
-        if (types.length>0) {
-            type = getType(types[0]);
-            if (type==null) return null;
-        }
-        switch (relationType) {
-            case PROPERTY:
-                assert constraints.isEmpty();
-                if (limit!=Query.NO_LIMIT) return null;
-                return new SimpleVertexQueryProcessor(vertex,(TitanKey)type);
-            case EDGE:
-                if (type!=null) {
-                    //Get sortKey and accept if no further conditions are unmatched.
-                    EdgeSerializer.TypedInterval[] sortKeyConstraints = getFittingKeyConstraints((InternalType)type);
-                    if (sortKeyConstraints==null) return null;
-                    return new SimpleVertexQueryProcessor(vertex,dir,(TitanLabel)type,sortKeyConstraints,limit);
-                } else {
-                    if (!constraints.isEmpty()) return null;
-                    return new SimpleVertexQueryProcessor(vertex,dir,(TitanLabel)type,null,limit);
-                }
-            default: throw new IllegalArgumentException("Invalid relation type: " + relationType);
-        }
+        if (adjacentVertex!=null) return null; //Simple query does not apply
+        return super.getSimpleQuery(relationType, vertex);
     }
 
 
@@ -35,6 +35,7 @@ import com.thinkaurelius.titan.graphdb.transaction.indexcache.ConcurrentIndexCac
 import com.thinkaurelius.titan.graphdb.transaction.indexcache.IndexCache;
 import com.thinkaurelius.titan.graphdb.transaction.indexcache.SimpleIndexCache;
 import com.thinkaurelius.titan.graphdb.transaction.vertexcache.GuavaVertexCache;
+import com.thinkaurelius.titan.graphdb.transaction.vertexcache.PrimitiveVertexCache;
 import com.thinkaurelius.titan.graphdb.transaction.vertexcache.VertexCache;
 import com.thinkaurelius.titan.graphdb.types.StandardKeyMaker;
 import com.thinkaurelius.titan.graphdb.types.StandardLabelMaker;
@@ -116,6 +117,10 @@ public class StandardTitanTx extends TitanBlueprintsTransaction {
      * since the result set can always be retrieved from the IndexProvider
      */
     private final Cache<IndexQuery, List<Object>> indexCache;
+    /**
+     * Executor for concurrent index calls of a graph query or null if they are executed sequentially
+     */
+    private final Executor indexQueryExecutor;
     /**
      * Builds an inverted index for newly added properties so they can be considered in index queries.
      * This cache my not release elements since that would entail an expensive linear scan over addedRelations
@@ -184,13 +189,16 @@ public class StandardTitanTx extends TitanBlueprintsTransaction {
         externalVertexRetriever = new VertexConstructor(config.hasVerifyExternalVertexExistence());
         internalVertexRetriever = new VertexConstructor(config.hasVerifyInternalVertexExistence());
 
-        vertexCache = new GuavaVertexCache(config.getVertexCacheSize(),concurrencyLevel);
+        if (config.hasPrimitiveVertexCache()) vertexCache = new PrimitiveVertexCache(config.getVertexCacheSize(),
+                config.isSingleThreaded() ? 1 : Runtime.getRuntime().availableProcessors());
+        else vertexCache = new GuavaVertexCache(config.getVertexCacheSize(),concurrencyLevel);
         indexCache = CacheBuilder.newBuilder().weigher(new Weigher<IndexQuery, List<Object>>() {
             @Override
             public int weigh(IndexQuery q, List<Object> r) {
                 return 2 + r.size();
             }
         }).concurrencyLevel(concurrencyLevel).maximumWeight(config.getIndexCacheWeight()).build();
+        indexQueryExecutor = graph.getConfiguration().hasParallelIndexQueries() ? txHandle.getReadExecutor() : null;
 
         uniqueLocks = UNINITIALIZED_LOCKS;
         deletedRelations = EMPTY_DELETED_RELATIONS;
@@ -891,7 +899,14 @@ public class StandardTitanTx extends TitanBlueprintsTransaction {
         @Override
         public Iterator<TitanElement> execute(final GraphCentricQuery query, final JointIndexQuery indexQuery, final Object exeInfo) {
             Iterator<TitanElement> iter;
-            if (!indexQuery.isEmpty()) {
+            int pageSize = graph.getConfiguration().getIndexPageSize();
+            if (GraphCentricQueryBuilder.isStreamed(indexQuery, pageSize)) {
+                //Stream the results from the external index which bypasses the index cache
+                IndexQuery subquery = indexQuery.getQuery(0).updateLimit(indexQuery.getLimit());
+                Iterator<Object> ids = indexSerializer.queryStream(indexQuery.getIndex(0), subquery, txHandle,
+                        Math.min(pageSize, indexQuery.getLimit()));
+                iter = Iterators.transform(ids, getConversionFunction(query.getResultType()));
+            } else if (!indexQuery.isEmpty()) {
                 List<QueryUtil.IndexCall<Object>> retrievals = new ArrayList<QueryUtil.IndexCall<Object>>();
                 for (int i = 0; i < indexQuery.size(); i++) {
                     final String index = indexQuery.getIndex(i);
@@ -904,7 +919,9 @@ public class StandardTitanTx extends TitanBlueprintsTransaction {
                                 return indexCache.get(adjustedQuery, new Callable<List<Object>>() {
                                     @Override
                                     public List<Object> call() throws Exception {
-                                        return indexSerializer.query(index, adjustedQuery, txHandle);
+                                        List<Object> result = indexSerializer.query(index, adjustedQuery, txHandle);
+                                        graph.getIndexStatistics().record(index, adjustedQuery, result.size());
+                                        return result;
                                     }
                                 });
                             } catch (Exception e) {
@@ -915,7 +932,7 @@ public class StandardTitanTx extends TitanBlueprintsTransaction {
                 }
 
 
-                List<Object> resultSet = QueryUtil.processIntersectingRetrievals(retrievals, indexQuery.getLimit());
+                List<Object> resultSet = QueryUtil.processIntersectingRetrievals(retrievals, indexQuery.getLimit(), indexQueryExecutor);
                 iter = Iterators.transform(resultSet.iterator(), getConversionFunction(query.getResultType()));
             } else {
                 log.warn("Query requires iterating over all vertices [{}]. For better performance, use indexes", query.getCondition());
@@ -37,8 +37,12 @@ public class StandardTransactionBuilder implements TransactionConfiguration, Tra
 
     private int vertexCacheSize;
 
+    private boolean primitiveVertexCache;
+
     private long indexCacheWeight;
 
+    private int bulkLoadBatchSize = 0;
+
     private Long timestamp = null;
 
     private String metricsPrefix;
@@ -64,6 +68,7 @@ public class StandardTransactionBuilder implements TransactionConfiguration, Tra
         this.propertyPrefetching = graphConfig.hasPropertyPrefetching();
         if (graphConfig.isReadOnly()) readOnly();
         setCacheSize(graphConfig.getTxCacheSize());
+        this.primitiveVertexCache = graphConfig.hasPrimitiveTxCache();
         if (graphConfig.isBatchLoading()) enableBatchLoading();
     }
 
@@ -94,6 +99,25 @@ public class StandardTransactionBuilder implements TransactionConfiguration, Tra
         return this;
     }
 
+    /**
+     * Configures the transaction for bulk loading by a {@link com.thinkaurelius.titan.core.TitanBulkLoader}.
+     * In addition to the relaxed checks of batch loading, ids are assigned in bulk at commit time and all
+     * mutations are buffered, sorted by key, and persisted in batches of the given size.
+     *
+     * @param batchSize
+     * @return
+     */
+    public StandardTransactionBuilder enableBulkLoading(int batchSize) {
+        verifyOpen();
+        Preconditions.checkArgument(batchSize > 0, "Invalid batch size: %s", batchSize);
+        enableBatchLoading();
+        this.bulkLoadBatchSize = batchSize;
+        this.assignIDsImmediately = false;
+        this.propertyPrefetching = false;
+        this.singleThreaded = true;
+        return this;
+    }
+
     @Override
     public StandardTransactionBuilder setCacheSize(int size) {
         verifyOpen();
@@ -191,11 +215,21 @@ public class StandardTransactionBuilder implements TransactionConfiguration, Tra
         return vertexCacheSize;
     }
 
+    @Override
+    public final boolean hasPrimitiveVertexCache() {
+        return primitiveVertexCache;
+    }
+
     @Override
     public final long getIndexCacheWeight() {
         return indexCacheWeight;
     }
 
+    @Override
+    public final int getBulkLoadBatchSize() {
+        return bulkLoadBatchSize;
+    }
+
     @Override
     public boolean hasTimestamp() {
         return timestamp != null;
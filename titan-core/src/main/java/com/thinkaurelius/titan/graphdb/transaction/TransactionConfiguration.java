@@ -99,6 +99,14 @@ public interface TransactionConfiguration {
      */
     public int getVertexCacheSize();
 
+    /**
+     * Whether the vertex cache of this transaction uses primitive long keys
+     *
+     * @return
+     * @see com.thinkaurelius.titan.graphdb.transaction.vertexcache.PrimitiveVertexCache
+     */
+    public boolean hasPrimitiveVertexCache();
+
     /**
      * The maximum weight for the index cache store used in this particular transaction
      *
@@ -106,6 +114,14 @@ public interface TransactionConfiguration {
      */
     public long getIndexCacheWeight();
 
+    /**
+     * The number of mutations after which the storage backend transaction persists its sorted write buffer when
+     * this transaction is used for bulk loading. Returns 0 if this is not a bulk loading transaction.
+     *
+     * @return
+     */
+    public int getBulkLoadBatchSize();
+
 
     /**
      * Whether a timestamp has been configured for this transaction
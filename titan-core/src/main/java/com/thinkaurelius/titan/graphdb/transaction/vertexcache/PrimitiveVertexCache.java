@@ -0,0 +1,251 @@
+package com.thinkaurelius.titan.graphdb.transaction.vertexcache;
+
+import com.google.common.base.Preconditions;
+import com.thinkaurelius.titan.graphdb.internal.InternalVertex;
+import com.thinkaurelius.titan.util.datastructures.Retriever;
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link VertexCache} which stores vertices in an open-addressing hash table keyed by primitive longs to avoid
+ * allocating a boxed key and a map entry for every cached vertex.
+ * <p/>
+ * When the cache reaches its capacity, vertices are evicted using the CLOCK algorithm: a hand sweeps over the table
+ * and evicts the first vertex that has not been accessed since the hand last passed it. Like in the other
+ * implementations, new and modified vertices are additionally held in a separate map so that they are never lost
+ * upon eviction.
+ * <p/>
+ * The table is split into independently locked segments, each with its own clock hand and a proportional share of
+ * the capacity, so that threads of a multi-threaded transaction do not contend on a single monitor. A transaction
+ * which is used by a single thread has one segment. Vertices are retrieved outside of the locks.
+ */
+public class PrimitiveVertexCache implements VertexCache {
+
+    private static final long EMPTY = 0;
+
+    private static final int MAX_CAPACITY = 1 << 28;
+    private static final int MAX_SEGMENTS = 1 << 6;
+
+    private final NonBlockingHashMapLong<InternalVertex> volatileVertices;
+
+    private final Segment[] segments;
+    private final int segmentBits;
+
+    public PrimitiveVertexCache(int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * @param capacity         maximum number of vertices in the cache, up to rounding per segment
+     * @param concurrencyLevel estimated number of threads accessing the cache concurrently
+     */
+    public PrimitiveVertexCache(int capacity, int concurrencyLevel) {
+        Preconditions.checkArgument(capacity >= 0 && capacity <= MAX_CAPACITY, "Invalid capacity: %s", capacity);
+        Preconditions.checkArgument(concurrencyLevel > 0, "Invalid concurrency level: %s", concurrencyLevel);
+        capacity = Math.max(1, capacity);
+        int numSegments = Integer.highestOneBit(Math.min(Math.min(concurrencyLevel, MAX_SEGMENTS), capacity));
+        this.segmentBits = Integer.numberOfTrailingZeros(numSegments);
+        this.volatileVertices = new NonBlockingHashMapLong<InternalVertex>();
+        this.segments = new Segment[numSegments];
+        int segmentCapacity = (capacity + numSegments - 1) / numSegments;
+        for (int i = 0; i < numSegments; i++) segments[i] = new Segment(segmentCapacity);
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Selects the segment by the top bits of the hash product which do not determine the position within the segment
+     */
+    private Segment segmentFor(long id) {
+        if (segmentBits == 0) return segments[0];
+        return segments[(int) ((id * 0x9E3779B97F4A7C15L) >>> (64 - segmentBits))];
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return segmentFor(id).getIfPresent(id) != null || volatileVertices.containsKey(id);
+    }
+
+    @Override
+    public InternalVertex get(long id, Retriever<Long, InternalVertex> retriever) {
+        Segment segment = segmentFor(id);
+        InternalVertex vertex = segment.getIfPresent(id);
+        if (vertex == null) {
+            InternalVertex newVertex = volatileVertices.get(id);
+            if (newVertex == null) {
+                newVertex = retriever.get(id);
+            }
+            assert newVertex != null;
+            vertex = segment.putIfAbsent(id, newVertex, false);
+        }
+        return vertex;
+    }
+
+    @Override
+    public void add(InternalVertex vertex, long id) {
+        Preconditions.checkNotNull(vertex);
+        Preconditions.checkArgument(id != 0);
+
+        segmentFor(id).putIfAbsent(id, vertex, true);
+        if (vertex.isNew() || vertex.hasAddedRelations())
+            volatileVertices.put(id, vertex);
+    }
+
+    @Override
+    public List<InternalVertex> getAllNew() {
+        List<InternalVertex> vertices = new ArrayList<InternalVertex>(10);
+        for (InternalVertex v : volatileVertices.values()) {
+            if (v.isNew()) vertices.add(v);
+        }
+        return vertices;
+    }
+
+    /**
+     * Returns the number of vertices in the table, excluding modified vertices that have been evicted
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    @Override
+    public void close() {
+        volatileVertices.clear();
+        for (Segment segment : segments) segment.clear();
+    }
+
+    private final class Segment {
+
+        private final int capacity;
+        private final int mask;
+        private final long[] keys;
+        private final InternalVertex[] values;
+        private final boolean[] referenced;
+        private int size;
+        private int hand;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            //Keep the load factor at or below 0.5 to bound the length of probe sequences
+            int tableSize = Integer.highestOneBit(capacity) << 2;
+            this.mask = tableSize - 1;
+            this.keys = new long[tableSize];
+            this.values = new InternalVertex[tableSize];
+            this.referenced = new boolean[tableSize];
+            this.size = 0;
+            this.hand = 0;
+        }
+
+        /**
+         * Returns the slot of the given id or -1 if it is not contained in the table
+         */
+        private int find(long id) {
+            int pos = hash(id) & mask;
+            while (keys[pos] != EMPTY) {
+                if (keys[pos] == id) return pos;
+                pos = (pos + 1) & mask;
+            }
+            return -1;
+        }
+
+        private synchronized InternalVertex getIfPresent(long id) {
+            int pos = find(id);
+            if (pos < 0) return null;
+            referenced[pos] = true;
+            return values[pos];
+        }
+
+        /**
+         * Adds the vertex if no vertex with the given id is in the table and returns the vertex in the table.
+         */
+        private synchronized InternalVertex putIfAbsent(long id, InternalVertex vertex, boolean replace) {
+            int pos = hash(id) & mask;
+            while (keys[pos] != EMPTY) {
+                if (keys[pos] == id) {
+                    if (replace) values[pos] = vertex;
+                    referenced[pos] = true;
+                    return values[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+            if (size >= capacity) {
+                evict();
+                //Eviction shifts entries, hence the insertion position needs to be recomputed
+                pos = hash(id) & mask;
+                while (keys[pos] != EMPTY) pos = (pos + 1) & mask;
+            }
+            keys[pos] = id;
+            values[pos] = vertex;
+            referenced[pos] = true;
+            size++;
+            return vertex;
+        }
+
+        /**
+         * Advances the clock hand until an unreferenced vertex is found and removes it from the table
+         */
+        private void evict() {
+            while (true) {
+                int pos = hand;
+                hand = (hand + 1) & mask;
+                if (keys[pos] == EMPTY) continue;
+                if (referenced[pos]) {
+                    referenced[pos] = false;
+                    continue;
+                }
+                InternalVertex vertex = values[pos];
+                if (vertex.hasAddedRelations()) volatileVertices.putIfAbsent(keys[pos], vertex);
+                remove(pos);
+                //The removal may have shifted an unvisited entry into the evicted slot
+                hand = pos;
+                return;
+            }
+        }
+
+        /**
+         * Removes the entry at the given position and shifts subsequent entries of the probe sequence backwards
+         * so that lookups remain correct without tombstones
+         */
+        private void remove(int pos) {
+            int gap = pos;
+            int next = (gap + 1) & mask;
+            while (keys[next] != EMPTY) {
+                int home = hash(keys[next]) & mask;
+                //Move the entry into the gap if its home slot is not within (gap,next]
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    referenced[gap] = referenced[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[gap] = EMPTY;
+            values[gap] = null;
+            referenced[gap] = false;
+            size--;
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(keys, EMPTY);
+            Arrays.fill(values, null);
+            Arrays.fill(referenced, false);
+            size = 0;
+            hand = 0;
+        }
+    }
+
+}
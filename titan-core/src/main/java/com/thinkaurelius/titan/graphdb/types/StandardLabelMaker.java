@@ -37,6 +37,7 @@ public class StandardLabelMaker extends StandardTypeMaker implements LabelMaker
 
     @Override
     public LabelMaker oneToMany(UniquenessConsistency consistency) {
+        checkConsistency(consistency);
         super.unique(Direction.IN, consistency);
         return this;
     }
@@ -59,6 +60,7 @@ public class StandardLabelMaker extends StandardTypeMaker implements LabelMaker
 
     @Override
     public LabelMaker oneToOne(UniquenessConsistency consistency) {
+        checkConsistency(consistency);
         super.unique(Direction.BOTH, consistency);
         return this;
     }
@@ -68,6 +70,11 @@ public class StandardLabelMaker extends StandardTypeMaker implements LabelMaker
         return oneToOne(UniquenessConsistency.LOCK);
     }
 
+    private static void checkConsistency(UniquenessConsistency consistency) {
+        Preconditions.checkArgument(consistency != UniquenessConsistency.OPTIMISTIC,
+                "Optimistic uniqueness consistency is only supported for unique property keys");
+    }
+
     @Override
     public LabelMaker manyToMany() {
         super.unique(Direction.BOTH, null);
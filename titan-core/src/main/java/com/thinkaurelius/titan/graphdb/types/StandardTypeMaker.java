@@ -28,6 +28,7 @@ abstract class StandardTypeMaker implements TypeMaker {
     private String name;
     private boolean[] isUnique;
     private boolean[] hasUniqueLock;
+    private boolean[] hasUniqueOptimistic;
     private boolean[] isStatic;
     private boolean isHidden;
     private boolean isModifiable;
@@ -45,6 +46,7 @@ abstract class StandardTypeMaker implements TypeMaker {
         name = null;
         isUnique = new boolean[2]; //false
         hasUniqueLock = new boolean[2]; //false
+        hasUniqueOptimistic = new boolean[2]; //false
         isStatic = new boolean[2]; //false
         isHidden = false;
         isModifiable = true;
@@ -65,6 +67,9 @@ abstract class StandardTypeMaker implements TypeMaker {
         for (int i = 0; i < 2; i++)
             Preconditions.checkArgument(!hasUniqueLock[i] || isUnique[i],
                     "Must be unique in order to have a lock");
+        for (int i = 0; i < 2; i++)
+            Preconditions.checkArgument(!hasUniqueOptimistic[i] || (isUnique[i] && !hasUniqueLock[i]),
+                    "Must be unique and not locked in order to be optimistic");
         checkSortKey(sortKey);
         Preconditions.checkArgument(sortOrder==Order.ASC || !sortKey.isEmpty(),"Must define a sort key to use ordering");
         checkSignature(signature);
@@ -105,6 +110,7 @@ abstract class StandardTypeMaker implements TypeMaker {
         TypeAttribute.Map def = new TypeAttribute.Map();
         def.setValue(UNIQUENESS, new boolean[]{isUnique[0], isUnique[1]});
         def.setValue(UNIQUENESS_LOCK, hasUniqueLock);
+        def.setValue(UNIQUENESS_OPTIMISTIC, hasUniqueOptimistic);
         def.setValue(STATIC, isStatic);
         def.setValue(HIDDEN, isHidden);
         def.setValue(MODIFIABLE, isModifiable);
@@ -149,9 +155,16 @@ abstract class StandardTypeMaker implements TypeMaker {
             unique(Direction.IN, consistency);
             unique(Direction.OUT, consistency);
         } else {
+            Preconditions.checkArgument(consistency != UniquenessConsistency.OPTIMISTIC || direction == Direction.IN,
+                    "Optimistic uniqueness consistency is only supported for unique property keys");
+            Preconditions.checkArgument(consistency != UniquenessConsistency.OPTIMISTIC
+                    || !tx.getGraph().getStoreFeatures().supportsTransactions(),
+                    "Optimistic uniqueness consistency is not supported by transactional storage backends, use locking instead");
             isUnique[EdgeDirection.position(direction)] = consistency == null ? false : true;
             hasUniqueLock[EdgeDirection.position(direction)] =
                     (consistency == UniquenessConsistency.LOCK ? true : false);
+            hasUniqueOptimistic[EdgeDirection.position(direction)] =
+                    (consistency == UniquenessConsistency.OPTIMISTIC ? true : false);
         }
         return this;
     }
@@ -22,13 +22,14 @@ public enum TypeAttributeType {
     DATATYPE(Class.class),
     UNIDIRECTIONAL(Boolean.class),
     SORT_ORDER(Order.class),
-    INDEX_PARAMETERS(IndexParameters[].class);
+    INDEX_PARAMETERS(IndexParameters[].class),
+    UNIQUENESS_OPTIMISTIC(boolean[].class);
 
     static final Set<TypeAttributeType> PROPERTY_KEY_TYPES = ImmutableSet.of(UNIQUENESS, UNIQUENESS_LOCK, STATIC,
-            HIDDEN, MODIFIABLE, SORT_KEY, SORT_ORDER, SIGNATURE, INDEXES, INDEX_PARAMETERS, DATATYPE);
+            HIDDEN, MODIFIABLE, SORT_KEY, SORT_ORDER, SIGNATURE, INDEXES, INDEX_PARAMETERS, DATATYPE, UNIQUENESS_OPTIMISTIC);
 
     static final Set<TypeAttributeType> EDGE_LABEL_TYPES = ImmutableSet.of(UNIQUENESS, UNIQUENESS_LOCK, STATIC,
-            HIDDEN, MODIFIABLE, SORT_KEY, SORT_ORDER, SIGNATURE, UNIDIRECTIONAL);
+            HIDDEN, MODIFIABLE, SORT_KEY, SORT_ORDER, SIGNATURE, UNIDIRECTIONAL, UNIQUENESS_OPTIMISTIC);
 
     private final Class attributeClass;
 
@@ -44,6 +45,7 @@ public enum TypeAttributeType {
     public Object defaultValue(TypeAttribute.Map map) {
         switch(this) {
             case SORT_ORDER: return Order.ASC;
+            case UNIQUENESS_OPTIMISTIC: return new boolean[2];
             default: return null;
         }
     }
@@ -65,6 +65,11 @@ public abstract class SystemType extends EmptyVertex implements InternalVertex,
         return isUnique(direction);
     }
 
+    @Override
+    public boolean uniqueOptimistic(Direction direction) {
+        return false;
+    }
+
 	
 	/* ---------------------------------------------------------------
      * Default System TitanRelation Type (same as SystemLabel)
@@ -46,6 +46,14 @@ public abstract class TitanTypeVertex extends CacheVertex implements InternalTyp
         return definition;
     }
 
+    /**
+     * Loads the name and definition of this type so that subsequent reads no longer query the transaction
+     */
+    public void loadDefinition() {
+        getName();
+        getDefinition();
+    }
+
 
     @Override
     public String toString() {
@@ -62,6 +70,11 @@ public abstract class TitanTypeVertex extends CacheVertex implements InternalTyp
         return isUnique(direction) && getDefinition().getValue(TypeAttributeType.UNIQUENESS_LOCK, boolean[].class)[EdgeDirection.position(direction)];
     }
 
+    @Override
+    public boolean uniqueOptimistic(Direction direction) {
+        return isUnique(direction) && getDefinition().getValue(TypeAttributeType.UNIQUENESS_OPTIMISTIC, boolean[].class)[EdgeDirection.position(direction)];
+    }
+
     @Override
     public boolean isStatic(Direction direction) {
         return getDefinition().getValue(TypeAttributeType.STATIC, boolean[].class)[EdgeDirection.position(direction)];
@@ -36,6 +36,7 @@ import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.unit.DistanceUnit;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -67,6 +68,11 @@ public class ElasticSearchIndex implements IndexProvider {
 
     private static final String[] DATA_SUBDIRS = {"data", "work", "logs"};
 
+    /**
+     * How long the search context of a paged query is kept alive between the retrieval of two pages
+     */
+    private static final TimeValue SCROLL_KEEPALIVE = TimeValue.timeValueMinutes(1);
+
     public static final String MAX_RESULT_SET_SIZE_KEY = "max-result-set-size";
     public static final int MAX_RESULT_SET_SIZE_DEFAULT = 100000;
 
@@ -435,18 +441,7 @@ public class ElasticSearchIndex implements IndexProvider {
 
     @Override
     public List<String> query(IndexQuery query, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException {
-        SearchRequestBuilder srb = client.prepareSearch(indexName);
-        srb.setTypes(query.getStore());
-        srb.setQuery(QueryBuilders.matchAllQuery());
-        srb.setFilter(getFilter(query.getCondition(),informations.get(query.getStore())));
-        if (!query.getOrder().isEmpty()) {
-            List<IndexQuery.OrderEntry> orders = query.getOrder();
-            for (int i = 0; i < orders.size(); i++) {
-                srb.addSort(new FieldSortBuilder(orders.get(i).getKey())
-                        .order(orders.get(i).getOrder() == Order.ASC ? SortOrder.ASC : SortOrder.DESC)
-                        .ignoreUnmapped(true));
-            }
-        }
+        SearchRequestBuilder srb = prepareSearch(query, informations);
         srb.setFrom(0);
         if (query.hasLimit()) srb.setSize(query.getLimit());
         else srb.setSize(maxResultsSize);
@@ -465,6 +460,65 @@ public class ElasticSearchIndex implements IndexProvider {
         return result;
     }
 
+    @Override
+    public IndexPage queryPage(IndexQuery query, Object cursor, int pageSize, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException {
+        Preconditions.checkArgument(pageSize > 0, "Invalid page size: %s", pageSize);
+        Preconditions.checkArgument(cursor == null || cursor instanceof String, "Invalid cursor: %s", cursor);
+        boolean scroll = true;
+        SearchResponse response;
+        if (cursor == null) {
+            SearchRequestBuilder srb = prepareSearch(query, informations);
+            srb.setNoFields();
+            if (query.hasLimit() && query.getLimit() <= pageSize) {
+                //All results fit on one page, hence no scroll context is needed
+                scroll = false;
+                srb.setFrom(0);
+                srb.setSize(query.getLimit());
+            } else {
+                srb.setSize(pageSize);
+                srb.setScroll(SCROLL_KEEPALIVE);
+            }
+            response = srb.execute().actionGet();
+            log.debug("Executed paged query [{}] in {} ms", query.getCondition(), response.getTookInMillis());
+        } else {
+            response = client.prepareSearchScroll((String) cursor).setScroll(SCROLL_KEEPALIVE).execute().actionGet();
+        }
+        SearchHits hits = response.getHits();
+        List<String> result = new ArrayList<String>(hits.hits().length);
+        for (SearchHit hit : hits) {
+            result.add(hit.id());
+        }
+        String scrollId = scroll ? response.getScrollId() : null;
+        if (scrollId != null && result.size() < pageSize) {
+            //Last page, release the scroll context
+            closeCursor(scrollId, tx);
+            scrollId = null;
+        }
+        return new IndexPage(result, scrollId);
+    }
+
+    @Override
+    public void closeCursor(Object cursor, TransactionHandle tx) throws StorageException {
+        Preconditions.checkArgument(cursor instanceof String, "Invalid cursor: %s", cursor);
+        client.prepareClearScroll().addScrollId((String) cursor).execute().actionGet();
+    }
+
+    private SearchRequestBuilder prepareSearch(IndexQuery query, KeyInformation.IndexRetriever informations) {
+        SearchRequestBuilder srb = client.prepareSearch(indexName);
+        srb.setTypes(query.getStore());
+        srb.setQuery(QueryBuilders.matchAllQuery());
+        srb.setFilter(getFilter(query.getCondition(),informations.get(query.getStore())));
+        if (!query.getOrder().isEmpty()) {
+            List<IndexQuery.OrderEntry> orders = query.getOrder();
+            for (int i = 0; i < orders.size(); i++) {
+                srb.addSort(new FieldSortBuilder(orders.get(i).getKey())
+                        .order(orders.get(i).getOrder() == Order.ASC ? SortOrder.ASC : SortOrder.DESC)
+                        .ignoreUnmapped(true));
+            }
+        }
+        return srb;
+    }
+
     @Override
     public Iterable<RawQuery.Result<String>> query(RawQuery query, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException {
         SearchRequestBuilder srb = client.prepareSearch(indexName);
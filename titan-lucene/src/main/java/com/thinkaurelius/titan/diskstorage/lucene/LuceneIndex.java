@@ -296,6 +296,39 @@ public class LuceneIndex implements IndexProvider {
         }
     }
 
+    @Override
+    public IndexPage queryPage(IndexQuery query, Object cursor, int pageSize, KeyInformation.IndexRetriever informations, TransactionHandle tx) throws StorageException {
+        Preconditions.checkArgument(pageSize > 0, "Invalid page size: %s", pageSize);
+        Preconditions.checkArgument(cursor == null || cursor instanceof ScoreDoc, "Invalid cursor: %s", cursor);
+        Filter q = convertQuery(query.getCondition(),informations.get(query.getStore()));
+
+        try {
+            //The searcher is held by the transaction so that all pages are retrieved from the same snapshot
+            IndexSearcher searcher = ((Transaction) tx).getSearcher(query.getStore());
+            if (searcher == null) return new IndexPage(ImmutableList.<String>of(), null); //Index does not yet exist
+            long time = System.currentTimeMillis();
+            //The first page contains all results if the limit does not exceed the page size
+            boolean singlePage = cursor == null && query.hasLimit() && query.getLimit() <= pageSize;
+            if (singlePage && query.getLimit() == 0) return new IndexPage(ImmutableList.<String>of(), null);
+            TopDocs docs = searcher.searchAfter((ScoreDoc) cursor, new MatchAllDocsQuery(), q,
+                    singlePage ? query.getLimit() : pageSize, getSortOrder(query));
+            log.debug("Executed paged query [{}] in {} ms", q, System.currentTimeMillis() - time);
+            List<String> result = new ArrayList<String>(docs.scoreDocs.length);
+            for (int i = 0; i < docs.scoreDocs.length; i++) {
+                result.add(searcher.doc(docs.scoreDocs[i].doc).getField(DOCID).stringValue());
+            }
+            ScoreDoc next = singlePage || result.size() < pageSize ? null : docs.scoreDocs[docs.scoreDocs.length - 1];
+            return new IndexPage(result, next);
+        } catch (IOException e) {
+            throw new TemporaryStorageException("Could not execute Lucene query", e);
+        }
+    }
+
+    @Override
+    public void closeCursor(Object cursor, TransactionHandle tx) throws StorageException {
+        //Cursors only reference the last document of a page and the searcher is released with the transaction
+    }
+
     private static final Filter numericFilter(String key, Cmp relation, Number value) {
         switch (relation) {
             case EQUAL:
@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -254,6 +255,61 @@ public abstract class IDAllocationTest {
     }
 
 
+    @Test
+    public void testMultiIDAcquisitionWithDifferentBlockSizes() throws Throwable {
+        final int numAcquisitions = 50;
+        final long[] blockSizes = {blockSize, 3 * blockSize + 1};
+        final List<long[]> blocks = Collections.synchronizedList(new ArrayList<long[]>(numAcquisitions * blockSizes.length));
+        ExecutorService es = Executors.newFixedThreadPool(blockSizes.length);
+        final Collection<Future<?>> futures = new ArrayList<Future<?>>(blockSizes.length);
+        for (int i = 0; i < blockSizes.length; i++) {
+            final long size = blockSizes[i];
+            final IDAuthority idAuthority = idAuthorities[i];
+            idAuthority.setIDBlockSizer(new IDBlockSizer() {
+                @Override
+                public long getBlockSize(int partitionID) {
+                    return size;
+                }
+
+                @Override
+                public long getIdUpperBound(int partitionID) {
+                    return idUpperBound;
+                }
+            });
+            futures.add(es.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws StorageException {
+                    for (int j = 0; j < numAcquisitions; j++) {
+                        long[] block = idAuthority.getIDBlock(0);
+                        Assert.assertEquals(block[0] + size, block[1]);
+                        blocks.add(block);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+        es.shutdown();
+
+        //Blocks of different sizes must not overlap
+        Assert.assertEquals(numAcquisitions * blockSizes.length, blocks.size());
+        Collections.sort(blocks, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] b1, long[] b2) {
+                return Long.valueOf(b1[0]).compareTo(b2[0]);
+            }
+        });
+        for (int i = 1; i < blocks.size(); i++) {
+            Assert.assertTrue(blocks.get(i - 1)[1] + " vs " + blocks.get(i)[0], blocks.get(i - 1)[1] <= blocks.get(i)[0]);
+        }
+    }
+
     @Test
     public void testLocalPartitionAcquisition() throws StorageException {
         for (int c = 0; c < CONCURRENCY; c++) {
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.thinkaurelius.titan.core.Mapping;
 import com.thinkaurelius.titan.core.Order;
 import com.thinkaurelius.titan.core.Parameter;
@@ -19,11 +20,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -323,6 +328,136 @@ public abstract class IndexProviderTest {
         assertEquals(oldresultSize, result.size());
     }
 
+    @Test
+    public void pagedQuery() throws Exception {
+        int numDoc = 2500;
+        String store = "vertex";
+        initialize(store);
+        for (int i = 1; i <= numDoc; i++) {
+            add(store, "doc" + i, getDocument("Hello world " + i, i, 0.5, Geoshape.point(48.0, 0.0)), true);
+        }
+        clopen();
+
+        final IndexQuery query = new IndexQuery(store, PredicateCondition.of(TEXT, Text.CONTAINS, "world"),
+                ImmutableList.of(new IndexQuery.OrderEntry(TIME, Order.ASC, Long.class)));
+        IndexPage page = tx.queryPage(query, null, 1000);
+        assertEquals(1000, page.getResults().size());
+        assertEquals("doc1", page.getResults().get(0));
+        assertFalse(page.isLast());
+
+        Set<String> results = new HashSet<String>();
+        int numPages = 0;
+        Object cursor = null;
+        do {
+            page = tx.queryPage(query, cursor, 1000);
+            results.addAll(page.getResults());
+            cursor = page.getCursor();
+            numPages++;
+        } while (!page.isLast());
+        assertEquals(numDoc, results.size());
+        assertEquals(3, numPages);
+
+        IndexPageIterator iter = new IndexPageIterator(1500, 1000) {
+            @Override
+            protected IndexPage getPage(Object cursor, int pageSize) {
+                try {
+                    return tx.queryPage(query, cursor, pageSize);
+                } catch (StorageException e) {
+                    throw new AssertionError(e);
+                }
+            }
+
+            @Override
+            protected void closeCursor(Object cursor) {
+                try {
+                    tx.closeCursor(cursor);
+                } catch (StorageException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        List<String> limited = Lists.newArrayList(iter);
+        assertEquals(1500, limited.size());
+        for (int i = 0; i < limited.size(); i++) assertEquals("doc" + (i + 1), limited.get(i));
+    }
+
+    @Test
+    public void pagedQueryCursors() throws Exception {
+        int numDoc = 250;
+        String store = "vertex";
+        initialize(store);
+        for (int i = 1; i <= numDoc; i++) {
+            add(store, "doc" + i, getDocument("Hello world " + i, i, 0.5, Geoshape.point(48.0, 0.0)), true);
+        }
+        clopen();
+
+        final IndexQuery query = new IndexQuery(store, PredicateCondition.of(TEXT, Text.CONTAINS, "world"),
+                ImmutableList.of(new IndexQuery.OrderEntry(TIME, Order.ASC, Long.class)));
+
+        //Multiple pages
+        List<String> all = Lists.newArrayList(new TxPageIterator(query, Integer.MAX_VALUE, 100));
+        assertEquals(numDoc, all.size());
+        for (int i = 0; i < all.size(); i++) assertEquals("doc" + (i + 1), all.get(i));
+        assertFalse(tx.hasOpenCursors());
+
+        //A limit within the first page does not leave a cursor open
+        IndexQuery limitedQuery = query.updateLimit(50);
+        IndexPage page = tx.queryPage(limitedQuery, null, 100);
+        assertEquals(50, page.getResults().size());
+        assertTrue(page.isLast());
+        assertFalse(tx.hasOpenCursors());
+
+        //A limit across pages closes the cursor once it has been reached
+        Iterator<String> limited = new TxPageIterator(query.updateLimit(150), 150, 100);
+        for (int i = 0; i < 150; i++) assertEquals("doc" + (i + 1), limited.next());
+        assertFalse(tx.hasOpenCursors());
+        assertFalse(limited.hasNext());
+
+        //Abandoned iterators release their cursor when closed
+        TxPageIterator abandoned = new TxPageIterator(query, Integer.MAX_VALUE, 100);
+        for (int i = 0; i < 10; i++) abandoned.next();
+        assertTrue(tx.hasOpenCursors());
+        abandoned.close();
+        assertFalse(tx.hasOpenCursors());
+        assertFalse(abandoned.hasNext());
+
+        //or when the transaction ends
+        abandoned = new TxPageIterator(query, Integer.MAX_VALUE, 100);
+        abandoned.next();
+        assertTrue(tx.hasOpenCursors());
+        IndexTransaction previous = tx;
+        clopen();
+        assertFalse(previous.hasOpenCursors());
+    }
+
+    private class TxPageIterator extends IndexPageIterator {
+
+        private final IndexQuery query;
+
+        private TxPageIterator(IndexQuery query, int limit, int pageSize) {
+            super(limit, pageSize);
+            this.query = query;
+        }
+
+        @Override
+        protected IndexPage getPage(Object cursor, int pageSize) {
+            try {
+                return tx.queryPage(query, cursor, pageSize);
+            } catch (StorageException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        protected void closeCursor(Object cursor) {
+            try {
+                tx.closeCursor(cursor);
+            } catch (StorageException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
     private void initialize(String store) throws StorageException {
         for (Map.Entry<String,KeyInformation> info : allKeys.entrySet()) {
             if (index.supports(info.getValue())) index.register(store,info.getKey(),info.getValue(),tx);
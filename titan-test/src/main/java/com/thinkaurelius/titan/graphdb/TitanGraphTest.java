@@ -1,6 +1,11 @@
 package com.thinkaurelius.titan.graphdb;
 
 
+import com.carrotsearch.hppc.LongArrayList;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -8,9 +13,26 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
 import com.thinkaurelius.titan.core.*;
 import com.thinkaurelius.titan.core.attribute.Cmp;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.util.RecordIterator;
 import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import com.thinkaurelius.titan.graphdb.database.EdgeSerializer;
+import com.thinkaurelius.titan.graphdb.database.RelationSlice;
+import com.thinkaurelius.titan.graphdb.database.scan.ParallelVertexScan;
+import com.thinkaurelius.titan.graphdb.database.scan.ScanConsumer;
+import com.thinkaurelius.titan.graphdb.database.scan.ScanRelation;
+import com.thinkaurelius.titan.graphdb.database.scan.ScanVertex;
+import com.thinkaurelius.titan.graphdb.internal.InternalElement;
 import com.thinkaurelius.titan.graphdb.internal.InternalType;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
+import com.thinkaurelius.titan.graphdb.query.IndexStatistics;
+import com.thinkaurelius.titan.graphdb.relations.RelationCache;
 import com.thinkaurelius.titan.graphdb.serializer.SpecialInt;
+import com.thinkaurelius.titan.graphdb.transaction.StandardTitanTx;
 import com.thinkaurelius.titan.graphdb.serializer.SpecialIntSerializer;
 import com.thinkaurelius.titan.testutil.TestUtil;
 import com.tinkerpop.blueprints.Direction;
@@ -25,6 +47,8 @@ import org.slf4j.LoggerFactory;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
 
 import static com.tinkerpop.blueprints.Direction.*;
 import static org.junit.Assert.*;
@@ -365,6 +389,197 @@ public abstract class TitanGraphTest extends TitanGraphTestCommon {
         newTx();
     }
 
+    @Test
+    public void testOptimisticUniqueness() {
+        try {
+            tx.makeLabel("knows").oneToMany(TypeMaker.UniquenessConsistency.OPTIMISTIC).make();
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            tx.makeKey("name").single(TypeMaker.UniquenessConsistency.OPTIMISTIC).dataType(String.class).make();
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        if (graph.getStoreFeatures().supportsTransactions()) {
+            //Concurrent transactions cannot see each other's uniqueness relations before they commit
+            try {
+                tx.makeKey("uid").single().unique(TypeMaker.UniquenessConsistency.OPTIMISTIC)
+                        .indexed(Vertex.class).dataType(String.class).make();
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+            return;
+        }
+        TitanKey uid = tx.makeKey("uid").single().unique(TypeMaker.UniquenessConsistency.OPTIMISTIC)
+                .indexed(Vertex.class).dataType(String.class).make();
+        assertTrue(((InternalType) uid).uniqueOptimistic(Direction.IN));
+        assertFalse(((InternalType) uid).uniqueLock(Direction.IN));
+        clopen();
+
+        //Concurrently assigned values conflict
+        TitanTransaction tx1 = graph.newTransaction(), tx2 = graph.newTransaction();
+        TitanVertex v1 = tx1.addVertex(), v2 = tx2.addVertex();
+        v1.setProperty("uid", "v1");
+        v2.setProperty("uid", "v1");
+        tx1.commit();
+        try {
+            tx2.commit();
+            fail();
+        } catch (TitanException e) {
+        }
+        newTx();
+        assertEquals(v1.getID(), ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "v1"))).getID());
+
+        //Moving a value between vertices within a transaction
+        tx.getVertex(v1.getID()).removeProperty("uid");
+        TitanVertex v3 = tx.addVertex();
+        v3.setProperty("uid", "v1");
+        tx.getVertex(v1.getID()).setProperty("uid", "v2");
+        clopen();
+        assertEquals(v3.getID(), ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "v1"))).getID());
+        assertEquals(v1.getID(), ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "v2"))).getID());
+        assertEquals("v1", tx.getVertex(v3.getID()).getProperty("uid"));
+        assertEquals(2, Iterables.size(tx.getVertices()));
+    }
+
+    @Test
+    public void testOptimisticUniquenessConcurrentCommits() throws Exception {
+        //Optimistic uniqueness is not supported by transactional storage backends
+        if (graph.getStoreFeatures().supportsTransactions()) return;
+        tx.makeKey("uid").single().unique(TypeMaker.UniquenessConsistency.OPTIMISTIC)
+                .indexed(Vertex.class).dataType(String.class).make();
+        clopen();
+
+        final int numTx = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(numTx);
+        final long[] vertexIds = new long[numTx];
+        final boolean[] committed = new boolean[numTx];
+        Thread[] threads = new Thread[numTx];
+        for (int i = 0; i < numTx; i++) {
+            final int pos = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TitanTransaction ctx = graph.newTransaction();
+                    TitanVertex v = ctx.addVertex();
+                    v.setProperty("uid", "conflict");
+                    try {
+                        barrier.await();
+                        ctx.commit();
+                        vertexIds[pos] = v.getID();
+                        committed[pos] = true;
+                    } catch (Exception e) {
+                        if (ctx.isOpen()) ctx.rollback();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        int successes = 0;
+        long owner = 0;
+        for (int i = 0; i < numTx; i++) {
+            if (committed[i]) {
+                successes++;
+                owner = vertexIds[i];
+            }
+        }
+        assertTrue(successes <= 1);
+        newTx();
+        if (successes == 0) {
+            //The value has not been blocked by the failed commits
+            TitanVertex v = tx.addVertex();
+            v.setProperty("uid", "conflict");
+            owner = v.getID();
+            clopen();
+        }
+        assertEquals(owner, ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "conflict"))).getID());
+    }
+
+    @Test
+    public void testOptimisticUniquenessFailedCommit() {
+        //Optimistic uniqueness is not supported by transactional storage backends
+        if (graph.getStoreFeatures().supportsTransactions()) return;
+        tx.makeKey("uid").single().unique(TypeMaker.UniquenessConsistency.OPTIMISTIC)
+                .indexed(Vertex.class).dataType(String.class).make();
+        tx.makeKey("payload").single().dataType(Object.class).make();
+        clopen();
+
+        //The commit fails when persisting the relations after the unique value has been verified
+        TitanTransaction failing = graph.newTransaction();
+        TitanVertex v1 = failing.addVertex();
+        v1.setProperty("uid", "v1");
+        v1.setProperty("payload", new UnserializableValue());
+        try {
+            failing.commit();
+            fail();
+        } catch (Exception e) {
+            if (failing.isOpen()) failing.rollback();
+        }
+
+        newTx();
+        assertTrue(Iterables.isEmpty(tx.getVertices("uid", "v1")));
+        TitanVertex v2 = tx.addVertex();
+        v2.setProperty("uid", "v1");
+        clopen();
+        assertEquals(v2.getID(), ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "v1"))).getID());
+    }
+
+    @Test
+    public void testOptimisticUniquenessStalePendingEntry() throws Exception {
+        //Optimistic uniqueness is not supported by transactional storage backends
+        if (graph.getStoreFeatures().supportsTransactions()) return;
+        tx.makeKey("uid").single().unique(TypeMaker.UniquenessConsistency.OPTIMISTIC)
+                .indexed(Vertex.class).dataType(String.class).make();
+        clopen();
+
+        //Leave a pending entry behind as if the committing instance crashed after the verification
+        StandardTitanTx crashed = (StandardTitanTx) graph.newTransaction();
+        TitanVertex v1 = crashed.addVertex();
+        TitanProperty p1 = v1.addProperty("uid", "stale");
+        graph.assignID((InternalElement) v1);
+        graph.assignID((InternalElement) p1);
+        BackendTransaction mutator = crashed.getTxHandle();
+        graph.getIndexSerializer().verifyOptimisticUniqueProperties(ImmutableList.of(p1), ImmutableList.<TitanProperty>of(), mutator);
+        mutator.commit();
+
+        //The pending entry blocks the value until it expires
+        newTx();
+        assertTrue(Iterables.isEmpty(tx.getVertices("uid", "stale")));
+        TitanTransaction blocked = graph.newTransaction();
+        blocked.addVertex().setProperty("uid", "stale");
+        try {
+            blocked.commit();
+            fail();
+        } catch (Exception e) {
+            if (blocked.isOpen()) blocked.rollback();
+        }
+
+        //Reopen with an expiration time which the pending entry has exceeded by now
+        close();
+        config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE).setProperty(GraphDatabaseConfiguration.LOCK_EXPIRE_MS, 1);
+        open();
+        TitanVertex v2 = tx.addVertex();
+        v2.setProperty("uid", "stale");
+        clopen();
+        assertEquals(v2.getID(), ((TitanVertex) Iterables.getOnlyElement(tx.getVertices("uid", "stale"))).getID());
+    }
+
+    public static class UnserializableValue implements KryoSerializable {
+
+        @Override
+        public void write(Kryo kryo, Output output) {
+            throw new IllegalStateException("Value cannot be serialized");
+        }
+
+        @Override
+        public void read(Kryo kryo, Input input) {
+            throw new IllegalStateException("Value cannot be deserialized");
+        }
+    }
+
     @Test
     public void testVertexRemoval() {
         Vertex v1 = graph.addVertex(null);
@@ -799,6 +1014,364 @@ public abstract class TitanGraphTest extends TitanGraphTestCommon {
         assertEquals(multiplier, Iterables.size(graph.query().has("sid", 11).has("color", colors[3]).vertices()));
     }
 
+    @Test
+    public void testQueryExplain() {
+        graph.makeKey("sid").dataType(Integer.class).indexed(Vertex.class).make();
+        graph.makeKey("uid").dataType(Integer.class).indexed(Vertex.class).unique().make();
+        graph.makeKey("age").dataType(Integer.class).make();
+        graph.commit();
+        for (int i = 0; i < 1000; i++) {
+            Vertex v = graph.addVertex(null);
+            v.setProperty("sid", i % 5);
+            v.setProperty("uid", i);
+            v.setProperty("age", i % 50);
+        }
+        graph.commit();
+        clopen();
+
+        String explanation = tx.query().has("sid", 3).has("age", Cmp.GREATER_THAN, 10).explain();
+        assertTrue(explanation, explanation.contains("index standard"));
+        assertTrue(explanation, explanation.contains("estimated " + Math.round(IndexStatistics.EQUALITY_ESTIMATE) + " results"));
+        assertTrue(explanation, explanation.contains("filter in memory"));
+        assertTrue(explanation, explanation.contains("fully answered by indexes: false"));
+        explanation = tx.query().has("uid", 7).explain();
+        assertTrue(explanation, explanation.contains("index standard"));
+        assertTrue(explanation, explanation.contains("fully answered by indexes: true"));
+        explanation = tx.query().has("age", 7).explain();
+        assertTrue(explanation, explanation.contains("full scan"));
+
+        //Executed queries update the estimates
+        assertEquals(200, Iterables.size(tx.query().has("sid", 3).vertices()));
+        explanation = tx.query().has("sid", 2).explain();
+        assertFalse(explanation, explanation.contains("estimated " + Math.round(IndexStatistics.EQUALITY_ESTIMATE) + " results"));
+        //Query results do not depend on the plan
+        assertEquals(1, Iterables.size(tx.query().has("sid", 2).has("uid", 7).vertices()));
+        assertEquals(0, Iterables.size(tx.query().has("sid", 3).has("uid", 7).vertices()));
+        assertEquals(160, Iterables.size(tx.query().has("sid", 3).has("age", Cmp.GREATER_THAN, 10).vertices()));
+    }
+
+    @Test
+    public void testParallelCommit() {
+        close();
+        Configuration storageConfig = config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE);
+        storageConfig.setProperty(GraphDatabaseConfiguration.PARALLEL_COMMIT_KEY, true);
+        storageConfig.setProperty(GraphDatabaseConfiguration.PARALLEL_COMMIT_THREADS_KEY, 4);
+        storageConfig.setProperty(GraphDatabaseConfiguration.PARALLEL_COMMIT_MIN_VERTICES_KEY, 10);
+        open();
+
+        TitanKey sid = tx.makeKey("sid").single().indexed(Vertex.class).dataType(Integer.class).make();
+        TitanKey weight = tx.makeKey("weight").single().dataType(Double.class).make();
+        TitanLabel knows = tx.makeLabel("knows").sortKey(weight).make();
+        newTx();
+
+        int numV = 500;
+        TitanVertex[] vertices = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) {
+            vertices[i] = tx.addVertex();
+            vertices[i].addProperty("sid", i);
+        }
+        for (int i = 0; i < numV; i++) {
+            TitanEdge e = vertices[i].addEdge("knows", vertices[(i + 1) % numV]);
+            e.setProperty("weight", i * 0.5);
+        }
+        newTx();
+
+        for (int i = 0; i < numV; i++) {
+            TitanVertex v = (TitanVertex) Iterables.getOnlyElement(tx.getVertices("sid", i));
+            assertEquals(1, Iterables.size(v.getEdges(OUT, "knows")));
+            assertEquals(1, Iterables.size(v.getEdges(IN, "knows")));
+        }
+        for (int i = 0; i < numV; i += 2) {
+            Iterables.getOnlyElement(tx.getVertices("sid", i)).remove();
+        }
+        newTx();
+
+        for (int i = 0; i < numV; i++) {
+            Iterable<Vertex> vs = tx.getVertices("sid", i);
+            if (i % 2 == 0) {
+                assertEquals(0, Iterables.size(vs));
+            } else {
+                Vertex v = Iterables.getOnlyElement(vs);
+                assertEquals(0, Iterables.size(v.getEdges(BOTH, "knows")));
+            }
+        }
+        assertEquals(numV / 2, Iterables.size(tx.getVertices()));
+    }
+
+    @Test
+    public void testBulkLoader() {
+        close();
+        Configuration storageConfig = config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE);
+        storageConfig.setProperty(GraphDatabaseConfiguration.STORAGE_BULK_LOAD_BATCH_KEY, 100);
+        open();
+
+        tx.makeKey("sid").single().indexed(Vertex.class).dataType(Integer.class).make();
+        tx.makeLabel("knows").make();
+        newTx();
+        TitanVertex existing = tx.addVertex();
+        existing.setProperty("sid", -1);
+        newTx();
+        long existingId = existing.getID();
+
+        int numV = 300;
+        TitanBulkLoader loader = graph.newBulkLoader();
+        TitanVertex[] vertices = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) {
+            vertices[i] = loader.addVertex();
+            loader.addProperty(vertices[i], "sid", i);
+        }
+        //Edges span vertices from multiple batches
+        for (int i = 0; i < numV; i++) {
+            loader.addEdge(vertices[i], vertices[(i + 1) % numV], "knows");
+        }
+        loader.addEdge(loader.getVertex(existingId), vertices[0], "knows");
+        loader.close();
+        assertEquals(numV, loader.getVertexCount());
+        assertEquals(3 * numV + 1, loader.getRelationCount());
+
+        newTx();
+        for (int i = 0; i < numV; i++) {
+            TitanVertex v = (TitanVertex) Iterables.getOnlyElement(tx.getVertices("sid", i));
+            assertEquals(vertices[i].getID(), v.getID());
+            Vertex next = Iterables.getOnlyElement(v.getVertices(OUT, "knows"));
+            assertEquals(vertices[(i + 1) % numV].getID(), ((TitanVertex) next).getID());
+            assertEquals(i == 0 ? 2 : 1, Iterables.size(v.getEdges(IN, "knows")));
+        }
+        assertEquals(1, Iterables.size(tx.getVertex(existingId).getEdges(OUT, "knows")));
+        assertEquals(numV + 1, Iterables.size(tx.getVertices()));
+    }
+
+    @Test
+    public void testBulkLoaderWithoutBuffer() {
+        close();
+        Configuration storageConfig = config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE);
+        storageConfig.setProperty(GraphDatabaseConfiguration.BUFFER_SIZE_KEY, 0);
+        storageConfig.setProperty(GraphDatabaseConfiguration.STORAGE_BULK_LOAD_BATCH_KEY, 50);
+        open();
+
+        tx.makeKey("sid").single().indexed(Vertex.class).dataType(Integer.class).make();
+        tx.makeLabel("knows").make();
+        newTx();
+
+        int numV = 100;
+        TitanBulkLoader loader = graph.newBulkLoader();
+        TitanVertex previous = null;
+        for (int i = 0; i < numV; i++) {
+            TitanVertex v = loader.addVertex();
+            loader.addProperty(v, "sid", i);
+            if (previous != null) loader.addEdge(previous, v, "knows");
+            previous = v;
+        }
+        loader.close();
+        assertEquals(numV, loader.getVertexCount());
+        try {
+            loader.addVertex();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        newTx();
+        for (int i = 0; i < numV; i++) {
+            TitanVertex v = (TitanVertex) Iterables.getOnlyElement(tx.getVertices("sid", i));
+            assertEquals(i < numV - 1 ? 1 : 0, Iterables.size(v.getEdges(OUT, "knows")));
+            assertEquals(i > 0 ? 1 : 0, Iterables.size(v.getEdges(IN, "knows")));
+        }
+        assertEquals(numV, Iterables.size(tx.getVertices()));
+    }
+
+    @Test
+    public void testVertexScan() throws Exception {
+        tx.makeKey("sid").single().dataType(Integer.class).make();
+        TitanKey name = tx.makeKey("name").single().dataType(String.class).make();
+        TitanLabel knows = tx.makeLabel("knows").make();
+        newTx();
+
+        int numV = 100;
+        TitanVertex[] vertices = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) {
+            vertices[i] = tx.addVertex();
+            vertices[i].setProperty("sid", i);
+            vertices[i].setProperty("name", "v" + i);
+        }
+        for (int i = 0; i < numV; i++) {
+            vertices[i].addEdge("knows", vertices[(i + 1) % numV]);
+        }
+        newTx();
+        tx.getVertex(vertices[0].getID()).remove();
+        newTx();
+
+        StandardTitanTx stx = (StandardTitanTx) tx;
+        Set<Integer> sids = new HashSet<Integer>();
+        RecordIterator<ScanVertex> scan = graph.scanVertices(stx);
+        while (scan.hasNext()) {
+            ScanVertex v = scan.next();
+            int i = v.<Integer>getProperty("sid");
+            assertTrue(sids.add(i));
+            assertEquals("v" + i, v.getProperty("name"));
+            assertEquals(vertices[i].getID(), v.getID());
+            LongArrayList out = v.getAdjacentVertexIDs("knows", OUT);
+            if (i == numV - 1) {
+                assertEquals(0, out.size());
+            } else {
+                assertEquals(1, out.size());
+                assertEquals(vertices[i + 1].getID(), out.get(0));
+            }
+            int numRelations = 0;
+            for (ScanRelation r : v.getRelations()) {
+                numRelations++;
+                if (r.isEdge()) assertEquals(knows, r.getType());
+            }
+            assertEquals(i == 1 || i == numV - 1 ? 3 : 4, numRelations);
+        }
+        scan.close();
+        assertEquals(numV - 1, sids.size());
+        assertFalse(sids.contains(0));
+
+        //Project onto a single property key
+        SliceQuery projection = graph.getEdgeSerializer().getQuery((InternalType) name, OUT, new EdgeSerializer.TypedInterval[0], null);
+        scan = graph.scanVertices(projection, stx);
+        int count = 0;
+        while (scan.hasNext()) {
+            ScanVertex v = scan.next();
+            count++;
+            assertEquals(1, v.getEntries().size());
+            assertNull(v.getProperty("sid"));
+            assertNotNull(v.getProperty("name"));
+        }
+        scan.close();
+        assertEquals(numV - 1, count);
+    }
+
+    @Test
+    public void testRelationSliceDecoding() {
+        tx.makeKey("name").single().dataType(String.class).make();
+        tx.makeKey("tag").list().dataType(String.class).make();
+        TitanKey weight = tx.makeKey("weight").single().dataType(Double.class).make();
+        TitanLabel rated = tx.makeLabel("rated").sortKey(weight).make();
+        tx.makeLabel("parent").manyToOne().make();
+        TitanLabel knows = tx.makeLabel("knows").make();
+        newTx();
+
+        int numV = 50;
+        TitanVertex v = tx.addVertex();
+        v.setProperty("name", "hub");
+        v.addProperty("tag", "a");
+        v.addProperty("tag", "b");
+        TitanVertex[] others = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) {
+            others[i] = tx.addVertex();
+            v.addEdge("rated", others[i]).setProperty("weight", i * 0.5);
+            others[i].addEdge("knows", v);
+        }
+        v.addEdge("parent", others[0]);
+        v.addEdge("knows", v);
+        newTx();
+
+        StandardTitanTx stx = (StandardTitanTx) tx;
+        long vid = v.getID();
+        EdgeSerializer serializer = graph.getEdgeSerializer();
+        List<Entry> entries = graph.edgeQuery(vid, serializer.getQuery(RelationType.RELATION), stx.getTxHandle());
+        RelationSlice slice = serializer.readRelations(vid, entries, stx);
+        assertEquals(entries.size(), slice.size());
+        int numEdges = 0;
+        for (int i = 0; i < slice.size(); i++) {
+            //Compare against the decoding of a copy of the entry
+            Entry entry = entries.get(i);
+            RelationCache relation = serializer.readRelation(vid, new StaticBufferEntry(entry.getColumn(), entry.getValue()), false, stx);
+            assertEquals(relation.typeId, slice.getTypeId(i));
+            assertEquals(relation.relationId, slice.getRelationId(i));
+            assertEquals(relation.direction, slice.getDirection(i));
+            if (slice.isEdge(i)) {
+                numEdges++;
+                assertEquals(relation.getOtherVertexId().longValue(), slice.getOtherVertexId(i));
+            } else {
+                assertTrue(slice.isProperty(i));
+                assertEquals(relation.getValue(), slice.getValue(i));
+            }
+            assertEquals(relation.numProperties(), slice.getRelation(i).numProperties());
+        }
+        assertEquals(2 * numV + 3, numEdges);
+        assertEquals(numV, slice.getOtherVertexIds(rated.getID(), OUT).size());
+        assertEquals(numV + 1, slice.getOtherVertexIds(knows.getID(), IN).size());
+        assertEquals(numV + 2, slice.getOtherVertexIds(knows.getID(), BOTH).size());
+        assertEquals(2 * numV + 3, slice.getOtherVertexIds(0, BOTH).size());
+        assertEquals(others[0].getID(), slice.getOtherVertexIds(tx.getType("parent").getID(), OUT).get(0));
+
+        //Decoding entries which have been decoded before yields the same relations
+        RelationSlice cached = serializer.readRelations(vid, entries, stx);
+        for (int i = 0; i < slice.size(); i++) {
+            assertEquals(slice.getTypeId(i), cached.getTypeId(i));
+            assertEquals(slice.getRelationId(i), cached.getRelationId(i));
+            assertEquals(slice.getDirection(i), cached.getDirection(i));
+            if (slice.isEdge(i)) assertEquals(slice.getOtherVertexId(i), cached.getOtherVertexId(i));
+        }
+    }
+
+    @Test
+    public void testParallelVertexScan() {
+        tx.makeKey("sid").single().dataType(Integer.class).make();
+        newTx();
+        int numV = 1000;
+        Set<Long> ids = new HashSet<Long>();
+        for (int i = 0; i < numV; i++) {
+            TitanVertex v = tx.addVertex();
+            v.setProperty("sid", i);
+            if (i % 100 == 0) newTx();
+        }
+        newTx();
+        for (Vertex v : tx.getVertices()) ids.add(((TitanVertex) v).getID());
+        assertEquals(numV, ids.size());
+
+        ParallelVertexScan scan = new ParallelVertexScan(graph, graph.getEdgeSerializer().getQuery(RelationType.PROPERTY), 8, 4);
+        if (graph.getStoreFeatures().supportsOrderedScan()) {
+            List<StaticBuffer[]> ranges = scan.getRanges();
+            assertEquals(8, ranges.size());
+            for (int i = 1; i < ranges.size(); i++) assertEquals(ranges.get(i - 1)[1], ranges.get(i)[0]);
+        }
+        final Set<Long> scanned = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final Set<Integer> sids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        long count = scan.run(new ScanConsumer() {
+            @Override
+            public void process(ScanVertex vertex) {
+                assertTrue(scanned.add(vertex.getID()));
+                sids.add(vertex.<Integer>getProperty("sid"));
+            }
+        });
+        assertEquals(numV, count);
+        assertEquals(ids, scanned);
+        assertEquals(numV, sids.size());
+    }
+
+
+    @Test
+    public void testParallelMultiQuery() {
+        close();
+        config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE).setProperty(GraphDatabaseConfiguration.PARALLEL_BACKEND_OPS_KEY, true);
+        open();
+
+        tx.makeKey("sid").single().indexed(Vertex.class).dataType(Integer.class).make();
+        tx.makeLabel("connect").make();
+        newTx();
+
+        int numV = 200;
+        TitanVertex[] vertices = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) {
+            vertices[i] = tx.addVertex();
+            vertices[i].addProperty("sid", i);
+        }
+        for (int i = 0; i < numV; i++) {
+            for (int j = 1; j <= i % 5; j++) vertices[i].addEdge("connect", vertices[(i + j) % numV]);
+        }
+        newTx();
+
+        TitanVertex[] qvs = new TitanVertex[numV];
+        for (int i = 0; i < numV; i++) qvs[i] = (TitanVertex) Iterables.getOnlyElement(tx.getVertices("sid", i));
+        Map<TitanVertex, Iterable<TitanEdge>> results = tx.multiQuery(qvs).direction(OUT).labels("connect").titanEdges();
+        assertEquals(numV, results.size());
+        for (int i = 0; i < numV; i++) {
+            assertEquals(i % 5, Iterables.size(results.get(qvs[i])));
+        }
+    }
 
     @Test
     public void testIndexRetrieval() {
@@ -1325,6 +1898,22 @@ public abstract class TitanGraphTest extends TitanGraphTestCommon {
         results2 = tx.multiQuery(qvs).keys("name").properties();
         for (Iterable<TitanProperty> result : results2.values()) assertEquals(1, Iterables.size(result));
 
+        //Vertex id queries must match the adjacent vertices of the corresponding edge queries
+        Map<TitanVertex, VertexList> vertexIds = tx.multiQuery(qvs).direction(IN).labels("connect").vertexIds();
+        assertEquals(qvs.length, vertexIds.size());
+        for (TitanVertex qv : qvs) {
+            assertEquals(1, vertexIds.get(qv).size());
+            assertEquals(Iterables.getOnlyElement(qv.query().direction(IN).labels("connect").titanEdges()).getVertex(OUT).getID(), vertexIds.get(qv).getID(0));
+        }
+        vertexIds = tx.multiQuery(qvs).vertexIds();
+        for (Map.Entry<TitanVertex, VertexList> entry : vertexIds.entrySet()) assertEquals(4, entry.getValue().size());
+        VertexList vl2 = v.query().labels("connect").direction(OUT).interval("time", 3, 31).limit(5).vertexIds();
+        assertEquals(5, vl2.size());
+        int pos = 0;
+        for (TitanEdge e : v.query().labels("connect").direction(OUT).interval("time", 3, 31).limit(5).titanEdges()) {
+            assertEquals(e.getVertex(IN).getID(), vl2.getID(pos++));
+        }
+
         //##################################################
         //End copied queries
         //##################################################
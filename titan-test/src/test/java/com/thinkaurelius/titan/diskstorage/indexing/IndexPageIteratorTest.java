@@ -0,0 +1,118 @@
+package com.thinkaurelius.titan.diskstorage.indexing;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexPageIteratorTest {
+
+    @Test
+    public void testAllPages() {
+        PagedIndex index = new PagedIndex(25, Integer.MAX_VALUE, 10);
+        List<String> results = Lists.newArrayList(index);
+        assertEquals(25, results.size());
+        for (int i = 0; i < results.size(); i++) assertEquals(String.valueOf(i), results.get(i));
+        assertEquals(3, index.pages);
+    }
+
+    @Test
+    public void testExactPages() {
+        PagedIndex index = new PagedIndex(20, Integer.MAX_VALUE, 10);
+        assertEquals(20, Lists.newArrayList(index).size());
+        //The last full page does not reveal that there are no more results
+        assertEquals(3, index.pages);
+    }
+
+    @Test
+    public void testLimit() {
+        PagedIndex index = new PagedIndex(100, 15, 10);
+        assertEquals(15, Lists.newArrayList(index).size());
+        assertEquals(2, index.pages);
+        assertEquals(5, index.lastPageSize);
+    }
+
+    @Test
+    public void testLazyRetrieval() {
+        PagedIndex index = new PagedIndex(100, Integer.MAX_VALUE, 10);
+        assertEquals(0, index.pages);
+        for (int i = 0; i < 10; i++) index.next();
+        assertEquals(1, index.pages);
+        index.next();
+        assertEquals(2, index.pages);
+    }
+
+    @Test
+    public void testEmpty() {
+        PagedIndex index = new PagedIndex(0, Integer.MAX_VALUE, 10);
+        assertFalse(index.hasNext());
+        assertEquals(1, index.pages);
+        assertFalse(new PagedIndex(10, 0, 10).hasNext());
+    }
+
+    @Test
+    public void testCloseAtLimit() {
+        PagedIndex index = new PagedIndex(100, 15, 10);
+        for (int i = 0; i < 15; i++) index.next();
+        //The cursor is released with the last result before hasNext() is called
+        assertEquals(1, index.closed.size());
+        assertEquals(15, index.closed.get(0));
+        assertFalse(index.hasNext());
+        assertEquals(1, index.closed.size());
+
+        index = new PagedIndex(12, 15, 10);
+        assertEquals(12, Lists.newArrayList(index).size());
+        //The last page has no cursor to release
+        assertTrue(index.closed.isEmpty());
+    }
+
+    @Test
+    public void testClose() {
+        PagedIndex index = new PagedIndex(100, Integer.MAX_VALUE, 10);
+        for (int i = 0; i < 5; i++) index.next();
+        index.close();
+        assertEquals(1, index.closed.size());
+        assertEquals(10, index.closed.get(0));
+        assertFalse(index.hasNext());
+        index.close();
+        assertEquals(1, index.closed.size());
+
+        index = new PagedIndex(100, Integer.MAX_VALUE, 10);
+        index.close();
+        assertTrue(index.closed.isEmpty());
+        assertFalse(index.hasNext());
+        assertEquals(0, index.pages);
+    }
+
+    private static class PagedIndex extends IndexPageIterator {
+
+        private final int numResults;
+        private final List<Object> closed = new ArrayList<Object>();
+        private int pages = 0;
+        private int lastPageSize = 0;
+
+        private PagedIndex(int numResults, int limit, int pageSize) {
+            super(limit, pageSize);
+            this.numResults = numResults;
+        }
+
+        @Override
+        protected IndexPage getPage(Object cursor, int pageSize) {
+            pages++;
+            lastPageSize = pageSize;
+            int offset = cursor == null ? 0 : (Integer) cursor;
+            List<String> results = new ArrayList<String>(pageSize);
+            for (int i = offset; i < Math.min(numResults, offset + pageSize); i++) results.add(String.valueOf(i));
+            return new IndexPage(results, results.size() < pageSize ? null : offset + pageSize);
+        }
+
+        @Override
+        protected void closeCursor(Object cursor) {
+            closed.add(cursor);
+        }
+    }
+
+}
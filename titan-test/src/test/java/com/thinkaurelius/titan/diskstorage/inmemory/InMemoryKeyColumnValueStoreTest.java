@@ -1,9 +1,24 @@
 package com.thinkaurelius.titan.diskstorage.inmemory;
 
+import com.google.common.collect.ImmutableList;
 import com.thinkaurelius.titan.diskstorage.KeyColumnValueStoreTest;
+import com.thinkaurelius.titan.diskstorage.KeyValueStoreUtil;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
 import com.thinkaurelius.titan.diskstorage.StorageException;
-import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeyColumnValueStoreManager;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryKeyColumnValueStore;
 import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
+import com.thinkaurelius.titan.testutil.RandomGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
 
 /**
  * @author Matthias Broecheler (me@matthiasb.com)
@@ -21,4 +36,80 @@ public class InMemoryKeyColumnValueStoreTest extends KeyColumnValueStoreTest {
         //Do nothing
     }
 
+    @Test
+    public void testByteSize() throws StorageException {
+        InMemoryKeyColumnValueStore imstore = (InMemoryKeyColumnValueStore) store;
+        assertEquals(0, imstore.getByteSize());
+        String[][] values = generateValues();
+        loadValues(values);
+        long size = imstore.getByteSize();
+        assertTrue(size > 0);
+        assertEquals(size, ((InMemoryStoreManager) manager).getByteSize());
+        deleteValues(2);
+        assertTrue(imstore.getByteSize() < size);
+        for (int i = 0; i < values.length; i++) {
+            List<StaticBuffer> deletions = new ArrayList<StaticBuffer>();
+            for (int j = 0; j < values[i].length; j++) deletions.add(KeyValueStoreUtil.getBuffer(j));
+            store.mutate(KeyValueStoreUtil.getBuffer(i), KeyColumnValueStore.NO_ADDITIONS, deletions, tx);
+        }
+        assertEquals(0, imstore.getByteSize());
+        assertFalse(store.getKeys(new SliceQuery(ByteBufferUtil.zeroBuffer(8), ByteBufferUtil.oneBuffer(8)), tx).hasNext());
+    }
+
+    @Test
+    public void testConcurrentMutations() throws Exception {
+        final int numWriters = 4, numColumns = 2000, numRows = 4;
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch writers = new CountDownLatch(numWriters);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < numWriters; w++) {
+            final int writer = w;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int c = writer; c < numColumns; c += numWriters) {
+                            Entry entry = StaticBufferEntry.of(KeyValueStoreUtil.getBuffer(c), KeyValueStoreUtil.getBuffer(c));
+                            for (int r = 0; r < numRows; r++) {
+                                store.mutate(KeyValueStoreUtil.getBuffer(r), ImmutableList.of(entry), KeyColumnValueStore.NO_DELETIONS, tx);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        writers.countDown();
+                    }
+                }
+            });
+        }
+        threads.add(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (writing.get()) {
+                        KeySliceQuery query = new KeySliceQuery(KeyValueStoreUtil.getBuffer(RandomGenerator.randomInt(0, numRows)),
+                                ByteBufferUtil.zeroBuffer(8), ByteBufferUtil.oneBuffer(8));
+                        List<Entry> entries = store.getSlice(query, tx);
+                        for (int i = 1; i < entries.size(); i++) {
+                            assertTrue(entries.get(i - 1).compareTo(entries.get(i)) < 0);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        for (Thread thread : threads) thread.start();
+        writers.await();
+        writing.set(false);
+        for (Thread thread : threads) thread.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        for (int r = 0; r < numRows; r++) {
+            List<Entry> entries = store.getSlice(new KeySliceQuery(KeyValueStoreUtil.getBuffer(r),
+                    ByteBufferUtil.zeroBuffer(8), ByteBufferUtil.oneBuffer(8)), tx);
+            assertEquals(numColumns, entries.size());
+        }
+    }
+
 }
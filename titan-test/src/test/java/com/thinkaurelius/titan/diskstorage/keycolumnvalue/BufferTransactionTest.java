@@ -0,0 +1,198 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.PermanentStorageException;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.inmemory.InMemoryStorageAdapter;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BufferTransactionTest {
+
+    @Test
+    public void testSortedFlush() throws StorageException {
+        RecordingManager manager = new RecordingManager();
+        BufferTransaction tx = new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager, 10, 1, 0, 8, true);
+        int[] keys = {7, 3, 9, 1};
+        for (int key : keys) {
+            List<Entry> additions = new ArrayList<Entry>();
+            additions.add(entry(5));
+            additions.add(entry(2));
+            tx.mutate("store", buffer(key), additions, ImmutableList.<StaticBuffer>of());
+        }
+        assertEquals(0, manager.flushes);
+        tx.mutate("store", buffer(2), ImmutableList.of(entry(8), entry(1)), ImmutableList.<StaticBuffer>of());
+        assertEquals(1, manager.flushes);
+        assertEquals(ImmutableList.of(buffer(1), buffer(2), buffer(3), buffer(7), buffer(9)), manager.keys);
+        for (List<StaticBuffer> columns : manager.columns) {
+            for (int i = 1; i < columns.size(); i++) assertTrue(columns.get(i - 1).compareTo(columns.get(i)) < 0);
+        }
+        tx.commit();
+        assertEquals(1, manager.flushes);
+    }
+
+    @Test
+    public void testUnsortedFlush() throws StorageException {
+        RecordingManager manager = new RecordingManager();
+        BufferTransaction tx = new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager, 10, 1, 0);
+        tx.mutate("store", buffer(1), new ArrayList<Entry>(ImmutableList.of(entry(2))), ImmutableList.<StaticBuffer>of());
+        tx.mutate("store", buffer(1), new ArrayList<Entry>(ImmutableList.of(entry(1))), ImmutableList.<StaticBuffer>of());
+        tx.commit();
+        assertEquals(1, manager.flushes);
+        assertEquals(ImmutableList.of(buffer(2), buffer(1)), manager.columns.get(0));
+    }
+
+    @Test
+    public void testByteSizeFlush() throws StorageException {
+        RecordingManager manager = new RecordingManager();
+        BufferTransaction tx = new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager,
+                1000, 100, 1, 0, 8, false, null, 1);
+        //1 byte key + 1 byte column + 10 byte value per mutation
+        for (int i = 0; i < 8; i++) {
+            tx.mutate("store", buffer(i), ImmutableList.of(entry(1, 10)), ImmutableList.<StaticBuffer>of());
+        }
+        assertEquals(0, manager.flushes);
+        tx.mutate("store", buffer(8), ImmutableList.of(entry(1, 10)), ImmutableList.<StaticBuffer>of());
+        assertEquals(1, manager.flushes);
+        //A single large value is flushed right away
+        tx.mutate("store", buffer(9), ImmutableList.of(entry(1, 1000)), ImmutableList.<StaticBuffer>of());
+        assertEquals(2, manager.flushes);
+        tx.commit();
+        assertEquals(2, manager.flushes);
+        assertEquals(10, manager.keys.size());
+    }
+
+    @Test
+    public void testAsyncFlush() throws Exception {
+        final int numBatches = 20;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecordingManager manager = new RecordingManager();
+            manager.blocked = new CountDownLatch(1);
+            BufferTransaction tx = new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager,
+                    2, 0, 1, 0, 8, false, executor, 2);
+            //The first two batches are pending while the flush blocks
+            tx.mutate("store", buffer(0), ImmutableList.of(entry(1), entry(2)), ImmutableList.<StaticBuffer>of());
+            tx.mutate("store", buffer(1), ImmutableList.of(entry(1), entry(2)), ImmutableList.<StaticBuffer>of());
+            assertEquals(0, manager.flushes);
+            manager.blocked.countDown();
+            for (int i = 2; i < numBatches; i++) {
+                tx.mutate("store", buffer(i), ImmutableList.of(entry(1), entry(2)), ImmutableList.<StaticBuffer>of());
+            }
+            tx.mutate("store", buffer(numBatches), ImmutableList.of(entry(1)), ImmutableList.<StaticBuffer>of());
+            tx.commit();
+            assertEquals(numBatches + 1, manager.flushes);
+            //Batches are persisted in order
+            for (int i = 0; i <= numBatches; i++) assertEquals(buffer(i), manager.keys.get(i));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncFlushFailure() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecordingManager manager = new RecordingManager();
+            manager.failure = new PermanentStorageException("Flush failed");
+            BufferTransaction tx = new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager,
+                    2, 0, 1, 0, 8, false, executor, 1);
+            tx.mutate("store", buffer(0), ImmutableList.of(entry(1), entry(2)), ImmutableList.<StaticBuffer>of());
+            try {
+                for (int i = 1; i < 100; i++) {
+                    tx.mutate("store", buffer(i), ImmutableList.of(entry(1), entry(2)), ImmutableList.<StaticBuffer>of());
+                }
+                tx.commit();
+                fail();
+            } catch (Exception e) {
+            }
+            tx.rollback();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncFlushTransactionalBackend() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecordingManager manager = new RecordingManager();
+            manager.transactional = true;
+            try {
+                new BufferTransaction(manager.beginTransaction(new StoreTxConfig()), manager,
+                        2, 0, 1, 0, 8, false, executor, 1);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static StaticBuffer buffer(int value) {
+        return new StaticArrayBuffer(new byte[]{(byte) value});
+    }
+
+    private static Entry entry(int column) {
+        return StaticBufferEntry.of(buffer(column), buffer(0));
+    }
+
+    private static Entry entry(int column, int valueLength) {
+        return StaticBufferEntry.of(buffer(column), new StaticArrayBuffer(new byte[valueLength]));
+    }
+
+    private static class RecordingManager extends InMemoryStorageAdapter {
+
+        private volatile int flushes = 0;
+        private volatile CountDownLatch blocked = null;
+        private volatile StorageException failure = null;
+        private boolean transactional = false;
+        private final List<StaticBuffer> keys = new ArrayList<StaticBuffer>();
+        private final List<List<StaticBuffer>> columns = new ArrayList<List<StaticBuffer>>();
+
+        private RecordingManager() {
+            super(new BaseConfiguration());
+        }
+
+        @Override
+        public StoreFeatures getFeatures() {
+            StoreFeatures features = super.getFeatures().clone();
+            features.supportsTransactions = transactional;
+            return features;
+        }
+
+        @Override
+        public void mutateMany(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction txh) throws StorageException {
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new PermanentStorageException(e);
+                }
+            }
+            if (failure != null) throw failure;
+            flushes++;
+            for (Map.Entry<StaticBuffer, KCVMutation> m : mutations.get("store").entrySet()) {
+                keys.add(m.getKey());
+                List<StaticBuffer> cols = new ArrayList<StaticBuffer>();
+                for (Entry e : m.getValue().getAdditions()) cols.add(e.getColumn());
+                columns.add(cols);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactRowKeyColumnValueStoreTest {
+
+    private static final StaticBuffer UPPER_BOUND = new StaticArrayBuffer(new byte[]{(byte) 0x80});
+    private static final int BLOCK_SIZE = 8;
+
+    private final Random random = new Random(7);
+
+    private StoreTransaction tx;
+    private KeyColumnValueStore raw;
+    private KeyColumnValueStore store;
+
+    @Before
+    public void setUp() throws StorageException {
+        InMemoryStoreManager manager = new InMemoryStoreManager();
+        tx = manager.beginTransaction(new StoreTxConfig());
+        raw = manager.openDatabase("test");
+        store = new CompactRowKeyColumnValueStore(raw, UPPER_BOUND, BLOCK_SIZE);
+    }
+
+    @Test
+    public void testBlockRoundTrip() {
+        List<Entry> entries = new ArrayList<Entry>();
+        long id = 1;
+        for (int i = 0; i < 100; i++) {
+            id += random.nextInt(i % 2 == 0 ? 10 : 100000);
+            StaticBuffer value = i % 10 == 0 ? null : (i % 10 == 1 ? new StaticArrayBuffer(new byte[0]) : column(i % 3, id));
+            entries.add(StaticBufferEntry.of(column(i / 40, id), value));
+        }
+        //Columns of different lengths
+        entries.add(StaticBufferEntry.of(new StaticArrayBuffer(new byte[]{5}), column(0, 1)));
+        entries.add(StaticBufferEntry.of(new StaticArrayBuffer(new byte[]{5, 0, 0}), column(0, 2)));
+        entries.add(StaticBufferEntry.of(new StaticArrayBuffer(new byte[]{6}), column(0, 3)));
+        assertEntries(entries, CompactRowKeyColumnValueStore.decodeBlock(CompactRowKeyColumnValueStore.encodeBlock(entries)));
+        assertEquals(0, CompactRowKeyColumnValueStore.decodeBlock(
+                CompactRowKeyColumnValueStore.encodeBlock(new ArrayList<Entry>())).size());
+    }
+
+    @Test
+    public void testRandomMutations() throws StorageException {
+        Map<StaticBuffer, TreeMap<StaticBuffer, StaticBuffer>> expected = new HashMap<StaticBuffer, TreeMap<StaticBuffer, StaticBuffer>>();
+        for (int round = 0; round < 300; round++) {
+            StaticBuffer key = key(random.nextInt(5));
+            TreeMap<StaticBuffer, StaticBuffer> row = expected.get(key);
+            if (row == null) {
+                row = new TreeMap<StaticBuffer, StaticBuffer>();
+                expected.put(key, row);
+            }
+            List<Entry> additions = new ArrayList<Entry>();
+            List<StaticBuffer> deletions = new ArrayList<StaticBuffer>();
+            for (int i = random.nextInt(20); i >= 0; i--) {
+                StaticBuffer column = column(random.nextInt(3), random.nextInt(200));
+                if (random.nextInt(3) == 0) {
+                    deletions.add(column);
+                    row.remove(column);
+                }
+            }
+            for (int i = random.nextInt(20); i >= 0; i--) {
+                StaticBuffer column = column(random.nextInt(3), random.nextInt(200)), value = column(0, round);
+                additions.add(StaticBufferEntry.of(column, value));
+                row.put(column, value);
+            }
+            store.mutate(key, additions, deletions, tx);
+
+            for (int i = 0; i < 5; i++) {
+                StaticBuffer start = column(random.nextInt(3), random.nextInt(200));
+                StaticBuffer end = random.nextInt(4) == 0 ? UPPER_BOUND : column(random.nextInt(3), random.nextInt(200));
+                if (start.compareTo(end) > 0) {
+                    StaticBuffer tmp = start;
+                    start = end;
+                    end = tmp;
+                }
+                int limit = random.nextInt(10) + 1;
+                assertEntries(slice(row, start, end, limit), store.getSlice(new KeySliceQuery(key, start, end).setLimit(limit), tx));
+                assertEntries(slice(row, start, end, Integer.MAX_VALUE), store.getSlice(new KeySliceQuery(key, start, end), tx));
+            }
+        }
+
+        for (Map.Entry<StaticBuffer, TreeMap<StaticBuffer, StaticBuffer>> row : expected.entrySet()) {
+            List<Entry> entries = store.getSlice(new KeySliceQuery(row.getKey(), column(0, 0), UPPER_BOUND), tx);
+            assertEntries(slice(row.getValue(), column(0, 0), UPPER_BOUND, Integer.MAX_VALUE), entries);
+            //Blocks never exceed the block size, empty blocks are removed and the last block is named by the upper bound
+            List<Entry> blocks = raw.getSlice(new KeySliceQuery(row.getKey(), column(0, 0), SliceQuery.pointRange(UPPER_BOUND)), tx);
+            assertTrue(blocks.size() <= entries.size());
+            for (Entry block : blocks) {
+                List<Entry> blockEntries = CompactRowKeyColumnValueStore.decodeBlock(block.getValue());
+                assertTrue(blockEntries.size() <= BLOCK_SIZE);
+                assertTrue(blockEntries.size() > 0);
+            }
+            assertEquals(UPPER_BOUND, blocks.get(blocks.size() - 1).getColumn());
+        }
+
+        //Keys are only returned if they have entries in the slice
+        StaticBuffer start = column(1, 0), end = column(1, 200);
+        Set<StaticBuffer> keys = new HashSet<StaticBuffer>();
+        for (Map.Entry<StaticBuffer, TreeMap<StaticBuffer, StaticBuffer>> row : expected.entrySet()) {
+            if (!slice(row.getValue(), start, end, 1).isEmpty()) keys.add(row.getKey());
+        }
+        KeyIterator iterator = store.getKeys(new SliceQuery(start, end), tx);
+        while (iterator.hasNext()) {
+            StaticBuffer key = iterator.next();
+            assertTrue(keys.remove(key));
+            List<Entry> entries = new ArrayList<Entry>();
+            Iterator<Entry> iter = iterator.getEntries();
+            while (iter.hasNext()) entries.add(iter.next());
+            assertEntries(slice(expected.get(key), start, end, Integer.MAX_VALUE), entries);
+        }
+        assertTrue(keys.isEmpty());
+    }
+
+    @Test
+    public void testDeleteAll() throws StorageException {
+        StaticBuffer key = key(1);
+        List<Entry> additions = new ArrayList<Entry>();
+        List<StaticBuffer> columns = new ArrayList<StaticBuffer>();
+        for (int i = 0; i < 5 * BLOCK_SIZE; i++) {
+            additions.add(StaticBufferEntry.of(column(0, i), column(0, i)));
+            columns.add(column(0, i));
+        }
+        store.mutate(key, additions, KeyColumnValueStore.NO_DELETIONS, tx);
+        assertEquals(5 * BLOCK_SIZE, store.getSlice(new KeySliceQuery(key, column(0, 0), UPPER_BOUND), tx).size());
+        store.mutate(key, KeyColumnValueStore.NO_ADDITIONS, columns, tx);
+        assertFalse(store.containsKey(key, tx));
+        assertTrue(store.getSlice(new KeySliceQuery(key, column(0, 0), UPPER_BOUND), tx).isEmpty());
+    }
+
+    @Test
+    public void testCompactness() throws StorageException {
+        StaticBuffer key = key(1);
+        KeyColumnValueStore standard = new InMemoryStoreManager().openDatabase("standard");
+        List<Entry> additions = new ArrayList<Entry>();
+        for (int i = 0; i < 1000; i++) {
+            additions.add(StaticBufferEntry.of(column(1, 1000000 + 3 * i), new StaticArrayBuffer(new byte[0])));
+        }
+        store.mutate(key, additions, KeyColumnValueStore.NO_DELETIONS, tx);
+        standard.mutate(key, additions, KeyColumnValueStore.NO_DELETIONS, tx);
+        KeySliceQuery all = new KeySliceQuery(key, column(0, 0), SliceQuery.pointRange(UPPER_BOUND));
+        int compactBytes = 0, standardBytes = 0;
+        for (Entry entry : raw.getSlice(all, tx)) compactBytes += entry.getColumn().length() + entry.getValue().length();
+        for (Entry entry : standard.getSlice(all, tx)) standardBytes += entry.getColumn().length() + entry.getValue().length();
+        assertTrue(compactBytes + " vs " + standardBytes, 2 * compactBytes < standardBytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnBeyondUpperBound() throws StorageException {
+        store.mutate(key(1), ImmutableList.of(StaticBufferEntry.of(UPPER_BOUND, UPPER_BOUND)), KeyColumnValueStore.NO_DELETIONS, tx);
+    }
+
+    private static List<Entry> slice(TreeMap<StaticBuffer, StaticBuffer> row, StaticBuffer start, StaticBuffer end, int limit) {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Map.Entry<StaticBuffer, StaticBuffer> entry : row.subMap(start, end).entrySet()) {
+            if (result.size() >= limit) break;
+            result.add(StaticBufferEntry.of(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    private static void assertEntries(List<Entry> expected, List<Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getColumn(), actual.get(i).getColumn());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+        }
+    }
+
+    private static StaticBuffer key(int value) {
+        return new StaticArrayBuffer(new byte[]{0, 0, 0, (byte) value});
+    }
+
+    /**
+     * Mimics the columns of the edge store, i.e. a type prefix followed by an id
+     */
+    private static StaticBuffer column(int type, long id) {
+        byte[] b = new byte[9];
+        b[0] = (byte) type;
+        for (int i = 0; i < 8; i++) b[1 + i] = (byte) (id >>> (8 * (7 - i)));
+        return new StaticArrayBuffer(b);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.BackendCompression;
+import com.thinkaurelius.titan.diskstorage.util.DeflateCompression;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedKeyColumnValueStoreTest {
+
+    private static final Random random = new Random();
+
+    private static final int THRESHOLD = 64;
+
+    @Test
+    public void testDeflateRoundTrip() {
+        BackendCompression compression = new DeflateCompression();
+        for (int length : new int[]{0, 1, 10, 100, 1000, 100000}) {
+            StaticBuffer repetitive = repetitive(length), noise = noise(length);
+            assertEquals(repetitive, compression.decompress(compression.compress(repetitive)));
+            assertEquals(noise, compression.decompress(compression.compress(noise)));
+            assertEquals(compression.compress(repetitive), compression.compress(repetitive));
+        }
+        assertTrue(compression.compress(repetitive(1000)).length() < 100);
+    }
+
+    @Test
+    public void testMarker() throws StorageException {
+        CompressedKeyColumnValueStore store = new CompressedKeyColumnValueStore(new InMemoryStoreManager().openDatabase("test"),
+                new DeflateCompression(), THRESHOLD);
+        StaticBuffer small = repetitive(THRESHOLD - 1), large = repetitive(10 * THRESHOLD), noise = noise(10 * THRESHOLD);
+        //Uncompressed values are stored as is
+        assertEquals(small, store.encode(small));
+        assertEquals(CompressedKeyColumnValueStore.MARKER, store.encode(large).getByte(0));
+        assertEquals(CompressedKeyColumnValueStore.COMPRESSED, store.encode(large).getByte(1));
+        assertTrue(store.encode(large).length() < large.length());
+        //Incompressible values are stored as is
+        noise = withFirstByte(noise, (byte) 0);
+        assertEquals(noise, store.encode(noise));
+        //Uncompressed values which start with the marker byte are escaped
+        StaticBuffer escaped = withFirstByte(small, CompressedKeyColumnValueStore.MARKER);
+        assertEquals(CompressedKeyColumnValueStore.MARKER, store.encode(escaped).getByte(0));
+        assertEquals(CompressedKeyColumnValueStore.UNCOMPRESSED, store.encode(escaped).getByte(1));
+        assertEquals(escaped.length() + 2, store.encode(escaped).length());
+        StaticBuffer marker = new StaticArrayBuffer(new byte[]{CompressedKeyColumnValueStore.MARKER});
+        for (StaticBuffer value : new StaticBuffer[]{small, large, noise, escaped, marker, repetitive(0)}) {
+            assertEquals(value, store.decode(store.encode(value)));
+        }
+        assertNull(store.decode(store.encode(null)));
+    }
+
+    @Test
+    public void testMixedValues() throws StorageException {
+        InMemoryStoreManager manager = new InMemoryStoreManager();
+        StoreTransaction tx = manager.beginTransaction(new StoreTxConfig());
+        KeyColumnValueStore raw = manager.openDatabase("test");
+        StaticBuffer key = buffer(1);
+        //Values written with a lower threshold remain readable after the threshold was raised
+        new CompressedKeyColumnValueStore(raw, new DeflateCompression(), 0).mutate(key,
+                ImmutableList.of(StaticBufferEntry.of(buffer(1), repetitive(2 * THRESHOLD))), KeyColumnValueStore.NO_DELETIONS, tx);
+        KeyColumnValueStore store = new CompressedKeyColumnValueStore(raw, new DeflateCompression(), 4 * THRESHOLD);
+        store.mutate(key, ImmutableList.of(StaticBufferEntry.of(buffer(2), repetitive(2 * THRESHOLD)),
+                StaticBufferEntry.of(buffer(3), withFirstByte(noise(8 * THRESHOLD), (byte) 0)), StaticBufferEntry.of(buffer(4), repetitive(8 * THRESHOLD))),
+                KeyColumnValueStore.NO_DELETIONS, tx);
+
+        List<Entry> stored = raw.getSlice(new KeySliceQuery(key, buffer(0), buffer(5)), tx);
+        assertEquals(4, stored.size());
+        assertEquals(CompressedKeyColumnValueStore.COMPRESSED, stored.get(0).getValue().getByte(1));
+        assertEquals(repetitive(2 * THRESHOLD), stored.get(1).getValue());
+        assertEquals(8 * THRESHOLD, stored.get(2).getValue().length());
+        assertEquals(CompressedKeyColumnValueStore.COMPRESSED, stored.get(3).getValue().getByte(1));
+
+        List<Entry> entries = store.getSlice(new KeySliceQuery(key, buffer(0), buffer(5)), tx);
+        assertEquals(4, entries.size());
+        assertEquals(repetitive(2 * THRESHOLD), entries.get(0).getValue());
+        assertEquals(repetitive(2 * THRESHOLD), entries.get(1).getValue());
+        assertEquals(8 * THRESHOLD, entries.get(2).getValue().length());
+        assertEquals(repetitive(8 * THRESHOLD), entries.get(3).getValue());
+
+        KeyIterator keys = store.getKeys(new SliceQuery(buffer(4), buffer(5)), tx);
+        assertTrue(keys.hasNext());
+        assertEquals(key, keys.next());
+        assertEquals(repetitive(8 * THRESHOLD), keys.getEntries().next().getValue());
+        tx.commit();
+    }
+
+    private static StaticBuffer buffer(int value) {
+        return new StaticArrayBuffer(new byte[]{(byte) value});
+    }
+
+    private static StaticBuffer repetitive(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) (i % 7);
+        return new StaticArrayBuffer(bytes);
+    }
+
+    private static StaticBuffer withFirstByte(StaticBuffer value, byte first) {
+        byte[] bytes = Arrays.copyOf(value.as(StaticBuffer.ARRAY_FACTORY), value.length());
+        bytes[0] = first;
+        return new StaticArrayBuffer(bytes);
+    }
+
+    private static StaticBuffer noise(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return new StaticArrayBuffer(bytes);
+    }
+
+}
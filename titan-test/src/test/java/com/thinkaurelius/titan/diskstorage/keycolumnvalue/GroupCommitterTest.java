@@ -0,0 +1,288 @@
+package com.thinkaurelius.titan.diskstorage.keycolumnvalue;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.PermanentStorageException;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.common.AbstractStoreTransaction;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitterTest {
+
+    private static final String STORE = "store";
+    private static final StaticBuffer HUB = buffer(0);
+    private static final int NUM_TX = 8;
+
+    private RecordingManager manager;
+    private KeyColumnValueStore store;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws StorageException {
+        manager = new RecordingManager();
+        store = manager.openDatabase(STORE);
+        executor = Executors.newFixedThreadPool(NUM_TX);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSingleTransaction() throws StorageException {
+        GroupCommitter committer = new GroupCommitter(manager, 0, TimeUnit.MILLISECONDS, 100, 1, 0);
+        StoreTransaction tx = newTx();
+        committer.mutateMany(mutation(HUB, 1), tx);
+        assertEquals(1, manager.batches.size());
+        assertSame(tx, manager.batches.get(0));
+        assertEquals(1, countColumns(HUB));
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        //The batch is persisted once it holds the mutations of all transactions
+        final GroupCommitter committer = new GroupCommitter(manager, 1, TimeUnit.MINUTES, NUM_TX, 1, 0);
+        List<Future<Boolean>> results = submit(committer, -1);
+        for (Future<Boolean> result : results) assertTrue(result.get(10, TimeUnit.SECONDS));
+        assertEquals(1, manager.batches.size());
+        assertEquals(NUM_TX, countColumns(HUB));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        //Transactions which miss the window are persisted in subsequent batches
+        GroupCommitter committer = new GroupCommitter(manager, 0, TimeUnit.MILLISECONDS, 1000, 1, 0);
+        for (int i = 1; i <= 3; i++) committer.mutateMany(mutation(HUB, i), newTx());
+        assertEquals(3, manager.batches.size());
+        assertEquals(3, countColumns(HUB));
+    }
+
+    @Test
+    public void testIndividualFailure() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(manager, 1, TimeUnit.MINUTES, NUM_TX, 1, 0);
+        int failing = 3;
+        List<Future<Boolean>> results = submit(committer, failing);
+        for (int i = 0; i < NUM_TX; i++) {
+            try {
+                assertTrue(results.get(i).get(10, TimeUnit.SECONDS));
+                assertTrue(i != failing);
+            } catch (ExecutionException e) {
+                assertEquals(failing, i);
+            }
+        }
+        //Shared batch plus one attempt per transaction
+        assertEquals(NUM_TX + 1, manager.batches.size());
+        assertEquals(NUM_TX - 1, countColumns(HUB));
+    }
+
+    @Test
+    public void testBufferTransactionWithLocks() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(manager, 1, TimeUnit.MINUTES, 2, 1, 0);
+        StoreTransaction storeTx = newTx();
+        BufferTransaction tx = new BufferTransaction(storeTx, manager, 10, 0, 1, 0, 8, false, null, 1, committer);
+        assertTrue(tx.isGroupCommit());
+        Future<Boolean> other = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                committer.mutateMany(mutation(HUB, 3), newTx());
+                return true;
+            }
+        });
+        tx.mutate(STORE, HUB, ImmutableList.of(entry(1)), ImmutableList.<StaticBuffer>of());
+        tx.flush();
+        assertTrue(other.get(10, TimeUnit.SECONDS));
+        //Persisted together with the other transaction through the group committer's own handle
+        assertEquals(1, manager.batches.size());
+        assertNotSame(storeTx, manager.batches.get(0));
+
+        tx.disableGroupCommit();
+        assertFalse(tx.isGroupCommit());
+        tx.mutate(STORE, HUB, ImmutableList.of(entry(2)), ImmutableList.<StaticBuffer>of());
+        tx.commit();
+        assertEquals(2, manager.batches.size());
+        assertSame(storeTx, manager.batches.get(1));
+        assertEquals(3, countColumns(HUB));
+    }
+
+    @Test
+    public void testTransactionalBackend() throws Exception {
+        final TransactionalManager txManager = new TransactionalManager();
+        KeyColumnValueStore txStore = txManager.openDatabase(STORE);
+        try {
+            new GroupCommitter(txManager, 1, TimeUnit.MINUTES, 2, 1, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        //Without group commit each transaction persists its mutations through its own store transaction
+        final BufferTransaction committed = new BufferTransaction(txManager.beginTransaction(new StoreTxConfig()),
+                txManager, 10, 0, 1, 0, 8, false, null, 1, null);
+        BufferTransaction rolledBack = new BufferTransaction(txManager.beginTransaction(new StoreTxConfig()),
+                txManager, 10, 0, 1, 0, 8, false, null, 1, null);
+        Future<Boolean> other = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                committed.mutate(STORE, HUB, ImmutableList.of(entry(1)), ImmutableList.<StaticBuffer>of());
+                committed.commit();
+                return true;
+            }
+        });
+        rolledBack.mutate(STORE, HUB, ImmutableList.of(entry(2)), ImmutableList.<StaticBuffer>of());
+        rolledBack.flush();
+        rolledBack.rollback();
+        assertTrue(other.get(10, TimeUnit.SECONDS));
+        List<Entry> entries = txStore.getSlice(new KeySliceQuery(HUB, ByteBufferUtil.zeroBuffer(1),
+                ByteBufferUtil.oneBuffer(1)), txManager.beginTransaction(new StoreTxConfig()));
+        assertEquals(1, entries.size());
+        assertEquals(buffer(1), entries.get(0).getColumn());
+    }
+
+    private List<Future<Boolean>> submit(final GroupCommitter committer, final int failing) {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(NUM_TX);
+        for (int i = 0; i < NUM_TX; i++) {
+            final int column = i + 1;
+            final boolean fail = i == failing;
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    StoreTransaction tx = newTx();
+                    if (fail) manager.failing = tx;
+                    committer.mutateMany(mutation(HUB, column), tx);
+                    return true;
+                }
+            }));
+        }
+        return results;
+    }
+
+    private StoreTransaction newTx() throws StorageException {
+        return manager.beginTransaction(new StoreTxConfig());
+    }
+
+    private int countColumns(StaticBuffer key) throws StorageException {
+        return store.getSlice(new KeySliceQuery(key, ByteBufferUtil.zeroBuffer(1), ByteBufferUtil.oneBuffer(1)), newTx()).size();
+    }
+
+    private static Map<String, Map<StaticBuffer, KCVMutation>> mutation(StaticBuffer key, int column) {
+        Map<StaticBuffer, KCVMutation> storeMutation = new HashMap<StaticBuffer, KCVMutation>();
+        storeMutation.put(key, new KCVMutation(new ArrayList<Entry>(ImmutableList.of(entry(column))),
+                new ArrayList<StaticBuffer>()));
+        Map<String, Map<StaticBuffer, KCVMutation>> mutations = new HashMap<String, Map<StaticBuffer, KCVMutation>>();
+        mutations.put(STORE, storeMutation);
+        return mutations;
+    }
+
+    private static StaticBuffer buffer(int value) {
+        return new StaticArrayBuffer(new byte[]{(byte) value});
+    }
+
+    private static Entry entry(int column) {
+        return StaticBufferEntry.of(buffer(column), buffer(0));
+    }
+
+    private static class RecordingManager extends InMemoryStoreManager {
+
+        private final StoreFeatures features;
+        private final List<StoreTransaction> batches = new ArrayList<StoreTransaction>();
+        private volatile StoreTransaction failing = null;
+
+        private RecordingManager() {
+            features = super.getFeatures().clone();
+            features.supportsBatchMutation = true;
+        }
+
+        @Override
+        public StoreFeatures getFeatures() {
+            return features;
+        }
+
+        @Override
+        public synchronized void mutateMany(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction txh) throws StorageException {
+            batches.add(txh);
+            //Fails any batch which contains the mutations of the failing transaction
+            if (failing != null && (txh == failing || mutations.get(STORE).get(HUB).getAdditions().size() > 1))
+                throw new PermanentStorageException("Failed batch");
+            super.mutateMany(mutations, txh);
+        }
+    }
+
+    /**
+     * Applies the mutations of a transaction only once it commits
+     */
+    private static class TransactionalManager extends InMemoryStoreManager {
+
+        private final StoreFeatures features;
+
+        private TransactionalManager() {
+            features = super.getFeatures().clone();
+            features.supportsBatchMutation = true;
+            features.supportsTransactions = true;
+        }
+
+        @Override
+        public StoreFeatures getFeatures() {
+            return features;
+        }
+
+        @Override
+        public StoreTransaction beginTransaction(StoreTxConfig config) {
+            return new StagingTransaction(config);
+        }
+
+        @Override
+        public void mutateMany(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction txh) {
+            //Copy the mutations since the caller may reuse them once they have been persisted
+            Map<String, Map<StaticBuffer, KCVMutation>> copy = new HashMap<String, Map<StaticBuffer, KCVMutation>>();
+            for (Map.Entry<String, Map<StaticBuffer, KCVMutation>> storeMutation : mutations.entrySet()) {
+                Map<StaticBuffer, KCVMutation> storeCopy = new HashMap<StaticBuffer, KCVMutation>();
+                for (Map.Entry<StaticBuffer, KCVMutation> keyMutation : storeMutation.getValue().entrySet()) {
+                    storeCopy.put(keyMutation.getKey(), new KCVMutation(new ArrayList<Entry>(keyMutation.getValue().getAdditions()),
+                            new ArrayList<StaticBuffer>(keyMutation.getValue().getDeletions())));
+                }
+                copy.put(storeMutation.getKey(), storeCopy);
+            }
+            ((StagingTransaction) txh).staged.add(copy);
+        }
+
+        private class StagingTransaction extends AbstractStoreTransaction {
+
+            private final List<Map<String, Map<StaticBuffer, KCVMutation>>> staged =
+                    new ArrayList<Map<String, Map<StaticBuffer, KCVMutation>>>();
+
+            private StagingTransaction(StoreTxConfig config) {
+                super(config);
+            }
+
+            @Override
+            public void commit() throws StorageException {
+                for (Map<String, Map<StaticBuffer, KCVMutation>> mutations : staged)
+                    TransactionalManager.super.mutateMany(mutations, this);
+                staged.clear();
+            }
+
+            @Override
+            public void rollback() {
+                staged.clear();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.thinkaurelius.titan.diskstorage.locking;
+
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.StorageException;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.*;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.inmemory.InMemoryStoreManager;
+import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ConsistentKeyLockerSerializer;
+import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ConsistentKeyLocker;
+import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
+import com.thinkaurelius.titan.diskstorage.util.KeyColumn;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the batched mode of {@link ConsistentKeyLocker} against the in-memory store.
+ */
+public class ConsistentKeyLockerBatchTest {
+
+    private static final int NUM_LOCKS = 50;
+    private static final String LOCK_STORE = "test_lock_";
+
+    private final ConsistentKeyLockerSerializer codec = new ConsistentKeyLockerSerializer();
+
+    private RecordingManager manager;
+    private KeyColumnValueStore lockStore;
+
+    @Before
+    public void setUp() throws StorageException {
+        manager = new RecordingManager();
+        lockStore = new RecordingStore(manager.openDatabase(LOCK_STORE), manager);
+    }
+
+    private ConsistentKeyLocker openLocker(String mediator, byte rid) {
+        return new ConsistentKeyLocker.Builder(lockStore)
+                .mediatorName(mediator)
+                .rid(new StaticArrayBuffer(new byte[]{rid}))
+                .lockWaitNS(10, TimeUnit.MILLISECONDS)
+                .batchManager(manager).build();
+    }
+
+    private StoreTransaction newTx() throws StorageException {
+        return manager.beginTransaction(new StoreTxConfig(ConsistencyLevel.KEY_CONSISTENT));
+    }
+
+    private static KeyColumn lockID(int i) {
+        return new KeyColumn(ByteBufferUtil.getIntBuffer(i), ByteBufferUtil.getIntBuffer(i + 1));
+    }
+
+    @Test
+    public void testBatchedWriteAndCheck() throws StorageException {
+        ConsistentKeyLocker locker = openLocker("batch-simple", (byte) 1);
+        StoreTransaction tx = newTx();
+        for (int i = 0; i < NUM_LOCKS; i++) locker.writeLock(lockID(i), tx);
+        //Claims are deferred until the locks are checked
+        assertEquals(0, manager.mutateManyCalls);
+        assertEquals(0, countClaims(NUM_LOCKS));
+
+        locker.checkLocks(tx);
+        assertEquals(1, manager.mutateManyCalls);
+        assertEquals(1, manager.multiSliceCalls);
+        assertEquals(NUM_LOCKS, countClaims(NUM_LOCKS));
+
+        //Checking again neither writes nor reads
+        locker.checkLocks(tx);
+        assertEquals(1, manager.mutateManyCalls);
+        assertEquals(1, manager.multiSliceCalls);
+
+        locker.deleteLocks(tx);
+        assertEquals(0, countClaims(NUM_LOCKS));
+    }
+
+    @Test
+    public void testBatchedContention() throws StorageException {
+        ConsistentKeyLocker locker1 = openLocker("batch-contention-1", (byte) 1);
+        ConsistentKeyLocker locker2 = openLocker("batch-contention-2", (byte) 2);
+        StoreTransaction tx1 = newTx(), tx2 = newTx();
+        for (int i = 0; i < NUM_LOCKS; i++) locker1.writeLock(lockID(i), tx1);
+        locker2.writeLock(lockID(NUM_LOCKS + 1), tx2);
+        locker2.writeLock(lockID(NUM_LOCKS / 2), tx2);
+        locker1.checkLocks(tx1);
+        try {
+            locker2.checkLocks(tx2);
+            fail();
+        } catch (TemporaryLockingException e) {
+        }
+        locker2.deleteLocks(tx2);
+        locker1.deleteLocks(tx1);
+        assertEquals(0, countClaims(NUM_LOCKS + 2));
+    }
+
+    @Test
+    public void testUncheckedLocksAreNotWritten() throws StorageException {
+        ConsistentKeyLocker locker = openLocker("batch-unchecked", (byte) 1);
+        StoreTransaction tx = newTx();
+        for (int i = 0; i < NUM_LOCKS; i++) locker.writeLock(lockID(i), tx);
+        locker.deleteLocks(tx);
+        assertEquals(0, manager.mutateManyCalls);
+        assertEquals(0, manager.mutateCalls);
+    }
+
+    private int countClaims(int numLocks) throws StorageException {
+        StoreTransaction tx = newTx();
+        int claims = 0;
+        for (int i = 0; i < numLocks; i++) {
+            KeyColumn kc = lockID(i);
+            claims += lockStore.getSlice(new KeySliceQuery(codec.toLockKey(kc.getKey(), kc.getColumn()),
+                    ByteBufferUtil.zeroBuffer(9), ByteBufferUtil.oneBuffer(9)), tx).size();
+        }
+        tx.commit();
+        return claims;
+    }
+
+    private static class RecordingManager extends InMemoryStoreManager {
+
+        private final StoreFeatures features;
+        private int mutateManyCalls = 0;
+        private int mutateCalls = 0;
+        private int multiSliceCalls = 0;
+
+        private RecordingManager() {
+            features = super.getFeatures().clone();
+            features.supportsBatchMutation = true;
+            features.supportsMultiQuery = true;
+        }
+
+        @Override
+        public StoreFeatures getFeatures() {
+            return features;
+        }
+
+        @Override
+        public void mutateMany(Map<String, Map<StaticBuffer, KCVMutation>> mutations, StoreTransaction txh) throws StorageException {
+            mutateManyCalls++;
+            super.mutateMany(mutations, txh);
+        }
+    }
+
+    private static class RecordingStore extends ReadOnlyKeyColumnValueStore {
+
+        private final RecordingManager manager;
+
+        private RecordingStore(KeyColumnValueStore store, RecordingManager manager) {
+            super(store);
+            this.manager = manager;
+        }
+
+        @Override
+        public void mutate(StaticBuffer key, List<Entry> additions, List<StaticBuffer> deletions, StoreTransaction txh) throws StorageException {
+            manager.mutateCalls++;
+            store.mutate(key, additions, deletions, txh);
+        }
+
+        @Override
+        public List<List<Entry>> getSlice(List<StaticBuffer> keys, SliceQuery query, StoreTransaction txh) throws StorageException {
+            manager.multiSliceCalls++;
+            List<List<Entry>> result = new ArrayList<List<Entry>>(keys.size());
+            for (StaticBuffer key : keys) result.add(store.getSlice(new KeySliceQuery(key, query), txh));
+            return result;
+        }
+    }
+
+}
@@ -966,7 +966,8 @@ public class ConsistentKeyLockerTest {
 
     private void recordSuccessfulLocalLock(StoreTransaction tx) {
         expect(times.getApproxNSSinceEpoch()).andReturn(++currentTimeNS);
-        expect(mediator.lock(defaultLockID, tx, currentTimeNS + defaultExpireNS, TimeUnit.NANOSECONDS)).andReturn(true);
+        expect(mediator.lock(defaultLockID, tx, currentTimeNS + defaultExpireNS, TimeUnit.NANOSECONDS,
+                tx.getConfiguration().getMetricsPrefix())).andReturn(true);
     }
 
     private void recordSuccessfulLocalLock(long ts) {
@@ -974,7 +975,8 @@ public class ConsistentKeyLockerTest {
     }
 
     private void recordSuccessfulLocalLock(StoreTransaction tx, long ts) {
-        expect(mediator.lock(defaultLockID, tx, ts + defaultExpireNS, TimeUnit.NANOSECONDS)).andReturn(true);
+        expect(mediator.lock(defaultLockID, tx, ts + defaultExpireNS, TimeUnit.NANOSECONDS,
+                tx.getConfiguration().getMetricsPrefix())).andReturn(true);
     }
 
     private void recordFailedLocalLock() {
@@ -983,7 +985,8 @@ public class ConsistentKeyLockerTest {
 
     private void recordFailedLocalLock(StoreTransaction tx) {
         expect(times.getApproxNSSinceEpoch()).andReturn(++currentTimeNS);
-        expect(mediator.lock(defaultLockID, tx, currentTimeNS + defaultExpireNS, TimeUnit.NANOSECONDS)).andReturn(false);
+        expect(mediator.lock(defaultLockID, tx, currentTimeNS + defaultExpireNS, TimeUnit.NANOSECONDS,
+                tx.getConfiguration().getMetricsPrefix())).andReturn(false);
     }
 
     private void recordSuccessfulLocalUnlock() {
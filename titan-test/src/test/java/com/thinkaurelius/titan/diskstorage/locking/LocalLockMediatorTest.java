@@ -5,9 +5,13 @@ import com.thinkaurelius.titan.diskstorage.locking.consistentkey.ExpectedValueCh
 import com.thinkaurelius.titan.diskstorage.util.KeyColumn;
 import com.thinkaurelius.titan.diskstorage.util.StaticByteBuffer;
 
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.util.ByteBufferUtil;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertFalse;
@@ -38,4 +42,144 @@ public class LocalLockMediatorTest {
         assertTrue(llm.lock(kc, mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
         assertFalse(llm.lock(kc, mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
     }
+
+    @Test
+    public void testUnlock() {
+        LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE);
+
+        assertFalse(llm.unlock(kc, mockTx1));
+        assertTrue(llm.lock(kc, mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        assertFalse(llm.unlock(kc, mockTx2));
+        assertTrue(llm.unlock(kc, mockTx1));
+        assertFalse(llm.unlock(kc, mockTx1));
+        assertTrue(llm.lock(kc, mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testManyLocks() {
+        //A single stripe forces collisions, growth and removals within one table
+        LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE, 1);
+        final int numLocks = 1000;
+
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.lock(kc(i), i % 2 == 0 ? mockTx1 : mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertFalse(llm.lock(kc(i), i % 2 == 0 ? mockTx2 : mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i += 2) {
+            assertTrue(llm.unlock(kc(i), mockTx1));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            if (i % 2 == 0) assertTrue(llm.lock(kc(i), mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+            else assertFalse(llm.lock(kc(i), mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.unlock(kc(i), mockTx2));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertFalse(llm.unlock(kc(i), mockTx2));
+        }
+    }
+
+    @Test
+    public void testExpiredLocksAreDiscarded() {
+        LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE, 1);
+        final int numLocks = 1000;
+
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.lock(kc(i), mockTx1, 0, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.lock(kc(numLocks + i), mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.lock(kc(i), mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Test
+    public void testUnlockExpiredLocks() {
+        LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE, 1);
+        final int numLocks = 1000;
+
+        //The stripe grows repeatedly while holding expired locks
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.lock(kc(i), mockTx1, 0, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < numLocks; i++) {
+            assertTrue(llm.unlock(kc(i), mockTx1));
+        }
+    }
+
+    @Test
+    public void testLockAll() {
+        LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE, 4);
+        List<KeyColumn> first = new ArrayList<KeyColumn>(), second = new ArrayList<KeyColumn>();
+        for (int i = 0; i < 100; i++) {
+            first.add(kc(i));
+            second.add(kc(i + 99));
+        }
+
+        assertTrue(llm.lockAll(first, mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        //Overlaps in a single lock, hence none of the locks is acquired
+        assertFalse(llm.lockAll(second, mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        assertTrue(llm.lock(kc(150), mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        assertTrue(llm.unlock(kc(150), mockTx1));
+        //Relocking updates the expiration time
+        assertTrue(llm.lockAll(first, mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        assertTrue(llm.lockAll(ImmutableList.<KeyColumn>of(), mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+
+        assertTrue(llm.unlock(kc(99), mockTx1));
+        assertTrue(llm.lockAll(second, mockTx2, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+        for (KeyColumn kc : first.subList(0, 99)) assertTrue(llm.unlock(kc, mockTx1));
+        for (KeyColumn kc : second) assertTrue(llm.unlock(kc, mockTx2));
+    }
+
+    @Test
+    public void testConcurrentLockAll() throws InterruptedException {
+        final LocalLockMediator<ExpectedValueCheckingTransaction> llm =
+                new LocalLockMediator<ExpectedValueCheckingTransaction>(LOCK_NAMESPACE, 8);
+        final int numThreads = 8, numIterations = 2000;
+        final int[] counter = new int[1];
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final ExpectedValueCheckingTransaction tx = mock(ExpectedValueCheckingTransaction.class);
+            //Each thread locks two of three shared columns in opposite orders
+            final List<KeyColumn> kcs = t % 2 == 0 ? ImmutableList.of(kc(1), kc(2), kc(3)) : ImmutableList.of(kc(3), kc(2), kc(1));
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < numIterations; i++) {
+                            if (llm.lockAll(kcs, tx, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                                //Holding all locks grants exclusive access
+                                int value = counter[0];
+                                counter[0] = value + 1;
+                                for (KeyColumn kc : kcs) assertTrue(llm.unlock(kc, tx));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (int i = 1; i <= 3; i++) assertTrue(llm.lock(kc(i), mockTx1, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+    }
+
+    private static KeyColumn kc(int i) {
+        return new KeyColumn(ByteBufferUtil.getIntBuffer(i), ByteBufferUtil.getIntBuffer(i % 7));
+    }
 }
@@ -0,0 +1,196 @@
+package com.thinkaurelius.titan.graphdb.database.cache;
+
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import com.thinkaurelius.titan.graphdb.database.idhandling.IDHandler;
+import com.thinkaurelius.titan.graphdb.internal.RelationType;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExpirationStoreCacheTest {
+
+    private static final int ROW_SIZE = 100;
+    private static final byte PREFIX = IDHandler.getBounds(RelationType.RELATION)[0].getByte(0);
+
+    private ExpirationStoreCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) cache.close();
+    }
+
+    @Test
+    public void testSubsliceFromCachedSlice() {
+        cache = new ExpirationStoreCache(100000, 0, 10 * 1024 * 1024);
+        RowTransaction tx = new RowTransaction();
+        StaticBuffer key = key(1);
+
+        List<Entry> wide = cache.query(new KeySliceQuery(key, slice(10, 90)), tx);
+        assertEquals(80, wide.size());
+        assertEquals(1, tx.reads);
+
+        List<Entry> narrow = cache.query(new KeySliceQuery(key, slice(20, 30)), tx);
+        assertEquals(1, tx.reads);
+        assertEquals(tx.query(new KeySliceQuery(key, slice(20, 30))), narrow);
+
+        List<Entry> limited = cache.query(new KeySliceQuery(key, slice(50, 90)).setLimit(5), tx);
+        assertEquals(1, tx.reads);
+        assertEquals(5, limited.size());
+        assertEquals(column(50), limited.get(0).getColumn());
+
+        //Not contained in cached slice
+        cache.query(new KeySliceQuery(key, slice(5, 30)), tx);
+        assertEquals(2, tx.reads);
+        //Different key
+        cache.query(new KeySliceQuery(key(2), slice(20, 30)), tx);
+        assertEquals(3, tx.reads);
+
+        //Invalidation also applies to derived slices
+        cache.invalidate(key);
+        cache.query(new KeySliceQuery(key, slice(20, 30)), tx);
+        assertEquals(4, tx.reads);
+    }
+
+    @Test
+    public void testLimitedSliceWithCompleteResult() {
+        cache = new ExpirationStoreCache(100000, 0, 10 * 1024 * 1024);
+        RowTransaction tx = new RowTransaction();
+        StaticBuffer key = key(1);
+
+        //Limit is not reached so the result is complete
+        cache.query(new KeySliceQuery(key, slice(10, 20)).setLimit(50), tx);
+        assertEquals(1, tx.reads);
+        List<Entry> result = cache.query(new KeySliceQuery(key, slice(12, 15)), tx);
+        assertEquals(1, tx.reads);
+        assertEquals(3, result.size());
+
+        //Limit is reached so only queries with the same start can be answered
+        cache.query(new KeySliceQuery(key, slice(30, 90)).setLimit(5), tx);
+        assertEquals(2, tx.reads);
+        cache.query(new KeySliceQuery(key, slice(30, 90)).setLimit(3), tx);
+        assertEquals(2, tx.reads);
+        cache.query(new KeySliceQuery(key, slice(31, 90)).setLimit(3), tx);
+        assertEquals(3, tx.reads);
+    }
+
+    @Test
+    public void testFullRowPromotion() {
+        cache = new ExpirationStoreCache(100000, 0, 10 * 1024 * 1024, 3);
+        RowTransaction tx = new RowTransaction();
+        StaticBuffer key = key(1);
+
+        cache.query(new KeySliceQuery(key, slice(0, 10)), tx);
+        cache.query(new KeySliceQuery(key, slice(10, 20)), tx);
+        assertEquals(2, tx.reads);
+        //Third miss loads the entire row
+        List<Entry> result = cache.query(new KeySliceQuery(key, slice(20, 30)), tx);
+        assertEquals(3, tx.reads);
+        assertEquals(10, result.size());
+        assertEquals(column(20), result.get(0).getColumn());
+        for (int i = 0; i < ROW_SIZE; i += 10) {
+            assertEquals(10, cache.query(new KeySliceQuery(key, slice(i, i + 10)), tx).size());
+        }
+        assertEquals(3, tx.reads);
+    }
+
+    @Test
+    public void testConcurrentInvalidation() throws InterruptedException {
+        //A small cache forces evictions in addition to the invalidations
+        cache = new ExpirationStoreCache(100000, 0, 16 * 1024);
+        final Set<StaticBuffer> keys = new HashSet<StaticBuffer>();
+        for (int i = 0; i < 8; i++) keys.add(key(i));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    RowTransaction tx = new RowTransaction();
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            StaticBuffer key = key(random.nextInt(keys.size()));
+                            if (random.nextInt(10) == 0) {
+                                cache.invalidateCached(ImmutableSet.of(key));
+                            } else {
+                                int start = random.nextInt(ROW_SIZE - 10);
+                                assertEquals(10, cache.query(new KeySliceQuery(key, slice(start, start + 10)), tx).size());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        //No registration may outlive its cached slice
+        cache.invalidateCached(keys);
+        assertEquals(0, cache.getNumRegisteredSlices());
+    }
+
+    private static StaticBuffer key(int id) {
+        return new StaticArrayBuffer(new byte[]{0, 0, 0, 0, 0, 0, 0, (byte) id});
+    }
+
+    private static StaticBuffer column(int pos) {
+        return new StaticArrayBuffer(new byte[]{PREFIX, (byte) pos});
+    }
+
+    private static SliceQuery slice(int start, int end) {
+        return new SliceQuery(column(start), column(end));
+    }
+
+    private static class RowTransaction extends BackendTransaction {
+
+        private final List<Entry> row;
+        private final SliceQuery fullRow;
+        private int reads = 0;
+
+        private RowTransaction() {
+            super(null, null, null, null, null, 1, 0, null, null);
+            row = new ArrayList<Entry>(ROW_SIZE);
+            for (int i = 0; i < ROW_SIZE; i++) {
+                row.add(StaticBufferEntry.of(column(i), new StaticArrayBuffer(new byte[]{(byte) i})));
+            }
+            StaticBuffer[] bounds = IDHandler.getBounds(RelationType.RELATION);
+            fullRow = new SliceQuery(bounds[0], bounds[1]);
+        }
+
+        private List<Entry> query(KeySliceQuery query) {
+            return query.getSubset(fullRow, row);
+        }
+
+        @Override
+        public List<Entry> edgeStoreQuery(KeySliceQuery query) {
+            reads++;
+            return query(query);
+        }
+
+        @Override
+        public List<List<Entry>> edgeStoreMultiQuery(List<StaticBuffer> keys, SliceQuery query) {
+            List<List<Entry>> results = new ArrayList<List<Entry>>(keys.size());
+            for (StaticBuffer key : keys) results.add(edgeStoreQuery(new KeySliceQuery(key, query)));
+            return results;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.thinkaurelius.titan.graphdb.database.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.diskstorage.BackendTransaction;
+import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.Entry;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.KeySliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.SliceQuery;
+import com.thinkaurelius.titan.diskstorage.keycolumnvalue.StaticBufferEntry;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OffHeapStoreCacheTest {
+
+    private static final SliceQuery SLICE = new SliceQuery(buffer(0), buffer(Integer.MAX_VALUE));
+
+    private OffHeapStoreCache cache;
+    private CountingTransaction tx;
+
+    @Before
+    public void setUp() {
+        cache = new OffHeapStoreCache(100000, 0, OffHeapStoreCache.MIN_SEGMENT_SIZE * 2);
+        tx = new CountingTransaction(10);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testHitReturnsIdenticalEntries() {
+        KeySliceQuery query = new KeySliceQuery(buffer(5), SLICE);
+        List<Entry> first = cache.query(query, tx);
+        assertEquals(1, tx.reads);
+        List<Entry> second = cache.query(query, tx);
+        assertEquals(1, tx.reads);
+        assertEntries(first, second);
+        assertEntries(tx.expected(5), second);
+        assertTrue(cache.getUsedBytes() > 0);
+    }
+
+    @Test
+    public void testInvalidation() {
+        KeySliceQuery query = new KeySliceQuery(buffer(7), SLICE);
+        cache.query(query, tx);
+        cache.invalidate(buffer(7));
+        cache.query(query, tx);
+        assertEquals(2, tx.reads);
+        //Other keys are unaffected
+        cache.query(new KeySliceQuery(buffer(8), SLICE), tx);
+        cache.query(new KeySliceQuery(buffer(8), SLICE), tx);
+        assertEquals(3, tx.reads);
+    }
+
+    @Test
+    public void testMultiQuery() {
+        cache.query(new KeySliceQuery(buffer(1), SLICE), tx);
+        List<StaticBuffer> keys = ImmutableList.of(buffer(1), buffer(2), buffer(3));
+        List<List<Entry>> results = cache.multiQuery(keys, SLICE, tx);
+        assertEquals(3, tx.reads);
+        for (int i = 0; i < keys.size(); i++) assertEntries(tx.expected(i + 1), results.get(i));
+        cache.multiQuery(keys, SLICE, tx);
+        assertEquals(3, tx.reads);
+    }
+
+    @Test
+    public void testEvictionBoundsMemory() {
+        tx = new CountingTransaction(200);
+        int numKeys = 1000;
+        for (int i = 0; i < numKeys; i++) {
+            List<Entry> result = cache.query(new KeySliceQuery(buffer(i), SLICE), tx);
+            assertEntries(tx.expected(i), result);
+            assertTrue(cache.getAllocatedBytes() <= OffHeapStoreCache.MIN_SEGMENT_SIZE * 2);
+            assertTrue(cache.getUsedBytes() <= cache.getAllocatedBytes());
+        }
+        assertEquals(numKeys, tx.reads);
+        //Earliest entries have been evicted, the last one is still cached
+        cache.query(new KeySliceQuery(buffer(0), SLICE), tx);
+        assertEquals(numKeys + 1, tx.reads);
+        cache.query(new KeySliceQuery(buffer(numKeys - 1), SLICE), tx);
+        assertEquals(numKeys + 1, tx.reads);
+    }
+
+    @Test
+    public void testConcurrentSegmentReuse() throws InterruptedException {
+        final CountingTransaction tx = new CountingTransaction(200);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            int key = random.nextInt(500);
+                            //Slices are never read from or written into reused segments
+                            assertEntries(tx.expected(key), cache.query(new KeySliceQuery(buffer(key), SLICE), tx));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(cache.getAllocatedBytes() <= OffHeapStoreCache.MIN_SEGMENT_SIZE * 2);
+    }
+
+    @Test
+    public void testOversizedSliceNotCached() {
+        //Each entry takes 16 bytes, which exceeds the size of a single segment
+        tx = new CountingTransaction(OffHeapStoreCache.MIN_SEGMENT_SIZE / 16 + 1);
+        KeySliceQuery query = new KeySliceQuery(buffer(3), SLICE);
+        assertEntries(tx.expected(3), cache.query(query, tx));
+        assertEntries(tx.expected(3), cache.query(query, tx));
+        assertEquals(2, tx.reads);
+        assertEquals(0, cache.getUsedBytes());
+        assertEquals(0, cache.getAllocatedBytes());
+    }
+
+    private static void assertEntries(List<Entry> expected, List<Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getColumn(), actual.get(i).getColumn());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+        }
+    }
+
+    private static StaticBuffer buffer(int value) {
+        byte[] b = new byte[4];
+        for (int i = 0; i < 4; i++) b[i] = (byte) (value >>> (8 * (3 - i)));
+        return new StaticArrayBuffer(b);
+    }
+
+    private static class CountingTransaction extends BackendTransaction {
+
+        private final int entriesPerKey;
+        private int reads = 0;
+
+        private CountingTransaction(int entriesPerKey) {
+            super(null, null, null, null, null, 1, 0, null, null);
+            this.entriesPerKey = entriesPerKey;
+        }
+
+        private List<Entry> expected(int key) {
+            List<Entry> entries = new ArrayList<Entry>(entriesPerKey);
+            for (int i = 0; i < entriesPerKey; i++) {
+                entries.add(StaticBufferEntry.of(buffer(i), buffer(key * 31 + i)));
+            }
+            return entries;
+        }
+
+        @Override
+        public List<Entry> edgeStoreQuery(KeySliceQuery query) {
+            reads++;
+            return expected(query.getKey().getInt(0));
+        }
+
+        @Override
+        public List<List<Entry>> edgeStoreMultiQuery(List<StaticBuffer> keys, SliceQuery query) {
+            List<List<Entry>> results = new ArrayList<List<Entry>>(keys.size());
+            for (StaticBuffer key : keys) results.add(edgeStoreQuery(new KeySliceQuery(key, query)));
+            return results;
+        }
+    }
+
+}
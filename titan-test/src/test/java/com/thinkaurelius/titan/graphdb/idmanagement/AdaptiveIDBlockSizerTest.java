@@ -0,0 +1,74 @@
+package com.thinkaurelius.titan.graphdb.idmanagement;
+
+import com.thinkaurelius.titan.graphdb.database.idassigner.AdaptiveIDBlockSizer;
+import com.thinkaurelius.titan.graphdb.database.idassigner.StandardIDPool;
+import com.thinkaurelius.titan.graphdb.database.idassigner.StaticIDBlockSizer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveIDBlockSizerTest {
+
+    @Test
+    public void testGrowAndShrink() {
+        MockTimeSizer sizer = new MockTimeSizer(new StaticIDBlockSizer(1000, Integer.MAX_VALUE), 1000, 8);
+        assertEquals(1000, sizer.getBlockSize(1));
+        //Fast consumption grows the block size up to the bound
+        long[] expected = {2000, 4000, 8000, 8000};
+        for (long size : expected) {
+            sizer.time += 100;
+            assertEquals(size, sizer.getBlockSize(1));
+        }
+        //Other partitions are unaffected
+        assertEquals(1000, sizer.getBlockSize(2));
+        //Steady consumption keeps the size
+        sizer.time += 1000;
+        assertEquals(8000, sizer.getBlockSize(1));
+        //Slow consumption shrinks the block size down to the bound
+        expected = new long[]{4000, 2000, 1000, 500, 250, 125, 125};
+        for (long size : expected) {
+            sizer.time += 10000;
+            assertEquals(size, sizer.getBlockSize(1));
+        }
+    }
+
+    @Test
+    public void testUpperBound() {
+        MockTimeSizer sizer = new MockTimeSizer(new StaticIDBlockSizer(1000, 1000 * 1024 * 4), 1000, 100);
+        for (int i = 0; i < 10; i++) {
+            sizer.time += 1;
+            assertTrue(sizer.getBlockSize(1) <= 4000);
+        }
+        assertEquals(4000, sizer.getBlockSize(1));
+    }
+
+    @Test
+    public void testWithIDPool() throws Exception {
+        MockIDAuthority idauth = new MockIDAuthority();
+        idauth.setIDBlockSizer(new AdaptiveIDBlockSizer(new StaticIDBlockSizer(100, Integer.MAX_VALUE), 60000, 16));
+        long wasted = StandardIDPool.getWastedIDCount();
+        StandardIDPool pool = new StandardIDPool(idauth, 0, Integer.MAX_VALUE, 2000, 0.2);
+        for (int i = 1; i <= 10000; i++) assertEquals(i, pool.nextID());
+        pool.close();
+        //Blocks are requested in rapid succession, hence the final block is at the upper bound
+        long[] block = idauth.getIDBlock(0);
+        assertEquals(1600, block[1] - block[0]);
+        assertTrue(StandardIDPool.getWastedIDCount() > wasted);
+    }
+
+    private static class MockTimeSizer extends AdaptiveIDBlockSizer {
+
+        private long time = 0;
+
+        private MockTimeSizer(StaticIDBlockSizer baseSizer, long targetIntervalMS, int factor) {
+            super(baseSizer, targetIntervalMS, factor);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
+}
@@ -101,6 +101,59 @@ public class IDPoolTest {
         }
     }
 
+    @Test
+    public void testConcurrentIDPool() throws InterruptedException {
+        final MockIDAuthority idauth = new MockIDAuthority(500);
+        final StandardIDPool pool = new StandardIDPool(idauth, 0, Integer.MAX_VALUE, 2000, 0.2);
+        final int numThreads = 16;
+        final int attemptsPerThread = 20000;
+        final IntSet ids = new IntHashSet(numThreads * attemptsPerThread);
+        final int[] failures = new int[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int[] local = new int[attemptsPerThread];
+                    for (int attempt = 0; attempt < attemptsPerThread; attempt++) {
+                        local[attempt] = (int) pool.nextID();
+                    }
+                    synchronized (ids) {
+                        for (int id : local) {
+                            if (ids.contains(id)) failures[0]++;
+                            ids.add(id);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < numThreads; i++) threads[i].join();
+        pool.close();
+        assertEquals(0, failures[0]);
+        assertEquals(numThreads * attemptsPerThread, ids.size());
+    }
+
+    @Test
+    public void testWastedIDs() throws InterruptedException {
+        final MockIDAuthority idauth = new MockIDAuthority(1000);
+        final StandardIDPool pool = new StandardIDPool(idauth, 0, Integer.MAX_VALUE, 2000, 0.2);
+        long acquired = StandardIDPool.getAcquiredIDCount(), wasted = StandardIDPool.getWastedIDCount();
+        for (int i = 0; i < 3; i++) pool.nextID();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) pool.nextID();
+            }
+        });
+        thread.start();
+        thread.join();
+        pool.close();
+        //Both threads leased more ids than they used, the unused ids of their leases are wasted as well
+        assertEquals(1000, StandardIDPool.getAcquiredIDCount() - acquired);
+        assertEquals(1000 - 8, StandardIDPool.getWastedIDCount() - wasted);
+    }
+
     @Test
     public void testAllocationTimeout() {
         final MockIDAuthority idauth = new MockIDAuthority(10000);
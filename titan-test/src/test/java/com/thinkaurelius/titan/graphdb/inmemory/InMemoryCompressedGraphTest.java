@@ -0,0 +1,41 @@
+package com.thinkaurelius.titan.graphdb.inmemory;
+
+import com.thinkaurelius.titan.core.TitanKey;
+import com.thinkaurelius.titan.core.TitanVertex;
+import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the graph tests with compressed values in all stores.
+ */
+public class InMemoryCompressedGraphTest extends InMemoryGraphTest {
+
+    public InMemoryCompressedGraphTest() {
+        super(getCompressedConfiguration());
+    }
+
+    public static final Configuration getCompressedConfiguration() {
+        Configuration config = getConfiguration();
+        Configuration storage = config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE);
+        storage.setProperty(GraphDatabaseConfiguration.VALUE_COMPRESSION_KEY, "deflate");
+        storage.setProperty(GraphDatabaseConfiguration.VALUE_COMPRESSION_STORES_KEY, "edgestore,vertexindex,edgeindex");
+        storage.setProperty(GraphDatabaseConfiguration.VALUE_COMPRESSION_THRESHOLD_KEY, 0);
+        return config;
+    }
+
+    @Test
+    public void testLargeValues() {
+        TitanKey text = makeUnindexedStringPropertyKey("text");
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) value.append("value").append(i % 10);
+        TitanVertex v = tx.addVertex();
+        v.setProperty(text, value.toString());
+        clopen();
+        v = tx.getVertex(v.getID());
+        assertEquals(value.toString(), v.getProperty("text"));
+    }
+
+}
@@ -21,6 +21,10 @@ public class InMemoryGraphTest extends TitanGraphTest {
         super(getConfiguration());
     }
 
+    protected InMemoryGraphTest(Configuration config) {
+        super(config);
+    }
+
     public static final Configuration getConfiguration() {
         Configuration config = new BaseConfiguration();
         config.subset(GraphDatabaseConfiguration.STORAGE_NAMESPACE).setProperty(GraphDatabaseConfiguration.STORAGE_BACKEND_KEY,"inmemory");
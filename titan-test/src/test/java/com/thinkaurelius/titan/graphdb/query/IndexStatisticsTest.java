@@ -0,0 +1,96 @@
+package com.thinkaurelius.titan.graphdb.query;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.core.TitanElement;
+import com.thinkaurelius.titan.core.attribute.Cmp;
+import com.thinkaurelius.titan.core.attribute.Contain;
+import com.thinkaurelius.titan.core.attribute.Text;
+import com.thinkaurelius.titan.diskstorage.indexing.IndexQuery;
+import com.thinkaurelius.titan.graphdb.query.condition.And;
+import com.thinkaurelius.titan.graphdb.query.condition.Condition;
+import com.thinkaurelius.titan.graphdb.query.condition.Or;
+import com.thinkaurelius.titan.graphdb.query.condition.PredicateCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class IndexStatisticsTest {
+
+    @Test
+    public void testPredicateEstimates() {
+        assertEquals(IndexStatistics.EQUALITY_ESTIMATE, IndexStatistics.estimate(condition("name", Cmp.EQUAL, "a")), 0.0);
+        assertEquals(3 * IndexStatistics.EQUALITY_ESTIMATE,
+                IndexStatistics.estimate(condition("name", Contain.IN, ImmutableList.of("a", "b", "c"))), 0.0);
+        assertEquals(IndexStatistics.TEXT_ESTIMATE, IndexStatistics.estimate(condition("text", Text.CONTAINS, "a")), 0.0);
+        assertEquals(IndexStatistics.RANGE_ESTIMATE, IndexStatistics.estimate(condition("time", Cmp.GREATER_THAN, 5)), 0.0);
+        assertEquals(IndexStatistics.UNBOUNDED_ESTIMATE, IndexStatistics.estimate(condition("time", Cmp.NOT_EQUAL, 5)), 0.0);
+
+        Condition<TitanElement> and = And.of(condition("text", Text.CONTAINS, "a"), condition("name", Cmp.EQUAL, "a"));
+        assertEquals(IndexStatistics.EQUALITY_ESTIMATE, IndexStatistics.estimate(and), 0.0);
+        Condition<TitanElement> or = Or.of(condition("text", Text.CONTAINS, "a"), condition("name", Cmp.EQUAL, "a"));
+        assertEquals(IndexStatistics.TEXT_ESTIMATE + IndexStatistics.EQUALITY_ESTIMATE, IndexStatistics.estimate(or), 0.0);
+    }
+
+    @Test
+    public void testShape() {
+        IndexQuery q1 = new IndexQuery("vertex", And.of(condition("name", Cmp.EQUAL, "a"), condition("time", Cmp.GREATER_THAN, 5)));
+        IndexQuery q2 = new IndexQuery("vertex", And.of(condition("time", Cmp.GREATER_THAN, 10), condition("name", Cmp.EQUAL, "b")), 100);
+        IndexQuery q3 = new IndexQuery("vertex", And.of(condition("name", Cmp.EQUAL, "a"), condition("time", Cmp.LESS_THAN, 5)));
+        assertEquals(IndexStatistics.getShape("search", q1), IndexStatistics.getShape("search", q2));
+        assertFalse(IndexStatistics.getShape("search", q1).equals(IndexStatistics.getShape("search", q3)));
+        assertFalse(IndexStatistics.getShape("search", q1).equals(IndexStatistics.getShape("standard", q1)));
+    }
+
+    @Test
+    public void testRecordedEstimates() {
+        IndexStatistics statistics = new IndexStatistics();
+        Condition<TitanElement> condition = condition("name", Cmp.EQUAL, "a");
+        IndexQuery query = new IndexQuery("vertex", And.of(condition));
+        assertEquals(IndexStatistics.EQUALITY_ESTIMATE, statistics.estimate("search", query, condition), 0.0);
+
+        statistics.record("search", query.updateLimit(1000), 20);
+        assertEquals(20, statistics.estimate("search", query, condition), 0.0);
+        statistics.record("search", query.updateLimit(1000), 60);
+        assertEquals(30, statistics.estimate("search", query, condition), 0.0);
+        //Truncated results are lower bounds
+        statistics.record("search", query.updateLimit(10), 10);
+        assertEquals(30, statistics.estimate("search", query, condition), 0.0);
+        statistics.record("search", query.updateLimit(100), 100);
+        assertEquals(100, statistics.estimate("search", query, condition), 0.0);
+        //Other values of the same shape share the estimate
+        IndexQuery other = new IndexQuery("vertex", And.of(condition("name", Cmp.EQUAL, "b")));
+        assertEquals(100, statistics.estimate("search", other, condition), 0.0);
+    }
+
+    @Test
+    public void testValueListEstimates() {
+        IndexStatistics statistics = new IndexStatistics();
+        Condition<TitanElement> condition = condition("name", Cmp.EQUAL, "a");
+        IndexQuery query = new IndexQuery("vertex", And.of(condition));
+        Condition<TitanElement> in = Or.of(condition("name", Cmp.EQUAL, "a"), condition("name", Cmp.EQUAL, "b"),
+                condition("name", Cmp.EQUAL, "c"));
+        IndexQuery inQuery = new IndexQuery("vertex", And.of(in));
+        assertEquals(IndexStatistics.getShape("search", query), IndexStatistics.getShape("search", inQuery));
+        assertEquals(3, IndexStatistics.getMultiplicity(inQuery.getCondition()), 0.0);
+        assertEquals(3 * IndexStatistics.EQUALITY_ESTIMATE, statistics.estimate("search", inQuery, in), 0.0);
+
+        //Observations of value lists are recorded per value
+        statistics.record("search", inQuery.updateLimit(1000), 60);
+        assertEquals(20, statistics.estimate("search", query, condition), 0.0);
+        assertEquals(60, statistics.estimate("search", inQuery, in), 0.0);
+        IndexQuery listQuery = new IndexQuery("vertex", And.of(condition("name", Contain.IN, ImmutableList.of("a", "b"))));
+        assertEquals(40, statistics.estimate("search", listQuery, in), 0.0);
+
+        //Disjunctions over different keys are not value lists
+        Condition<TitanElement> or = Or.of(condition("name", Cmp.EQUAL, "a"), condition("city", Cmp.EQUAL, "b"));
+        IndexQuery orQuery = new IndexQuery("vertex", And.of(or));
+        assertFalse(IndexStatistics.getShape("search", query).equals(IndexStatistics.getShape("search", orQuery)));
+        assertEquals(1, IndexStatistics.getMultiplicity(orQuery.getCondition()), 0.0);
+    }
+
+    private static Condition<TitanElement> condition(String key, TitanPredicate predicate, Object value) {
+        return new PredicateCondition<String, TitanElement>(key, predicate, value);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.thinkaurelius.titan.graphdb.query;
+
+import com.google.common.collect.ImmutableList;
+import com.thinkaurelius.titan.core.TitanException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class QueryUtilTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testParallelIntersectingRetrievals() {
+        List<QueryUtil.IndexCall<Integer>> retrievals = ImmutableList.of(multiples(2, 1000), multiples(3, 1000), multiples(5, 1000));
+        List<Integer> sequential = QueryUtil.processIntersectingRetrievals(retrievals, 10);
+        List<Integer> parallel = QueryUtil.processIntersectingRetrievals(retrievals, 10, executor);
+        assertEquals(sequential, parallel);
+        assertTrue(parallel.size() >= 10);
+        for (int i = 0; i < parallel.size(); i++) assertEquals(30 * i, parallel.get(i).intValue());
+    }
+
+    @Test
+    public void testParallelRetrievalFailure() {
+        QueryUtil.IndexCall<Integer> failing = new QueryUtil.IndexCall<Integer>() {
+            @Override
+            public Collection<Integer> call(int limit) {
+                throw new IllegalStateException("failing retrieval");
+            }
+        };
+        try {
+            QueryUtil.processIntersectingRetrievals(ImmutableList.of(multiples(2, 100), failing), 10, executor);
+            fail();
+        } catch (TitanException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static QueryUtil.IndexCall<Integer> multiples(final int factor, final int max) {
+        return new QueryUtil.IndexCall<Integer>() {
+            @Override
+            public Collection<Integer> call(int limit) {
+                List<Integer> result = new ArrayList<Integer>();
+                for (int i = 0; i < max && result.size() < limit; i += factor) result.add(i);
+                return result;
+            }
+        };
+    }
+
+}
@@ -3,6 +3,7 @@ package com.thinkaurelius.titan.graphdb.serializer;
 
 import com.thinkaurelius.titan.diskstorage.ReadBuffer;
 import com.thinkaurelius.titan.diskstorage.StaticBuffer;
+import com.thinkaurelius.titan.diskstorage.util.StaticArrayBuffer;
 import com.thinkaurelius.titan.graphdb.configuration.GraphDatabaseConfiguration;
 import com.thinkaurelius.titan.graphdb.database.serialize.DataOutput;
 import com.thinkaurelius.titan.graphdb.database.serialize.Serializer;
@@ -101,6 +102,43 @@ public class SerializerTest {
     }
 
 
+    @Test
+    public void pooledOutput() {
+        for (int t = 0; t < 1000; t++) {
+            //Nested outputs must not share their buffer
+            DataOutput out1 = serialize.getPooledDataOutput(true);
+            DataOutput out2 = serialize.getPooledDataOutput(true);
+            String s1 = RandomGenerator.randomString(1, 32);
+            String s2 = RandomGenerator.randomString(100, 1000);
+            out1.writeObjectNotNull(s1);
+            out2.writeObjectNotNull(s2);
+            out1.putLong(t);
+            StaticBuffer b2 = out2.getStaticBuffer();
+            StaticBuffer b1 = out1.getStaticBufferFlipBytes(0, 1);
+
+            //Reusing the buffers must not affect previously retrieved bytes
+            DataOutput out3 = serialize.getPooledDataOutput(true);
+            out3.writeObjectNotNull(RandomGenerator.randomString(100, 1000));
+            out3.getStaticBuffer();
+
+            assertEquals(s2, serialize.readObjectNotNull(b2.asReadBuffer(), String.class));
+            byte[] bytes = b1.as(StaticBuffer.ARRAY_FACTORY);
+            bytes[0] = (byte) ~bytes[0];
+            ReadBuffer r1 = new StaticArrayBuffer(bytes).asReadBuffer();
+            assertEquals(s1, serialize.readObjectNotNull(r1, String.class));
+            assertEquals(t, r1.getLong());
+            assertFalse(r1.hasRemaining());
+        }
+        DataOutput out = serialize.getPooledDataOutput(false);
+        out.putInt(5);
+        out.getStaticBuffer();
+        try {
+            out.getStaticBuffer();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
     @Test
     public void classSerialization() {
         DataOutput out = serialize.getDataOutput(128, true);
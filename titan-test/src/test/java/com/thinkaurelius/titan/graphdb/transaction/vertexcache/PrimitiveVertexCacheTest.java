@@ -0,0 +1,138 @@
+package com.thinkaurelius.titan.graphdb.transaction.vertexcache;
+
+import com.thinkaurelius.titan.graphdb.internal.InternalVertex;
+import com.thinkaurelius.titan.util.datastructures.Retriever;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PrimitiveVertexCacheTest {
+
+    @Test
+    public void testEvictionBoundsSize() {
+        PrimitiveVertexCache cache = new PrimitiveVertexCache(100);
+        VertexRetriever retriever = new VertexRetriever();
+        for (long id = 1; id <= 1000; id++) {
+            InternalVertex vertex = cache.get(id, retriever);
+            assertSame(retriever.vertices.get(id), vertex);
+            //Keep accessing the first vertex so that it is never evicted
+            vertex = cache.get(1, retriever);
+            assertSame(retriever.vertices.get(1l), vertex);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(1000, retriever.retrievals);
+        assertTrue(cache.contains(1));
+        assertTrue(cache.contains(1000));
+        assertFalse(cache.contains(2));
+        cache.close();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRandomAccess() {
+        PrimitiveVertexCache cache = new PrimitiveVertexCache(500);
+        VertexRetriever retriever = new VertexRetriever();
+        Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            long id = random.nextInt(2000) + 1;
+            if (random.nextBoolean()) id = -id;
+            InternalVertex vertex = cache.get(id, retriever);
+            //The cache must never return a vertex other than the last one retrieved for the id
+            assertSame(retriever.vertices.get(id), vertex);
+        }
+        assertTrue(cache.size() <= 500);
+        assertTrue(retriever.retrievals < 50000);
+    }
+
+    @Test
+    public void testNewVerticesArePinned() {
+        PrimitiveVertexCache cache = new PrimitiveVertexCache(10);
+        VertexRetriever retriever = new VertexRetriever();
+        Set<InternalVertex> newVertices = new HashSet<InternalVertex>();
+        for (long id = 1; id <= 100; id++) {
+            InternalVertex vertex = mock(InternalVertex.class);
+            when(vertex.isNew()).thenReturn(true);
+            cache.add(vertex, -id);
+            newVertices.add(vertex);
+        }
+        for (long id = 1; id <= 100; id++) cache.get(id, retriever);
+        assertTrue(cache.size() <= 10);
+        assertEquals(newVertices, new HashSet<InternalVertex>(cache.getAllNew()));
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(cache.contains(-id));
+            assertTrue(newVertices.contains(cache.get(-id, retriever)));
+        }
+        assertEquals(100, retriever.retrievals);
+    }
+
+    @Test
+    public void testModifiedVerticesSurviveEviction() {
+        PrimitiveVertexCache cache = new PrimitiveVertexCache(10);
+        VertexRetriever retriever = new VertexRetriever();
+        InternalVertex modified = cache.get(1, retriever);
+        when(modified.hasAddedRelations()).thenReturn(true);
+        for (long id = 2; id <= 100; id++) cache.get(id, retriever);
+        assertSame(modified, cache.get(1, retriever));
+        assertEquals(100, retriever.retrievals);
+    }
+
+    @Test
+    public void testConcurrentSegments() throws Exception {
+        final PrimitiveVertexCache cache = new PrimitiveVertexCache(1024, 8);
+        final Map<InternalVertex, Long> ids = new ConcurrentHashMap<InternalVertex, Long>();
+        final Retriever<Long, InternalVertex> retriever = new Retriever<Long, InternalVertex>() {
+            @Override
+            public InternalVertex get(Long id) {
+                InternalVertex vertex = mock(InternalVertex.class);
+                ids.put(vertex, id);
+                return vertex;
+            }
+        };
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        long id = random.nextInt(5000) + 1;
+                        //Every returned vertex must have been retrieved for the requested id
+                        if (!Long.valueOf(id).equals(ids.get(cache.get(id, retriever)))) failed.set(true);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertFalse(failed.get());
+        assertTrue(cache.size() <= 1024);
+        cache.close();
+        assertEquals(0, cache.size());
+    }
+
+    private static class VertexRetriever implements Retriever<Long, InternalVertex> {
+
+        private final Map<Long, InternalVertex> vertices = new HashMap<Long, InternalVertex>();
+        private int retrievals = 0;
+
+        @Override
+        public InternalVertex get(Long id) {
+            retrievals++;
+            InternalVertex vertex = mock(InternalVertex.class);
+            vertices.put(id, vertex);
+            return vertex;
+        }
+    }
+
+}